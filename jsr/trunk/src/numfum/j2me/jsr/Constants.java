@@ -95,6 +95,15 @@ public interface Constants {
 	 */
 	public static final String FALLBACK_RENDER_DEFAULTS = "1000";
 	
+	/**
+	 *	When the render defaults are set (on the first run or when reset)
+	 *	time each renderer at startup and pick the best that keeps up,
+	 *	instead of using the defaults as-is. The result is stored, so this
+	 *	only happens once per device. Can be turned off with a jad entry of
+	 *	'Render-Probe: 0'.
+	 */
+	public static final boolean ENABLE_RENDER_PROBE = true;
+	
 	/************************************************************************/
 	
 	/**
@@ -131,6 +140,27 @@ public interface Constants {
 	 */
 	public static final boolean FORCE_DOUBLE_BUFFER = false;
 	
+	/**
+	 *	Scroll buffered backgrounds using a buffer that wraps in both
+	 *	directions, drawing only the newly exposed tiles. Avoids copying the
+	 *	buffer (and therefore the copyArea() test and any second buffer).
+	 *
+	 *	@see BufferedTiledLayer
+	 */
+	public static final boolean USE_RING_BUFFER = true;
+	
+	/**
+	 *	Paint each race frame while the game thread runs and renders the
+	 *	next, instead of waiting for the paint to finish. The renderer keeps
+	 *	two frame buffers and the screen's drawing calls (track and race
+	 *	chrome) are recorded as each frame is presented, so only the
+	 *	recording is played back whilst the next frame changes. Only used
+	 *	with renderers slow enough to gain from it (the mode-7 renderer).
+	 *
+	 *	@see TrackRenderer#present
+	 */
+	public static final boolean USE_PIPELINED_PAINT = true;
+	
 	/**
 	 *	Build the game with the 'composite' background renderer. The composite
 	 *	renderer composes multiple tilemaps together on one buffer.
@@ -3,12 +3,14 @@ package numfum.j2me.jsr;
 import java.io.*;
 import javax.microedition.lcdui.*;
 import javax.microedition.midlet.*;
-import javax.microedition.rms.*;
 
 import numfum.j2me.jsr.generic.AbstractCanvas;
 import numfum.j2me.jsr.generic.AnimTile;
+import numfum.j2me.jsr.generic.DisplayList;
+import numfum.j2me.jsr.generic.GraphicsTarget;
 import numfum.j2me.jsr.generic.Positionable;
 import numfum.j2me.jsr.generic.PositionableContainer;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.jsr.generic.SolidColour;
 import numfum.j2me.jsr.generic.SoundPlayer;
 import numfum.j2me.jsr.generic.bkgnd.BufferedTiledLayer;
@@ -31,6 +33,8 @@ import numfum.j2me.text.effect.AnimEffect;
 import numfum.j2me.text.effect.BlinkEffect;
 import numfum.j2me.text.effect.JumpEffect;
 import numfum.j2me.text.effect.TextEffect;
+import numfum.j2me.util.ByteDataInput;
+import numfum.j2me.util.PackedDataInput;
 import numfum.j2me.util.ByteUtils;
 import numfum.j2me.util.Fixed;
 import numfum.j2me.util.Joystick;
@@ -103,36 +107,32 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	private boolean running = true;
 	
 	/**
-	 *	Player's current joystick. The default is to record three minutes (a
-	 *	game usually lasts under two).
+	 *	Player's current joystick. Recordings are run-length encoded, the
+	 *	buffer growing if a race needs more than the default.
 	 */
-	private final Joystick joyPlayer = new Joystick(GHOST_SECONDS);
+	private final Joystick joyPlayer = new Joystick(GHOST_BUFFER_SIZE);
 	
 	/**
-	 *	The joystick used to drive the ghost karts. Each track can have a
-	 *	recording saved to the RecordStore, which is then loaded into the
-	 *	joystick's 'memory'.
+	 *	The joystick used to drive the ghost karts. Each track can have
+	 *	recordings saved in the ghost library, one of which is then loaded
+	 *	into the joystick's 'memory'.
 	 */
-	private final Joystick joyRecord = new Joystick(GHOST_SECONDS);
+	private final Joystick joyRecord = new Joystick(GHOST_BUFFER_SIZE);
 	
 	/**
-	 *	General purpose buffer where the game state can stored or manipulated.
-	 *
-	 *	The contents are:
-	 *		0: kart index
-	 *		1: number of laps recorded
-	 *		2: lap time as shorts * number of laps (2 * 3 ordinarily)
-	 *		8: joystick data (requires 2 bytes more than GHOST_SECONDS)
-	 *	
-	 *	TODO: change this to a more efficient RLE'd buffer for all recordings,
-	 *	loaded at startup and saved when quitting.
+	 *	Time trial ghosts for all the tracks.
+	 */
+	private GhostLibrary ghosts = null;
+	
+	/**
+	 *	Everything saved: preferences, progress, ghosts and replays.
 	 */
-	private final byte[] stateBuffer = new byte[4 + RaceCore.MAX_LAPS * 2 + GHOST_SECONDS];
+	private final PrefsStore store;
 	
 	/**
-	 *	Whether the ghost car is valid for each track.
+	 *	Whether the current time trial has a ghost to race against.
 	 */
-	private boolean[] validGhost = new boolean[TOTAL_TRACKS];
+	private boolean raceGhost = false;
 	
 	private static final int DEFAULT_SOFTKEY_CODE_L = -6;
 	private static final int DEFAULT_SOFTKEY_CODE_R = -7;
@@ -308,6 +308,23 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	private TrackRenderer track = null;
 	private RaceCore logic = null;
 	
+	/**
+	 *	Recently raced tracks, ready to race again without reloading.
+	 */
+	private TrackCache trackCache = null;
+	
+	/**
+	 *	Loads the track likely to be raced next whilst still in the menus,
+	 *	or <code>null</code> if preloading is disabled.
+	 */
+	private TrackLoader trackLoader = null;
+	
+	/**
+	 *	Recording of the current (or last) race, or <code>null</code> if races
+	 *	aren't recorded.
+	 */
+	private RaceRecording replay = null;
+	
 	/**
 	 *	Current game mode.
 	 */
@@ -724,7 +741,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	/**
 	 *	Resource stream holding the frontend graphics.
 	 */
-	private DataInputStream feStream;
+	private DataInput feStream;
 	
 	/**
 	 *	Flag to say that the track still needs initialising/loading.
@@ -733,10 +750,25 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	 */
 	private boolean needTrack = true;
 	
+	/**
+	 *	Set when the render defaults have been reset without a stored probe
+	 *	result for this device, so the renderers are timed before the track
+	 *	is first loaded.
+	 *
+	 *	@see #probeRenderers
+	 */
+	private boolean needProbe = false;
+	
+	/**
+	 *	Mode entered once loading has finished: the logo at startup, or back
+	 *	to the options once the renderers have been probed again.
+	 */
+	private int loadedMode = MODE_LOGO_PAUSE;
+	
 	/**
 	 *	Resource stream holding the karts, sprites and background data.
 	 */
-	private DataInputStream ksbStream;
+	private DataInput ksbStream;
 	
 	/**
 	 *	Whether it's possible to resume the current race. Any race except
@@ -749,6 +781,39 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	 */
 	private boolean skipPaint = false;
 	
+	/**
+	 *	Passes the elements' drawing on to the <code>Graphics</code> handed
+	 *	to <code>paint()</code>.
+	 */
+	private final GraphicsTarget screen = new GraphicsTarget();
+	
+	/**
+	 *	Set by the race loop once it has rendered a frame. The frame's time is
+	 *	reported to the renderer and, if the renderer allows it, the frame is
+	 *	painted while the next is being run.
+	 */
+	private boolean pipelineFrame = false;
+	
+	/**
+	 *	Whether paint() should play back the recorded frame (the last frame
+	 *	requested was pipelined) rather than painting the screen itself.
+	 */
+	private boolean paintComposed = false;
+	
+	/**
+	 *	Drawing calls for the whole of a pipelined frame, recorded on the
+	 *	game thread as the frame is presented. Only this is played back by
+	 *	paint(), so the race chrome and the renderer's next frame are free to
+	 *	change whilst it's drawn.
+	 */
+	private final DisplayList frameList = new DisplayList();
+	
+	/**
+	 *	Lock used to hand pipelined frames from the game thread to paint().
+	 *	Held whilst a frame is presented and recorded, and whilst it's drawn.
+	 */
+	private final Object paintLock = new Object();
+	
 	/**
 	 *	Whether to rotate the player input to work on the P910's thumbwheel.
 	 */
@@ -764,6 +829,10 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		
 		this.parent = parent;
 		
+		store = PrefsStore.open(STORE_NAME);
+		for (int n = 0; n < LEGACY_STORES.length; n++) {
+			store.importLegacy(LEGACY_STORES[n]);
+		}
 		getPrefs("prefs", prefs);
 		
 		strings = new StringManager("/st.dat");
@@ -867,7 +936,15 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			defaultTotalKeys[n + 3] =  0;
 		}
 		
-		ByteUtils.bytesToBooleans(getPrefs("trials", new byte[TOTAL_TRACKS]), 0, validGhost, TOTAL_TRACKS);
+		if (!store.has("ghosts")) {
+			/*
+			 *	The ghost library briefly had a store of its own, which
+			 *	isn't worth converting, but the space is freed.
+			 */
+			PrefsStore.deleteLegacy("ghosts");
+		}
+		ghosts = new GhostLibrary(store, TOTAL_TRACKS);
+		importLegacyGhosts();
 		ByteUtils.bytesToShorts(getPrefs("best", new byte[TOTAL_TRACKS * 2]), 0, best, TOTAL_TRACKS);
 		ByteUtils.bytesToMultiBytes(getPrefs("keys", defaultTotalKeys), 0, totalKeys, DIFFICULTY_LEVELS, TOTAL_TOURNAMENTS);
 		ByteUtils.bytesToMultiBytes(getPrefs("finish", new byte[DIFFICULTY_LEVELS * TOTAL_TRACKS]), 0, finishPos, DIFFICULTY_LEVELS, TOTAL_TRACKS);
@@ -1041,6 +1118,16 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				prefs[PREFS_BACKGROUND] = getByteInString(renDef, 1, (byte) 0);
 				prefs[PREFS_BORDER]     = getByteInString(renDef, 2, (byte) 0);
 				prefs[PREFS_CLIP]       = getByteInString(renDef, 3, (byte) 0);
+				
+				if (ENABLE_RENDER_PROBE && getPropertyAsInt("Render-Probe", 1) != 0) {
+					byte[] probe = getPrefs("probe", new byte[PROBE_STORAGE_SIZE]);
+					if (ByteUtils.bytesToInt(probe, PROBE_FINGERPRINT) == getDeviceFingerprint()) {
+						prefs[PREFS_RENDERER]   = probe[PROBE_RENDERER];
+						prefs[PREFS_BACKGROUND] = probe[PROBE_BACKGROUND];
+					} else {
+						needProbe = true;
+					}
+				}
 			} catch (Exception e) {}
 			if (DEBUG) {
 				System.out.println("Setting render defaults");
@@ -1080,14 +1167,14 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	private BitmapFont findBestFont(int minW, int minH, String resource, String fallback) throws IOException {
 		try {
 			if (viewW >= minW && viewH >= minH) {
-				return new BitmapFont(resource);
+				return BitmapFont.load(resource);
 			}
 		} catch (Exception e) {
 			if (DEBUG) {
 				System.out.println("Failed loading: " + resource + " (" + e.getMessage() + ")");
 			}
 			if (fallback != null) {
-				return new BitmapFont(fallback);
+				return BitmapFont.load(fallback);
 			}
 		}
 		return null;
@@ -1113,7 +1200,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		if (iconFont == null) {
 			iconFont = findBestFont(0, 0, "/is.bmf", "/im.bmf");
 		}
-		gameFont = new BitmapFont("/cm.bmf");
+		gameFont = BitmapFont.load("/cm.bmf");
 		
 		textFontH = textFont.height;
 		iconFontH = iconFont.height;
@@ -1164,12 +1251,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		charHourglass = new Line(iconFont, 1).set(HOURGLASS_SYMBOL).setTextEffect(starAnim);
 		charHourglass.setPosition(halfW, viewHQ3, Graphics.BOTTOM | Graphics.HCENTER);
 		
-		if (feStream != null) {
-			try {
-				feStream.close();
-			} catch (Exception e) {}
-		}
-		feStream = new DataInputStream(getClass().getResourceAsStream("/fe.dat"));
+		feStream = ByteDataInput.open("/fe.dat");
 		
 		menuCarsDiag = feStream.readBoolean();
 		menuCarsHigh = feStream.readBoolean();
@@ -1219,7 +1301,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			resultBar.load(feStream);
 		}
 		
-		feStream.close();
+		feStream = null;
 		
 		menuLHS.setPosition(0,     0, Graphics.TOP | Graphics.LEFT);
 		menuRHS.setPosition(viewW, 0, Graphics.TOP | Graphics.RIGHT);
@@ -1315,17 +1397,21 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	}
 	
 	/**
-	 *	Loads and initialises the track renderer and racing logic.
+	 *	Opens the kart, sprite and background data, reading the kart
+	 *	properties and leaving the stream ready for a track renderer.
 	 */
-	private void initTrack() throws IOException {
-		if (ksbStream != null) {
-			try {
-				ksbStream.close();
-			} catch (Exception e) {}
-		}
-		ksbStream = new DataInputStream(getClass().getResourceAsStream("/ksb.dat"));
-		
-		if (ksbStream.readByte() != RaceCore.TOTAL_KARTS || ksbStream.readByte() != Kart.TOTAL_PROPS) {
+	private DataInput openKartData(byte[][] props) throws IOException {
+		return readKartData(PackedDataInput.open("/ksb.dat"), props);
+	}
+	
+	/**
+	 *	Reads the kart properties from the start of the kart data.
+	 *
+	 *	@param props where the properties are read to
+	 *	@return the same stream, ready for a track renderer
+	 */
+	private DataInput readKartData(DataInput in, byte[][] props) throws IOException {
+		if (in.readByte() != RaceCore.TOTAL_KARTS || in.readByte() != Kart.TOTAL_PROPS) {
 			if (DEBUG) {
 				throw new IOException("Dodgy kart data");
 			} else {
@@ -1333,22 +1419,53 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			}
 		}
 		for (int n = 0; n < RaceCore.TOTAL_KARTS; n++) {
-			ksbStream.readFully(kartProps[n]);
+			in.readFully(props[n]);
 		}
-		
-		if (DEBUG) {
-			System.out.println("About to create renderer");
-		}
-		switch (prefs[PREFS_RENDERER]) {
+		return in;
+	}
+	
+	/**
+	 *	Creates one of the track renderers (closing the stream afterwards).
+	 *
+	 *	@param exclusive whether the renderer's backgrounds need buffers of
+	 *	their own, instead of sharing the menu's
+	 *	@return the renderer or <code>null</code> if it isn't available
+	 */
+	private TrackRenderer createRenderer(int renderer, int bkgndType, DataInput in, boolean exclusive) throws IOException {
+		switch (renderer) {
 		case RENDERER_TOPDOWN:
 			if (ENABLE_RENDERER_TOPDOWN) {
-				track = new TrackRendererTopdown(viewW, viewH, prefs[PREFS_BACKGROUND], ksbStream, true);
+				return new TrackRendererTopdown(viewW, viewH, bkgndType, in, true, exclusive);
 			}
 			break;
 		case RENDERER_MODE7_SMOOTH:
 		case RENDERER_MODE7_CHUNKY:
 			if (ENABLE_RENDERER_MODE7) {
-				track = new TrackRendererMode7(viewW, viewH, floorH, prefs[PREFS_RENDERER] == RENDERER_MODE7_CHUNKY, prefs[PREFS_BACKGROUND], ksbStream, true);
+				TrackRendererMode7 mode7 = new TrackRendererMode7(viewW, viewH, floorH, renderer == RENDERER_MODE7_CHUNKY, bkgndType, in, true, exclusive);
+				/*
+				 *	The floor code can be swapped for one better suited to
+				 *	desktop VMs (or any VM with a vectorising JIT).
+				 */
+				mode7.setFloorSampler(getPropertyAsInt("Floor-Sampler", TrackRendererMode7.FLOOR_SAMPLER_UNROLLED));
+				/*
+				 *	Memory for the pre-scaled sprites (in KB) can be lowered
+				 *	for handsets with a small heap, or zero to disable.
+				 */
+				mode7.setSpanCacheLimit(getPropertyAsInt("Sprite-Cache", TrackRendererMode7.SPAN_CACHE_LIMIT / 1024) * 1024);
+				/*
+				 *	The floor drops quality when frames take longer than this
+				 *	(in milliseconds), or zero to keep the chosen quality. Off
+				 *	unless set, since the budget needs tuning per handset.
+				 */
+				mode7.setFrameBudget(getPropertyAsInt("Frame-Budget", 0));
+				/*
+				 *	Memory for the pre-drawn background strips (in KB), or
+				 *	zero to draw the backgrounds a tile at a time. Left
+				 *	unset the strips take what the free heap can spare.
+				 */
+				int strips = getPropertyAsInt("Bkgnd-Strips", TrackRendererMode7.STRIP_AUTO);
+				mode7.setStripLimit((strips < 0) ? TrackRendererMode7.STRIP_AUTO : strips * 1024);
+				return mode7;
 			}
 			break;
 		case RENDERER_M3G_11:
@@ -1356,10 +1473,184 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		case RENDERER_M3G_14:
 		case RENDERER_M3G_18:
 			if (ENABLE_RENDERER_M3G) {
-				track = new TrackRendererM3G(viewW, viewH,  prefs[PREFS_RENDERER] - RENDERER_M3G_11, prefs[PREFS_BACKGROUND], ksbStream, true);
+				TrackRendererM3G m3g = new TrackRendererM3G(viewW, viewH,  renderer - RENDERER_M3G_11, bkgndType, in, true, exclusive);
+				/*
+				 *	Memory for the floor textures (in KB), built as they come
+				 *	into view. Zero builds the whole floor at load time.
+				 */
+				m3g.setFloorTextureBudget(getPropertyAsInt("Floor-Textures", TrackRendererM3G.FLOOR_TEXTURE_BUDGET / 1024) * 1024);
+				return m3g;
 			}
 			break;
 		}
+		return null;
+	}
+	
+	/**
+	 *	Times each available renderer flying a lap of the first track, in
+	 *	order of quality, and chooses the first able to keep to the frame
+	 *	rate (or the fastest tried if none can). Each renderer is tried with
+	 *	every background type, keeping whichever is quickest. The choice is
+	 *	stored against the device so the probe only runs once.
+	 *
+	 *	Any renderers already created are let go of first, leaving the track
+	 *	to be loaded again. The kart and track data are unpacked once and
+	 *	shared by every attempt, and the probe as a whole stops once past
+	 *	<code>PROBE_TIME_LIMIT</code> (keeping the best found so far).
+	 */
+	private void probeRenderers() {
+		releaseTrack();
+		ByteDataInput ksb;
+		ByteDataInput trk;
+		try {
+			ksb = PackedDataInput.unpack("/ksb.dat");
+			readKartData(ksb, kartProps);
+			trk = PackedDataInput.unpack("/0.trk");
+		} catch (IOException e) {
+			if (DEBUG) {
+				System.out.println("Unable to probe renderers: " + e);
+			}
+			return;
+		}
+		
+		RenderTarget g = new GraphicsTarget(Image.createImage(viewW, viewH).getGraphics());
+		int limit = PROBE_FRAMES * FRAME_DELAY * PROBE_BUDGET / 100;
+		long until = System.currentTimeMillis() + PROBE_TIME_LIMIT;
+		int bestTime = Integer.MAX_VALUE;
+		probing:
+		for (int r = 0; r < PROBE_RENDERERS.length; r++) {
+			int renderer = PROBE_RENDERERS[r];
+			if (renderer >= RENDERER_M3G_11 && !has3D) {
+				continue;
+			}
+			boolean found = false;
+			for (int bkgndType = BACKGROUND_BUFFERED; bkgndType <= BACKGROUND_SHUFFLED; bkgndType++) {
+				if ((bkgndType == BACKGROUND_BUFFERED  && !ENABLE_BKGND_BUFFERED)
+				 || (bkgndType == BACKGROUND_COMPOSITE && !ENABLE_BKGND_COMPOSITE)
+				 || (bkgndType == BACKGROUND_SHUFFLED  && !ENABLE_BKGND_SHUFFLED)) {
+					continue;
+				}
+				int left = (int) (until - System.currentTimeMillis());
+				if (left <= 0) {
+					if (DEBUG) {
+						System.out.println("Probe out of time");
+					}
+					break probing;
+				}
+				int time = probeRenderer(renderer, bkgndType, ksb, trk, g, Math.min(Math.min(bestTime, limit), left));
+				if (DEBUG) {
+					System.out.println("Probed renderer " + renderer + "/" + bkgndType + ": " + time + "ms");
+				}
+				if (time < bestTime) {
+					bestTime = time;
+					prefs[PREFS_RENDERER]   = (byte) renderer;
+					prefs[PREFS_BACKGROUND] = (byte) bkgndType;
+					found |= time <= limit;
+				}
+			}
+			if (found) {
+				break;
+			}
+		}
+		if (bestTime == Integer.MAX_VALUE) {
+			return; // nothing could be timed, so the defaults stand
+		}
+		
+		byte[] probe = new byte[PROBE_STORAGE_SIZE];
+		ByteUtils.intToBytes(probe, PROBE_FINGERPRINT, getDeviceFingerprint());
+		probe[PROBE_RENDERER]   = prefs[PREFS_RENDERER];
+		probe[PROBE_BACKGROUND] = prefs[PREFS_BACKGROUND];
+		setPrefs("probe", probe);
+	}
+	
+	/**
+	 *	Times a renderer drawing <code>PROBE_FRAMES</code> frames of a
+	 *	circuit around the first track, giving up once past a time limit.
+	 *
+	 *	@param ksb kart data, read up to the renderer's part
+	 *	@param trk track data
+	 *	@return time taken in milliseconds (estimated for the full probe if
+	 *	cut short) or <code>Integer.MAX_VALUE</code> if it couldn't be run
+	 */
+	private int probeRenderer(int renderer, int bkgndType, ByteDataInput ksb, ByteDataInput trk, RenderTarget g, int limit) {
+		TrackRenderer probe = null;
+		try {
+			probe = createRenderer(renderer, bkgndType, new ByteDataInput(ksb.getData(), ksb.getPosition(), ksb.available()), false);
+			if (probe == null) {
+				return Integer.MAX_VALUE;
+			}
+			probe.load(new ByteDataInput(trk.getData(), trk.getPosition(), trk.available()));
+			
+			int centreX = (TrackRenderer.MAP_COLS * TrackRenderer.TILE_W / 2) << Fixed.FIXED_POINT;
+			int centreY = (TrackRenderer.MAP_ROWS * TrackRenderer.TILE_H / 2) << Fixed.FIXED_POINT;
+			int radius  =  TrackRenderer.MAP_COLS * TrackRenderer.TILE_W / 4;
+			Sprite[] blend = new Sprite[1];
+			
+			long start = System.currentTimeMillis();
+			int time = 0;
+			for (int n = 0; n < PROBE_FRAMES; n++) {
+				int a = (n * Fixed.QUARTER_CIRCLE * 4) / PROBE_FRAMES;
+				probe.render(centreX + Fixed.cos(a) * radius, centreY + Fixed.sin(a) * radius, a + Fixed.QUARTER_CIRCLE, blend, 0, 0);
+				probe.cycle();
+				probe.present();
+				probe.paint(g, 0, 0);
+				time = (int) (System.currentTimeMillis() - start);
+				if (time > limit) {
+					return (int) ((long) time * PROBE_FRAMES / (n + 1));
+				}
+			}
+			return time;
+		} catch (Throwable e) {
+			if (DEBUG) {
+				System.out.println("Failed probing renderer " + renderer + " (" + e + ")");
+			}
+		} finally {
+			probe = null;
+			System.gc();
+		}
+		return Integer.MAX_VALUE;
+	}
+	
+	/**
+	 *	Returns a hash identifying the handset model and firmware, used to
+	 *	tell whether a stored probe result still applies.
+	 */
+	private static int getDeviceFingerprint() {
+		return (System.getProperty("microedition.platform") + '/'
+			  + System.getProperty("microedition.configuration") + '/'
+			  + System.getProperty("microedition.m3g.version")).hashCode();
+	}
+	
+	/**
+	 *	Lets go of every track renderer (the one in use, any cached and any
+	 *	being preloaded) so there's room for others. The track has to be
+	 *	initialised again afterwards.
+	 */
+	private void releaseTrack() {
+		if (trackLoader != null) {
+			trackLoader.release(getRenderType());
+			trackLoader = null;
+		}
+		trackCache = null;
+		logic = null;
+		track = null;
+		needTrack = true;
+		System.gc();
+	}
+	
+	/**
+	 *	Loads and initialises the track renderer and racing logic.
+	 */
+	private void initTrack() throws IOException {
+		ksbStream = openKartData(kartProps);
+		
+		if (DEBUG) {
+			System.out.println("About to create renderer");
+		}
+		Runtime rt = Runtime.getRuntime();
+		rt.gc();
+		long freeBefore = rt.freeMemory();
+		track = createRenderer(prefs[PREFS_RENDERER], prefs[PREFS_BACKGROUND], ksbStream, false);
 		ksbStream = null;
 		
 		if (DEBUG) {
@@ -1370,6 +1661,157 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		if (DEBUG) {
 			System.out.println("Created racing logic");
 		}
+		rt.gc();
+		long freeAfter = rt.freeMemory();
+		
+		/*
+		 *	Tracks kept loaded at once, each needing its own renderer.
+		 */
+		trackCache = new TrackCache(getPropertyAsInt("Track-Cache", TrackCache.DEFAULT_CAPACITY));
+		trackCache.put(TrackCache.NO_TRACK, getRenderType(), logic);
+		
+		/*
+		 *	Recording races takes around 25kB per minute of racing (most of
+		 *	it keyframes), so is off unless asked for.
+		 */
+		if (getPropertyAsInt("Replay-Record", 0) != 0) {
+			replay = new RaceRecording();
+		}
+		
+		/*
+		 *	Loading tracks in the background needs room for another
+		 *	renderer, so by default is only on if what's left of the heap
+		 *	could hold twice what the first took (leaving room for the track
+		 *	data too). It can also be forced on (1) or off (0), and is turned
+		 *	off automatically if memory runs out.
+		 */
+		int preload = getPropertyAsInt("Track-Preload", PRELOAD_AUTO);
+		if (preload == PRELOAD_AUTO) {
+			preload = (freeAfter > (freeBefore - freeAfter) * 2) ? 1 : 0;
+			if (DEBUG) {
+				System.out.println("Renderer took " + (freeBefore - freeAfter) + " bytes of " + rt.totalMemory() + ", " + freeAfter + " free: preloading " + ((preload != 0) ? "on" : "off"));
+			}
+		}
+		if (preload != 0) {
+			trackLoader = new TrackLoader(this);
+		}
+	}
+	
+	/**
+	 *	Returns the renderer and background chosen in the options as a single
+	 *	value, which cached and preloaded tracks are checked against.
+	 */
+	private int getRenderType() {
+		return (prefs[PREFS_RENDERER] << 8) | prefs[PREFS_BACKGROUND];
+	}
+	
+	/**
+	 *	Creates race logic with a renderer of the given type (called from the
+	 *	track loader's thread as well as the game's, so the type is passed in
+	 *	rather than read from the options).
+	 *
+	 *	Race logic created on the loader's thread mustn't touch anything the
+	 *	game could be using meanwhile, so its renderer is given background
+	 *	buffers of its own (the menus draw into the shared ones) and the kart
+	 *	properties are read into a copy of its own.
+	 *
+	 *	@param exclusive whether this is away from the game's thread
+	 *	@see #getRenderType
+	 */
+	RaceCore createRaceCore(int type, boolean exclusive) throws IOException {
+		byte[][] props = kartProps;
+		if (exclusive) {
+			props = new byte[RaceCore.TOTAL_KARTS][Kart.TOTAL_PROPS];
+		}
+		return new RaceCore(createRenderer(type >> 8, type & 0xFF, openKartData(props), exclusive), chrome, props);
+	}
+	
+	/**
+	 *	Drops any cached or preloaded tracks after the renderer or background
+	 *	has been changed, since they were built for the old one.
+	 */
+	private void flushTracks() {
+		if (trackLoader != null) {
+			trackLoader.release(getRenderType());
+		}
+		if (trackCache != null) {
+			trackCache.flush();
+		}
+	}
+	
+	/**
+	 *	Starts loading the track most likely to be raced next in the
+	 *	background, unless it's already cached.
+	 */
+	private void preloadTrack(int num) {
+		int type = getRenderType();
+		if (trackLoader != null && !trackCache.contains(num, type)) {
+			trackLoader.preload(num, type);
+		}
+	}
+	
+	/**
+	 *	Readies the chosen track, picking it up from the cache if it's been
+	 *	raced recently or from the track loader if it was preloaded,
+	 *	otherwise loading it into a free (or the least recently used) cache
+	 *	entry.
+	 */
+	private void loadTrack() throws IOException {
+		int type = getRenderType();
+		RaceCore core = trackCache.get(trackNum, type);
+		if (core == null && trackLoader != null) {
+			core = trackLoader.finish(trackNum, type);
+			if (core != null) {
+				trackLoader.recycle(trackCache.put(trackNum, type, core), type);
+			}
+		}
+		if (core == null) {
+			core = trackCache.take(type);
+			if (core == null && trackLoader != null) {
+				core = trackLoader.release(type);
+			}
+			if (core == null) {
+				/*
+				 *	The race logic in use may be for another renderer, in
+				 *	which case it's only held here, so is let go of first.
+				 */
+				logic = null;
+				track = null;
+				core = createRaceCore(type, false);
+			}
+			if (DEBUG) {
+				try {
+					core.load("/" + trackNum + ".trk");
+				} catch (NullPointerException e) {
+					/*
+					 * Note: this behaviour is only here for test
+					 * purposes, in case a full set of tracks
+					 * isn't available. If loading fails the first
+					 * track is tried.
+					 */
+					core.load("/0.trk");
+					System.out.println("**** Track missing: " + trackNum + " ****");
+				}
+			} else {
+				core.load("/" + trackNum + ".trk");
+			}
+			trackCache.put(trackNum, type, core);
+		} else {
+			if (DEBUG) {
+				System.out.println("Track cached: " + trackNum);
+			}
+			/*
+			 *	Nothing's been drawn since the track was loaded, and the
+			 *	backgrounds may share their buffer with the menus (or
+			 *	another renderer), so they're drawn again from scratch.
+			 */
+			core.getTrack().refresh();
+		}
+		if (core != logic) {
+			logic = core;
+			track = core.getTrack();
+			updatePrefs();
+		}
 	}
 	
 	private Line getNextTextLine() {
@@ -1489,8 +1931,21 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	
 	public void paint(Graphics g) {
 		g.setClip(0, 0, screenW, screenH);
-		if (container != null) {
-			container.paint(g, viewOffsetX, viewOffsetY);
+		boolean composed = false;
+		if (USE_PIPELINED_PAINT) {
+			synchronized (paintLock) {
+				if (paintComposed) {
+					frameList.paint(screen.set(g));
+					composed = true;
+				}
+			}
+		}
+		if (composed) {
+			/*
+			 *	Everything in the view was recorded on the game thread.
+			 */
+		} else if (container != null) {
+			container.paint(screen.set(g), viewOffsetX, viewOffsetY);
 		} else {
 			g.setColor(0x000000);
 			g.fillRect(viewOffsetX, viewOffsetY, viewW, viewH);
@@ -1518,6 +1973,31 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		}
 	}
 	
+	/**
+	 *	Presents the track's last frame and records the whole view for
+	 *	paint() to play back, then requests the paint without waiting for it.
+	 *	Only waits if a paint is under way, which is then drawing the frame
+	 *	before (the renderer's other buffer). A frame that still hasn't been
+	 *	painted by the time the next is ready (the canvas is hidden, or
+	 *	painting is running behind) is replaced by it.
+	 *
+	 *	@return whether the frame was pipelined, otherwise it's left for the
+	 *	caller to paint
+	 */
+	private boolean composeFrame() {
+		synchronized (paintLock) {
+			if (!track.present() || !pipelineFrame) {
+				paintComposed = false;
+				return false;
+			}
+			frameList.clear(screenW, screenH);
+			container.paint(frameList, viewOffsetX, viewOffsetY);
+			paintComposed = true;
+		}
+		repaint();
+		return true;
+	}
+	
 	/**
 	 *	Resets all keys to their unpressed state. Used after menu selection.
 	 */
@@ -1866,6 +2346,11 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	 *	Prepares the track screen for a new game.
 	 */
 	private void prepTrack(boolean hasGhosts, int numKarts, boolean hasPickups, boolean hasPowerups) throws IOException {
+		if (replay != null) {
+			long seed = System.currentTimeMillis();
+			logic.setSeed(seed);
+			replay.start(trackNum, seed, hasGhosts, numKarts, player, mpPlayerIdx, LAPS_PER_RACE, hasPickups, hasPowerups);
+		}
 		logic.setGhostMode(hasGhosts);
 		logic.init(numKarts, player, mpPlayerIdx, LAPS_PER_RACE, hasPickups, hasPowerups);
 		
@@ -1900,7 +2385,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	 */
 	private void setBestLine(int trkIdx) {
 		addResultsCup(bestLineChar, 0, finishPos[prefs[PREFS_DIFFICULTY]][trkIdx] - 1);
-		bestLineChar[11] = validGhost[trkIdx] ? GHOST_ICON : RESULTS_SPACER_CUP;
+		bestLineChar[11] = (ghosts.find(trkIdx) != GhostLibrary.NO_SLOT) ? GHOST_ICON : RESULTS_SPACER_CUP;
 		bestLine.set(chrome.fillTimeLine(bestLineChar, 2, best[trkIdx], TIMER_ZERO));
 		bestText.setTextEffect((best[trkIdx] > 0) ? bestAnim :  null);
 	}
@@ -1984,6 +2469,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 					mpServer.close();
 				}
 				firstRun = false;
+				savePrefs();
 				
 				createDefaultScreen(null, true, true, false);
 				container.add(getNextIconLine().set(strings.get(1)).setPosition(halfW,  viewHQ1, Graphics.VCENTER | Graphics.HCENTER));
@@ -2291,23 +2777,17 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				
 				player[PLAYER_IDX].reset(selectedKart, true, -1);
 				
-				if (validGhost[trackNum]) {
-					getPrefs("trial-" + trackNum, stateBuffer);
-					/*
-					 *	If for some reason filling the buffer with the TT data
-					 *	fails (more than likely due to changing the data
-					 *	structure between versions than corruption) we check
-					 *	the recorded number of laps before using the ghost.
-					 */
-					if (stateBuffer[1] > 0) {
-						player[RECORD_IDX].reset(stateBuffer[0], true, -1);
-						joyRecord.load(stateBuffer, 8);
-					} else {
-						validGhost[trackNum] = false;
-					}
+				/*
+				 *	If for some reason the ghost can't be read it's dropped
+				 *	from the library and the race is run without it.
+				 */
+				int slot = ghosts.find(trackNum);
+				raceGhost = slot != GhostLibrary.NO_SLOT && ghosts.load(trackNum, slot, joyRecord);
+				if (raceGhost) {
+					player[RECORD_IDX].reset(ghosts.getKart(trackNum, slot), true, -1);
 				}
 				
-				prepTrack(validGhost[trackNum], validGhost[trackNum] ? 2 : 1, false, false);
+				prepTrack(raceGhost, raceGhost ? 2 : 1, false, false);
 				
 				joyPlayer.rewind();
 				joyRecord.rewind();
@@ -2331,6 +2811,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				
 				break;
 			case MODE_TRACK_NAME:
+				preloadTrack(trackNum);
 				clearFrontend();
 				container.add(solidBlack);
 				container.add(getNextTextLine().set(strings.get(93)).setPosition(halfW, halfH, Graphics.BASELINE | Graphics.HCENTER));
@@ -2354,22 +2835,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			case MODE_TRACK_LOAD:
 				synchronized (loadingLock) {
 					if (needTrack) {
-						if (DEBUG) {
-							try {
-								logic.load("/" + trackNum + ".trk");
-							} catch (NullPointerException e) {
-								/*
-								 * Note: this behaviour is only here for test
-								 * purposes, in case a full set of tracks
-								 * isn't available. If loading fails the first
-								 * track is tried.
-								 */
-								logic.load("/0.trk");
-								System.out.println("**** Track missing: " + trackNum + " ****");
-							}
-						} else {
-							logic.load("/" + trackNum + ".trk");
-						}
+						loadTrack();
 						needTrack = false;
 					}
 					playTrackTune();
@@ -2976,9 +3442,15 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 					defaultRaceInputHandler(RECORD_IDX, logic.getStats(RaceCore.STATS_LAPS, RECORD_IDX), joyRecord.nextFrame());
 				}
 				
+				if (replay != null) {
+					replay.record(logic, RaceCore.USE_FOLLOW_CAM, true, !withGhost, joyState);
+				}
 				logic.loop(joyState, !withGhost);
+			} else if (replay != null) {
+				replay.record(logic, RaceCore.USE_FOLLOW_CAM, false, false, joyState);
 			}
 			logic.render(RaceCore.USE_FOLLOW_CAM);
+			pipelineFrame = true;
 		} else {
 			validResume = false;
 			
@@ -2986,6 +3458,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			if (withGhost) {
 				joyState[RECORD_IDX] = -1;
 			}
+			saveReplay();
 			prepMode(MODE_STATS_LAPS);
 		}
 		
@@ -2998,42 +3471,86 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	}
 	
 	/**
-	 *	Saves the time trial ghost data. Data is saved only if the total time
-	 *	of the new race is better than that of the recording, or no previous
-	 *	ghost exists.
-	 *
-	 *	TODO: this would be more efficient if the joystick was RLEd.
+	 *	Imports the time trial ghosts saved by earlier versions as the best
+	 *	runs. These were kept per track in a "trial-N" store, flagged as valid
+	 *	in "trials", with the kart, number of laps, each lap's time then the
+	 *	joystick's raw recording (the recording position then a byte per
+	 *	tick). The recordings are re-encoded as runs. Like the other old
+	 *	stores, each is deleted only once its ghost has been written, any
+	 *	that can't be being kept to try again next time.
 	 */
-	private void saveGhostData() {
-		boolean saveMe = false;
-		if (validGhost[trackNum]) {
-			if (logic.getLapTime(mpPlayerIdx, LAPS_PER_RACE - 1) < ByteUtils.bytesToUnsignedShort(stateBuffer, 2 + (stateBuffer[1] - 1) * 2)) {
-				saveMe = true;
-			}
-		} else {
-			saveMe = true;
+	private void importLegacyGhosts() {
+		byte[] trials = PrefsStore.readLegacy("trials");
+		if (trials == null) {
+			return;
 		}
-		
-		if (saveMe) {
-			int n = 0;
-			stateBuffer[n++] = (byte) selectedKart;
-			stateBuffer[n++] = (byte) LAPS_PER_RACE; // actual number of laps
-			for (int i = 0; i < RaceCore.MAX_LAPS; i++) {
-				ByteUtils.shortToBytes(stateBuffer, n, logic.getLapTime(mpPlayerIdx, i));
-				n += 2;
+		boolean[] valid = new boolean[TOTAL_TRACKS];
+		ByteUtils.bytesToBooleans(trials, 0, valid, Math.min(trials.length, TOTAL_TRACKS));
+		Joystick joy = new Joystick(GHOST_BUFFER_SIZE);
+		boolean imported = true;
+		for (int n = 0; n < TOTAL_TRACKS; n++) {
+			byte[] data = valid[n] ? PrefsStore.readLegacy("trial-" + n) : null;
+			if (data != null && data.length > LEGACY_GHOST_JOY + 2 && data[0] >= 0 && data[0] < RaceCore.TOTAL_KARTS && data[1] > 0 && data[1] <= RaceCore.MAX_LAPS) {
+				int time  = ByteUtils.bytesToUnsignedShort(data, 2 + (data[1] - 1) * 2);
+				int ticks = Math.min(ByteUtils.bytesToUnsignedShort(data, LEGACY_GHOST_JOY), data.length - LEGACY_GHOST_JOY - 2);
+				joy.rewind();
+				for (int i = 0; i < ticks; i++) {
+					joy.state = data[LEGACY_GHOST_JOY + 2 + i] & 0xFF;
+					joy.grabFrame();
+				}
+				joy.reset();
+				if (ticks > 0 && joy.isValid()) {
+					if (!ghosts.has(n, GhostLibrary.SLOT_BEST) || time < ghosts.getTime(n, GhostLibrary.SLOT_BEST)) {
+						if (!ghosts.put(n, GhostLibrary.SLOT_BEST, GhostLibrary.encode(data[0], time, joy)) || !store.sync()) {
+							if (DEBUG) {
+								System.out.println("Unable to import the ghost for track " + n);
+							}
+							imported = false;
+							continue;
+						}
+					}
+				}
 			}
-			n = joyPlayer.save(stateBuffer, n);
-			
-			if (setPrefs("trial-" + trackNum, stateBuffer)) {
-				validGhost[trackNum] = true;
+			PrefsStore.deleteLegacy("trial-" + n);
+		}
+		if (imported) {
+			PrefsStore.deleteLegacy("trials");
+		}
+	}
+	
+	/**
+	 *	Saves the time trial ghost data. The run is always kept as the last
+	 *	run, and as the best only if the total time of the new race is better
+	 *	than that of the recording, or no previous best exists.
+	 */
+	private void saveGhostData() {
+		if (!joyPlayer.isValid()) {
+			return;
+		}
+		int time = logic.getLapTime(mpPlayerIdx, LAPS_PER_RACE - 1);
+		byte[] data = GhostLibrary.encode(selectedKart, time, joyPlayer);
+		ghosts.put(trackNum, GhostLibrary.SLOT_LAST, data);
+		if (!ghosts.has(trackNum, GhostLibrary.SLOT_BEST) || time < ghosts.getTime(trackNum, GhostLibrary.SLOT_BEST)) {
+			ghosts.put(trackNum, GhostLibrary.SLOT_BEST, data);
+		}
+	}
+	
+	/**
+	 *	Stores the recording of the race just finished, replacing the last.
+	 */
+	private void saveReplay() {
+		if (replay != null && replay.getTicks() > 0) {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				DataOutputStream dos = new DataOutputStream(out);
+				replay.save(dos);
+				dos.close();
+				setPrefs("replay", out.toByteArray());
+			} catch (IOException e) {
+				if (DEBUG) {
+					System.out.println("Unable to save replay: " + e);
+				}
 			}
-			
-			/*
-			 *	Once the buffer has been saved the data is invalidated by
-			 *	setting the laps to zero, which fixes potential problems where
-			 *	a previous recording might be considered current.
-			 */
-			stateBuffer[1] = 0;
 		}
 	}
 	
@@ -3071,6 +3588,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	}
 	
 	public final void run() {
+		long frameStart = System.currentTimeMillis();
 		try {
 			switch (mode) {
 			case MODE_NONE:
@@ -3107,6 +3625,10 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				break;
 			case MODE_LOADING:
 				synchronized (loadingLock) {
+					if (ENABLE_RENDER_PROBE && needProbe && needTrack) {
+						probeRenderers();
+						needProbe = false;
+					}
 					if (needTrack) {
 						initTrack();
 						needTrack = false;
@@ -3114,7 +3636,8 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				}
 				updatePrefs(); // sets the difficulty level now the race core has inited
 				
-				prepMode(MODE_LOGO_PAUSE);
+				prepMode(loadedMode);
+				loadedMode = MODE_LOGO_PAUSE;
 				
 				break;
 			case MODE_LOGO_PAUSE:
@@ -3227,6 +3750,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 					if (keysToCollect > 0) {
 						setResultsKeyLine(mainMenu.getSelected());
 					}
+					preloadTrack(mainMenu.getSelected() * TRACKS_PER_LEVEL);
 					
 					/*
 					 *	See below in the track chooser for an explanation.
@@ -3275,6 +3799,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			case MODE_CHOOSE_TRACK:
 				standardMenuLoop(mainMenu, true);
 				setBestLine(trackNum + mainMenu.getSelected());
+				preloadTrack(trackNum + mainMenu.getSelected());
 				
 				/*
 				 *	When not in multiplayer server mode this is the phone is
@@ -3389,8 +3914,8 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				animateFrontend();
 				if (handleStandardMenuInput(MODE_OPTIONS, true)) {
 					resetKeys();
+					ghosts.clear();
 					for (int n = 0; n < TOTAL_TRACKS; n++) {
-						validGhost[n] = false;
 						best[n] = 0;
 						
 					}
@@ -3429,11 +3954,13 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				break;
 			case MODE_ADVANCED_RENDERER:
 				if (handleStandardPrefsInput(tallMenu, PREFS_RENDERER, MODE_OPTIONS_ADVANCED)) {
+					flushTracks();
 					prepMode(MODE_ADVANCED_MESSAGE);
 				}
 				break;
 			case MODE_ADVANCED_BACKGROUND:
 				if (handleStandardPrefsInput(tallMenu, PREFS_BACKGROUND, MODE_OPTIONS_ADVANCED)) {
+					flushTracks();
 					prepMode(MODE_ADVANCED_MESSAGE);
 				}
 				break;
@@ -3452,7 +3979,18 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				if (handleStandardMenuInput(MODE_OPTIONS_ADVANCED, true)) {
 					resetKeys();
 					setRenderDefaults(true);
-					prepMode(MODE_ADVANCED_MESSAGE);
+					if (ENABLE_RENDER_PROBE && needProbe) {
+						/*
+						 *	The renderers are probed again straight away,
+						 *	taking the place of those already loaded.
+						 */
+						releaseTrack();
+						loadedMode = MODE_OPTIONS_ADVANCED;
+						prepMode(MODE_LOADING);
+					} else {
+						flushTracks();
+						prepMode(MODE_ADVANCED_MESSAGE);
+					}
 				}
 				break;
 			case MODE_ADVANCED_MESSAGE:
@@ -3478,7 +4016,7 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				defaultRaceLoop(true, false, false);
 				break;
 			case MODE_TIME_TRIAL:
-				defaultRaceLoop(validGhost[trackNum], true, validGhost[trackNum]);
+				defaultRaceLoop(raceGhost, true, raceGhost);
 				break;
 			case MODE_PAUSE:
 				standardMenuLoop(mainMenu, false);
@@ -3714,6 +4252,13 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				starAnim.cycle();
 				jumpFast.cycle(); // animates the player's position in the list
 				
+				/*
+				 *	The tournament's next track loads whilst the results show.
+				 */
+				if (levelNum < (TOTAL_TOURNAMENTS - 1) && (trackNum % TRACKS_PER_LEVEL) < (TRACKS_PER_LEVEL - 1)) {
+					preloadTrack(trackNum + 1);
+				}
+				
 				displayTimer--;
 				if (standardMenuLoop(miniView, false)) {
 					resetKeys();
@@ -4031,6 +4576,13 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			}
 		}
 		
+		/*
+		 *	Only the logic and render are timed for the renderer. Painting
+		 *	costs the same whatever the floor quality (and waits on the
+		 *	display, which may be slow or hidden).
+		 */
+		int frameTime = (int) (System.currentTimeMillis() - frameStart);
+		
 		/*
 		 *	When restoring from a saved state it can be visually jarring as
 		 *	two quick updates happen in succession. This ensures the first is
@@ -4038,12 +4590,36 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		 */
 		if (!skipPaint) {
 			if (!multiScreen) {
-				repaint();
-				serviceRepaints();
+				/*
+				 *	A pipelined race frame is recorded then left to paint
+				 *	while the next is run and rendered into the renderer's
+				 *	other buffer, only waiting if a paint is still drawing
+				 *	when that frame is presented.
+				 */
+				boolean pipelined = false;
+				if (track != null) {
+					if (USE_PIPELINED_PAINT) {
+						pipelined = composeFrame();
+					} else {
+						track.present();
+					}
+				} else if (USE_PIPELINED_PAINT) {
+					synchronized (paintLock) {
+						paintComposed = false;
+					}
+				}
+				if (!pipelined) {
+					repaint();
+					serviceRepaints();
+				}
 			}
 		} else {
 			skipPaint = false;
 		}
+		if (pipelineFrame) {
+			track.setFrameTime(frameTime);
+			pipelineFrame = false;
+		}
 	}
 	
 	private void mpSetKartChoiceMenu() {
@@ -4304,38 +4880,33 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	}
 	
 	public final void deletePrefs(String key) {
-		try {
-			RecordStore db = RecordStore.openRecordStore(key, false);
-			db.deleteRecord(1);
-			db.closeRecordStore();
-		} catch (Exception e) {}
+		store.delete(key);
 	}
 	
 	public final boolean setPrefs(String key, byte[] data) {
-		try {
-			RecordStore db = RecordStore.openRecordStore(key, true);
-			if (db.getNumRecords() == 0) {
-				db.addRecord(data, 0, data.length);
-			} else {
-				db.setRecord(1, data, 0, data.length);
-			}
-			db.closeRecordStore();
-		} catch (Exception e) {
-			return false;
-		}
+		store.set(key, data);
 		return true;
 	}
 	
 	public final byte[] getPrefs(String key, byte[] data) {
-		try {
-			RecordStore db = RecordStore.openRecordStore(key, false);
-			if (data == null) {
-				data = new byte[db.getRecordSize(1)];
+		return store.get(key, data);
+	}
+	
+	/**
+	 *	Queues the preferences and progress for saving. Only those changed
+	 *	since last saved are actually written.
+	 */
+	private void savePrefs() {
+		if (prefs[PREFS_CHECKSUM] != calculateCRC8(prefs)) {
+			prefs[PREFS_CHECKSUM]  = calculateCRC8(prefs);
+			setPrefs("prefs", prefs);
+			if (DEBUG) {
+				System.out.println("Saving prefs");
 			}
-			db.getRecord(1, data, 0);
-			db.closeRecordStore();
-		} catch (Exception e) {}
-		return data;
+		}
+		setPrefs("best",   ByteUtils.shortsToBytes(new byte[TOTAL_TRACKS * 2], 0, best, TOTAL_TRACKS));
+		setPrefs("keys",   ByteUtils.multiBytesToBytes(new byte[DIFFICULTY_LEVELS * TOTAL_TOURNAMENTS], 0, totalKeys, DIFFICULTY_LEVELS, TOTAL_TOURNAMENTS));
+		setPrefs("finish", ByteUtils.multiBytesToBytes(new byte[DIFFICULTY_LEVELS * TOTAL_TRACKS], 0, finishPos, DIFFICULTY_LEVELS, TOTAL_TRACKS));
 	}
 	
 	public final void start() {
@@ -4357,6 +4928,12 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 				sound.stop(true);
 			}
 		}
+		/*
+		 *	The game may not be coming back, so anything unsaved is written
+		 *	now (on the store's thread, leaving this to return straight away).
+		 */
+		savePrefs();
+		store.flush();
 		switch (mode) {
 		case MODE_MULTIPLAYER_CLIENT:
 			if (ENABLE_MULTIPLAYER) {
@@ -4392,19 +4969,8 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 			sound.stop(true);
 		}
 		
-		if (prefs[PREFS_CHECKSUM] != calculateCRC8(prefs)) {
-			prefs[PREFS_CHECKSUM]  = calculateCRC8(prefs);
-			setPrefs("prefs", prefs);
-			if (DEBUG) {
-				System.out.println("Saving prefs");
-			}
-		}
-		
-		// TODO: possibly only save this if they change
-		setPrefs("trials", ByteUtils.booleansToBytes(new byte[TOTAL_TRACKS], 0, validGhost, TOTAL_TRACKS));
-		setPrefs("best",   ByteUtils.shortsToBytes(new byte[TOTAL_TRACKS * 2], 0, best, TOTAL_TRACKS));
-		setPrefs("keys",   ByteUtils.multiBytesToBytes(new byte[DIFFICULTY_LEVELS * TOTAL_TOURNAMENTS], 0, totalKeys, DIFFICULTY_LEVELS, TOTAL_TOURNAMENTS));
-		setPrefs("finish", ByteUtils.multiBytesToBytes(new byte[DIFFICULTY_LEVELS * TOTAL_TRACKS], 0, finishPos, DIFFICULTY_LEVELS, TOTAL_TRACKS));
+		savePrefs();
+		PrefsStore.close(STORE_NAME);
 	}
 	
 	public final boolean isRunning() {
@@ -4422,29 +4988,25 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 		GameCanvas.multiScreen = multiScreen;
 	}
 	
-	/**
-	 *	Ganerated values used for calculating a CRC (for checking the validity
-	 *	of stored data).
-	 */
-	private static final byte[] CRC8 = new byte[256];
-	static {
-		for (int n = 0; n < 256; n++) {
-			CRC8[n] = (byte) (n * n * n + n * n + n + 1);
-		}
-	}
-	
 	/**
 	 *	Calculates a CRC from the data in an array, assuming the first index
 	 *	is where this value is stored.
 	 */
 	private static byte calculateCRC8(byte[] data) {
-		int crc = 0xFF;
-		for (int n = data.length - 1; n > 0; n--) {
-			crc = (data[n] & 0xFF) ^ (CRC8[crc] & 0xFF);
-		}
-		return (byte) crc;
+		return PrefsStore.crc8(data, 1, data.length - 1);
 	}
 	
+	/**
+	 *	Name of the RecordStore everything is saved in.
+	 */
+	private static final String STORE_NAME = "jsr";
+	
+	/**
+	 *	Stores used by earlier versions, each holding a single record, which
+	 *	are moved into the one store on first run.
+	 */
+	private static final String[] LEGACY_STORES = {"prefs", "best", "keys", "finish", "probe", "replay"};
+	
 	/**
 	 *	How many seconds for the count into the race.
 	 */
@@ -4603,6 +5165,42 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	private static final int RENDERER_M3G_14 = 5;
 	private static final int RENDERER_M3G_18 = 6;
 	
+	/**
+	 *	Renderers tried by the startup probe, best quality first.
+	 */
+	private static final int[] PROBE_RENDERERS = {
+		RENDERER_M3G_11,
+		RENDERER_M3G_12,
+		RENDERER_M3G_14,
+		RENDERER_M3G_18,
+		RENDERER_MODE7_SMOOTH,
+		RENDERER_MODE7_CHUNKY,
+		RENDERER_TOPDOWN
+	};
+	
+	/**
+	 *	Number of frames each renderer is timed over.
+	 */
+	private static final int PROBE_FRAMES = 200;
+	
+	/**
+	 *	Percentage of the frame time a renderer may use, leaving the rest for
+	 *	the race logic.
+	 */
+	private static final int PROBE_BUDGET = 75;
+	
+	/**
+	 *	Longest time in milliseconds the whole probe may take, after which
+	 *	the quickest renderer so far is chosen.
+	 */
+	private static final int PROBE_TIME_LIMIT = 20000;
+	
+	/**
+	 *	Track-Preload value (and default) for turning preloading on only if
+	 *	there's room for a second renderer.
+	 */
+	private static final int PRELOAD_AUTO = -1;
+	
 	private static final int PAUSE_RESUME = 0;
 	//private static final int PAUSE_SAVE = 1; // Load and save is now automatic
 	//private static final int PAUSE_LOAD = 2;
@@ -4626,6 +5224,12 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	
 	private static final int PREFS_STORAGE_SIZE = 9;
 	
+	private static final int PROBE_FINGERPRINT = 0;
+	private static final int PROBE_RENDERER = 4;
+	private static final int PROBE_BACKGROUND = 5;
+	
+	private static final int PROBE_STORAGE_SIZE = 6;
+	
 	/************************************************************************/
 	
 	private static final int MULTIPLAYER_MAX_ERRORS = 5;
@@ -4903,6 +5507,19 @@ public final class GameCanvas extends AbstractCanvas implements Constants, Runna
 	 */
 	public static final int GHOST_SECONDS = FRAMES_PER_MIN * RaceCore.MAX_LAPS;
 	
+	/**
+	 *	Initial size of the ghost recording buffers. A run rarely takes more
+	 *	than two bytes, with the joystick held for several ticks at a time, so
+	 *	this is usually plenty (and the buffer grows if not).
+	 */
+	private static final int GHOST_BUFFER_SIZE = GHOST_SECONDS / 4;
+	
+	/**
+	 *	Offset of the joystick recording in the ghosts saved by earlier
+	 *	versions (after the kart, laps and lap times).
+	 */
+	private static final int LEGACY_GHOST_JOY = 2 + RaceCore.MAX_LAPS * 2;
+	
 	/*
 	 *	Indices for for individual chars in the overlay (HUD and results)
 	 *	localisation string.
@@ -0,0 +1,236 @@
+package numfum.j2me.jsr;
+
+import numfum.j2me.util.ByteUtils;
+import numfum.j2me.util.Joystick;
+
+/**
+ *	Time trial ghosts for every track. Each track has a slot for the player's
+ *	best run, their last run and a ghost downloaded from elsewhere.
+ *
+ *	An index entry holds the kart driven and the time set for each ghost, so
+ *	the game can show and compare ghosts without reading them. The ghosts
+ *	themselves are only read when raced, each entry being the kart, the time
+ *	and the recorded joystick (see <code>Joystick.save()</code>).
+ */
+final class GhostLibrary implements Constants {
+	/**
+	 *	The player's fastest run on the track.
+	 */
+	static final int SLOT_BEST = 0;
+	
+	/**
+	 *	The player's most recent run.
+	 */
+	static final int SLOT_LAST = 1;
+	
+	/**
+	 *	A ghost from somewhere else, to race against.
+	 */
+	static final int SLOT_DOWNLOADED = 2;
+	
+	static final int TOTAL_SLOTS = 3;
+	
+	/**
+	 *	Returned by <code>find()</code> if the track has no ghost to race.
+	 */
+	static final int NO_SLOT = -1;
+	
+	/**
+	 *	Where the index and ghosts are saved.
+	 */
+	private final PrefsStore store;
+	
+	/**
+	 *	Whether each slot holds a ghost, indexed by
+	 *	<code>track * TOTAL_SLOTS + slot</code>.
+	 */
+	private final boolean[] used;
+	
+	/**
+	 *	Kart driven by each ghost.
+	 */
+	private final int[] kartIdx;
+	
+	/**
+	 *	Race time of each ghost.
+	 */
+	private final int[] time;
+	
+	/**
+	 *	Reads the index, starting with an empty library if there isn't one.
+	 */
+	GhostLibrary(PrefsStore store, int tracks) {
+		this.store = store;
+		used    = new boolean[tracks * TOTAL_SLOTS];
+		kartIdx = new int[tracks * TOTAL_SLOTS];
+		time    = new int[tracks * TOTAL_SLOTS];
+		
+		byte[] index = store.get(INDEX_KEY, null);
+		if (index != null && index.length == 1 + used.length * INDEX_ENTRY_SIZE && index[0] == VERSION) {
+			for (int n = 0, i = 1; n < used.length; n++) {
+				used   [n] = index[i] != 0;
+				kartIdx[n] = index[i + 1];
+				time   [n] = ByteUtils.bytesToUnsignedShort(index, i + 2);
+				i += INDEX_ENTRY_SIZE;
+			}
+		} else {
+			clear();
+		}
+	}
+	
+	/**
+	 *	Returns whether a slot holds a ghost.
+	 */
+	boolean has(int track, int slot) {
+		return used[track * TOTAL_SLOTS + slot];
+	}
+	
+	/**
+	 *	Returns the kart driven by a ghost.
+	 */
+	int getKart(int track, int slot) {
+		return kartIdx[track * TOTAL_SLOTS + slot];
+	}
+	
+	/**
+	 *	Returns the race time of a ghost.
+	 */
+	int getTime(int track, int slot) {
+		return time[track * TOTAL_SLOTS + slot];
+	}
+	
+	/**
+	 *	Returns the ghost to race on a track: the faster of the player's best
+	 *	and the downloaded ghost.
+	 *
+	 *	@return the slot or <code>NO_SLOT</code> if there are neither
+	 */
+	int find(int track) {
+		int found = NO_SLOT;
+		if (has(track, SLOT_BEST)) {
+			found = SLOT_BEST;
+		}
+		if (has(track, SLOT_DOWNLOADED) && (found == NO_SLOT || getTime(track, SLOT_DOWNLOADED) < getTime(track, found))) {
+			found = SLOT_DOWNLOADED;
+		}
+		return found;
+	}
+	
+	/**
+	 *	Loads a ghost's recording into a joystick, ready for playback. A ghost
+	 *	that can't be read is removed.
+	 *
+	 *	@return whether the ghost was loaded
+	 */
+	boolean load(int track, int slot, Joystick joy) {
+		byte[] data = get(track, slot);
+		if (data != null && data.length > GHOST_HEADER_SIZE && joy.load(data, GHOST_HEADER_SIZE) == data.length) {
+			return true;
+		}
+		if (has(track, slot)) {
+			remove(track, slot);
+		}
+		return false;
+	}
+	
+	/**
+	 *	Returns a ghost as stored (for sending elsewhere), or
+	 *	<code>null</code> if the slot is empty.
+	 */
+	byte[] get(int track, int slot) {
+		if (has(track, slot)) {
+			return store.get(GHOST_KEY + (track * TOTAL_SLOTS + slot), null);
+		}
+		return null;
+	}
+	
+	/**
+	 *	Encodes a recording as a ghost.
+	 */
+	static byte[] encode(int kart, int raceTime, Joystick joy) {
+		byte[] data = new byte[GHOST_HEADER_SIZE + joy.finish()];
+		data[0] = (byte) kart;
+		ByteUtils.shortToBytes(data, 1, raceTime);
+		joy.save(data, GHOST_HEADER_SIZE);
+		return data;
+	}
+	
+	/**
+	 *	Stores a ghost (as created by <code>encode()</code> or returned from
+	 *	<code>get()</code>), replacing whatever was in the slot.
+	 *
+	 *	@return whether the ghost was valid and stored
+	 */
+	boolean put(int track, int slot, byte[] data) {
+		if (data == null || data.length < GHOST_HEADER_SIZE || data[0] < 0 || data[0] >= RaceCore.TOTAL_KARTS) {
+			return false;
+		}
+		int n = track * TOTAL_SLOTS + slot;
+		store.set(GHOST_KEY + n, data);
+		used   [n] = true;
+		kartIdx[n] = data[0];
+		time   [n] = ByteUtils.bytesToUnsignedShort(data, 1);
+		saveIndex();
+		return true;
+	}
+	
+	/**
+	 *	Empties a slot.
+	 */
+	void remove(int track, int slot) {
+		int n = track * TOTAL_SLOTS + slot;
+		store.delete(GHOST_KEY + n);
+		used[n] = false;
+		saveIndex();
+	}
+	
+	/**
+	 *	Removes every ghost.
+	 */
+	void clear() {
+		for (int n = 0; n < used.length; n++) {
+			if (used[n]) {
+				store.delete(GHOST_KEY + n);
+				used[n] = false;
+			}
+		}
+		saveIndex();
+	}
+	
+	private void saveIndex() {
+		byte[] index = new byte[1 + used.length * INDEX_ENTRY_SIZE];
+		index[0] = VERSION;
+		for (int n = 0, i = 1; n < used.length; n++) {
+			index[i] = (byte) (used[n] ? 1 : 0);
+			index[i + 1] = (byte) kartIdx[n];
+			ByteUtils.shortToBytes(index, i + 2, time[n]);
+			i += INDEX_ENTRY_SIZE;
+		}
+		store.set(INDEX_KEY, index);
+	}
+	
+	/**
+	 *	Key of the index.
+	 */
+	private static final String INDEX_KEY = "ghosts";
+	
+	/**
+	 *	Key of each ghost, followed by its slot index.
+	 */
+	private static final String GHOST_KEY = "ghost-";
+	
+	/**
+	 *	Format version of the index and ghosts.
+	 */
+	private static final byte VERSION = 1;
+	
+	/**
+	 *	Bytes per slot in the index: whether used, kart and time.
+	 */
+	private static final int INDEX_ENTRY_SIZE = 4;
+	
+	/**
+	 *	Bytes before the joystick data in a ghost: kart and time.
+	 */
+	private static final int GHOST_HEADER_SIZE = 3;
+}
@@ -514,7 +514,20 @@ public final class Kart implements Comparable {
 		data[n++] = (byte) revt;
 		ByteUtils.booleanToByte(data, n++, oppo);
 		
-		//TODO: pickup bits and bobs
+		/*
+		 *	The surface under the kart is only checked after it's moved, so
+		 *	the grip from the previous tick is needed for the next.
+		 */
+		ByteUtils.intToBytes(data, n, tract);
+		n += 4;
+		ByteUtils.intToBytes(data, n, frict);
+		n += 4;
+		
+		data[n++] = (byte) puType;
+		ByteUtils.shortToBytes(data, n, puTime);
+		n += 2;
+		data[n++] = (byte) puProp;
+		data[n++] = (byte) pufx;
 		
 		return n;
 	}
@@ -554,6 +567,17 @@ public final class Kart implements Comparable {
 		revt = data[n++];
 		oppo = ByteUtils.byteToBoolean(data, n++);
 		
+		tract = ByteUtils.bytesToInt(data, n);
+		n += 4;
+		frict = ByteUtils.bytesToInt(data, n);
+		n += 4;
+		
+		puType = data[n++];
+		puTime = ByteUtils.bytesToShort(data, n);
+		n += 2;
+		puProp = data[n++];
+		pufx   = data[n++];
+		
 		return n;
 	}
 	
@@ -730,6 +754,13 @@ public final class Kart implements Comparable {
 	
 	public static final int COLLISION_DIAMETER = 12 << (Fixed.FIXED_POINT - 3);
 	
+	/**
+	 *	Number of bytes required to store a kart's state.
+	 *
+	 *	@see #save
+	 */
+	public static final int STORAGE_REQUIRED = 61;
+	
 	private static final boolean CLAMP_VELOCITY_PER_HIT = false;
 	private static final boolean FORCE_SEPARATION = true;
 	private static final boolean FORCE_SEPARATION_ON_SCENERY = true;
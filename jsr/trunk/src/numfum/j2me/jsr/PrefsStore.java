@@ -0,0 +1,619 @@
+package numfum.j2me.jsr;
+
+import java.io.*;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+import javax.microedition.rms.*;
+
+/**
+ *	Everything the game saves, kept as keyed entries in a single RecordStore
+ *	opened once for the life of the game. Writes are queued and made on a
+ *	low priority thread, so saving never holds up the game, and entries
+ *	written several times before the thread gets to them are only written
+ *	once (small entries set unchanged aren't written at all).
+ *
+ *	Each key has two records, written to in turn, each holding the key, a
+ *	sequence number and a CRC8 of the whole record. Loading takes the newest
+ *	record with a valid CRC, so if writing one is interrupted (the battery
+ *	running out, say) the previous version is still there.
+ */
+final class PrefsStore implements Constants, Runnable {
+	/**
+	 *	Stores open, shared between games in the same VM (as in the
+	 *	multi-screen mode), with the number of games using each.
+	 */
+	private static final Hashtable shared = new Hashtable();
+	private static final Hashtable users  = new Hashtable();
+	
+	/**
+	 *	The RecordStore, or <code>null</code> if it couldn't be opened (in
+	 *	which case nothing is saved).
+	 */
+	private RecordStore db = null;
+	
+	/**
+	 *	Held whilst reading or writing the RecordStore, always taken before
+	 *	the store's own lock.
+	 */
+	private final Object io = new Object();
+	
+	/**
+	 *	Records for each key: the newest, the other (or zero) and the newest
+	 *	sequence number.
+	 */
+	private final Hashtable slots = new Hashtable();
+	
+	/**
+	 *	Entries waiting to be written (<code>DELETED</code> for removal).
+	 */
+	private final Hashtable pending = new Hashtable();
+	
+	/**
+	 *	Copies of the entries up to <code>CACHE_LIMIT</code> bytes, read from
+	 *	memory and compared against to skip unchanged writes.
+	 */
+	private final Hashtable cache = new Hashtable();
+	
+	/**
+	 *	Set once pending writes should be made without waiting for more.
+	 */
+	private boolean urgent = false;
+	
+	/**
+	 *	Set once the store is closing, after which the writer finishes.
+	 */
+	private boolean closed = false;
+	
+	/**
+	 *	Set whilst the writer thread is running.
+	 */
+	private boolean writing = true;
+	
+	/**
+	 *	Number of writes failed in a row (only used by the writer thread).
+	 */
+	private int failures = 0;
+	
+	/**
+	 *	Opens a store, reading which records hold each entry, and starts its
+	 *	writer.
+	 */
+	private PrefsStore(String name) {
+		try {
+			db = RecordStore.openRecordStore(name, true);
+		} catch (Exception e) {
+			if (DEBUG) {
+				System.out.println("Unable to open store: " + e);
+			}
+		}
+		if (db != null) {
+			/*
+			 *	Records aren't deleted whilst enumerating them, only once
+			 *	they've all been seen.
+			 */
+			Vector unwanted = new Vector();
+			try {
+				RecordEnumeration records = db.enumerateRecords(null, null, false);
+				while (records.hasNextElement()) {
+					int id = records.nextRecordId();
+					try {
+						loadRecord(id, db.getRecord(id), unwanted);
+					} catch (RecordStoreException e) {
+						if (DEBUG) {
+							System.out.println("Unable to read record " + id + ": " + e);
+						}
+					}
+				}
+				records.destroy();
+			} catch (RecordStoreException e) {
+				if (DEBUG) {
+					System.out.println("Unable to read store: " + e);
+				}
+			}
+			for (int n = unwanted.size() - 1; n >= 0; n--) {
+				try {
+					db.deleteRecord(((Integer) unwanted.elementAt(n)).intValue());
+				} catch (RecordStoreException e) {}
+			}
+		}
+		Thread thread = new Thread(this);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+	
+	/**
+	 *	Returns the store with the given name, opening it if no other game
+	 *	has.
+	 */
+	static synchronized PrefsStore open(String name) {
+		PrefsStore store = (PrefsStore) shared.get(name);
+		if (store == null) {
+			store = new PrefsStore(name);
+			shared.put(name, store);
+			users.put(name, new Integer(1));
+		} else {
+			users.put(name, new Integer(((Integer) users.get(name)).intValue() + 1));
+		}
+		return store;
+	}
+	
+	/**
+	 *	Finishes with a store, waiting for any pending writes before closing
+	 *	it if no other game is using it.
+	 */
+	static synchronized void close(String name) {
+		PrefsStore store = (PrefsStore) shared.get(name);
+		if (store != null) {
+			int count = ((Integer) users.get(name)).intValue() - 1;
+			if (count > 0) {
+				users.put(name, new Integer(count));
+				store.flush();
+			} else {
+				shared.remove(name);
+				users.remove(name);
+				store.close();
+			}
+		}
+	}
+	
+	/**
+	 *	Checks a record and notes it as one of its key's, adding it (or an
+	 *	older record for the key beyond the two kept) to those unwanted if
+	 *	it's invalid.
+	 */
+	private void loadRecord(int id, byte[] record, Vector unwanted) {
+		if (record == null || record.length < HEADER_SIZE || record[0] != FORMAT || record[1] != crc8(record, 2, record.length - 2)) {
+			unwanted.addElement(new Integer(id));
+			return;
+		}
+		int seq = ((record[2] & 0xFF) << 24) | ((record[3] & 0xFF) << 16) | ((record[4] & 0xFF) << 8) | (record[5] & 0xFF);
+		String key;
+		int start;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, HEADER_SIZE, record.length - HEADER_SIZE));
+			key = in.readUTF();
+			start = record.length - in.available();
+		} catch (IOException e) {
+			unwanted.addElement(new Integer(id));
+			return;
+		}
+		
+		int[] slot = (int[]) slots.get(key);
+		if (slot == null) {
+			slot = new int[3];
+			slots.put(key, slot);
+		}
+		if (slot[SLOT_NEWEST] == 0 || seq - slot[SLOT_SEQ] > 0) {
+			if (slot[SLOT_OTHER] != 0) {
+				unwanted.addElement(new Integer(slot[SLOT_OTHER]));
+			}
+			slot[SLOT_OTHER]  = slot[SLOT_NEWEST];
+			slot[SLOT_NEWEST] = id;
+			slot[SLOT_SEQ]    = seq;
+			cache.remove(key);
+			if (record.length - start <= CACHE_LIMIT) {
+				byte[] data = new byte[record.length - start];
+				System.arraycopy(record, start, data, 0, data.length);
+				cache.put(key, data);
+			}
+		} else if (slot[SLOT_OTHER] == 0) {
+			slot[SLOT_OTHER] = id;
+		} else {
+			unwanted.addElement(new Integer(id));
+		}
+	}
+	
+	/**
+	 *	Returns whether there's an entry for a key.
+	 */
+	boolean has(String key) {
+		synchronized (this) {
+			Object value = pending.get(key);
+			if (value != null) {
+				return value != DELETED;
+			}
+		}
+		synchronized (io) {
+			return slots.get(key) != null;
+		}
+	}
+	
+	/**
+	 *	Reads an entry into an array, allocating one the size of the entry if
+	 *	<code>data</code> is <code>null</code>. The array is left unchanged if
+	 *	there's no entry, with any longer than the array truncated.
+	 *
+	 *	@return the array (<code>null</code> if none was passed in and
+	 *	there's no entry)
+	 */
+	byte[] get(String key, byte[] data) {
+		byte[] value = null;
+		int start = 0;
+		synchronized (this) {
+			Object entry = pending.get(key);
+			if (entry == DELETED) {
+				return data;
+			}
+			if (entry == null) {
+				entry = cache.get(key);
+			}
+			value = (byte[]) entry;
+		}
+		if (value == null) {
+			synchronized (io) {
+				int[] slot = (int[]) slots.get(key);
+				if (slot == null || db == null) {
+					return data;
+				}
+				try {
+					value = db.getRecord(slot[SLOT_NEWEST]);
+					start = HEADER_SIZE + 2 + ((value[HEADER_SIZE] & 0xFF) << 8 | (value[HEADER_SIZE + 1] & 0xFF));
+				} catch (Exception e) {
+					return data;
+				}
+			}
+		}
+		if (data == null) {
+			data = new byte[value.length - start];
+		}
+		System.arraycopy(value, start, data, 0, Math.min(value.length - start, data.length));
+		return data;
+	}
+	
+	/**
+	 *	Queues an entry to be written (the data is copied, so the array can be
+	 *	reused straight away).
+	 */
+	void set(String key, byte[] data) {
+		byte[] copy = new byte[data.length];
+		System.arraycopy(data, 0, copy, 0, data.length);
+		synchronized (this) {
+			if (pending.get(key) == null && isCached(key, copy)) {
+				return;
+			}
+			pending.put(key, copy);
+			cache.remove(key);
+			if (copy.length <= CACHE_LIMIT) {
+				cache.put(key, copy);
+			}
+			notify();
+		}
+	}
+	
+	/**
+	 *	Queues an entry's removal.
+	 */
+	synchronized void delete(String key) {
+		pending.put(key, DELETED);
+		cache.remove(key);
+		notify();
+	}
+	
+	/**
+	 *	Has the writer make any pending writes straight away, without waiting
+	 *	for them to finish (for when the game is suspended).
+	 */
+	synchronized void flush() {
+		urgent = true;
+		notify();
+	}
+	
+	/**
+	 *	Makes any pending writes straight away, waiting for them to finish
+	 *	(for when an entry has to be known to be saved).
+	 *
+	 *	@return whether everything was written
+	 */
+	boolean sync() {
+		synchronized (io) {
+			if (db == null) {
+				return false;
+			}
+		}
+		while (writeNext());
+		synchronized (this) {
+			return pending.isEmpty();
+		}
+	}
+	
+	/**
+	 *	Makes any pending writes then closes the RecordStore, waiting until
+	 *	it's done.
+	 */
+	private void close() {
+		synchronized (this) {
+			closed = true;
+			notify();
+			while (writing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {}
+			}
+		}
+	}
+	
+	/**
+	 *	Returns whether the cached copy of an entry is the same as the data.
+	 */
+	private boolean isCached(String key, byte[] data) {
+		byte[] value = (byte[]) cache.get(key);
+		if (value == null || value.length != data.length) {
+			return false;
+		}
+		for (int n = data.length - 1; n >= 0; n--) {
+			if (value[n] != data[n]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 *	Writes pending entries, waiting a moment after the first is queued for
+	 *	any others (often set together) to be coalesced.
+	 */
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {}
+				}
+				long due = System.currentTimeMillis() + WRITE_DELAY;
+				long left;
+				while (!urgent && !closed && (left = due - System.currentTimeMillis()) > 0) {
+					try {
+						wait(left);
+					} catch (InterruptedException e) {}
+				}
+				urgent = false;
+				if (closed && (pending.isEmpty() || failures >= CLOSE_RETRIES)) {
+					if (DEBUG && !pending.isEmpty()) {
+						System.out.println("Unable to save " + pending.size() + " entries");
+					}
+					break;
+				}
+			}
+			while (writeNext());
+		}
+		synchronized (io) {
+			try {
+				if (db != null) {
+					db.closeRecordStore();
+				}
+			} catch (Exception e) {}
+			db = null;
+		}
+		synchronized (this) {
+			writing = false;
+			notifyAll();
+		}
+	}
+	
+	/**
+	 *	Writes the next pending entry. The entry is only taken from the queue
+	 *	whilst holding the RecordStore, so a read either finds it queued or
+	 *	waits for it to be written. An entry that fails to write goes back on
+	 *	the queue (unless a newer one has been queued since) to be tried
+	 *	again.
+	 *
+	 *	@return whether the entry was written, <code>false</code> once there's
+	 *	nothing left or the write failed
+	 */
+	private boolean writeNext() {
+		synchronized (io) {
+			String key;
+			byte[] data;
+			synchronized (this) {
+				Enumeration keys = pending.keys();
+				if (!keys.hasMoreElements()) {
+					return false;
+				}
+				key  = (String) keys.nextElement();
+				data = (byte[]) pending.remove(key);
+			}
+			if (db == null) {
+				return true; // nothing can be saved
+			}
+			if (!write(key, data)) {
+				synchronized (this) {
+					if (pending.get(key) == null) {
+						pending.put(key, data);
+					}
+				}
+				failures++;
+				return false;
+			}
+		}
+		failures = 0;
+		return true;
+	}
+	
+	/**
+	 *	Writes an entry to whichever of its records is older, or deletes it.
+	 *	Must be called holding <code>io</code>.
+	 *
+	 *	@return whether the entry was written
+	 */
+	private boolean write(String key, byte[] data) {
+		int[] slot = (int[]) slots.get(key);
+		try {
+			if (data == DELETED) {
+				if (slot != null) {
+					deleteRecord(slot[SLOT_NEWEST]);
+					deleteRecord(slot[SLOT_OTHER]);
+					slots.remove(key);
+				}
+				return true;
+			}
+			if (slot == null) {
+				slot = new int[3];
+			}
+			int seq = slot[SLOT_SEQ] + 1;
+			byte[] record = createRecord(key, seq, data);
+			int id = slot[SLOT_OTHER];
+			if (id == 0) {
+				id = db.addRecord(record, 0, record.length);
+			} else {
+				db.setRecord(id, record, 0, record.length);
+			}
+			slot[SLOT_OTHER]  = slot[SLOT_NEWEST];
+			slot[SLOT_NEWEST] = id;
+			slot[SLOT_SEQ]    = seq;
+			slots.put(key, slot);
+		} catch (Exception e) {
+			if (DEBUG) {
+				System.out.println("Unable to save " + key + ": " + e);
+			}
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 *	Deletes a record, if there is one (zero meaning none).
+	 */
+	private void deleteRecord(int id) throws RecordStoreException {
+		if (id != 0) {
+			try {
+				db.deleteRecord(id);
+			} catch (InvalidRecordIDException e) {} // already gone
+		}
+	}
+	
+	private static byte[] createRecord(String key, int seq, byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + key.length() + 2 + data.length);
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeByte(FORMAT);
+		dos.writeByte(0);
+		dos.writeInt(seq);
+		dos.writeUTF(key);
+		dos.write(data);
+		dos.close();
+		byte[] record = out.toByteArray();
+		record[1] = crc8(record, 2, record.length - 2);
+		return record;
+	}
+	
+	/**
+	 *	Copies the record from a store used by earlier versions (one record
+	 *	per store), writing it straight away, then deletes the old store. The
+	 *	old store is kept if the copy can't be written, to try again next
+	 *	time.
+	 */
+	void importLegacy(String name) {
+		byte[] data = null;
+		try {
+			RecordStore old = RecordStore.openRecordStore(name, false);
+			try {
+				if (old.getNumRecords() > 0) {
+					data = old.getRecord(1);
+				}
+			} finally {
+				old.closeRecordStore();
+			}
+		} catch (Exception e) {
+			return; // not there (or unreadable, in which case it's left be)
+		}
+		if (data != null) {
+			synchronized (io) {
+				if (db == null || !write(name, data)) {
+					return;
+				}
+				synchronized (this) {
+					cache.remove(name);
+				}
+			}
+		}
+		deleteLegacy(name);
+	}
+	
+	/**
+	 *	Returns the record from a store used by earlier versions, or
+	 *	<code>null</code> if there isn't one (or it can't be read).
+	 */
+	static byte[] readLegacy(String name) {
+		try {
+			RecordStore old = RecordStore.openRecordStore(name, false);
+			try {
+				if (old.getNumRecords() > 0) {
+					return old.getRecord(1);
+				}
+			} finally {
+				old.closeRecordStore();
+			}
+		} catch (Exception e) {}
+		return null;
+	}
+	
+	/**
+	 *	Deletes a store used by earlier versions.
+	 */
+	static void deleteLegacy(String name) {
+		try {
+			RecordStore.deleteRecordStore(name);
+		} catch (Exception e) {}
+	}
+	
+	/**
+	 *	Ganerated values used for calculating a CRC (for checking the validity
+	 *	of stored data).
+	 */
+	private static final byte[] CRC8 = new byte[256];
+	static {
+		for (int n = 0; n < 256; n++) {
+			CRC8[n] = (byte) (n * n * n + n * n + n + 1);
+		}
+	}
+	
+	/**
+	 *	Calculates a CRC from part of an array.
+	 */
+	static byte crc8(byte[] data, int offset, int length) {
+		int crc = 0xFF;
+		for (int n = offset + length - 1; n >= offset; n--) {
+			crc = (data[n] & 0xFF) ^ (CRC8[crc] & 0xFF);
+		}
+		return (byte) crc;
+	}
+	
+	/**
+	 *	Marks an entry queued for removal.
+	 */
+	private static final byte[] DELETED = new byte[0];
+	
+	/**
+	 *	Indices into each key's slots.
+	 */
+	private static final int SLOT_NEWEST = 0;
+	private static final int SLOT_OTHER  = 1;
+	private static final int SLOT_SEQ    = 2;
+	
+	/**
+	 *	Record format version.
+	 */
+	private static final byte FORMAT = 1;
+	
+	/**
+	 *	Bytes before the key in each record: format, CRC and sequence number.
+	 */
+	private static final int HEADER_SIZE = 6;
+	
+	/**
+	 *	Largest entry kept in memory.
+	 */
+	private static final int CACHE_LIMIT = 256;
+	
+	/**
+	 *	Time in milliseconds the writer waits for more entries before writing.
+	 */
+	private static final int WRITE_DELAY = 500;
+	
+	/**
+	 *	Attempts made at writing a failed entry once closing, before giving
+	 *	up on it (failed entries are otherwise retried after each delay).
+	 */
+	private static final int CLOSE_RETRIES = 3;
+}
@@ -3,6 +3,7 @@ package numfum.j2me.jsr;
 import javax.microedition.lcdui.Graphics;
 
 import numfum.j2me.jsr.generic.PositionableContainer;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.BitmapFont;
 import numfum.j2me.text.Line;
 import numfum.j2me.util.Vector2D;
@@ -397,7 +398,7 @@ public final class RaceChromeImpl extends PositionableContainer implements Const
 		}
 	}
 	
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		super.paint(g, offsetX, offsetY);
 		
 		/*
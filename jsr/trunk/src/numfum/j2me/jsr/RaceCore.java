@@ -4,6 +4,7 @@ import java.io.*;
 
 import numfum.j2me.jsr.generic.AnimTile;
 import numfum.j2me.jsr.generic.AnimTileController;
+import numfum.j2me.util.PackedDataInput;
 import numfum.j2me.util.ByteUtils;
 import numfum.j2me.util.Fixed;
 import numfum.j2me.util.Joystick;
@@ -79,6 +80,26 @@ public final class RaceCore implements Constants {
 	private final byte[][] marker = new byte[NUM_RACING_LINES + 1][MAX_AI_MARKERS];
 	private final byte[] usedMarkers = new byte[NUM_RACING_LINES + 1];
 	
+	/**
+	 *	Number of quads marking out the track map.
+	 */
+	private int numQuads = 0;
+	
+	/**
+	 *	Number of racing lines loaded (including the last, average line).
+	 */
+	private int numLines = 0;
+	
+	/**
+	 *	Number of points in each racing line.
+	 */
+	private final int[] linePoints = new int[NUM_RACING_LINES + 1];
+	
+	/**
+	 *	Track effects used by the track's tiles, one bit per effect.
+	 */
+	private int trfxUsed = 0;
+	
 	/************************************************************************/
 	
 	/**
@@ -246,6 +267,13 @@ public final class RaceCore implements Constants {
 	private final byte[] randomLineChange = new byte[MAX_RANDOM_LINE_CHANGES];
 	private int randomLineChangeIdx = 0;
 	
+	/**
+	 *	State of the race's own random numbers (giving the same sequence as
+	 *	<code>java.util.Random</code>). Kept per race rather than shared so
+	 *	a race can be seeded, saved, and run again exactly.
+	 */
+	private long randSeed = (System.currentTimeMillis() ^ RAND_MULTIPLIER) & RAND_MASK;
+	
 	/**
 	 *	As karts cross the finish line they are placed from this value, which
 	 *	is then incremented. The race is over when the value is equal to the
@@ -479,6 +507,32 @@ public final class RaceCore implements Constants {
 		return n;
 	}
 	
+	/**
+	 *	Seeds the random numbers used by the race, so that calling
+	 *	<code>init()</code> then feeding the same input to
+	 *	<code>loop()</code> plays out the race the same every time.
+	 */
+	public void setSeed(long seed) {
+		randSeed = (seed ^ RAND_MULTIPLIER) & RAND_MASK;
+	}
+	
+	/**
+	 *	Returns a random number between 0 and <code>n</code> (exclusive).
+	 *
+	 *	@see Fixed#rand(int)
+	 */
+	private int rand(int n) {
+		randSeed = (randSeed * RAND_MULTIPLIER + RAND_ADDEND) & RAND_MASK;
+		return (((int) (randSeed >>> 16) >>> (32 - Fixed.FIXED_POINT)) * n) >> Fixed.FIXED_POINT;
+	}
+	
+	/**
+	 *	Saves the race state, requiring <code>STORAGE_REQUIRED</code> bytes.
+	 *	Everything changed by <code>loop()</code> is stored (including the
+	 *	random numbers and which track sprites have been collected) so that
+	 *	a race can be picked up from any saved point and carry on exactly as
+	 *	it would have.
+	 */
 	public int save(byte[] data, int n) {
 		data[n++] = (byte) randomRacingLineIdx;
 		data[n++] = (byte) randomLineChangeIdx;
@@ -496,6 +550,55 @@ public final class RaceCore implements Constants {
 		for (int i = 0; i < CAMERA_DELAY_SIZE; i++) {
 			n = camDelay[i].save(data, n);
 		}
+		/*
+		 *	The finish camera stays wherever the camera was last, so that
+		 *	has to be kept too.
+		 */
+		ByteUtils.intToBytes(data, n + 0, cameraX);
+		ByteUtils.intToBytes(data, n + 4, cameraY);
+		data[n + 8] = (byte) cameraA;
+		n += 9;
+		
+		ByteUtils.intToBytes(data, n + 0, (int) (randSeed >>> 32));
+		ByteUtils.intToBytes(data, n + 4, (int)  randSeed);
+		n += 8;
+		
+		data[n++] = (byte) powerUpState;
+		data[n++] = (byte) powerUpPlayer;
+		data[n++] = (byte) powerUpPayout;
+		data[n++] = (byte) nextFinish;
+		
+		/*
+		 *	The race order is sorted in place, so which order karts level on
+		 *	distance end up in depends on the order before.
+		 */
+		for (int i = 0; i < MAX_KARTS; i++) {
+			data[n++] = (byte) ((order[i] != null) ? order[i].index : -1);
+		}
+		
+		for (int i = 0; i < MAX_KARTS; i++) {
+			ByteUtils.intToBytes(data, n, autoAccl[i]);
+			n += 4;
+			for (int lap = 0; lap < MAX_LAPS; lap++) {
+				ByteUtils.shortToBytes(data, n, lapTime[i][lap]);
+				n += 2;
+			}
+		}
+		
+		/*
+		 *	One bit per grid square for whether it still has a sprite.
+		 */
+		for (int row = 0; row < TrackRenderer.GRID_ROWS; row++) {
+			for (int col = 0; col < TrackRenderer.GRID_COLS; col += 8) {
+				int bits = 0;
+				for (int i = 0; i < 8; i++) {
+					if (track.getSpriteIndex(col + i, row) != 0) {
+						bits |= 1 << i;
+					}
+				}
+				data[n++] = (byte) bits;
+			}
+		}
 		
 		return n;
 	}
@@ -517,6 +620,49 @@ public final class RaceCore implements Constants {
 		for (int i = 0; i < CAMERA_DELAY_SIZE; i++) {
 			n = camDelay[i].load(data, n);
 		}
+		cameraX = ByteUtils.bytesToInt(data, n + 0);
+		cameraY = ByteUtils.bytesToInt(data, n + 4);
+		cameraA = data[n + 8] & 0xFF;
+		n += 9;
+		
+		randSeed = ((long) ByteUtils.bytesToInt(data, n) << 32) | (ByteUtils.bytesToInt(data, n + 4) & 0xFFFFFFFFL);
+		n += 8;
+		
+		powerUpState  = data[n++];
+		powerUpPlayer = data[n++];
+		powerUpPayout = data[n++];
+		nextFinish    = data[n++];
+		
+		for (int i = 0; i < MAX_KARTS; i++) {
+			int index = data[n++];
+			order[i] = (index >= 0) ? kart[index] : null;
+		}
+		
+		for (int i = 0; i < MAX_KARTS; i++) {
+			autoAccl[i] = ByteUtils.bytesToInt(data, n);
+			n += 4;
+			for (int lap = 0; lap < MAX_LAPS; lap++) {
+				lapTime[i][lap] = ByteUtils.bytesToUnsignedShort(data, n);
+				n += 2;
+			}
+		}
+		
+		/*
+		 *	Sprites can only be taken away during a race, so the track's
+		 *	sprites are put back as loaded then those collected by this
+		 *	point removed again.
+		 */
+		track.restoreSprites();
+		for (int row = 0; row < TrackRenderer.GRID_ROWS; row++) {
+			for (int col = 0; col < TrackRenderer.GRID_COLS; col += 8) {
+				int bits = data[n++];
+				for (int i = 0; i < 8; i++) {
+					if ((bits & (1 << i)) == 0 && track.getSpriteIndex(col + i, row) != 0) {
+						removeTrackSprite(col + i, row);
+					}
+				}
+			}
+		}
 		
 		return n;
 	}
@@ -531,10 +677,10 @@ public final class RaceCore implements Constants {
 		randomRacingLineIdx = 0;
 		randomLineChangeIdx = 0;
 		for (int n = 0; n < MAX_RANDOM_RACING_LINES; n++) {
-			randomRacingLine[n] = (byte) Fixed.rand(NUM_RACING_LINES);
+			randomRacingLine[n] = (byte) rand(NUM_RACING_LINES);
 		}
 		for (int n = 0; n < MAX_RANDOM_LINE_CHANGES; n++) {
-			randomLineChange[n] = (byte) Fixed.rand(16);
+			randomLineChange[n] = (byte) rand(16);
 		}
 		
 		for (int n = 0; n < numKartsRacing; n++) {
@@ -590,11 +736,7 @@ public final class RaceCore implements Constants {
 	}
 	
 	public void load(String filename) throws IOException {
-		DataInputStream in = new DataInputStream(getClass().getResourceAsStream(filename));
-		load(in);
-		in.close();
-		
-		in = null;
+		load(PackedDataInput.open(filename));
 		
 		if (DEBUG) {
 			System.out.println("Loaded: " + filename + " (" + Runtime.getRuntime().freeMemory() + "/" + Runtime.getRuntime().totalMemory() + ")");
@@ -605,63 +747,14 @@ public final class RaceCore implements Constants {
 		track.load(in);
 		
 		/*
-		 *	Initialises the AI 'pixel' map then 'draws' the quads which mark
-		 *	out the track segments.
-		 */
-		for (int row = 0; row < TrackRenderer.MAP_ROWS; row++) {
-			for (int col = 0; col < TrackRenderer.MAP_COLS; col++) {
-				aiQuad[row << TrackRenderer.MAP_ROWS_BITS | col] = -1;
-			}
-		}
-		int numQuads = in.readUnsignedByte();
-		for (int n = 0; n < numQuads; n++) {
-			for (int i = 0; i < 4; i++) {
-				scratchQuad[i].set(in.readUnsignedByte(), in.readUnsignedByte());
-			}
-			Vector2D.fillQuad(scratchQuad, aiQuad, TrackRenderer.MAP_COLS, TrackRenderer.MAP_ROWS, (byte) n, true);
-		}
-		
-		/*
-		 *	Markers signify that an AI point is part of a group of points and
-		 *	a kart should maintain its course.
+		 *	Compiled tracks have the AI tables ready built in place of the
+		 *	racing lines.
 		 */
-		for (int n = 0; n < NUM_RACING_LINES + 1; n++) {
-			usedMarkers[n] = 0;
-		}
-		int numMarkerSections = in.readUnsignedByte();
-		for (int n = 0; n < numMarkerSections; n++) {
-			usedMarkers[n] = in.readByte();
-			in.readFully(marker[n], 0, usedMarkers[n]);
-		}
-		
-		/*
-		 *	Steps through each of the racing line points and assigns them to
-		 *	their corresponding quad.
-		 */
-		int numLines = in.readUnsignedByte();
-		for (int i = 0; i < numLines; i++) {
-			int points = in.readUnsignedByte();
-			for (int n = 0; n < points; n++) {
-				aiOrig[i][n].set(in.readUnsignedByte(), in.readUnsignedByte());
-			}
-			/*
-			 *	The first point is wrapped around to close the line.
-			 */
-			aiOrig[i][points].set(aiOrig[i][0]);
-			
-			assignAIPoints(i, points, numQuads);
-			
-			/*
-			 *	Special case code. The last line is used to calculate the
-			 *	distance around the track.
-			 */
-			if (i == NUM_RACING_LINES) {
-				aiLineLen[0] = 0;
-				for (int n = 1; n <= points; n++) {
-					aiLineLen[n] = aiLineLen[n - 1] + (aiUnit[NUM_RACING_LINES][n].mag() >> Fixed.FIXED_POINT);
-				}
-				aiLineTotal = aiLineLen[points];
-			}
+		int quads = in.readUnsignedByte();
+		if (quads == COMPILED) {
+			loadCompiled(in);
+		} else {
+			loadRacingLines(in, quads);
 		}
 		
 		startDir = in.readUnsignedByte() << Fixed.FIXED_POINT;
@@ -727,20 +820,189 @@ public final class RaceCore implements Constants {
 		 *	need animating. Also add the reserved effects for collisions
 		 *	and power-ups.
 		 */
-		AnimTileController ctl = track.getSpriteAnimController();
-		boolean[] trfxAdded = new boolean[MAX_EFFECTS + 3];
-		for (int row = 0; row < TrackRenderer.MAP_ROWS; row++) {
-			for (int col = 0; col < TrackRenderer.MAP_COLS; col++) {
-				int trfx = (track.getTileData(col, row) >> TILE_DATA_ROTL_TRFX) & TILE_DATA_MASK_TRFX;
-				if (!trfxAdded[trfx]) {
-					ctl.addAnimTile(trfxSpriteRef[trfx]);
-					trfxAdded[trfx] = true;
+		if (quads != COMPILED) {
+			trfxUsed = 0;
+			for (int row = 0; row < TrackRenderer.MAP_ROWS; row++) {
+				for (int col = 0; col < TrackRenderer.MAP_COLS; col++) {
+					trfxUsed |= 1 << ((track.getTileData(col, row) >> TILE_DATA_ROTL_TRFX) & TILE_DATA_MASK_TRFX);
 				}
 			}
 		}
+		AnimTileController ctl = track.getSpriteAnimController();
+		for (int trfx = 0; trfx < MAX_EFFECTS + 3; trfx++) {
+			if ((trfxUsed & (1 << trfx)) != 0) {
+				ctl.addAnimTile(trfxSpriteRef[trfx]);
+			}
+		}
 		ctl.addAnimTile(trfxSpriteRef[EFFECT_COLLIDE]);
 		ctl.addAnimTile(trfxSpriteRef[EFFECT_NITROUS]);
 		ctl.addAnimTile(trfxSpriteRef[EFFECT_MISFIRE]);
+		
+		track.keepSprites();
+	}
+	
+	/**
+	 *	Readies the loaded track for another race, putting back anything
+	 *	taken off it during the last (without reading the track again).
+	 */
+	public void restoreTrack() {
+		track.restoreSprites();
+	}
+	
+	/**
+	 *	Returns the renderer this race logic drives.
+	 */
+	public TrackRenderer getTrack() {
+		return track;
+	}
+	
+	/**
+	 *	Reads the quads marking out the track and the racing lines, building
+	 *	the AI tables from them.
+	 */
+	private void loadRacingLines(DataInput in, int quads) throws IOException {
+		/*
+		 *	Initialises the AI 'pixel' map then 'draws' the quads which mark
+		 *	out the track segments.
+		 */
+		for (int row = 0; row < TrackRenderer.MAP_ROWS; row++) {
+			for (int col = 0; col < TrackRenderer.MAP_COLS; col++) {
+				aiQuad[row << TrackRenderer.MAP_ROWS_BITS | col] = -1;
+			}
+		}
+		numQuads = quads;
+		for (int n = 0; n < numQuads; n++) {
+			for (int i = 0; i < 4; i++) {
+				scratchQuad[i].set(in.readUnsignedByte(), in.readUnsignedByte());
+			}
+			Vector2D.fillQuad(scratchQuad, aiQuad, TrackRenderer.MAP_COLS, TrackRenderer.MAP_ROWS, (byte) n, true);
+		}
+		
+		/*
+		 *	Markers signify that an AI point is part of a group of points and
+		 *	a kart should maintain its course.
+		 */
+		for (int n = 0; n < NUM_RACING_LINES + 1; n++) {
+			usedMarkers[n] = 0;
+		}
+		int numMarkerSections = in.readUnsignedByte();
+		for (int n = 0; n < numMarkerSections; n++) {
+			usedMarkers[n] = in.readByte();
+			in.readFully(marker[n], 0, usedMarkers[n]);
+		}
+		
+		/*
+		 *	Steps through each of the racing line points and assigns them to
+		 *	their corresponding quad.
+		 */
+		numLines = in.readUnsignedByte();
+		for (int i = 0; i < numLines; i++) {
+			int points = in.readUnsignedByte();
+			linePoints[i] = points;
+			for (int n = 0; n < points; n++) {
+				aiOrig[i][n].set(in.readUnsignedByte(), in.readUnsignedByte());
+			}
+			/*
+			 *	The first point is wrapped around to close the line.
+			 */
+			aiOrig[i][points].set(aiOrig[i][0]);
+			
+			assignAIPoints(i, points, numQuads);
+			
+			/*
+			 *	Special case code. The last line is used to calculate the
+			 *	distance around the track.
+			 */
+			if (i == NUM_RACING_LINES) {
+				aiLineLen[0] = 0;
+				for (int n = 1; n <= points; n++) {
+					aiLineLen[n] = aiLineLen[n - 1] + (aiUnit[NUM_RACING_LINES][n].mag() >> Fixed.FIXED_POINT);
+				}
+				aiLineTotal = aiLineLen[points];
+			}
+		}
+	}
+	
+	/**
+	 *	Reads the AI tables as written by <code>saveCompiled()</code>.
+	 */
+	private void loadCompiled(DataInput in) throws IOException {
+		if (in.readUnsignedByte() != COMPILED_VERSION) {
+			if (DEBUG) {
+				throw new IOException("Unknown compiled track version");
+			} else {
+				throw new IOException();
+			}
+		}
+		for (int n = 0, size = aiQuad.length; n < size;) {
+			byte quad = in.readByte();
+			int end = n + in.readUnsignedByte() + 1;
+			while (n < end) {
+				aiQuad[n++] = quad;
+			}
+		}
+		numQuads = in.readUnsignedByte();
+		numLines = in.readUnsignedByte();
+		for (int i = 0; i < numLines; i++) {
+			int points = in.readUnsignedByte();
+			linePoints[i] = points;
+			in.readFully(aiNext[i], 0, numQuads);
+			in.readFully(aiThis[i], 0, numQuads);
+			for (int n = 0; n <= points; n++) {
+				aiOrig[i][n].set(in.readUnsignedByte() << Fixed.FIXED_POINT, in.readUnsignedByte() << Fixed.FIXED_POINT);
+				aiUnit[i][n].set(in.readInt(), in.readInt());
+				aiCalc[i][n].set(in.readInt(), in.readInt());
+			}
+			if (i == NUM_RACING_LINES) {
+				for (int n = 0; n <= points; n++) {
+					aiLineLen[n] = in.readInt();
+				}
+				aiLineTotal = aiLineLen[points];
+			}
+		}
+		trfxUsed = in.readUnsignedShort();
+	}
+	
+	/**
+	 *	Writes the AI tables built for the loaded track, for the track
+	 *	compiler to store in place of the racing lines. The quad map is run
+	 *	length encoded, being mostly runs of the same segment.
+	 */
+	public void saveCompiled(DataOutput out) throws IOException {
+		out.writeByte(COMPILED);
+		out.writeByte(COMPILED_VERSION);
+		for (int n = 0, size = aiQuad.length; n < size;) {
+			byte quad = aiQuad[n];
+			int run = 1;
+			while (run < 256 && n + run < size && aiQuad[n + run] == quad) {
+				run++;
+			}
+			out.writeByte(quad);
+			out.writeByte(run - 1);
+			n += run;
+		}
+		out.writeByte(numQuads);
+		out.writeByte(numLines);
+		for (int i = 0; i < numLines; i++) {
+			int points = linePoints[i];
+			out.writeByte(points);
+			out.write(aiNext[i], 0, numQuads);
+			out.write(aiThis[i], 0, numQuads);
+			for (int n = 0; n <= points; n++) {
+				out.writeByte(aiOrig[i][n].x >> Fixed.FIXED_POINT);
+				out.writeByte(aiOrig[i][n].y >> Fixed.FIXED_POINT);
+				out.writeInt(aiUnit[i][n].x);
+				out.writeInt(aiUnit[i][n].y);
+				out.writeInt(aiCalc[i][n].x);
+				out.writeInt(aiCalc[i][n].y);
+			}
+			if (i == NUM_RACING_LINES) {
+				for (int n = 0; n <= points; n++) {
+					out.writeInt(aiLineLen[n]);
+				}
+			}
+		}
+		out.writeShort(trfxUsed);
 	}
 	
 	/**
@@ -979,10 +1241,10 @@ public final class RaceCore implements Constants {
 								if (powerUpState == POWERUP_STATE_READY) {
 									powerUpState  = POWERUP_SEGMENT_DELAY * POWERUP_SEGMENTS;
 									powerUpPlayer = n;
-									if (Fixed.rand(2) == 0) {
-										powerUpPayout = Fixed.rand(TOTAL_POWERUPS) * POWERUP_PER_BONUS;
+									if (rand(2) == 0) {
+										powerUpPayout = rand(TOTAL_POWERUPS) * POWERUP_PER_BONUS;
 									} else {
-										powerUpPayout = Fixed.rand(POWERUP_RANDOM);
+										powerUpPayout = rand(POWERUP_RANDOM);
 									}
 									if (!hasPickups && powerUpPayout == POWERUP_PICKUP) {
 										/*
@@ -1098,6 +1360,33 @@ public final class RaceCore implements Constants {
 		return order[pos].index;
 	}
 	
+	/**
+	 *	Returns which karts were in view at the last render, one bit per kart.
+	 *	The AI only corrects karts out of view, so playing a race back
+	 *	without drawing it needs these restoring each tick.
+	 *
+	 *	@see #setViewFlags
+	 */
+	public int getViewFlags() {
+		int flags = 0;
+		for (int n = 0; n < MAX_KARTS; n++) {
+			if (kart[n].view) {
+				flags |= 1 << n;
+			}
+		}
+		return flags;
+	}
+	
+	/**
+	 *	Sets which karts are in view, as returned by
+	 *	<code>getViewFlags()</code>.
+	 */
+	public void setViewFlags(int flags) {
+		for (int n = 0; n < MAX_KARTS; n++) {
+			kart[n].view = (flags & (1 << n)) != 0;
+		}
+	}
+	
 	public int getLapTime(int n, int lap) {
 		return lapTime[n][lap];
 	}
@@ -1345,8 +1634,19 @@ public final class RaceCore implements Constants {
 		ghostMode = active;
 	}
 	
-	public void render(int camType) {
-		
+	/**
+	 *	Moves the camera as <code>render()</code> would but without drawing,
+	 *	for running a race ahead of what's being shown (so that the race
+	 *	state saved afterwards matches).
+	 */
+	public void skip(int camType) {
+		aim(camType);
+	}
+	
+	/**
+	 *	Positions the camera for the next render.
+	 */
+	private void aim(int camType) {
 		workKart = kart[playerIdx];
 		
 		/*************************** Camera position ************************/
@@ -1395,6 +1695,10 @@ public final class RaceCore implements Constants {
 			break;
 		}
 		cameraA &= 0xFF;
+	}
+	
+	public void render(int camType) {
+		aim(camType);
 		
 		/********************************************************************/
 		
@@ -1490,19 +1794,19 @@ public final class RaceCore implements Constants {
 	 *	last one acting as an average of the track routes (for calculating the
 	 *	race order).
 	 */
-	private static final int NUM_RACING_LINES = 3;
+	public static final int NUM_RACING_LINES = 3;
 	
 	/**
 	 *	Number of points in the AI's racing line. This must be less than 128
 	 *	as a byte arrays are used for storing point indices (with the most
 	 *	significant bit as a 'no change' flag).
 	 */
-	private static final int MAX_AI_POINTS = 48;
+	public static final int MAX_AI_POINTS = 48;
 	
 	/**
 	 *	Markers signify that an AI point is part of a group of points.
 	 */
-	private static final int MAX_AI_MARKERS = 16;
+	public static final int MAX_AI_MARKERS = 16;
 	
 	/*
 	 *	Masks the first seven bits of the AI point indices.
@@ -1513,7 +1817,19 @@ public final class RaceCore implements Constants {
 	 *	Number of segments the track is broken into to for determining the
 	 *	closest AI point.
 	 */
-	private static final int MAX_AI_SEGMENTS = 128;
+	public static final int MAX_AI_SEGMENTS = 128;
+	
+	/**
+	 *	Stored in place of the number of quads to mark a compiled track (the
+	 *	quad map being bytes, with -1 for no quad, there can't be this many).
+	 */
+	public static final int COMPILED = 0xFF;
+	
+	/**
+	 *	Format of the compiled AI tables, bumped whenever the tables change
+	 *	(tracks then need compiling again).
+	 */
+	public static final int COMPILED_VERSION = 1;
 	
 	/************************************************************************/
 	
@@ -1651,6 +1967,24 @@ public final class RaceCore implements Constants {
 	private static final int MAX_RANDOM_RACING_LINES = 32;
 	private static final int MAX_RANDOM_LINE_CHANGES = 32;
 	
+	/**
+	 *	Constants for the random number generator (the same as used by
+	 *	<code>java.util.Random</code>).
+	 */
+	private static final long RAND_MULTIPLIER = 0x5DEECE66DL;
+	private static final long RAND_ADDEND     = 0xBL;
+	private static final long RAND_MASK       = (1L << 48) - 1;
+	
+	/**
+	 *	Number of bytes required to store the race state.
+	 *
+	 *	@see #save
+	 */
+	public static final int STORAGE_REQUIRED = 2 + MAX_RANDOM_RACING_LINES + MAX_RANDOM_LINE_CHANGES + 2
+		+ MAX_KARTS * Kart.STORAGE_REQUIRED + CAMERA_DELAY_SIZE * 8 + 9
+		+ 8 + 4 + MAX_KARTS + MAX_KARTS * (4 + MAX_LAPS * 2)
+		+ TrackRenderer.GRID_ROWS * TrackRenderer.GRID_COLS / 8;
+	
 	/************************************************************************/
 	
 	/**
@@ -0,0 +1,338 @@
+package numfum.j2me.jsr;
+
+import java.io.*;
+
+/**
+ *	A whole race stored as its starting conditions and the input given to
+ *	<code>RaceCore</code> each tick, enough to play the race out again
+ *	exactly (the race's random numbers being seeded).
+ *
+ *	Each tick is stored as a byte holding the camera used and whether the
+ *	race logic was run (and with collisions), a byte of which karts were in
+ *	view (which the AI depends on), then one byte per kart for its joystick
+ *	(<code>AUTO</code> for karts driven by the AI).
+ *
+ *	The race state is also kept every <code>KEYFRAME_TICKS</code>, so that
+ *	playback can start from any point by restoring the keyframe before it
+ *	and running the few ticks in between.
+ */
+public final class RaceRecording implements Constants {
+	/**
+	 *	Which track was raced.
+	 */
+	public int trackNum = 0;
+	
+	/**
+	 *	Laps in the race.
+	 */
+	public int laps = RaceCore.MAX_LAPS;
+	
+	/**
+	 *	Number of karts racing.
+	 */
+	public int numKarts = 0;
+	
+	/**
+	 *	Index of the kart the camera follows.
+	 */
+	public int playerIdx = 0;
+	
+	/**
+	 *	Race settings as passed to <code>RaceCore</code>.
+	 */
+	public boolean ghosts, pickups, powerups;
+	
+	/**
+	 *	Seed for the race's random numbers.
+	 */
+	public long seed = 0;
+	
+	/**
+	 *	Line-up for the race (only the first <code>numKarts</code> are used).
+	 */
+	public final Player[] player = new Player[RaceCore.MAX_KARTS];
+	
+	/**
+	 *	Input for each tick, <code>numKarts + 2</code> bytes per tick.
+	 */
+	private byte[] frames = new byte[0];
+	
+	/**
+	 *	Number of ticks recorded.
+	 */
+	private int ticks = 0;
+	
+	/**
+	 *	Race state at the start of every <code>KEYFRAME_TICKS</code> ticks
+	 *	(the arrays are kept between recordings).
+	 */
+	private byte[][] keyframe = new byte[0][];
+	
+	/**
+	 *	Number of keyframes stored.
+	 */
+	private int keyframes = 0;
+	
+	public RaceRecording() {
+		for (int n = 0; n < RaceCore.MAX_KARTS; n++) {
+			player[n] = new Player(n);
+		}
+	}
+	
+	/**
+	 *	Returns the number of ticks recorded.
+	 */
+	public int getTicks() {
+		return ticks;
+	}
+	
+	/**
+	 *	Returns the number of keyframes stored.
+	 */
+	public int getKeyframes() {
+		return keyframes;
+	}
+	
+	/**
+	 *	Returns a keyframe's race state, as saved by <code>RaceCore</code>.
+	 */
+	public byte[] getKeyframe(int n) {
+		return keyframe[n];
+	}
+	
+	/**
+	 *	Starts a new recording, copying the race's starting conditions. Should
+	 *	be called just before <code>RaceCore.init()</code>, after seeding the
+	 *	race with the same <code>seed</code>.
+	 */
+	public void start(int trackNum, long seed, boolean ghosts, int numKarts, Player[] playerObj, int playerIdx, int laps, boolean pickups, boolean powerups) {
+		this.trackNum  = trackNum;
+		this.seed      = seed;
+		this.ghosts    = ghosts;
+		this.numKarts  = numKarts;
+		this.playerIdx = playerIdx;
+		this.laps      = laps;
+		this.pickups   = pickups;
+		this.powerups  = powerups;
+		for (int n = 0; n < numKarts; n++) {
+			player[n].reset(playerObj[n].kartIdx, playerObj[n].isHuman, playerObj[n].gridPos);
+		}
+		ticks     = 0;
+		keyframes = 0;
+	}
+	
+	/**
+	 *	Adds a tick to the end of the recording, first storing a keyframe if
+	 *	one is due. Should be called before the tick's <code>loop()</code>.
+	 *
+	 *	@see #add
+	 */
+	public void record(RaceCore core, int camType, boolean run, boolean collide, int[] joy) {
+		if (ticks % KEYFRAME_TICKS == 0) {
+			saveKeyframe(core);
+		}
+		add(camType, run, collide, core.getViewFlags(), joy);
+	}
+	
+	/**
+	 *	Stores the race state as the next keyframe.
+	 */
+	private void saveKeyframe(RaceCore core) {
+		if (keyframes == keyframe.length) {
+			byte[][] temp = new byte[keyframes + KEYFRAME_GROWTH][];
+			System.arraycopy(keyframe, 0, temp, 0, keyframes);
+			keyframe = temp;
+		}
+		if (keyframe[keyframes] == null) {
+			keyframe[keyframes] = new byte[RaceCore.STORAGE_REQUIRED];
+		}
+		core.save(keyframe[keyframes++], 0);
+	}
+	
+	/**
+	 *	Fills in any keyframes missing (for recordings made without them) by
+	 *	running the whole race without drawing. The track should already be
+	 *	loaded, and the race is left finished.
+	 */
+	public void buildKeyframes(RaceCore core) {
+		if (keyframes == (ticks + KEYFRAME_TICKS - 1) / KEYFRAME_TICKS) {
+			return;
+		}
+		keyframes = 0;
+		init(core);
+		int[] joy = new int[RaceCore.MAX_KARTS];
+		for (int tick = 0; tick < ticks; tick++) {
+			if (tick % KEYFRAME_TICKS == 0) {
+				saveKeyframe(core);
+			}
+			core.skip(run(core, tick, joy));
+		}
+	}
+	
+	/**
+	 *	Restores the race state from the last keyframe at or before a tick,
+	 *	returning the tick restored to. The race should already be set up
+	 *	with <code>init()</code>.
+	 */
+	public int restore(RaceCore core, int tick) {
+		int n = Math.max(Math.min(tick / KEYFRAME_TICKS, keyframes - 1), 0);
+		core.load(keyframe[n], 0);
+		return n * KEYFRAME_TICKS;
+	}
+	
+	/**
+	 *	Adds a tick to the end of the recording.
+	 *
+	 *	@param camType camera used for the tick's render
+	 *	@param run     whether the race logic was run this tick
+	 *	@param collide whether the logic was run with collisions
+	 *	@param view    karts in view before the tick was run
+	 *	@param joy     joystick state per kart, or less than zero for the AI
+	 */
+	public void add(int camType, boolean run, boolean collide, int view, int[] joy) {
+		int size = numKarts + 2;
+		if ((ticks + 1) * size > frames.length) {
+			byte[] temp = new byte[Math.max(frames.length * 2, size * FRAMES_PER_MIN)];
+			System.arraycopy(frames, 0, temp, 0, ticks * size);
+			frames = temp;
+		}
+		int n = ticks++ * size;
+		frames[n++] = (byte) (camType | (run ? FLAG_RUN : 0) | (collide ? FLAG_COLLIDE : 0));
+		frames[n++] = (byte) view;
+		for (int i = 0; i < numKarts; i++) {
+			frames[n++] = (byte) ((i >= joy.length || joy[i] < 0) ? AUTO : (joy[i] & JOY_MASK));
+		}
+	}
+	
+	/**
+	 *	Sets a race up as recorded, ready for the first tick. The track
+	 *	should already be loaded.
+	 */
+	public void init(RaceCore core) {
+		core.setSeed(seed);
+		core.setGhostMode(ghosts);
+		core.init(numKarts, player, playerIdx, laps, pickups, powerups);
+	}
+	
+	/**
+	 *	Runs the race logic for one tick, filling in the joystick state.
+	 *
+	 *	@return the camera type for the tick's render
+	 */
+	public int run(RaceCore core, int tick, int[] joy) {
+		int n = tick * (numKarts + 2);
+		int flags = frames[n++];
+		int view  = frames[n++];
+		if ((flags & FLAG_RUN) != 0) {
+			core.setViewFlags(view);
+			for (int i = 0; i < numKarts; i++) {
+				int state = frames[n++] & 0xFF;
+				joy[i] = (state == AUTO) ? -1 : state;
+			}
+			core.loop(joy, (flags & FLAG_COLLIDE) != 0);
+		}
+		return flags & MASK_CAMERA;
+	}
+	
+	/**
+	 *	Stores the recording in a stream.
+	 */
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeByte(trackNum);
+		out.writeByte(laps);
+		out.writeByte(numKarts);
+		out.writeByte(playerIdx);
+		out.writeByte((ghosts ? 1 : 0) | (pickups ? 2 : 0) | (powerups ? 4 : 0));
+		out.writeLong(seed);
+		for (int n = 0; n < numKarts; n++) {
+			out.writeByte(player[n].kartIdx);
+			out.writeByte(player[n].gridPos);
+			out.writeBoolean(player[n].isHuman);
+		}
+		out.writeInt(ticks);
+		out.write(frames, 0, ticks * (numKarts + 2));
+		out.writeShort(RaceCore.STORAGE_REQUIRED);
+		out.writeShort(keyframes);
+		for (int n = 0; n < keyframes; n++) {
+			out.write(keyframe[n]);
+		}
+	}
+	
+	/**
+	 *	Reads a recording from a stream.
+	 */
+	public void load(DataInput in) throws IOException {
+		if (in.readByte() != VERSION) {
+			if (DEBUG) {
+				throw new IOException("Unknown recording version");
+			} else {
+				throw new IOException();
+			}
+		}
+		trackNum  = in.readByte();
+		laps      = in.readByte();
+		numKarts  = in.readByte();
+		playerIdx = in.readByte();
+		int flags = in.readByte();
+		ghosts    = (flags & 1) != 0;
+		pickups   = (flags & 2) != 0;
+		powerups  = (flags & 4) != 0;
+		seed      = in.readLong();
+		for (int n = 0; n < numKarts; n++) {
+			int kartIdx = in.readByte();
+			int gridPos = in.readByte();
+			player[n].reset(kartIdx, in.readBoolean(), gridPos);
+		}
+		ticks  = in.readInt();
+		frames = new byte[ticks * (numKarts + 2)];
+		in.readFully(frames);
+		
+		/*
+		 *	Keyframes saved with a different sized race state are skipped, to
+		 *	be rebuilt with buildKeyframes().
+		 */
+		keyframes = 0;
+		int size  = in.readUnsignedShort();
+		int count = in.readUnsignedShort();
+		if (size == RaceCore.STORAGE_REQUIRED) {
+			keyframe = new byte[count][RaceCore.STORAGE_REQUIRED];
+			for (int n = 0; n < count; n++) {
+				in.readFully(keyframe[n]);
+			}
+			keyframes = count;
+		} else {
+			in.skipBytes(size * count);
+		}
+	}
+	
+	/**
+	 *	Format version, bumped whenever the race logic changes in a way that
+	 *	would play old recordings differently.
+	 */
+	private static final int VERSION = 2;
+	
+	/**
+	 *	Ticks between keyframes.
+	 */
+	public static final int KEYFRAME_TICKS = 64;
+	
+	/**
+	 *	Keyframes added to the array each time it fills.
+	 */
+	private static final int KEYFRAME_GROWTH = 16;
+	
+	private static final int MASK_CAMERA = 0x0F;
+	private static final int FLAG_RUN     = 0x10;
+	private static final int FLAG_COLLIDE = 0x20;
+	
+	/**
+	 *	Joystick value stored for karts driven by the AI.
+	 */
+	private static final int AUTO = 0xFF;
+	
+	/**
+	 *	Buttons kept from the joystick state.
+	 */
+	private static final int JOY_MASK = 0x7F;
+}
@@ -0,0 +1,131 @@
+package numfum.j2me.jsr;
+
+/**
+ *	Plays back a <code>RaceRecording</code>, with the usual controls: play,
+ *	pause, fast-forward and seeking to any tick.
+ *
+ *	Seeking restores the keyframe before the tick wanted then runs the race
+ *	logic forward without drawing, so it never runs more than
+ *	<code>RaceRecording.KEYFRAME_TICKS</code> ticks however far the seek.
+ *	Fast-forward works the same way, running the ticks skipped over without
+ *	drawing them.
+ */
+public final class ReplayPlayer {
+	/**
+	 *	Recording being played.
+	 */
+	private final RaceRecording recording;
+	
+	/**
+	 *	Race logic the recording is played on.
+	 */
+	private final RaceCore core;
+	
+	/**
+	 *	Joystick state passed to the race logic.
+	 */
+	private final int[] joy = new int[RaceCore.MAX_KARTS];
+	
+	/**
+	 *	Next tick to play.
+	 */
+	private int tick = 0;
+	
+	/**
+	 *	Ticks played for each call to <code>cycle()</code>, zero whilst
+	 *	paused.
+	 */
+	private int speed = 0;
+	
+	/**
+	 *	Prepares a recording for playback, paused at the start. The recording's
+	 *	track should already be loaded into <code>core</code>.
+	 */
+	public ReplayPlayer(RaceRecording recording, RaceCore core) {
+		this.recording = recording;
+		this.core = core;
+		recording.buildKeyframes(core);
+		recording.init(core);
+		seek(0);
+	}
+	
+	/**
+	 *	Plays at normal speed.
+	 */
+	public void play() {
+		speed = 1;
+	}
+	
+	/**
+	 *	Stops playback on the current tick.
+	 */
+	public void pause() {
+		speed = 0;
+	}
+	
+	/**
+	 *	Plays at a multiple of normal speed.
+	 */
+	public void fastForward(int multiple) {
+		speed = Math.max(multiple, 1);
+	}
+	
+	/**
+	 *	Returns whether playback is paused (which it is once the end is
+	 *	reached).
+	 */
+	public boolean isPaused() {
+		return speed == 0;
+	}
+	
+	/**
+	 *	Returns the next tick to be played.
+	 */
+	public int getTick() {
+		return tick;
+	}
+	
+	/**
+	 *	Returns the length of the recording in ticks.
+	 */
+	public int getTicks() {
+		return recording.getTicks();
+	}
+	
+	/**
+	 *	Moves playback to a tick, leaving it playing or paused as it was.
+	 */
+	public void seek(int target) {
+		target = Math.max(Math.min(target, recording.getTicks()), 0);
+		if (recording.getKeyframes() > 0) {
+			tick = recording.restore(core, target);
+		} else {
+			recording.init(core);
+			tick = 0;
+		}
+		for (; tick < target; tick++) {
+			core.skip(recording.run(core, tick, joy));
+		}
+	}
+	
+	/**
+	 *	Plays the ticks due for one frame, returning the camera type the last
+	 *	of them should be drawn with (passed to <code>RaceCore.render()</code>).
+	 *
+	 *	@return the camera type or -1 if nothing was played, in which case the
+	 *	previous frame should be left showing
+	 */
+	public int cycle() {
+		int camType = -1;
+		for (int n = speed; n > 0 && tick < recording.getTicks(); n--) {
+			if (camType >= 0) {
+				core.skip(camType);
+			}
+			camType = recording.run(core, tick++, joy);
+		}
+		if (tick >= recording.getTicks()) {
+			speed = 0;
+		}
+		return camType;
+	}
+}
@@ -0,0 +1,156 @@
+package numfum.j2me.jsr;
+
+/**
+ *	Bounded cache of loaded tracks keyed by track number. Each entry is a
+ *	<code>RaceCore</code> (with its own renderer) holding a track parsed and
+ *	ready to race, so going back to a cached track is only a matter of
+ *	picking its entry up again. Anything taken off the track during a race is
+ *	put back as the entry is handed out.
+ *
+ *	Entries are kept most recently used first. Once the cache is full the
+ *	least recently used entry is given up for the next track to be loaded
+ *	into, so a cache of one costs no more than the single renderer the game
+ *	always had (whilst still skipping the load when re-racing a track).
+ *
+ *	Each entry also notes the type of renderer it was created with (see
+ *	<code>GameCanvas.getRenderType()</code>), so an entry built before the
+ *	renderer or background was changed is never handed out.
+ */
+public final class TrackCache {
+	/**
+	 *	Key for an entry without a track loaded.
+	 */
+	public static final int NO_TRACK = -1;
+	
+	/**
+	 *	Default number of tracks held.
+	 */
+	public static final int DEFAULT_CAPACITY = 1;
+	
+	/**
+	 *	Cached race logic, most recently used first.
+	 */
+	private final RaceCore[] entry;
+	
+	/**
+	 *	Track loaded in each entry.
+	 */
+	private final int[] trackNum;
+	
+	/**
+	 *	Renderer type of each entry.
+	 */
+	private final int[] renderType;
+	
+	/**
+	 *	Number of entries in use.
+	 */
+	private int size = 0;
+	
+	/**
+	 *	Creates a cache holding up to <code>capacity</code> tracks.
+	 */
+	public TrackCache(int capacity) {
+		capacity = Math.max(capacity, 1);
+		entry      = new RaceCore[capacity];
+		trackNum   = new int[capacity];
+		renderType = new int[capacity];
+	}
+	
+	/**
+	 *	Returns the entry holding a track, readied for another race, or
+	 *	<code>null</code> if the track isn't cached (with this type of
+	 *	renderer).
+	 */
+	public RaceCore get(int num, int type) {
+		for (int n = 0; n < size; n++) {
+			if (trackNum[n] == num && renderType[n] == type) {
+				RaceCore core = entry[n];
+				moveToFront(n);
+				core.restoreTrack();
+				return core;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 *	Returns whether a track is cached (with this type of renderer).
+	 */
+	public boolean contains(int num, int type) {
+		for (int n = 0; n < size; n++) {
+			if (trackNum[n] == num && renderType[n] == type) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 *	Adds an entry. Loaded tracks go to the front as the most recently
+	 *	used, entries without a track to the back as the first to reuse.
+	 *
+	 *	@return the entry given up to make room, or <code>null</code> (if
+	 *	there was room, or the entry given up was another type)
+	 */
+	public RaceCore put(int num, int type, RaceCore core) {
+		RaceCore evicted = null;
+		if (size == entry.length) {
+			evicted = take(type);
+		}
+		entry     [size] = core;
+		trackNum  [size] = num;
+		renderType[size] = type;
+		if (num != NO_TRACK) {
+			moveToFront(size);
+		}
+		size++;
+		return evicted;
+	}
+	
+	/**
+	 *	Removes an entry for another track to be loaded into: either one
+	 *	without a track or, if the cache is full, the least recently used.
+	 *	An entry of another type is removed but can't be loaded into.
+	 *
+	 *	@return the entry or <code>null</code> if there's room for another
+	 *	(or the entry removed was another type)
+	 */
+	public RaceCore take(int type) {
+		if (size > 0 && (size == entry.length || trackNum[size - 1] == NO_TRACK)) {
+			RaceCore core = entry[--size];
+			entry[size] = null;
+			if (renderType[size] == type) {
+				return core;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 *	Removes every entry, after the renderer type has changed.
+	 */
+	public void flush() {
+		for (int n = 0; n < size; n++) {
+			entry[n] = null;
+		}
+		size = 0;
+	}
+	
+	/**
+	 *	Moves an entry to the front, shuffling those before it back.
+	 */
+	private void moveToFront(int n) {
+		RaceCore core = entry[n];
+		int num  = trackNum[n];
+		int type = renderType[n];
+		for (; n > 0; n--) {
+			entry     [n] = entry     [n - 1];
+			trackNum  [n] = trackNum  [n - 1];
+			renderType[n] = renderType[n - 1];
+		}
+		entry     [0] = core;
+		trackNum  [0] = num;
+		renderType[0] = type;
+	}
+}
@@ -0,0 +1,241 @@
+package numfum.j2me.jsr;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import numfum.j2me.util.PackedDataInput;
+
+/**
+ *	Loads tracks in the background whilst the player is still in the menus,
+ *	so the race can start as soon as a track is chosen. Loading happens on a
+ *	low priority thread into a spare <code>RaceCore</code> (created on the
+ *	thread if there isn't one), which is handed over once the game asks for
+ *	the track.
+ *
+ *	Only one track is loaded at a time. Asking for a different one cancels
+ *	the current load, which stops at the next step (creating the renderer,
+ *	reading the data or parsing it) and starts on the new track instead. If
+ *	memory runs out the loader gives up for good, leaving the game to load
+ *	tracks as it always did.
+ *
+ *	Tracks are asked for with the type of renderer to load them into (see
+ *	<code>GameCanvas.getRenderType()</code>), so race logic created before
+ *	the renderer or background was changed is never handed back.
+ */
+final class TrackLoader implements Constants, Runnable {
+	/**
+	 *	Track number meaning none.
+	 */
+	private static final int NONE = TrackCache.NO_TRACK;
+	
+	/**
+	 *	Creates the race logic and renderers.
+	 */
+	private final GameCanvas game;
+	
+	/**
+	 *	Race logic tracks are loaded into, or <code>null</code> until created.
+	 */
+	private RaceCore core = null;
+	
+	/**
+	 *	Renderer type of <code>core</code>.
+	 */
+	private int coreType = 0;
+	
+	/**
+	 *	Track the loader should be working on.
+	 */
+	private int wanted = NONE;
+	
+	/**
+	 *	Renderer type the wanted track should be loaded into.
+	 */
+	private int wantedType = 0;
+	
+	/**
+	 *	Track held fully loaded in <code>core</code>.
+	 */
+	private int loaded = NONE;
+	
+	/**
+	 *	Set whilst the loader thread is running.
+	 */
+	private boolean busy = false;
+	
+	/**
+	 *	Set once memory has run out, after which nothing more is loaded.
+	 */
+	private boolean failed = false;
+	
+	TrackLoader(GameCanvas game) {
+		this.game = game;
+	}
+	
+	/**
+	 *	Starts loading a track, cancelling any other being loaded. Returns
+	 *	straight away.
+	 */
+	synchronized void preload(int trackNum, int type) {
+		if (failed || (trackNum == wanted && type == wantedType)) {
+			return;
+		}
+		wanted = trackNum;
+		wantedType = type;
+		if (!busy) {
+			busy = true;
+			Thread thread = new Thread(this);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+	
+	/**
+	 *	Returns the race logic with a track loaded, waiting if the track is
+	 *	still loading. The loader is left without race logic until another
+	 *	is passed to <code>recycle()</code>.
+	 *
+	 *	@return the race logic or <code>null</code> if the track hasn't been
+	 *	asked for with this type of renderer (or couldn't be loaded)
+	 */
+	synchronized RaceCore finish(int trackNum, int type) {
+		if (busy) {
+			wanted = trackNum;
+			wantedType = type;
+			while (busy) {
+				try {
+					wait();
+				} catch (InterruptedException e) {}
+			}
+		}
+		wanted = NONE;
+		if (loaded != trackNum || coreType != type) {
+			return null;
+		}
+		RaceCore done = core;
+		core   = null;
+		loaded = NONE;
+		return done;
+	}
+	
+	/**
+	 *	Takes back whatever race logic the loader holds, once it's stopped,
+	 *	for the game to load into itself. Also used to cancel any preload
+	 *	and let go of the race logic, when the result is ignored.
+	 *
+	 *	@return the race logic or <code>null</code> if there isn't any (of
+	 *	this type)
+	 */
+	synchronized RaceCore release(int type) {
+		wanted = NONE;
+		while (busy) {
+			try {
+				wait();
+			} catch (InterruptedException e) {}
+		}
+		RaceCore spare = core;
+		core   = null;
+		loaded = NONE;
+		return (coreType == type) ? spare : null;
+	}
+	
+	/**
+	 *	Gives the loader race logic no longer needed, to load into next
+	 *	instead of creating more. Only race logic the loader created itself
+	 *	is taken back, since loading into a renderer sharing its buffers
+	 *	with the menus would draw into them from the loader's thread.
+	 */
+	synchronized void recycle(RaceCore spare, int type) {
+		if (!failed && core == null && !busy && spare != null && spare.getTrack().isExclusive()) {
+			core = spare;
+			coreType = type;
+		}
+	}
+	
+	/**
+	 *	Returns whether the track is still wanted (with this type of
+	 *	renderer), otherwise the load is abandoned.
+	 */
+	private synchronized boolean isWanted(int trackNum, int type) {
+		return wanted == trackNum && wantedType == type;
+	}
+	
+	/**
+	 *	Returns the renderer type to load the next track into.
+	 */
+	private synchronized int nextType() {
+		return wantedType;
+	}
+	
+	/**
+	 *	Returns the next track to load, or <code>NONE</code> once there's
+	 *	nothing left to do (in which case the thread finishes).
+	 */
+	private synchronized int next() {
+		if (failed || wanted == NONE || (wanted == loaded && wantedType == coreType)) {
+			busy = false;
+			notifyAll();
+			return NONE;
+		}
+		loaded = NONE;
+		return wanted;
+	}
+	
+	/**
+	 *	Stops the thread after an error.
+	 */
+	private synchronized void stop(boolean outOfMemory) {
+		if (outOfMemory) {
+			core   = null;
+			failed = true;
+		}
+		loaded = NONE;
+		busy   = false;
+		notifyAll();
+	}
+	
+	public void run() {
+		try {
+			int trackNum;
+			while ((trackNum = next()) != NONE) {
+				int type = nextType();
+				if (core == null || coreType != type) {
+					core = null;
+					core = game.createRaceCore(type, true);
+					synchronized (this) {
+						coreType = type;
+					}
+				}
+				if (!isWanted(trackNum, type)) {
+					continue;
+				}
+				DataInput in = PackedDataInput.open("/" + trackNum + ".trk");
+				if (!isWanted(trackNum, type)) {
+					continue;
+				}
+				core.load(in);
+				synchronized (this) {
+					loaded = trackNum;
+				}
+				if (DEBUG) {
+					System.out.println("Preloaded: " + trackNum);
+				}
+			}
+		} catch (OutOfMemoryError e) {
+			/*
+			 *	There isn't room for another track alongside the one in use,
+			 *	so the game will have to load them itself.
+			 */
+			stop(true);
+			System.gc();
+			if (DEBUG) {
+				System.out.println("Preloading disabled: out of memory");
+			}
+		} catch (IOException e) {
+			stop(false);
+			if (DEBUG) {
+				System.out.println("Preloading failed: " + e);
+			}
+		}
+	}
+}
@@ -2,12 +2,14 @@ package numfum.j2me.jsr;
 
 import java.io.DataInput;
 import java.io.IOException;
-import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
 import numfum.j2me.jsr.generic.AnimTile;
 import numfum.j2me.jsr.generic.AnimTileController;
 import numfum.j2me.jsr.generic.Positionable;
+import numfum.j2me.jsr.generic.RenderTarget;
+import numfum.j2me.util.AssetCache;
+import numfum.j2me.util.ByteDataInput;
 import numfum.j2me.util.Fixed;
 
 /**
@@ -109,18 +111,60 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 	
 	/************************************************************************/
 	
+	/**
+	 *	Set whenever the floor's appearance changes, either from loading a
+	 *	track or from an animated tile moving to its next frame. Renderers
+	 *	keeping the drawn floor between frames clear this once redrawn.
+	 */
+	protected boolean floorChanged = true;
+	
+	/**
+	 *	Set whenever a sprite is placed on or removed from the sprite grid.
+	 *	As with <code>floorChanged</code> renderers clear this once they've
+	 *	caught up with the changes.
+	 */
+	protected boolean spritemapChanged = true;
+	
+	/**
+	 *	Sprite grid as it was when the track was ready to race, only copied
+	 *	the first time a sprite is taken away (since plenty of races never
+	 *	change the grid at all).
+	 */
+	private byte[] spritemapOrig = null;
+	
+	/**
+	 *	Set once <code>keepSprites()</code> has marked the grid as the one to
+	 *	go back to.
+	 */
+	private boolean spritesKept = false;
+	
+	/**
+	 *	Set once <code>spritemapOrig</code> holds the kept grid.
+	 */
+	private boolean spritesSaved = false;
+	
+	/**
+	 *	Whether any buffers the renderer draws into are its own, rather than
+	 *	shared with the menus.
+	 */
+	private final boolean exclusive;
+	
+	/************************************************************************/
+	
 	/**
 	 *	Creates a new track renderer.
 	 *
 	 *	@param viewW width of the rendered view
 	 *	@param viewH height of the rendered view
 	 *	@param in stream from which other render params are read
+	 *	@param exclusive whether the renderer's buffers are its own
 	 */
-	public TrackRenderer(int viewW, int viewH, DataInput in) throws IOException {
+	public TrackRenderer(int viewW, int viewH, DataInput in, boolean exclusive) throws IOException {
 		super(new AnimTile[MAX_ANIMS]);
 		
 		this.viewW = viewW;
 		this.viewH = viewH;
+		this.exclusive = exclusive;
 		
 		for (int n = 0; n < MAX_SPRITES; n++) {
 			animsprite[n] = new AnimTile();
@@ -130,6 +174,15 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 		}
 	}
 	
+	/**
+	 *	Returns whether the renderer's buffers are its own, in which case it
+	 *	can be loaded into or drawn on another thread whilst the game draws
+	 *	the menus.
+	 */
+	public final boolean isExclusive() {
+		return exclusive;
+	}
+	
 	/**
 	 *	Loads a track and sprites from a stream.
 	 *
@@ -221,6 +274,11 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 			spritecontrol.addAnimTile(spriteN);
 		}
 		
+		floorChanged = true;
+		spritemapChanged = true;
+		spritesKept  = false;
+		spritesSaved = false;
+		
 		loaded(in);
 	}
 	
@@ -254,7 +312,42 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 	 *	Sets the index of the sprite at the specified grid location.
 	 */
 	public final void setSpriteIndex(int col, int row, int index) {
+		if (spritesKept && !spritesSaved) {
+			if (spritemapOrig == null) {
+				spritemapOrig = new byte[GRID_ROWS * GRID_COLS];
+			}
+			System.arraycopy(spritemap, 0, spritemapOrig, 0, GRID_ROWS * GRID_COLS);
+			spritesSaved = true;
+		}
 		spritemap[(row & (GRID_ROWS - 1)) << GRID_ROWS_BITS | (col & (GRID_COLS - 1))] = (byte) index;
+		spritemapChanged = true;
+	}
+	
+	/**
+	 *	Marks the sprite grid as it stands as the one to return to with
+	 *	<code>restoreSprites()</code>. Nothing is copied until the grid is
+	 *	next changed.
+	 */
+	public final void keepSprites() {
+		spritesKept  = true;
+		spritesSaved = false;
+	}
+	
+	/**
+	 *	Puts back any sprites taken off the grid since
+	 *	<code>keepSprites()</code>, setting their animations going again.
+	 */
+	public final void restoreSprites() {
+		if (spritesSaved) {
+			for (int n = GRID_ROWS * GRID_COLS - 1; n >= 0; n--) {
+				if (spritemap[n] != spritemapOrig[n]) {
+					spritemap[n] = spritemapOrig[n];
+					spritecontrol.addAnimTile(spritemapOrig[n]);
+				}
+			}
+			spritesSaved = false;
+			spritemapChanged = true;
+		}
 	}
 	
 	/**
@@ -309,8 +402,13 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 	 */
 	public void cycle() {
 		super.cycle();
-		for (int n = numActiveAnims - 1; n >= 0; n--) {
-			tileset[activeAnims[n]] = tileFrames[animtile[activeAnims[n]].getTileIndex()];
+		for (int n = getNumChangedAnims() - 1; n >= 0; n--) {
+			int index = getChangedAnim(n);
+			byte[] frame = tileFrames[animtile[index].getTileIndex()];
+			if (tileset[index] != frame) {
+				tileset[index] = frame;
+				floorChanged = true;
+			}
 		}
 		spritecontrol.cycle();
 	}
@@ -335,6 +433,25 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 	 */
 	public abstract void render(int x, int y, int a, Sprite[] blend, int size, int bump);
 	
+	/**
+	 *	Makes the last rendered frame the one painted, applying anything held
+	 *	back whilst it was rendered. Called before each frame is painted.
+	 *
+	 *	@return whether the presented frame is held apart from the one being
+	 *	rendered, allowing it to be painted while the next frame is run
+	 */
+	public boolean present() {
+		return false;
+	}
+	
+	/**
+	 *	Reports how long the last race frame took to run, allowing renderers
+	 *	to trade quality for speed.
+	 *
+	 *	@param millis frame time in milliseconds
+	 */
+	public void setFrameTime(int millis) {}
+	
 	public int getW() {
 		return viewW;
 	}
@@ -346,7 +463,7 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 		return this;
 	}
 	
-	public abstract void paint(Graphics g, int offsetX, int offsetY);
+	public abstract void paint(RenderTarget g, int offsetX, int offsetY);
 	
 	public String toString() {
 		return getClass().getName() + " [viewW: " + viewW + ", viewH: " + viewH + "]";
@@ -516,11 +633,28 @@ public abstract class TrackRenderer extends AnimTileController implements Consta
 	 *	Note: this creates and discards a byte array the size of the image file.
 	 */
 	protected static final Image loadImage(DataInput in) throws IOException {
+		if (in instanceof ByteDataInput) {
+			return ((ByteDataInput) in).readImage(in.readUnsignedShort());
+		}
 		byte[] data = new byte[in.readUnsignedShort()];
 		in.readFully(data);
 		return Image.createImage(data, 0, data.length);
 	}
 	
+	/**
+	 *	Loads an image that never changes, shared with every other renderer
+	 *	loading it under the same key (a renderer created whilst another
+	 *	holds the image skips over it).
+	 */
+	protected static final synchronized Image loadSharedImage(DataInput in, String key) throws IOException {
+		Image image = (Image) AssetCache.get(key);
+		if (image != null) {
+			in.skipBytes(in.readUnsignedShort());
+			return image;
+		}
+		return (Image) AssetCache.put(key, loadImage(in));
+	}
+	
 	/************************************************************************/
 	
 	/**
@@ -49,6 +49,25 @@ public final class AnimTile {
 	 */
 	private boolean updt = true;
 	
+	/**
+	 *	Controllers scheduling this tile's updates, told whenever the sequence
+	 *	is changed from outside so they can reschedule the next update. A
+	 *	tile is usually in just the one controller, but may be in more.
+	 *
+	 *	@see AnimTileController
+	 */
+	private AnimTileController[] owner = NO_OWNERS;
+	
+	/**
+	 *	Index of this tile in each of its owners.
+	 */
+	private int[] ownerIndex = NO_INDICES;
+	
+	/**
+	 *	Number of controllers owning this tile.
+	 */
+	private int owners = 0;
+	
 	/**
 	 *	Creates a new blank <code>AnimTile</code>.
 	 */
@@ -86,12 +105,12 @@ public final class AnimTile {
 	 *	@see #halt
 	 */
 	public void reset() {
+		updt = true;
 		if (!bkwd) {
 			reset(0);
 		} else {
 			reset(anim);
 		}
-		updt = true;
 	}
 	
 	/**
@@ -100,6 +119,7 @@ public final class AnimTile {
 	public void reset(int idx) {
 		this.idx = idx;
 		this.dla = 0;
+		rescheduleOwners();
 	}
 	
 	/**
@@ -173,6 +193,55 @@ public final class AnimTile {
 	public void halt(int idx) {
 		this.idx = idx;
 		halt();
+		rescheduleOwners();
+	}
+	
+	/**
+	 *	Tells every controller owning this tile that its sequence changed.
+	 */
+	private void rescheduleOwners() {
+		for (int n = 0; n < owners; n++) {
+			owner[n].rescheduleAnimTile(ownerIndex[n]);
+		}
+	}
+	
+	/**
+	 *	Adds a controller (and the tile's index in it) to those owning this
+	 *	tile, unless it's already there.
+	 */
+	void addOwner(AnimTileController ctl, int index) {
+		for (int n = 0; n < owners; n++) {
+			if (owner[n] == ctl && ownerIndex[n] == index) {
+				return;
+			}
+		}
+		if (owners == owner.length) {
+			AnimTileController[] grownOwner = new AnimTileController[owners + 2];
+			int[] grownIndex = new int[owners + 2];
+			System.arraycopy(owner,      0, grownOwner, 0, owners);
+			System.arraycopy(ownerIndex, 0, grownIndex, 0, owners);
+			owner      = grownOwner;
+			ownerIndex = grownIndex;
+		}
+		owner     [owners] = ctl;
+		ownerIndex[owners] = index;
+		owners++;
+	}
+	
+	/**
+	 *	Removes a controller (for the tile at the index given) from those
+	 *	owning this tile.
+	 */
+	void removeOwner(AnimTileController ctl, int index) {
+		for (int n = 0; n < owners; n++) {
+			if (owner[n] == ctl && ownerIndex[n] == index) {
+				owners--;
+				owner     [n] = owner     [owners];
+				ownerIndex[n] = ownerIndex[owners];
+				owner[owners] = null;
+				return;
+			}
+		}
 	}
 	
 	/**
@@ -184,25 +253,57 @@ public final class AnimTile {
 		if (updt) {
 			dla--;
 			if (dla < 0) {
-				dla = time;
-				if (!bkwd) {
-					if (idx < anim) {
-						idx++;
-					} else {
-						idx = 0;
-					}
-				} else {
-					if (idx > 0) {
-						idx--;
-					} else {
-						idx = anim;
-					}
-				}
+				advance();
 			}
 		}
 		return getTileIndex();
 	}
 	
+	/**
+	 *	Moves the sequence on a frame and restarts the delay, which is what
+	 *	<code>cycle()</code> does once the delay runs out. Used by controllers
+	 *	which only visit a tile when it's due.
+	 *
+	 *	@return number of cycles until the next frame, or zero if halted
+	 */
+	int advance() {
+		if (!updt) {
+			return 0;
+		}
+		dla = time;
+		if (!bkwd) {
+			if (idx < anim) {
+				idx++;
+			} else {
+				idx = 0;
+			}
+		} else {
+			if (idx > 0) {
+				idx--;
+			} else {
+				idx = anim;
+			}
+		}
+		return time + 1;
+	}
+	
+	/**
+	 *	Returns the number of cycles remaining before the next frame
+	 *	(counting the next cycle), or zero if halted.
+	 */
+	int getDelay() {
+		return (updt) ? dla + 1 : 0;
+	}
+	
+	/**
+	 *	Sets the remaining delay (the inverse of <code>getDelay()</code>).
+	 */
+	void setDelay(int cycles) {
+		if (cycles > 0) {
+			dla = cycles - 1;
+		}
+	}
+	
 	/**
 	 *	Returns <code>true</code> if the tile has animation frames, i.e.
 	 *	<code>anim</code> is greater than zero.
@@ -272,4 +373,10 @@ public final class AnimTile {
 	 *	@see #save
 	 */
 	public static final int STORAGE_REQUIRED = 8;
+	
+	/**
+	 *	Shared empty owner lists, grown per tile only once it's owned.
+	 */
+	private static final AnimTileController[] NO_OWNERS  = new AnimTileController[0];
+	private static final int[]                NO_INDICES = new int[0];
 }
\ No newline at end of file
@@ -3,8 +3,13 @@ package numfum.j2me.jsr.generic;
 /**
  *	Controls the state and updates of animated tile sequences. By default none
  *	of the tiles is updating. Adding a tile using <code>addAnimTile()</code>
- *	causes <code>AnimTile.cycle()</code> to be called for that tile as part of
- *	the controller's own <code>cycle()</code>.
+ *	causes the tile to be updated as part of the controller's own
+ *	<code>cycle()</code>.
+ *
+ *	Rather than ticking every tile every cycle the tiles are kept on a timing
+ *	wheel, each placed in the slot for the cycle its frame next changes, so
+ *	only the tiles actually changing are visited. The tiles changed by each
+ *	cycle are then available as a list for anything drawing them.
  */
 public class AnimTileController {
 	/**
@@ -24,10 +29,66 @@ public class AnimTileController {
 	protected int numActiveAnims = 0;
 	
 	/**
-	 *	Active tile indices.
+	 *	Active tile indices (in no particular order).
 	 */
 	protected final int[] activeAnims;
 	
+	/**
+	 *	Position of each tile in <code>activeAnims</code>, or -1 if the tile
+	 *	isn't active.
+	 */
+	private final int[] activeSlot;
+	
+	/**
+	 *	First tile in each wheel slot, with an extra list at the end holding
+	 *	tiles waiting to be placed (or -1 if empty).
+	 */
+	private final int[] wheelHead = new int[WHEEL_SIZE + 1];
+	
+	/**
+	 *	Links between the tiles in each wheel slot.
+	 */
+	private final int[] wheelNext;
+	private final int[] wheelPrev;
+	
+	/**
+	 *	Wheel slot each tile is in, or -1 if it isn't scheduled (because it's
+	 *	halted).
+	 */
+	private final int[] wheelSlot;
+	
+	/**
+	 *	Cycle on which each scheduled tile's frame next changes. Tiles due
+	 *	more than a turn of the wheel away are simply passed over until then.
+	 */
+	private final int[] wheelDue;
+	
+	/**
+	 *	Number of the next cycle to run.
+	 */
+	private int tick = 0;
+	
+	/**
+	 *	Indices of the tiles whose frames changed during the last cycle (plus
+	 *	any changed from outside since).
+	 */
+	private final int[] changedAnims;
+	
+	/**
+	 *	Number of entries in <code>changedAnims</code>.
+	 */
+	private int numChangedAnims = 0;
+	
+	/**
+	 *	Number of the changed entries already seen by a cycle.
+	 */
+	private int numDelivered = 0;
+	
+	/**
+	 *	Whether each tile is already in the changed list.
+	 */
+	private final boolean[] changedMark;
+	
 	/**
 	 *	Creates a new tile controller with using the existing tiles.
 	 */
@@ -35,12 +96,31 @@ public class AnimTileController {
 		this.animtile = animtile;
 		maxAnims = animtile.length;
 		activeAnims = new int[maxAnims];
+		activeSlot  = new int[maxAnims];
+		wheelNext   = new int[maxAnims];
+		wheelPrev   = new int[maxAnims];
+		wheelSlot   = new int[maxAnims];
+		wheelDue    = new int[maxAnims];
+		changedAnims = new int[maxAnims];
+		changedMark  = new boolean[maxAnims];
+		for (int n = maxAnims - 1; n >= 0; n--) {
+			activeSlot[n] = -1;
+			wheelSlot [n] = -1;
+		}
+		for (int n = WHEEL_SIZE; n >= 0; n--) {
+			wheelHead[n] = -1;
+		}
 	}
 	
 	/**
 	 *	Clears the active animating tiles.
 	 */
 	protected final void clear() {
+		for (int n = numActiveAnims - 1; n >= 0; n--) {
+			int index = activeAnims[n];
+			unschedule(index);
+			activeSlot[index] = -1;
+		}
 		numActiveAnims = 0;
 	}
 	
@@ -57,13 +137,10 @@ public class AnimTileController {
 	 *	Adds a new tile to be maintained by this controller.
 	 */
 	public void addAnimTile(int index) {
-		if (animtile[index].anim > 0) {
-			for (int n = numActiveAnims - 1; n >= 0; n--) {
-				if (activeAnims[n] == index) {
-					return;
-				}
-			}
+		if (animtile[index].anim > 0 && activeSlot[index] < 0) {
+			activeSlot[index] = numActiveAnims;
 			activeAnims[numActiveAnims++] = index;
+			link(index, WHEEL_SIZE);
 		}
 	}
 	
@@ -71,27 +148,193 @@ public class AnimTileController {
 	 *	Removes a tile from this controller.
 	 */
 	public final void removeAnimTile(int index) {
-		int where = -1;
-		for (int n = numActiveAnims - 1; n >= 0; n--) {
-			if (activeAnims[n] == index) {
-				where = n;
-				break;
+		int where = activeSlot[index];
+		if (where >= 0) {
+			unschedule(index);
+			activeSlot[index] = -1;
+			numActiveAnims--;
+			if (where < numActiveAnims) {
+				activeAnims[where] = activeAnims[numActiveAnims];
+				activeSlot[activeAnims[where]] = where;
 			}
 		}
-		if (where != -1) {
-			numActiveAnims--;
-			for (int n = where; n < numActiveAnims; n++) {
-				activeAnims[n] = activeAnims[n + 1];
+	}
+	
+	/**
+	 *	Returns whether a tile is being maintained by this controller.
+	 */
+	public final boolean isAnimTileActive(int index) {
+		return activeSlot[index] >= 0;
+	}
+	
+	/**
+	 *	Called by a tile owned by this controller when its sequence is
+	 *	changed from outside, placing it back on the wheel from its new state
+	 *	at the start of the next cycle.
+	 */
+	final void rescheduleAnimTile(int index) {
+		if (activeSlot[index] >= 0) {
+			if (wheelSlot[index] != WHEEL_SIZE) {
+				if (wheelSlot[index] >= 0) {
+					unlink(index);
+				}
+				link(index, WHEEL_SIZE);
 			}
+			addChanged(index);
 		}
 	}
 	
+	/**
+	 *	Returns whether any of the tiles are animating.
+	 */
+	public final boolean isAnimating() {
+		return numActiveAnims > 0;
+	}
+	
+	/**
+	 *	Returns the number of tiles whose frames changed in the last cycle.
+	 */
+	public final int getNumChangedAnims() {
+		return numChangedAnims;
+	}
+	
+	/**
+	 *	Returns the index of a tile changed in the last cycle.
+	 */
+	public final int getChangedAnim(int n) {
+		return changedAnims[n];
+	}
+	
 	/**
 	 *	Cycles all of the active tiles under this controller.
 	 */
 	public void cycle() {
-		for (int n = numActiveAnims - 1; n >= 0; n--) {
-			animtile[activeAnims[n]].cycle();
+		/*
+		 *	Changes already seen by a previous cycle are dropped, keeping any
+		 *	made from outside since.
+		 */
+		int keep = numChangedAnims - numDelivered;
+		for (int n = 0; n < numDelivered; n++) {
+			changedMark[changedAnims[n]] = false;
+		}
+		for (int n = 0; n < keep; n++) {
+			changedAnims[n] = changedAnims[numDelivered + n];
+		}
+		numChangedAnims = keep;
+		
+		int now = tick++;
+		
+		/*
+		 *	Newly added (or externally changed) tiles are placed on the wheel
+		 *	from their current delay, taking ownership of them. They're also
+		 *	reported as changed, since their frame may have been set while
+		 *	nothing owned them.
+		 */
+		int index = wheelHead[WHEEL_SIZE];
+		while (index >= 0) {
+			int next = wheelNext[index];
+			AnimTile tile = animtile[index];
+			tile.addOwner(this, index);
+			unlink(index);
+			int delay = tile.getDelay();
+			if (delay > 0) {
+				wheelDue[index] = now + delay - 1;
+				link(index, (now + delay - 1) & WHEEL_MASK);
+			}
+			addChanged(index);
+			index = next;
+		}
+		
+		/*
+		 *	The slot's list is detached before walking it since tiles due a
+		 *	full turn from now go straight back into it.
+		 */
+		int slot = now & WHEEL_MASK;
+		index = wheelHead[slot];
+		wheelHead[slot] = -1;
+		while (index >= 0) {
+			int next = wheelNext[index];
+			wheelSlot[index] = -1;
+			if (wheelDue[index] != now) {
+				link(index, slot);
+			} else {
+				int delay = animtile[index].advance();
+				if (delay > 0) {
+					wheelDue[index] = now + delay;
+					link(index, (now + delay) & WHEEL_MASK);
+				}
+				addChanged(index);
+			}
+			index = next;
+		}
+		
+		numDelivered = numChangedAnims;
+	}
+	
+	/**
+	 *	Adds a tile to the changed list (if it's not already there).
+	 */
+	private void addChanged(int index) {
+		if (!changedMark[index]) {
+			changedMark[index] = true;
+			changedAnims[numChangedAnims++] = index;
+		}
+	}
+	
+	/**
+	 *	Takes a tile off the wheel, storing how long it still had to wait so
+	 *	it carries on from the same point if added again.
+	 */
+	private void unschedule(int index) {
+		int slot = wheelSlot[index];
+		if (slot >= 0) {
+			if (slot < WHEEL_SIZE) {
+				animtile[index].setDelay(wheelDue[index] - tick + 1);
+			}
+			unlink(index);
+		}
+		animtile[index].removeOwner(this, index);
+	}
+	
+	/**
+	 *	Adds a tile to the front of a wheel slot's list.
+	 */
+	private void link(int index, int slot) {
+		int head = wheelHead[slot];
+		wheelNext[index] = head;
+		wheelPrev[index] = -1;
+		if (head >= 0) {
+			wheelPrev[head] = index;
 		}
+		wheelHead[slot] = index;
+		wheelSlot[index] = slot;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 *	Removes a tile from its wheel slot's list.
+	 */
+	private void unlink(int index) {
+		int next = wheelNext[index];
+		int prev = wheelPrev[index];
+		if (prev >= 0) {
+			wheelNext[prev] = next;
+		} else {
+			wheelHead[wheelSlot[index]] = next;
+		}
+		if (next >= 0) {
+			wheelPrev[next] = prev;
+		}
+		wheelSlot[index] = -1;
+	}
+	
+	/**
+	 *	Number of slots in the timing wheel (covering the longest delay a
+	 *	tile can store, so normally each tile is visited once per frame).
+	 */
+	private static final int WHEEL_SIZE = AnimTile.MASK_TIME + 1;
+	
+	/**
+	 *	Mask to wrap a cycle to its wheel slot.
+	 */
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+}
@@ -0,0 +1,260 @@
+package numfum.j2me.jsr.generic;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ *	<code>RenderTarget</code> recording the calls made to it, to be played
+ *	back later on another target. Only the call and its arguments are kept
+ *	(images and pixel arrays by reference, not copied) so recording a whole
+ *	screen costs very little, and the elements drawn are free to change once
+ *	it's recorded. Anything drawn by reference must be left alone until the
+ *	list has been played back or recorded again.
+ *
+ *	Like <code>FrameBuffer</code> there's no <code>Graphics</code> context,
+ *	so anything needing one draws the slower way.
+ */
+public final class DisplayList extends RenderTarget {
+	/**
+	 *	Calls recorded, each an opcode followed by its int arguments.
+	 */
+	private int[] ops = new int[INITIAL_OPS];
+	
+	/**
+	 *	Images, pixel arrays and strings drawn, in call order.
+	 */
+	private Object[] refs = new Object[INITIAL_REFS];
+	
+	private int numOps  = 0;
+	private int numRefs = 0;
+	
+	/**
+	 *	Current clip rectangle, tracked so the clip can be read back whilst
+	 *	recording.
+	 */
+	private int clipX, clipY, clipW, clipH;
+	
+	/**
+	 *	Empties the list ready to record another screen of the given size,
+	 *	the clip being reset to the whole of it.
+	 */
+	public void clear(int w, int h) {
+		for (int n = 0; n < numRefs; n++) {
+			refs[n] = null;
+		}
+		numOps  = 0;
+		numRefs = 0;
+		setClip(0, 0, w, h);
+	}
+	
+	/**
+	 *	Plays the recorded calls back on another target.
+	 */
+	public void paint(RenderTarget g) {
+		final int[] ops = this.ops;
+		final Object[] refs = this.refs;
+		int ref = 0;
+		for (int n = 0; n < numOps;) {
+			switch (ops[n++]) {
+			case OP_COLOR:
+				g.setColor(ops[n++]);
+				break;
+			case OP_CLIP:
+				g.setClip(ops[n++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_CLIP_RECT:
+				g.clipRect(ops[n++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_FILL_RECT:
+				g.fillRect(ops[n++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_DRAW_RECT:
+				g.drawRect(ops[n++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_STRING:
+				g.drawString((String) refs[ref++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_IMAGE:
+				g.drawImage((Image) refs[ref++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_REGION:
+				g.drawRegion((Image) refs[ref++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++]);
+				break;
+			case OP_RGB:
+				g.drawRGB((int[]) refs[ref++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++] != 0);
+				break;
+			case OP_COPY_AREA:
+				g.copyArea(ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++], ops[n++]);
+				break;
+			}
+		}
+	}
+	
+	public Graphics getGraphics() {
+		return null;
+	}
+	
+	public void setColor(int rgb) {
+		add(OP_COLOR, rgb);
+	}
+	
+	public void setClip(int x, int y, int w, int h) {
+		clipX = x;
+		clipY = y;
+		clipW = w;
+		clipH = h;
+		add(OP_CLIP, x, y, w, h);
+	}
+	
+	public void clipRect(int x, int y, int w, int h) {
+		int x2 = Math.min(clipX + clipW, x + w);
+		int y2 = Math.min(clipY + clipH, y + h);
+		clipX = Math.max(clipX, x);
+		clipY = Math.max(clipY, y);
+		clipW = Math.max(x2 - clipX, 0);
+		clipH = Math.max(y2 - clipY, 0);
+		add(OP_CLIP_RECT, x, y, w, h);
+	}
+	
+	public int getClipX() {
+		return clipX;
+	}
+	
+	public int getClipY() {
+		return clipY;
+	}
+	
+	public int getClipWidth() {
+		return clipW;
+	}
+	
+	public int getClipHeight() {
+		return clipH;
+	}
+	
+	public void fillRect(int x, int y, int w, int h) {
+		add(OP_FILL_RECT, x, y, w, h);
+	}
+	
+	public void drawRect(int x, int y, int w, int h) {
+		add(OP_DRAW_RECT, x, y, w, h);
+	}
+	
+	public void drawString(String str, int x, int y, int anchor) {
+		addRef(str);
+		add(OP_STRING, x, y, anchor);
+	}
+	
+	public void drawImage(Image img, int x, int y, int anchor) {
+		addRef(img);
+		add(OP_IMAGE, x, y, anchor);
+	}
+	
+	public void drawRegion(Image src, int srcX, int srcY, int w, int h, int transform, int x, int y, int anchor) {
+		addRef(src);
+		grow(9);
+		ops[numOps++] = OP_REGION;
+		ops[numOps++] = srcX;
+		ops[numOps++] = srcY;
+		ops[numOps++] = w;
+		ops[numOps++] = h;
+		ops[numOps++] = transform;
+		ops[numOps++] = x;
+		ops[numOps++] = y;
+		ops[numOps++] = anchor;
+	}
+	
+	public void drawRGB(int[] rgb, int offset, int scan, int x, int y, int w, int h, boolean alpha) {
+		addRef(rgb);
+		grow(8);
+		ops[numOps++] = OP_RGB;
+		ops[numOps++] = offset;
+		ops[numOps++] = scan;
+		ops[numOps++] = x;
+		ops[numOps++] = y;
+		ops[numOps++] = w;
+		ops[numOps++] = h;
+		ops[numOps++] = alpha ? 1 : 0;
+	}
+	
+	public void copyArea(int srcX, int srcY, int w, int h, int x, int y, int anchor) {
+		grow(8);
+		ops[numOps++] = OP_COPY_AREA;
+		ops[numOps++] = srcX;
+		ops[numOps++] = srcY;
+		ops[numOps++] = w;
+		ops[numOps++] = h;
+		ops[numOps++] = x;
+		ops[numOps++] = y;
+		ops[numOps++] = anchor;
+	}
+	
+	/**
+	 *	Records a call taking a single argument.
+	 */
+	private void add(int op, int a) {
+		grow(2);
+		ops[numOps++] = op;
+		ops[numOps++] = a;
+	}
+	
+	/**
+	 *	Records a call taking three arguments.
+	 */
+	private void add(int op, int a, int b, int c) {
+		grow(4);
+		ops[numOps++] = op;
+		ops[numOps++] = a;
+		ops[numOps++] = b;
+		ops[numOps++] = c;
+	}
+	
+	/**
+	 *	Records a call taking four arguments.
+	 */
+	private void add(int op, int a, int b, int c, int d) {
+		grow(5);
+		ops[numOps++] = op;
+		ops[numOps++] = a;
+		ops[numOps++] = b;
+		ops[numOps++] = c;
+		ops[numOps++] = d;
+	}
+	
+	private void addRef(Object ref) {
+		if (numRefs == refs.length) {
+			Object[] temp = new Object[numRefs * 2];
+			System.arraycopy(refs, 0, temp, 0, numRefs);
+			refs = temp;
+		}
+		refs[numRefs++] = ref;
+	}
+	
+	/**
+	 *	Makes room for another call.
+	 */
+	private void grow(int size) {
+		if (numOps + size > ops.length) {
+			int[] temp = new int[Math.max(ops.length * 2, numOps + size)];
+			System.arraycopy(ops, 0, temp, 0, numOps);
+			ops = temp;
+		}
+	}
+	
+	/**
+	 *	Initial sizes of the arrays, enough for the race screen.
+	 */
+	private static final int INITIAL_OPS  = 1024;
+	private static final int INITIAL_REFS = 128;
+	
+	private static final int OP_COLOR     = 0;
+	private static final int OP_CLIP      = 1;
+	private static final int OP_CLIP_RECT = 2;
+	private static final int OP_FILL_RECT = 3;
+	private static final int OP_DRAW_RECT = 4;
+	private static final int OP_STRING    = 5;
+	private static final int OP_IMAGE     = 6;
+	private static final int OP_REGION    = 7;
+	private static final int OP_RGB       = 8;
+	private static final int OP_COPY_AREA = 9;
+}
@@ -0,0 +1,280 @@
+package numfum.j2me.jsr.generic;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ *	<code>RenderTarget</code> drawing into an array of ARGB pixels instead
+ *	of the screen. The tools use it to produce whole frames (to compare,
+ *	time or export) without a display, and the Mode7 renderer draws its
+ *	background strips into it once per track so they can be copied straight
+ *	into the frame. Images are read back with <code>getRGB()</code> as
+ *	they're drawn, which makes drawing slower than to the screen, so it
+ *	suits pixels drawn once and used many times rather than every frame.
+ *
+ *	Text drawn with the system font is ignored, there being no font to
+ *	draw it with.
+ */
+public final class FrameBuffer extends RenderTarget {
+	/**
+	 *	Frame pixels in ARGB format, one row after another.
+	 */
+	private final int[] pixels;
+	
+	private final int w;
+	private final int h;
+	
+	/**
+	 *	Current colour for the fill and outline operations.
+	 */
+	private int colour = 0xFF000000;
+	
+	/**
+	 *	Current clip rectangle (always inside the frame).
+	 */
+	private int clipX1, clipY1, clipX2, clipY2;
+	
+	/**
+	 *	Pixels read back from the last image drawn, grown as needed.
+	 */
+	private int[] scratch = new int[0];
+	
+	/**
+	 *	Creates a new frame of the given size, cleared to opaque black.
+	 */
+	public FrameBuffer(int w, int h) {
+		this.w = w;
+		this.h = h;
+		pixels = new int[w * h];
+		clear(0xFF000000);
+		setClip(0, 0, w, h);
+	}
+	
+	/**
+	 *	Returns the frame's pixels (the array itself, not a copy).
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+	
+	public int getWidth() {
+		return w;
+	}
+	
+	public int getHeight() {
+		return h;
+	}
+	
+	/**
+	 *	Fills the whole frame with a colour, ignoring the clip.
+	 */
+	public void clear(int argb) {
+		for (int n = pixels.length - 1; n >= 0; n--) {
+			pixels[n] = argb;
+		}
+	}
+	
+	public Graphics getGraphics() {
+		return null;
+	}
+	
+	public void setColor(int rgb) {
+		colour = 0xFF000000 | rgb;
+	}
+	
+	public void setClip(int x, int y, int w, int h) {
+		clipX1 = Math.max(x, 0);
+		clipY1 = Math.max(y, 0);
+		clipX2 = Math.min(x + w, this.w);
+		clipY2 = Math.min(y + h, this.h);
+	}
+	
+	public void clipRect(int x, int y, int w, int h) {
+		clipX1 = Math.max(x, clipX1);
+		clipY1 = Math.max(y, clipY1);
+		clipX2 = Math.min(x + w, clipX2);
+		clipY2 = Math.min(y + h, clipY2);
+	}
+	
+	public int getClipX() {
+		return clipX1;
+	}
+	
+	public int getClipY() {
+		return clipY1;
+	}
+	
+	public int getClipWidth() {
+		return Math.max(clipX2 - clipX1, 0);
+	}
+	
+	public int getClipHeight() {
+		return Math.max(clipY2 - clipY1, 0);
+	}
+	
+	public void fillRect(int x, int y, int w, int h) {
+		int x1 = Math.max(x, clipX1);
+		int y1 = Math.max(y, clipY1);
+		int x2 = Math.min(x + w, clipX2);
+		int y2 = Math.min(y + h, clipY2);
+		for (int row = y1; row < y2; row++) {
+			int line = row * this.w;
+			for (int col = x1; col < x2; col++) {
+				pixels[line + col] = colour;
+			}
+		}
+	}
+	
+	/**
+	 *	Outlines a rectangle covering <code>w + 1</code> by <code>h + 1</code>
+	 *	pixels, as <code>Graphics</code> does.
+	 */
+	public void drawRect(int x, int y, int w, int h) {
+		if (w >= 0 && h >= 0) {
+			fillRect(x,     y,     w + 1, 1);
+			fillRect(x,     y + h, w + 1, 1);
+			fillRect(x,     y + 1, 1,     h - 1);
+			fillRect(x + w, y + 1, 1,     h - 1);
+		}
+	}
+	
+	public void drawString(String str, int x, int y, int anchor) {}
+	
+	public void drawImage(Image img, int x, int y, int anchor) {
+		drawRegion(img, 0, 0, img.getWidth(), img.getHeight(), TRANS_NONE, x, y, anchor);
+	}
+	
+	/**
+	 *	Draws part of an image, transformed using the same values as
+	 *	<code>Sprite</code>. Pixels with any alpha are blended.
+	 */
+	public void drawRegion(Image src, int srcX, int srcY, int w, int h, int transform, int x, int y, int anchor) {
+		if (w <= 0 || h <= 0) {
+			return;
+		}
+		if (scratch.length < w * h) {
+			scratch = new int[w * h];
+		}
+		src.getRGB(scratch, 0, w, srcX, srcY, w, h);
+		
+		boolean swap = (transform & TRANS_SWAP_AXES) != 0;
+		int dstW = swap ? h : w;
+		int dstH = swap ? w : h;
+		x = anchorX(x, dstW, anchor);
+		y = anchorY(y, dstH, anchor);
+		
+		/*
+		 *	Each destination pixel is mapped back to the source: the axes
+		 *	are swapped first, then the source mirrored as required.
+		 */
+		int x1 = Math.max(x, clipX1);
+		int y1 = Math.max(y, clipY1);
+		int x2 = Math.min(x + dstW, clipX2);
+		int y2 = Math.min(y + dstH, clipY2);
+		for (int row = y1; row < y2; row++) {
+			int line = row * this.w;
+			for (int col = x1; col < x2; col++) {
+				int sx = col - x;
+				int sy = row - y;
+				if (swap) {
+					int tmp = sx;
+					sx = sy;
+					sy = tmp;
+				}
+				if ((transform & TRANS_MIRROR_X) != 0) {
+					sx = w - 1 - sx;
+				}
+				if ((transform & TRANS_MIRROR_Y) != 0) {
+					sy = h - 1 - sy;
+				}
+				pixels[line + col] = blend(scratch[sy * w + sx], pixels[line + col]);
+			}
+		}
+	}
+	
+	public void drawRGB(int[] rgb, int offset, int scan, int x, int y, int w, int h, boolean alpha) {
+		int x1 = Math.max(x, clipX1);
+		int y1 = Math.max(y, clipY1);
+		int x2 = Math.min(x + w, clipX2);
+		int y2 = Math.min(y + h, clipY2);
+		for (int row = y1; row < y2; row++) {
+			int src  = offset + (row - y) * scan + (x1 - x);
+			int line = row * this.w;
+			for (int col = x1; col < x2; col++) {
+				int argb = rgb[src++];
+				pixels[line + col] = alpha ? blend(argb, pixels[line + col]) : (0xFF000000 | argb);
+			}
+		}
+	}
+	
+	/**
+	 *	Copies an area of the frame (ignoring the clip for the source but
+	 *	not the destination). Overlapping areas are handled.
+	 */
+	public void copyArea(int srcX, int srcY, int w, int h, int x, int y, int anchor) {
+		x = anchorX(x, w, anchor);
+		y = anchorY(y, h, anchor);
+		int x1 = Math.max(x, clipX1);
+		int y1 = Math.max(y, clipY1);
+		int x2 = Math.min(x + w, clipX2);
+		int y2 = Math.min(y + h, clipY2);
+		if (x1 >= x2) {
+			return;
+		}
+		srcX += x1 - x;
+		srcY += y1 - y;
+		if (y1 <= srcY) {
+			for (int row = y1; row < y2; row++) {
+				System.arraycopy(pixels, (srcY + row - y1) * this.w + srcX, pixels, row * this.w + x1, x2 - x1);
+			}
+		} else {
+			for (int row = y2 - 1; row >= y1; row--) {
+				System.arraycopy(pixels, (srcY + row - y1) * this.w + srcX, pixels, row * this.w + x1, x2 - x1);
+			}
+		}
+	}
+	
+	/**
+	 *	Combines a source pixel with the frame.
+	 */
+	private static int blend(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0xFF) {
+			return src;
+		}
+		if (a == 0) {
+			return dst;
+		}
+		int rb = ((src & 0xFF00FF) * a + (dst & 0xFF00FF) * (0xFF - a)) >>> 8;
+		int g  = ((src & 0x00FF00) * a + (dst & 0x00FF00) * (0xFF - a)) >> 8;
+		return 0xFF000000 | (rb & 0xFF00FF) | (g & 0x00FF00);
+	}
+	
+	private static int anchorX(int x, int w, int anchor) {
+		if ((anchor & Graphics.HCENTER) != 0) {
+			return x - w / 2;
+		}
+		if ((anchor & Graphics.RIGHT) != 0) {
+			return x - w;
+		}
+		return x;
+	}
+	
+	private static int anchorY(int y, int h, int anchor) {
+		if ((anchor & Graphics.VCENTER) != 0) {
+			return y - h / 2;
+		}
+		if ((anchor & (Graphics.BOTTOM | Graphics.BASELINE)) != 0) {
+			return y - h;
+		}
+		return y;
+	}
+	
+	/**
+	 *	<code>Sprite</code> transforms are made up of these three flags.
+	 */
+	private static final int TRANS_NONE = 0;
+	private static final int TRANS_MIRROR_Y = 1;
+	private static final int TRANS_MIRROR_X = 2;
+	private static final int TRANS_SWAP_AXES = 4;
+}
@@ -0,0 +1,90 @@
+package numfum.j2me.jsr.generic;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ *	<code>RenderTarget</code> passing everything straight to a
+ *	<code>Graphics</code> context. Created once and pointed at each new
+ *	context as it's handed out.
+ */
+public final class GraphicsTarget extends RenderTarget {
+	/**
+	 *	Context being drawn to.
+	 */
+	private Graphics g;
+	
+	public GraphicsTarget() {}
+	
+	public GraphicsTarget(Graphics g) {
+		this.g = g;
+	}
+	
+	/**
+	 *	Sets the context to draw to, returning this target.
+	 */
+	public GraphicsTarget set(Graphics g) {
+		this.g = g;
+		return this;
+	}
+	
+	public Graphics getGraphics() {
+		return g;
+	}
+	
+	public void setColor(int rgb) {
+		g.setColor(rgb);
+	}
+	
+	public void setClip(int x, int y, int w, int h) {
+		g.setClip(x, y, w, h);
+	}
+	
+	public void clipRect(int x, int y, int w, int h) {
+		g.clipRect(x, y, w, h);
+	}
+	
+	public int getClipX() {
+		return g.getClipX();
+	}
+	
+	public int getClipY() {
+		return g.getClipY();
+	}
+	
+	public int getClipWidth() {
+		return g.getClipWidth();
+	}
+	
+	public int getClipHeight() {
+		return g.getClipHeight();
+	}
+	
+	public void fillRect(int x, int y, int w, int h) {
+		g.fillRect(x, y, w, h);
+	}
+	
+	public void drawRect(int x, int y, int w, int h) {
+		g.drawRect(x, y, w, h);
+	}
+	
+	public void drawString(String str, int x, int y, int anchor) {
+		g.drawString(str, x, y, anchor);
+	}
+	
+	public void drawImage(Image img, int x, int y, int anchor) {
+		g.drawImage(img, x, y, anchor);
+	}
+	
+	public void drawRegion(Image src, int srcX, int srcY, int w, int h, int transform, int x, int y, int anchor) {
+		g.drawRegion(src, srcX, srcY, w, h, transform, x, y, anchor); // MIDP2!
+	}
+	
+	public void drawRGB(int[] rgb, int offset, int scan, int x, int y, int w, int h, boolean alpha) {
+		g.drawRGB(rgb, offset, scan, x, y, w, h, alpha); // MIDP2!
+	}
+	
+	public void copyArea(int srcX, int srcY, int w, int h, int x, int y, int anchor) {
+		g.copyArea(srcX, srcY, w, h, x, y, anchor); // MIDP2!
+	}
+}
@@ -1,7 +1,5 @@
 package numfum.j2me.jsr.generic;
 
-import javax.microedition.lcdui.Graphics;
-
 /**
  *	Defines an on-screen element which can be positioned by use of an anchor.
  */
@@ -25,5 +23,5 @@ public interface Positionable {
 	/**
 	 *	Draws this element from the given offset.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY);
+	public void paint(RenderTarget g, int offsetX, int offsetY);
 }
\ No newline at end of file
@@ -266,7 +266,7 @@ public class PositionableContainer implements Constants, Positionable {
 	/**
 	 *	Draws the container's visible elements.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		if (ENABLE_RESTORE_CLIP) {
 			clipX = g.getClipX();
 			clipY = g.getClipY();
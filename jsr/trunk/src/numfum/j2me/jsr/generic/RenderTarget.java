@@ -0,0 +1,50 @@
+package numfum.j2me.jsr.generic;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ *	Surface the game's elements draw on. Covers only those operations
+ *	actually used, named and behaving as in <code>Graphics</code>, so the
+ *	drawing code works the same whether it ends up on the screen or in a
+ *	plain pixel array.
+ *
+ *	@see GraphicsTarget
+ *	@see FrameBuffer
+ */
+public abstract class RenderTarget {
+	/**
+	 *	Returns the <code>Graphics</code> this target draws through, or
+	 *	<code>null</code> if it doesn't have one (in which case anything
+	 *	needing a real context, such as M3G, should skip drawing).
+	 */
+	public abstract Graphics getGraphics();
+	
+	public abstract void setColor(int rgb);
+	
+	public abstract void setClip(int x, int y, int w, int h);
+	
+	public abstract void clipRect(int x, int y, int w, int h);
+	
+	public abstract int getClipX();
+	
+	public abstract int getClipY();
+	
+	public abstract int getClipWidth();
+	
+	public abstract int getClipHeight();
+	
+	public abstract void fillRect(int x, int y, int w, int h);
+	
+	public abstract void drawRect(int x, int y, int w, int h);
+	
+	public abstract void drawString(String str, int x, int y, int anchor);
+	
+	public abstract void drawImage(Image img, int x, int y, int anchor);
+	
+	public abstract void drawRegion(Image src, int srcX, int srcY, int w, int h, int transform, int x, int y, int anchor);
+	
+	public abstract void drawRGB(int[] rgb, int offset, int scan, int x, int y, int w, int h, boolean alpha);
+	
+	public abstract void copyArea(int srcX, int srcY, int w, int h, int x, int y, int anchor);
+}
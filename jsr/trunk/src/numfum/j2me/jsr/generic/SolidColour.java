@@ -90,7 +90,7 @@ public final class SolidColour implements Positionable {
 	/**
 	 *	Draws the block at the specified offset.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		g.setColor(rgb);
 		g.fillRect(x + offsetX, y + offsetY, w, h);
 	}
@@ -35,10 +35,9 @@ public class BufferedCompositeTiledLayer extends BufferedTiledLayer {
 	 *	@param allAnims whether all animations should run or priority ones
 	 *	@param controller controller for the animated tiles
 	 *	@param exclusive whether the buffer should be exclusive or shared
-	 *	@param dual whether to use single or dual back buffers
 	 */
 	public BufferedCompositeTiledLayer(int cols, int rows, int viewW, int viewH, int overlays, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive) {
-		this(cols, rows, viewW, viewH, overlays, tileset, tile, allAnims, controller, exclusive, BufferedTiledLayer.copyAreaHasBugs());
+		this(cols, rows, viewW, viewH, overlays, tileset, tile, allAnims, controller, exclusive, getDefaultMode());
 	}
 	
 	/**
@@ -52,9 +51,10 @@ public class BufferedCompositeTiledLayer extends BufferedTiledLayer {
 	 *	@param allAnims whether all animations should run or priority ones
 	 *	@param controller controller for the animated tiles
 	 *	@param exclusive whether the buffer should be exclusive or shared
+	 *	@param mode one of the <code>BufferedTiledLayer</code> buffer modes
 	 */
-	public BufferedCompositeTiledLayer(int cols, int rows, int viewW, int viewH, int overlays, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive, boolean dual) {
-		super(cols, rows, viewW, viewH, tileset, tile, allAnims, controller, exclusive, dual);
+	public BufferedCompositeTiledLayer(int cols, int rows, int viewW, int viewH, int overlays, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive, int mode) {
+		super(cols, rows, viewW, viewH, tileset, tile, allAnims, controller, exclusive, mode);
 		
 		this.overlays = overlays;
 		overlayMap = new short[overlays][rows][cols];
@@ -133,6 +133,21 @@ public class BufferedCompositeTiledLayer extends BufferedTiledLayer {
 		setActiveTile(x, y, index);
 	}
 	
+	/**
+	 *	Whether any of the tiles drawn in a cell changed frame this cycle.
+	 */
+	protected boolean isCellChanged(int col, int row) {
+		if (super.isCellChanged(col, row)) {
+			return true;
+		}
+		for (int n = 0; n < overlays; n++) {
+			if (changedTile[overlayMap[n][row][col]]) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 *	Performs the drawing of multiple tiles into the buffer.
 	 */
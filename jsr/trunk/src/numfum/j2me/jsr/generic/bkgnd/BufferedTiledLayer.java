@@ -5,6 +5,7 @@ import javax.microedition.lcdui.Image;
 
 import numfum.j2me.jsr.generic.AnimTile;
 import numfum.j2me.jsr.generic.AnimTileController;
+import numfum.j2me.jsr.generic.RenderTarget;
 
 import java.io.DataInput;
 import java.io.IOException;
@@ -13,7 +14,9 @@ import java.io.IOException;
  *	An implementation of <code>ContinuousTiledLayer</code> which uses either
  *	a single or dual buffers to cut down on the drawing. A single buffer
  *	obviously uses less resources but doesn't work width some MIDP2.0
- *	implementations.
+ *	implementations. A third option treats the single buffer as a ring,
+ *	wrapping in both directions, so scrolling only draws the newly exposed
+ *	tiles without ever copying the buffer.
  */
 public class BufferedTiledLayer extends ContinuousTiledLayer {
 	/**
@@ -65,11 +68,35 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	 */
 	private Graphics gfx;
 	
+	/**
+	 *	Buffer mode using a single buffer scrolled with <code>copyArea</code>.
+	 */
+	public static final int BUFFER_SINGLE = 0;
+	
+	/**
+	 *	Buffer mode flipping between two buffers, each scroll drawing one
+	 *	into the other.
+	 */
+	public static final int BUFFER_DUAL = 1;
+	
+	/**
+	 *	Buffer mode using a single buffer which wraps in both directions. Tile
+	 *	<code>(col, row)</code> always lives at the same place in the buffer
+	 *	(modulo its size), so scrolling only draws the exposed rows and
+	 *	columns, and painting stitches the view from up to four regions.
+	 */
+	public static final int BUFFER_RING = 2;
+	
 	/**
 	 *	Whether dual buffers are being used or just one.
 	 */
 	private final boolean dual;
 	
+	/**
+	 *	Whether the single buffer is used as a ring.
+	 */
+	private final boolean ring;
+	
 	/**
 	 *	Back buffer 'a' (when using dual buffers).
 	 */
@@ -140,8 +167,21 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	 */
 	protected final byte[] activeRow;
 	
+	/**
+	 *	Marks the tiles whose frames changed in the current cycle.
+	 */
+	protected final boolean[] changedTile;
+	
 	public BufferedTiledLayer(int cols, int rows, int viewW, int viewH, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive) {
-		this(cols, rows, viewW, viewH, tileset, tile, allAnims, controller, exclusive, FORCE_DOUBLE_BUFFER || copyAreaHasBugs());
+		this(cols, rows, viewW, viewH, tileset, tile, allAnims, controller, exclusive, getDefaultMode());
+	}
+	
+	/**
+	 *	@param dual whether to use single or dual back buffers
+	 *	@see #BufferedTiledLayer(int, int, int, int, Image, AnimTile[], boolean, AnimTileController, boolean, int)
+	 */
+	public BufferedTiledLayer(int cols, int rows, int viewW, int viewH, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive, boolean dual) {
+		this(cols, rows, viewW, viewH, tileset, tile, allAnims, controller, exclusive, dual ? BUFFER_DUAL : BUFFER_SINGLE);
 	}
 	
 	/**
@@ -154,9 +194,9 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	 *	@param allAnims whether all animations should run or priority ones
 	 *	@param controller controller for the animated tiles
 	 *	@param exclusive whether the buffer should be exclusive or shared
-	 *	@param dual whether to use single or dual back buffers
+	 *	@param mode one of <code>BUFFER_SINGLE</code>, <code>BUFFER_DUAL</code> or <code>BUFFER_RING</code>
 	 */
-	public BufferedTiledLayer(int cols, int rows, int viewW, int viewH, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive, boolean dual) {
+	public BufferedTiledLayer(int cols, int rows, int viewW, int viewH, Image tileset, AnimTile[] tile, boolean allAnims, AnimTileController controller, boolean exclusive, int mode) {
 		super(cols, rows, viewW, viewH, tile, controller);
 		
 		map = new short[rows][cols];
@@ -167,7 +207,8 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 		bufW = tileCols * TILE_W;
 		bufH = tileRows * TILE_H;
 		
-		this.dual = dual;
+		dual = mode == BUFFER_DUAL;
+		ring = mode == BUFFER_RING;
 		
 		if (dual) {
 			bufA = createBuffer(bufW, bufH, exclusive, true);
@@ -205,6 +246,19 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 		this.allAnims = allAnims;
 		
 		activeRow = new byte[rows];
+		changedTile = new boolean[maxAnims];
+	}
+	
+	/**
+	 *	Returns the buffer mode used when none is specified: the ring buffer
+	 *	if enabled, otherwise a single buffer if <code>copyArea()</code> can
+	 *	be trusted, or dual buffers if not.
+	 */
+	protected static int getDefaultMode() {
+		if (USE_RING_BUFFER) {
+			return BUFFER_RING;
+		}
+		return (FORCE_DOUBLE_BUFFER || copyAreaHasBugs()) ? BUFFER_DUAL : BUFFER_SINGLE;
 	}
 	
 	/**
@@ -331,7 +385,8 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	}
 	
 	/**
-	 *	Redraws all the tiles in the given region.
+	 *	Redraws all the tiles in the given region. In ring mode tiles are
+	 *	drawn where they wrap to in the buffer.
 	 */
 	protected final void layout(int startCol, int startRow, int numCols, int numRows) {
 		if (numCols < 1 || numRows < 1) {
@@ -340,15 +395,74 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 		int calcX = startCol * TILE_W - tileStartX;
 		for (int y = startRow, drawY = startRow * TILE_H - tileStartY; y < startRow + numRows; y++, drawY += TILE_H) {
 			if (drawY >= 0 && drawY < bufH) {
+				int bufY = (ring) ? wrap(y, tileRows) * TILE_H : drawY;
 				for (int x = startCol, drawX = calcX; x < startCol + numCols; x++, drawX += TILE_W) {
 					if (drawX >= 0 && drawX < bufW) {
-						drawTile(gfx, getTileX(x), getTileY(y), drawX, drawY);
+						drawTile(gfx, getTileX(x), getTileY(y), (ring) ? wrap(x, tileCols) * TILE_W : drawX, bufY);
 					}
 				}
 			}
 		}
 	}
 	
+	/**
+	 *	Wraps a value to the range <code>0</code> to <code>size - 1</code>.
+	 */
+	private static int wrap(int val, int size) {
+		return ((val %= size) < 0) ? size + val : val;
+	}
+	
+	/**
+	 *	Divides by the tile size, rounding towards negative infinity.
+	 */
+	private static int floorDiv(int val, int size) {
+		return (val >= 0) ? val / size : (val + 1) / size - 1;
+	}
+	
+	/**
+	 *	Moves the ring buffer's window, drawing only the exposed tiles. The
+	 *	window starts a tile before the view, as with the other modes.
+	 */
+	private void moveRing(int x, int y) {
+		int startCol = floorDiv(x, TILE_W);
+		int startRow = floorDiv(y, TILE_H);
+		int lastCol  = tileStartX / TILE_W;
+		int lastRow  = tileStartY / TILE_H;
+		int fillCols = startCol - lastCol;
+		int fillRows = startRow - lastRow;
+		if (fillCols == 0 && fillRows == 0) {
+			return;
+		}
+		
+		tileStartX = startCol * TILE_W;
+		tileStartY = startRow * TILE_H;
+		
+		if (Math.abs(fillCols) >= tileCols || Math.abs(fillRows) >= tileRows) {
+			layout(startCol, startRow, tileCols, tileRows);
+			return;
+		}
+		
+		/*
+		 *	Columns first (for the full height), then the rows over the
+		 *	columns that were kept.
+		 */
+		int keepCol  = startCol;
+		int keepCols = tileCols;
+		if (fillCols > 0) {
+			layout(lastCol + tileCols, startRow, fillCols, tileRows);
+			keepCols -= fillCols;
+		} else if (fillCols < 0) {
+			layout(startCol, startRow, -fillCols, tileRows);
+			keepCol  -= fillCols;
+			keepCols += fillCols;
+		}
+		if (fillRows > 0) {
+			layout(keepCol, lastRow + tileRows, keepCols, fillRows);
+		} else if (fillRows < 0) {
+			layout(keepCol, startRow, keepCols, -fillRows);
+		}
+	}
+	
 	/**
 	 *	Moves the tiled layer to the specfied position.
 	 *
@@ -366,6 +480,13 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 		x -= TILE_W;
 		y -= TILE_H;
 		
+		if (ring) {
+			moveRing(x, y);
+			lastX = x;
+			lastY = y;
+			return;
+		}
+		
 		/*
 		 *	Calculates the number of pixels to offset the buffer by. Going
 		 *	right or down makes shift > 0, whereas left or up makes shift < 0.
@@ -449,34 +570,79 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	}
 	
 	/**
-	 *	Cycles the layer's animated tiles and updates them on the buffer.
+	 *	Whether the tile drawn in a cell changed frame this cycle.
+	 */
+	protected boolean isCellChanged(int col, int row) {
+		return changedTile[map[row][col] & TILE_MASK];
+	}
+	
+	/**
+	 *	Cycles the layer's animated tiles and redraws on the buffer those
+	 *	that changed frame. Nothing is scanned if no tile changed.
 	 */
 	public final void cycle() {
 		super.cycle();
 		
+		AnimTileController source = (controller != null) ? controller : this;
+		int numChanged = source.getNumChangedAnims();
+		if (numChanged == 0) {
+			return;
+		}
+		for (int n = numChanged - 1; n >= 0; n--) {
+			changedTile[source.getChangedAnim(n)] = true;
+		}
+		
 		int startCol = tileStartX / TILE_W;
 		int startRow = tileStartY / TILE_H;
 		for (int bufRow = 0; bufRow < tileRows; bufRow++) {
 			int mapRow = getTileY(startRow);
 			if (activeRow[mapRow] != 0) {
+				int drawY = ((ring) ? wrap(startRow, tileRows) : bufRow) * TILE_H;
 				int currentBufCol = startCol;
 				for (int bufCol = 0; bufCol < tileCols; bufCol++) {
 					int mapCol = getTileX(currentBufCol);
-					if (map[mapRow][mapCol] < 0) {
-						drawTile(gfx, mapCol, mapRow, bufCol * TILE_W, bufRow * TILE_H);
+					if (map[mapRow][mapCol] < 0 && isCellChanged(mapCol, mapRow)) {
+						drawTile(gfx, mapCol, mapRow, ((ring) ? wrap(currentBufCol, tileCols) : bufCol) * TILE_W, drawY);
 					}
 					currentBufCol++;
 				}
 			}
 			startRow++;
 		}
+		
+		for (int n = numChanged - 1; n >= 0; n--) {
+			changedTile[source.getChangedAnim(n)] = false;
+		}
 	}
 	
 	/**
 	 *	Draws the tiled layer.
 	 */
-	public final void paint(Graphics g, int x, int y) {
-		g.drawRegion(buf, TILE_W - originX, TILE_H - originY, viewW, viewH, 0, x + posX, y + posY, Graphics.TOP | Graphics.LEFT);
+	public final void paint(RenderTarget g, int x, int y) {
+		x += posX;
+		y += posY;
+		if (ring) {
+			/*
+			 *	The view is split where it crosses the buffer's edges, the
+			 *	right and bottom parts coming from the buffer's left and top.
+			 */
+			int srcX = wrap(_x, bufW);
+			int srcY = wrap(_y, bufH);
+			int w = Math.min(viewW, bufW - srcX);
+			int h = Math.min(viewH, bufH - srcY);
+			g.drawRegion(buf, srcX, srcY, w, h, 0, x, y, Graphics.TOP | Graphics.LEFT);
+			if (w < viewW) {
+				g.drawRegion(buf, 0, srcY, viewW - w, h, 0, x + w, y, Graphics.TOP | Graphics.LEFT);
+			}
+			if (h < viewH) {
+				g.drawRegion(buf, srcX, 0, w, viewH - h, 0, x, y + h, Graphics.TOP | Graphics.LEFT);
+				if (w < viewW) {
+					g.drawRegion(buf, 0, 0, viewW - w, viewH - h, 0, x + w, y + h, Graphics.TOP | Graphics.LEFT);
+				}
+			}
+		} else {
+			g.drawRegion(buf, TILE_W - originX, TILE_H - originY, viewW, viewH, 0, x, y, Graphics.TOP | Graphics.LEFT);
+		}
 	}
 	
 	/*************************** copyArea() tests ***************************/
@@ -597,7 +763,9 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	
 	/**
 	 *	By passing all buffer creation through here the tile layers can share
-	 *	buffers if they're never on screen together at the same time.
+	 *	buffers if they're never on screen together at the same time. Layers
+	 *	created off the game's thread (whilst it could be drawing into the
+	 *	shared buffers) need exclusive use.
 	 *
 	 *	@param exclusive whether exclusive use is required
 	 */
@@ -609,7 +777,7 @@ public class BufferedTiledLayer extends ContinuousTiledLayer {
 	 *	@param isBufA whether this is the 'a' or 'b' buffer when two are used
 	 *	@see #createBuffer(int w, int h, boolean exclusive)
 	 */
-	static final Image createBuffer(int w, int h, boolean exclusive, boolean isBufA) {
+	static synchronized final Image createBuffer(int w, int h, boolean exclusive, boolean isBufA) {
 		if (forceExcl || exclusive) {
 			if (DEBUG) {
 				System.out.println("Creating exclusive buffer");
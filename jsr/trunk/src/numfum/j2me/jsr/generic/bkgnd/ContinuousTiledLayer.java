@@ -1,7 +1,6 @@
 package numfum.j2me.jsr.generic.bkgnd;
 
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import javax.microedition.lcdui.Graphics;
 
@@ -9,6 +8,8 @@ import numfum.j2me.jsr.Constants;
 import numfum.j2me.jsr.generic.AnimTile;
 import numfum.j2me.jsr.generic.AnimTileController;
 import numfum.j2me.jsr.generic.Positionable;
+import numfum.j2me.jsr.generic.RenderTarget;
+import numfum.j2me.util.ByteDataInput;
 
 /**
  *	Base class for all tiled layers. A continuous tiled layer is, as its name
@@ -181,9 +182,7 @@ public abstract class ContinuousTiledLayer extends AnimTileController implements
 	 *	Loads a tilemap from a resource file.
 	 */
 	public void load(String resource) throws IOException {
-		DataInputStream in = new DataInputStream(getClass().getResourceAsStream(resource));
-		load(in);
-		in.close();
+		load(ByteDataInput.open(resource));
 	}
 	
 	/**
@@ -358,7 +357,7 @@ public abstract class ContinuousTiledLayer extends AnimTileController implements
 	 *
 	 *	@see Positionable.paint
 	 */
-	public abstract void paint(Graphics g, int x, int y);
+	public abstract void paint(RenderTarget g, int x, int y);
 	
 	public String toString() {
 		return getClass().getName() + " [viewW: " + viewW + ", viewH: " + viewH + "]";
@@ -8,6 +8,7 @@ import javax.microedition.lcdui.game.TiledLayer;
 
 import numfum.j2me.jsr.generic.AnimTile;
 import numfum.j2me.jsr.generic.AnimTileController;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.util.Fixed;
 
 /**
@@ -39,6 +40,11 @@ public class TiledOverlay extends ContinuousTiledLayer {
 	 */
 	protected final TiledLayer peer;
 	
+	/**
+	 *	Tiles drawn by the peer, kept for drawing without it.
+	 */
+	private final Image tileset;
+	
 	/**
 	 *	Cols used by the peer to fill the required space.
 	 */
@@ -78,6 +84,7 @@ public class TiledOverlay extends ContinuousTiledLayer {
 			peerRows = rows;
 		}
 		peer = new TiledLayer(peerCols, peerRows, tileset, TILE_W, TILE_H);
+		this.tileset = tileset;
 		
 		for (int n = 0; n < maxAnims; n++) {
 			peer.createAnimatedTile(tile[n].getTileIndex() + 1);
@@ -143,18 +150,25 @@ public class TiledOverlay extends ContinuousTiledLayer {
 		originY = Fixed.wrap(y, rowsPixels);
 	}
 	
+	/**
+	 *	Updates the peer's animated tiles from the controller's list of
+	 *	changes (only those this layer uses).
+	 */
 	public final void cycle() {
 		super.cycle();
-		for (int n = numActiveAnims - 1; n >= 0; n--) {
-			int index = activeAnims[n];
-			peer.setAnimatedTile(-index - 1, animtile[index].getTileIndex() + 1);
+		AnimTileController source = (controller != null) ? controller : this;
+		for (int n = source.getNumChangedAnims() - 1; n >= 0; n--) {
+			int index = source.getChangedAnim(n);
+			if (isAnimTileActive(index)) {
+				peer.setAnimatedTile(-index - 1, animtile[index].getTileIndex() + 1);
+			}
 		}
 	}
 	
 	/**
 	 *	Draws the tiled layer.
 	 */
-	public final void paint(Graphics g, int x, int y) {
+	public final void paint(RenderTarget g, int x, int y) {
 		int clipX = g.getClipX();
 		int clipY = g.getClipY();
 		int clipW = g.getClipWidth();
@@ -163,9 +177,40 @@ public class TiledOverlay extends ContinuousTiledLayer {
 		x += posX;
 		y += posY;
 		g.clipRect(x, y, viewW, viewH);
-		peer.setPosition(x - originX, y - originY);
-		peer.paint(g);
+		Graphics gfx = g.getGraphics();
+		if (gfx != null) {
+			peer.setPosition(x - originX, y - originY);
+			peer.paint(gfx);
+		} else {
+			paintCells(g, x - originX, y - originY);
+		}
 		
 		g.setClip(clipX, clipY, clipW, clipH);
 	}
+	
+	/**
+	 *	Draws the peer's cells one at a time, for targets which aren't backed
+	 *	by a <code>Graphics</code> context. Only the cells inside the clip are
+	 *	drawn.
+	 */
+	private void paintCells(RenderTarget g, int x, int y) {
+		int sheetCols = tileset.getWidth() / TILE_W;
+		int col1 = Math.max((g.getClipX() - x) / TILE_W, 0);
+		int row1 = Math.max((g.getClipY() - y) / TILE_H, 0);
+		int col2 = Math.min((g.getClipX() + g.getClipWidth()  - x + TILE_W - 1) / TILE_W, peerCols);
+		int row2 = Math.min((g.getClipY() + g.getClipHeight() - y + TILE_H - 1) / TILE_H, peerRows);
+		for (int row = row1; row < row2; row++) {
+			for (int col = col1; col < col2; col++) {
+				int tile = peer.getCell(col, row);
+				if (tile < 0) {
+					tile = peer.getAnimatedTile(tile);
+				}
+				if (tile > 0) {
+					tile--;
+					g.drawRegion(tileset, (tile % sheetCols) * TILE_W, (tile / sheetCols) * TILE_H, TILE_W, TILE_H, 0,
+						x + col * TILE_W, y + row * TILE_H, Graphics.TOP | Graphics.LEFT);
+				}
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package numfum.j2me.jsr.renderer;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import numfum.j2me.util.AssetCache;
+
+/**
+ *	The sprite frames drawn by the Mode7 renderer, as runs of palette
+ *	indices for each row of each frame. Frames never change once read, so
+ *	every renderer in the VM shares the one copy (see
+ *	<code>AssetCache</code>), a renderer created whilst another holds them
+ *	skipping over the data instead.
+ */
+final class SpriteFrames {
+	/**
+	 *	Number of frames.
+	 */
+	final int count;
+	
+	/**
+	 *	Each frame's first row.
+	 */
+	final byte[] offsetY;
+	
+	/**
+	 *	Each frame's number of rows.
+	 */
+	final byte[] lengthY;
+	
+	/**
+	 *	Each row's first column.
+	 */
+	final byte[][] offsetX;
+	
+	/**
+	 *	Each row's number of columns.
+	 */
+	final byte[][] lengthX;
+	
+	/**
+	 *	Each row's start in <code>data</code>.
+	 */
+	final int[][] dataOffset;
+	
+	/**
+	 *	Palette indices for every row of every frame.
+	 */
+	final byte[] data;
+	
+	/**
+	 *	Bytes taken by the frames in the stream.
+	 */
+	private final int size;
+	
+	private SpriteFrames(DataInput in) throws IOException {
+		count = in.readUnsignedShort();
+		
+		offsetY = new byte[count];
+		lengthY = new byte[count];
+		offsetX = new byte[count][];
+		lengthX = new byte[count][];
+		
+		dataOffset = new int[count][];
+		int dataCount = 0;
+		int read = 2;
+		
+		for (int n = 0; n < count; n++) {
+			offsetY[n] = in.readByte();
+			int rows = in.readUnsignedByte();
+			lengthY[n] = (byte) rows;
+			
+			offsetX[n] = new byte[rows];
+			lengthX[n] = new byte[rows];
+			dataOffset[n] = new int[rows];
+			for (int i = 0; i < rows; i++) {
+				offsetX[n][i] = in.readByte();
+				int cols = in.readUnsignedByte();
+				lengthX[n][i] = (byte) cols;
+				dataOffset[n][i] = dataCount;
+				dataCount += cols;
+			}
+			read += 2 + rows * 2;
+		}
+		
+		data = new byte[dataCount];
+		in.readFully(data);
+		size = read + dataCount;
+	}
+	
+	/**
+	 *	Returns the frames at the stream's current position, reading them only
+	 *	if they aren't already held.
+	 */
+	static synchronized SpriteFrames read(DataInput in) throws IOException {
+		SpriteFrames frames = (SpriteFrames) AssetCache.get(KEY);
+		if (frames != null) {
+			in.skipBytes(frames.size);
+			return frames;
+		}
+		return (SpriteFrames) AssetCache.put(KEY, new SpriteFrames(in));
+	}
+	
+	/**
+	 *	Key the frames are shared under (they only come from the one file).
+	 */
+	private static final String KEY = "/ksb.dat#frames";
+}
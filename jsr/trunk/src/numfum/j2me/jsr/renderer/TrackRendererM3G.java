@@ -11,6 +11,7 @@ import javax.microedition.m3g.*;
 import numfum.j2me.jsr.Sprite;
 import numfum.j2me.jsr.TrackRenderer;
 import numfum.j2me.jsr.generic.AnimTile;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.jsr.generic.bkgnd.ContinuousTiledLayer;
 import numfum.j2me.util.Fixed;
 import numfum.j2me.util.QuickSort;
@@ -54,12 +55,37 @@ public final class TrackRendererM3G extends TrackRenderer {
 	private final int numSpriteFrames;
 	
 	/**
-	 *	Textures holding the individual sprite frames. Multiple texture
-	 *	objects are used rather than swapping a texture's image due to there
-	 *	being fewer overheads this way round (or at least that's the case in
-	 *	Nokia's M3G reference implementation).
+	 *	Atlas textures holding the sprite frames, packed in a grid of
+	 *	<code>SPRITE_W</code> by <code>SPRITE_H</code> cells. Most tracks fit
+	 *	all their frames in a single atlas, so every billboard in the scene
+	 *	can be drawn without changing texture.
 	 */
-	private final Texture2D[] spriteFrameTex;
+	private final Texture2D[] spriteAtlasTex;
+	
+	/**
+	 *	Appearances for each atlas (created once so that drawing a batch
+	 *	doesn't need to swap the texture reference).
+	 */
+	private final Appearance[] spriteAtlasApp;
+	
+	/**
+	 *	Atlas index for each sprite frame.
+	 */
+	private final byte[] spriteFrameAtlas;
+	
+	/**
+	 *	Top-left texture coordinate of each sprite frame within its atlas.
+	 *	Stored pre-multiplied so that a single texture coordinate scale works
+	 *	for atlases that aren't square.
+	 */
+	private final short[] spriteFrameU;
+	private final short[] spriteFrameV;
+	
+	/**
+	 *	Height of a sprite frame in atlas texture coordinates (the width is
+	 *	always <code>SPRITE_W</code>).
+	 */
+	private final short[] spriteFrameH;
 	
 	/**
 	 *	Scale factor for the floor textures. A value of 1 stores the images at
@@ -67,6 +93,15 @@ public final class TrackRendererM3G extends TrackRenderer {
 	 */
 	private final int texScale;
 	
+	/**
+	 *	Scale factor the floor textures are actually built at, coarser than
+	 *	<code>texScale</code> if the texture budget can't otherwise hold the
+	 *	fewest slots needed.
+	 *
+	 *	@see #setFloorTextureBudget
+	 */
+	private int floorScale;
+	
 	/**
 	 *	Tile palette as stored as bytes.
 	 */
@@ -75,36 +110,126 @@ public final class TrackRendererM3G extends TrackRenderer {
 	/**
 	 *	Tile frames stored in a format ready for use in M3G textures.
 	 */
-	private final byte[][] texTileFrames;
+	private byte[][] texTileFrames;
+	
+	/**
+	 *	Appearance for each floor texture cell. The floor is built from a few
+	 *	large textures rather than many small ones, with each cell's texture
+	 *	coming from one of the slots below.
+	 */
+	private final Appearance[] floorApp = new Appearance[FLOOR_CELLS];
+	
+	/**
+	 *	Texture cell drawn by each of the floor mesh's submeshes (the
+	 *	overdraw around the edges repeating cells from the opposite side).
+	 */
+	private final byte[] floorSubmeshCell = new byte[FLOOR_QUADS];
+	
+	/**
+	 *	Images and textures holding the floor, allocated as they're first
+	 *	needed. When streaming only enough slots to cover the byte budget
+	 *	are used, otherwise there's one per cell.
+	 */
+	private final Image2D[] floorSlotImg = new Image2D[FLOOR_CELLS];
+	private final Texture2D[] floorSlotTex = new Texture2D[FLOOR_CELLS];
+	
+	/**
+	 *	Cell held in each slot, or -1 if free.
+	 */
+	private final byte[] floorSlotCell = new byte[FLOOR_CELLS];
+	
+	/**
+	 *	Frame each slot's cell was last seen, for evicting the least recently
+	 *	used.
+	 */
+	private final int[] floorSlotTick = new int[FLOOR_CELLS];
+	
+	/**
+	 *	Slot holding each cell, or -1 if the cell isn't resident.
+	 */
+	private final byte[] floorCellSlot = new byte[FLOOR_CELLS];
+	
+	/**
+	 *	Scratch flags marking the cells in view this frame, and the cells
+	 *	ahead of the kart worth building early.
+	 */
+	private final boolean[] floorCellSeen = new boolean[FLOOR_CELLS];
+	private final boolean[] floorCellNext = new boolean[FLOOR_CELLS];
 	
 	/**
-	 *	Images used on the floor textures. The floor is built from a few large
-	 *	textures rather than many small ones.
+	 *	Number of floor slots the budget allows, or zero to build every cell
+	 *	up front.
 	 */
-	private final Image2D[][] floorTexImg = new Image2D[TEXTURE_ROWS][TEXTURE_COLS];
+	private int floorSlotLimit = 0;
+	
+	/**
+	 *	Incremented every frame the floor is streamed.
+	 */
+	private int floorTick = 0;
+	
+	/**
+	 *	Whether the tiles have been converted and the floor is ready to
+	 *	stream.
+	 */
+	private boolean floorReady = false;
+	
+	/**
+	 *	Far clip distance and horizontal view tangent, used to decide which
+	 *	cells are in view.
+	 */
+	private final float viewFar;
+	private final float viewTanH;
 	
 	/**
 	 *	Mesh for the entire track floor.
 	 */
-	private Node floorMesh;
+	private Mesh floorMesh;
+	
+	/**
+	 *	Origin of each sprite (not individual frame) in billboard space,
+	 *	already scaled by <code>SPRITE_SCALE</code>.
+	 */
+	private final short[] spriteOgnX = new short[MAX_SPRITES];
+	private final short[] spriteOgnY = new short[MAX_SPRITES];
+	
+	/**
+	 *	Vertex buffer rebuilt every frame with a quad for each visible
+	 *	billboard. Positions are stored relative to the camera (which is
+	 *	added back as the bias) to keep precision in the short components.
+	 */
+	private final VertexBuffer batchVertBuf;
+	private final VertexArray batchPosArray;
+	private final VertexArray batchTexArray;
+	
+	/**
+	 *	Scratch vertex data copied into the batch's arrays.
+	 */
+	private final short[] batchPos;
+	private final short[] batchTex;
 	
-	private final VertexBuffer[] spriteVertBufL2R = new VertexBuffer[MAX_SPRITES];
-	private final VertexBuffer[] spriteVertBufR2L = new VertexBuffer[MAX_SPRITES];
+	/**
+	 *	Index buffers for batches of <em>n</em> quads, each quad being a
+	 *	strip of four vertices. Created on first use since M3G index buffers
+	 *	are immutable.
+	 */
+	private final IndexBuffer[] batchIndexBuf;
 	
 	/**
-	 *	A single index buffer used by all sprites (given that they're all the
-	 *	same size).
+	 *	Bias added to the batch's positions (the camera location).
 	 */
-	private final IndexBuffer spriteIndexBuf;
+	private final float[] batchBias = new float[3];
 	
 	/**
-	 *	Single appearance used for drawing all billboard sprites (its texture
-	 *	reference is changed for each sprite).
+	 *	Billboard right and up axes in world space, shared by every sprite
+	 *	since they all face the camera. Stored as 4-tuples for
+	 *	<code>Transform.transform()</code>.
 	 */
-	private final Appearance billboardApp;
+	private final float[] billboardR = new float[4];
+	private final float[] billboardU = new float[4];
 	
 	/**
-	 *	Single transform used to possition all sprites.
+	 *	Identity transform used when drawing batches (the vertices are
+	 *	already in world space).
 	 */
 	private final Transform spTransform = new Transform();
 	
@@ -196,7 +321,15 @@ public final class TrackRendererM3G extends TrackRenderer {
 	private int numSpritesToPaint = 0;
 	
 	public TrackRendererM3G(int viewW, int viewH, int ratio, int bkgndType, DataInput in, boolean close) throws IOException {
-		super(viewW, viewH, in);
+		this(viewW, viewH, ratio, bkgndType, in, close, false);
+	}
+	
+	/**
+	 *	@param exclusive whether the backgrounds need buffers of their own
+	 *	@see TrackRendererMode7#TrackRendererMode7(int, int, int, boolean, int, DataInput, boolean, boolean)
+	 */
+	public TrackRendererM3G(int viewW, int viewH, int ratio, int bkgndType, DataInput in, boolean close, boolean exclusive) throws IOException {
+		super(viewW, viewH, in, exclusive);
 		
 		floorH = viewH / 2 - 1; // -1 due to slight differences in where the floor draws to
 		
@@ -221,7 +354,10 @@ public final class TrackRendererM3G extends TrackRenderer {
 		loadPalette(in, spritePalette);
 		
 		numSpriteFrames = in.readUnsignedShort();
-		spriteFrameTex  = new Texture2D[numSpriteFrames];
+		spriteFrameAtlas = new byte [numSpriteFrames];
+		spriteFrameU     = new short[numSpriteFrames];
+		spriteFrameV     = new short[numSpriteFrames];
+		spriteFrameH     = new short[numSpriteFrames];
 		
 		if (DEBUG) {
 			System.out.println("Number of sprite frames: " + numSpriteFrames);
@@ -245,28 +381,75 @@ public final class TrackRendererM3G extends TrackRenderer {
 			}
 		}
 		
-		byte[] frameBuf = new byte[SPRITE_W * SPRITE_H];
+		/*
+		 *	Frames are packed into atlases as wide as the implementation
+		 *	allows (up to ATLAS_MAX_W), with the last atlas only as tall as
+		 *	the rows it needs.
+		 */
+		int atlasW = getMaxTextureSize();
+		int atlasCols = atlasW / SPRITE_W;
+		int framesPerAtlas = atlasCols * (atlasW / SPRITE_H);
+		int numAtlases = (numSpriteFrames + framesPerAtlas - 1) / framesPerAtlas;
+		spriteAtlasTex = new Texture2D [numAtlases];
+		spriteAtlasApp = new Appearance[numAtlases];
+		
+		if (DEBUG) {
+			System.out.println("Sprite atlases: " + numAtlases + " (" + atlasW + " wide)");
+		}
+		
+		/*
+		 *	Because the billboard sprites are always angled towards the player
+		 *	there's no need to perspective correct the texture maps, which
+		 *	should speed up the render.
+		 */
+		PolygonMode pm = new PolygonMode();
+		pm.setPerspectiveCorrectionEnable(false);
+		pm.setCulling(PolygonMode.CULL_BACK);
+		CompositingMode cm = new CompositingMode();
+		cm.setBlending(CompositingMode.ALPHA);
+		
+		byte[] atlasBuf = null;
 		byte[] lineBuf  = new byte[SPRITE_W];
-		for (int n = 0; n < numSpriteFrames; n++) {
-			for (int i = SPRITE_W * SPRITE_H - 1; i >= 0; i--) {
-				frameBuf[i] = 0;
-			}
-			for (int posY = spriteOffsetY[n], lenY = spriteLengthY[n]; lenY > 0; posY++, lenY--) {
-				int offY = posY * SPRITE_W;
-				int posX = spriteOffsetX[n][posY - spriteOffsetY[n]];
-				int lenX = spriteLengthX[n][posY - spriteOffsetY[n]];
-				int bufX = 0;
-				in.readFully(lineBuf, 0, lenX);
-				while (lenX > 0) {
-					frameBuf[offY + posX] = lineBuf[bufX++];
-					posX++;
-					lenX--;
+		for (int a = 0, first = 0; a < numAtlases; a++, first += framesPerAtlas) {
+			int frames = Math.min(framesPerAtlas, numSpriteFrames - first);
+			int atlasH = SPRITE_H;
+			while (atlasH < ((frames + atlasCols - 1) / atlasCols) * SPRITE_H) {
+				atlasH <<= 1;
+			}
+			if (atlasBuf == null || atlasBuf.length != atlasW * atlasH) {
+				atlasBuf = new byte[atlasW * atlasH];
+			} else {
+				for (int i = atlasBuf.length - 1; i >= 0; i--) {
+					atlasBuf[i] = 0;
+				}
+			}
+			int aspect = atlasW / atlasH;
+			for (int f = 0; f < frames; f++) {
+				int n = first + f;
+				int cellX = (f % atlasCols) * SPRITE_W;
+				int cellY = (f / atlasCols) * SPRITE_H;
+				spriteFrameAtlas[n] = (byte) a;
+				spriteFrameU[n] = (short)  cellX;
+				spriteFrameV[n] = (short) (cellY * aspect);
+				spriteFrameH[n] = (short) (SPRITE_H * aspect);
+				for (int posY = spriteOffsetY[n], lenY = spriteLengthY[n]; lenY > 0; posY++, lenY--) {
+					int offY = (cellY + posY) * atlasW + cellX;
+					int posX = spriteOffsetX[n][posY - spriteOffsetY[n]];
+					int lenX = spriteLengthX[n][posY - spriteOffsetY[n]];
+					in.readFully(lineBuf, 0, lenX);
+					System.arraycopy(lineBuf, 0, atlasBuf, offY + posX, lenX);
 				}
 			}
-			spriteFrameTex[n] = new Texture2D(new Image2D(Image2D.RGBA, SPRITE_W, SPRITE_H, frameBuf, spritePalette));
-			spriteFrameTex[n].setFiltering(Texture2D.FILTER_BASE_LEVEL, Texture2D.FILTER_NEAREST);
-			spriteFrameTex[n].setWrapping(Texture2D.WRAP_CLAMP, Texture2D.WRAP_CLAMP);
+			spriteAtlasTex[a] = new Texture2D(new Image2D(Image2D.RGBA, atlasW, atlasH, atlasBuf, spritePalette));
+			spriteAtlasTex[a].setFiltering(Texture2D.FILTER_BASE_LEVEL, Texture2D.FILTER_NEAREST);
+			spriteAtlasTex[a].setWrapping(Texture2D.WRAP_CLAMP, Texture2D.WRAP_CLAMP);
+			
+			spriteAtlasApp[a] = new Appearance();
+			spriteAtlasApp[a].setPolygonMode(pm);
+			spriteAtlasApp[a].setCompositingMode(cm);
+			spriteAtlasApp[a].setTexture(0, spriteAtlasTex[a]);
 		}
+		atlasBuf = null;
 		
 		spriteOffsetY = null;
 		spriteLengthY = null;
@@ -308,6 +491,8 @@ public final class TrackRendererM3G extends TrackRenderer {
 		
 		camera = new Camera();
 		camera.setPerspective(viewAngleF, (float) viewW / (float) viewH, 32.0f, viewVdistF);
+		viewFar  = viewVdistF;
+		viewTanH = (float) Math.tan(Math.toRadians(viewAngleF / 2)) * viewW / viewH;
 		//g3d.setCamera(camera, null);
 		
 		camTransform = new Transform();
@@ -323,78 +508,35 @@ public final class TrackRendererM3G extends TrackRenderer {
 		
 		/*****/
 		
-		texTileFrames = new byte[MAX_ANIMS][(TILE_H / texScale) * (TILE_W / texScale) * 3];
+		floorScale = texScale;
+		texTileFrames = new byte[MAX_ANIMS][(TILE_H / floorScale) * (TILE_W / floorScale) * 3];
 		
 		/*
-		 *	One quad is stored per sprite (not individual frame), and it's
-		 *	created already offset by its origin, so rendering is just a
-		 *	matter drawing using a transform that affects its placement on the
-		 *	track.
+		 *	Each sprite (not individual frame) has its origin stored so the
+		 *	billboard quads can be built already offset, with unused sprites
+		 *	never reaching the batch (their tile index being zero).
 		 */
-		VertexArray spriteVerts = new VertexArray(4, 3, 1);
-		spriteVerts.set(0, 4, new byte[] {
-			                        0,         	               0,  0,
-			                        0, -SPRITE_H >> SPRITE_SCALE,  0,
-			 SPRITE_W >> SPRITE_SCALE,                         0,  0,
-			 SPRITE_W >> SPRITE_SCALE, -SPRITE_H >> SPRITE_SCALE,  0});
-			 
-		VertexArray spriteTextureL2R = new VertexArray(4, 2, 1);
-		spriteTextureL2R.set(0, 4, new byte[] {
-			0, 0,
-			0, 1,
-			1, 0,
-			1, 1});
-		
-		VertexArray spriteTextureR2L = new VertexArray(4, 2, 1);
-		spriteTextureR2L.set(0, 4, new byte[] {
-			1, 0,
-			1, 1,
-			0, 0,
-			0, 1});
-		
 		for (int n = 0; n < MAX_SPRITES; n++) {
-			if (n > 0 && animsprite[n].isZeroTile()) {
-				/*
-				 *	Sets the vertex buffer for unused sprites to that of the
-				 *	first entry (which should be created as a blank texture).
-				 */
-				spriteVertBufL2R[n] = spriteVertBufL2R[0];
-				spriteVertBufR2L[n] = spriteVertBufR2L[0];
-			} else {
-				int data = animsprite[n].data;
-				spriteVertBufL2R[n] = new VertexBuffer();
-				spriteVertBufL2R[n].setPositions(spriteVerts, 1.0f, new float[] {
-					-((data >> SPRITE_DATA_ROTL_OGNX) & SPRITE_DATA_MASK_OGNX) >> SPRITE_SCALE,
-					 ((data >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY) >> SPRITE_SCALE, 0f});
-				spriteVertBufL2R[n].setTexCoords(0, spriteTextureL2R, 1.0f, null);
-				
-				spriteVertBufR2L[n] = (VertexBuffer) spriteVertBufL2R[n].duplicate();
-				spriteVertBufR2L[n].setTexCoords(0, spriteTextureR2L, 1.0f, null);
-			}
+			int data = animsprite[n].data;
+			spriteOgnX[n] = (short) (-((data >> SPRITE_DATA_ROTL_OGNX) & SPRITE_DATA_MASK_OGNX) >> SPRITE_SCALE);
+			spriteOgnY[n] = (short) ( ((data >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY) >> SPRITE_SCALE);
 		}
 		
-		spriteIndexBuf = new TriangleStripArray(0, new int[] {4});
-		
-		/*
-		 *	Because the billboard sprites are always angled towards the player
-		 *	there's no need to perspective correct the texture maps, which
-		 *	should speed up the render.
-		 */
-		PolygonMode pm = new PolygonMode();
-		pm.setPerspectiveCorrectionEnable(false);
-		pm.setCulling(PolygonMode.CULL_BACK);
-		CompositingMode cm = new CompositingMode();
-		cm.setBlending(CompositingMode.ALPHA);
-		
-		billboardApp = new Appearance();
-		billboardApp.setPolygonMode(pm);
-		billboardApp.setCompositingMode(cm);
-		
 		/*****/
 		
 		int maxTrackObjs = TrackRendererMode7.createFieldOfView(viewPitch, viewAngle, viewVdist, viewCdist, viewScale, viewHorzn, floorH, fieldOfViewCols, fieldOfViewRows);
 		
 		spritesToPaint = new Sprite[maxTrackObjs + TrackRendererMode7.MAX_BLEND_SPRITES];
+		
+		int maxQuads = spritesToPaint.length;
+		batchPos = new short[maxQuads * 4 * 3];
+		batchTex = new short[maxQuads * 4 * 2];
+		batchPosArray = new VertexArray(maxQuads * 4, 3, 2);
+		batchTexArray = new VertexArray(maxQuads * 4, 2, 2);
+		batchVertBuf  = new VertexBuffer();
+		batchVertBuf.setTexCoords(0, batchTexArray, 1.0f / atlasW, null);
+		batchIndexBuf = new IndexBuffer[maxQuads + 1];
+		
 		for (int n = spritesToPaint.length - 1; n >= 0; n--) {
 			spritesToPaint[n] = new Sprite();
 		}
@@ -402,7 +544,7 @@ public final class TrackRendererM3G extends TrackRenderer {
 			sorter[n] = new Sprite();
 		}
 		
-		bkgnd = TrackRendererMode7.createBackgrounds(bkgndType, viewW, viewH - floorH + ContinuousTiledLayer.TILE_H, image, anims);
+		bkgnd = TrackRendererMode7.createBackgrounds(bkgndType, viewW, viewH - floorH + ContinuousTiledLayer.TILE_H, image, anims, exclusive);
 		numBkgndLayers = bkgnd.length;
 		bkgndY = (BKGND_ROWS - 1) * ContinuousTiledLayer.TILE_H - viewH + floorH;
 		compBkgnd = bkgndType == BACKGROUND_COMPOSITE;
@@ -542,34 +684,309 @@ public final class TrackRendererM3G extends TrackRenderer {
 		cm.setDepthTestEnable(false);
 		cm.setDepthWriteEnable(false);
 		
+		/*
+		 *	The textures themselves are only created once the track is
+		 *	loaded (and only then for the cells in view if streaming).
+		 */
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			floorApp[n] = new Appearance();
+			floorApp[n].setPolygonMode(pm);
+			floorApp[n].setCompositingMode(cm);
+			floorCellSlot[n] = -1;
+			floorSlotCell[n] = -1;
+		}
 		Appearance[] app = new Appearance[FLOOR_QUADS];
-		for (int row = 0; row < TEXTURE_ROWS; row++) {
-			for (int col = 0; col < TEXTURE_COLS; col++) {
-				Texture2D tex2d = null;
-				if (USE_FLOOR_TEXTURE) {
-					floorTexImg[row][col] = new Image2D(Image2D.RGB, TEXTURE_W / texScale, TEXTURE_H / texScale);
-					tex2d = new Texture2D(floorTexImg[row][col]);
-					tex2d.setFiltering(Texture2D.FILTER_BASE_LEVEL, Texture2D.FILTER_NEAREST);
-					tex2d.setWrapping(Texture2D.WRAP_CLAMP, Texture2D.WRAP_CLAMP);
+		int i = 0;
+		for (int row = -FLOOR_OVERDRAW; row < TEXTURE_ROWS + FLOOR_OVERDRAW; row++) {
+			for (int col = -FLOOR_OVERDRAW; col < TEXTURE_COLS + FLOOR_OVERDRAW; col++) {
+				int cell = ((row + TEXTURE_ROWS) % TEXTURE_ROWS) * TEXTURE_COLS + (col + TEXTURE_COLS) % TEXTURE_COLS;
+				floorSubmeshCell[i] = (byte) cell;
+				app[i] = (USE_FLOOR_TEXTURE) ? null : floorApp[cell];
+				i++;
+			}
+		}
+		
+		floorMesh = new Mesh(vertBuf, idxBuf, app);
+	}
+	
+	/**
+	 *	Sets the memory available for floor textures. A budget of zero builds
+	 *	the entire floor when the track loads, otherwise textures are built
+	 *	as they come into view and the least recently seen are reused once
+	 *	the budget is spent. If the budget can't hold
+	 *	<code>FLOOR_MIN_SLOTS</code> textures at the chosen scale they're
+	 *	built at a coarser one instead. The budget is only exceeded rather
+	 *	than leave holes if the view covers more than that (any textures
+	 *	over the budget being freed once out of view). Takes effect on the
+	 *	next load.
+	 */
+	public void setFloorTextureBudget(int bytes) {
+		int scale = texScale;
+		if (bytes > 0) {
+			while (scale < FLOOR_MAX_SCALE && getFloorTextureSize(scale) * FLOOR_MIN_SLOTS > bytes) {
+				scale *= 2;
+			}
+		}
+		int limit = Math.min(bytes / getFloorTextureSize(scale), FLOOR_CELLS);
+		if (bytes > 0 && limit < FLOOR_MIN_SLOTS) {
+			limit = FLOOR_MIN_SLOTS; // only for budgets too small at any scale
+		}
+		if (DEBUG) {
+			System.out.println("Floor texture slots: " + ((limit > 0) ? String.valueOf(limit) : "all") + " at 1:" + scale);
+		}
+		floorSlotLimit = limit;
+		int keep = limit;
+		if (scale != floorScale) {
+			/*
+			 *	Everything built so far is the wrong size, and the tiles are
+			 *	converted again for the new scale when the track next loads.
+			 */
+			floorScale = scale;
+			texTileFrames = null;
+			texTileFrames = new byte[MAX_ANIMS][(TILE_H / floorScale) * (TILE_W / floorScale) * 3];
+			floorReady = false;
+			keep = 0;
+		}
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			if (n >= keep) {
+				/*
+				 *	Slots outside the new budget are freed (the cell, if any,
+				 *	being evicted first).
+				 */
+				freeFloorSlot(n);
+			}
+		}
+	}
+	
+	/**
+	 *	Returns the bytes taken by one floor texture at a scale.
+	 */
+	private static int getFloorTextureSize(int scale) {
+		return (TEXTURE_W / scale) * (TEXTURE_H / scale) * 3;
+	}
+	
+	/**
+	 *	Evicts the cell held in a slot, if any, and lets go of the slot's
+	 *	texture.
+	 */
+	private void freeFloorSlot(int slot) {
+		if (floorSlotCell[slot] >= 0) {
+			evictFloorSlot(slot);
+		}
+		floorSlotImg[slot] = null;
+		floorSlotTex[slot] = null;
+	}
+	
+	/**
+	 *	Returns the number of floor textures currently built.
+	 */
+	public int getFloorTexturesResident() {
+		int count = 0;
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			if (floorSlotCell[n] >= 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 *	Removes the cell held in a slot, leaving its submeshes undrawn.
+	 */
+	private void evictFloorSlot(int slot) {
+		int cell = floorSlotCell[slot];
+		floorSlotCell[slot] = -1;
+		floorCellSlot[cell] = -1;
+		for (int n = 0; n < FLOOR_QUADS; n++) {
+			if (floorSubmeshCell[n] == cell) {
+				floorMesh.setAppearance(n, null);
+			}
+		}
+	}
+	
+	/**
+	 *	Fills a slot with a floor texture cell from the tilemap and attaches
+	 *	it to the cell's submeshes.
+	 */
+	private void buildFloorCell(int cell, int slot) {
+		if (floorSlotCell[slot] >= 0) {
+			evictFloorSlot(slot);
+		}
+		if (floorSlotImg[slot] == null) {
+			floorSlotImg[slot] = new Image2D(Image2D.RGB, TEXTURE_W / floorScale, TEXTURE_H / floorScale);
+			floorSlotTex[slot] = new Texture2D(floorSlotImg[slot]);
+			floorSlotTex[slot].setFiltering(Texture2D.FILTER_BASE_LEVEL, Texture2D.FILTER_NEAREST);
+			floorSlotTex[slot].setWrapping(Texture2D.WRAP_CLAMP, Texture2D.WRAP_CLAMP);
+		}
+		
+		int scaledTileW = TILE_W / floorScale;
+		int scaledTileH = TILE_H / floorScale;
+		
+		Image2D img = floorSlotImg[slot];
+		int rowOffset = (cell / TEXTURE_COLS) * TEXTURE_H / TILE_H;
+		int colOffset = (cell % TEXTURE_COLS) * TEXTURE_W / TILE_W;
+		for (int y = 0; y < TEXTURE_H / TILE_H; y++) {
+			for (int x = 0; x < TEXTURE_W / TILE_W; x++) {
+				img.set(x * scaledTileW, y * scaledTileH, scaledTileW, scaledTileH, texTileFrames[tilemap[((rowOffset + y) * MAP_COLS) + colOffset + x] & 0xFF]);
+			}
+		}
+		
+		floorApp[cell].setTexture(0, floorSlotTex[slot]);
+		floorSlotCell[slot] = (byte) cell;
+		floorSlotTick[slot] = floorTick;
+		floorCellSlot[cell] = (byte) slot;
+		for (int n = 0; n < FLOOR_QUADS; n++) {
+			if (floorSubmeshCell[n] == cell) {
+				floorMesh.setAppearance(n, floorApp[cell]);
+			}
+		}
+	}
+	
+	/**
+	 *	Returns a slot for a new cell: a free one if the budget allows, else
+	 *	the least recently seen slot not in view (including any over the
+	 *	budget). If everything is in use and <code>force</code> is set the
+	 *	budget is exceeded, otherwise -1 is returned.
+	 */
+	private int findFloorSlot(boolean force) {
+		int oldest = -1;
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			int cell = floorSlotCell[n];
+			if (cell < 0) {
+				if (n < floorSlotLimit) {
+					return n;
 				}
-				
-				app[(row + FLOOR_OVERDRAW) * (TEXTURE_COLS + FLOOR_OVERDRAW * 2) + (col + FLOOR_OVERDRAW)] = new Appearance();
-				app[(row + FLOOR_OVERDRAW) * (TEXTURE_COLS + FLOOR_OVERDRAW * 2) + (col + FLOOR_OVERDRAW)].setTexture(0, tex2d);
-				app[(row + FLOOR_OVERDRAW) * (TEXTURE_COLS + FLOOR_OVERDRAW * 2) + (col + FLOOR_OVERDRAW)].setPolygonMode(pm);
-				app[(row + FLOOR_OVERDRAW) * (TEXTURE_COLS + FLOOR_OVERDRAW * 2) + (col + FLOOR_OVERDRAW)].setCompositingMode(cm);
+				continue;
+			}
+			if (!floorCellSeen[cell] && (oldest < 0 || floorSlotTick[n] - floorSlotTick[oldest] < 0)) {
+				oldest = n;
 			}
 		}
-		int i = 0;
+		if (oldest < 0 && force) {
+			for (int n = floorSlotLimit; n < FLOOR_CELLS; n++) {
+				if (floorSlotCell[n] < 0) {
+					if (DEBUG) {
+						System.out.println("Floor texture budget exceeded");
+					}
+					return n;
+				}
+			}
+		}
+		return oldest;
+	}
+	
+	/**
+	 *	Tests whether any part of a rectangle falls on the inside of the
+	 *	edge from a to b, inside being the side the point c lies on.
+	 */
+	private static boolean isInsideEdge(float ax, float ay, float bx, float by, float cx, float cy, float x0, float y0, float x1, float y1) {
+		float nx = ay - by;
+		float ny = bx - ax;
+		if (nx * (cx - ax) + ny * (cy - ay) < 0) {
+			nx = -nx;
+			ny = -ny;
+		}
+		return nx * (x0 - ax) + ny * (y0 - ay) >= 0
+			|| nx * (x1 - ax) + ny * (y0 - ay) >= 0
+			|| nx * (x0 - ax) + ny * (y1 - ay) >= 0
+			|| nx * (x1 - ax) + ny * (y1 - ay) >= 0;
+	}
+	
+	/**
+	 *	Marks the cells (including the wrapped overdraw) touched by the
+	 *	view's footprint on the floor, a triangle from just behind the camera
+	 *	out to the far clip distance.
+	 */
+	private void markFloorCells(float camX, float camZ, float dirX, float dirZ, boolean[] mark) {
+		float far  = viewFar + FLOOR_VIEW_MARGIN;
+		float side = (viewFar + FLOOR_VIEW_MARGIN * 2) * viewTanH;
+		float ax = camX - dirX * FLOOR_VIEW_MARGIN;
+		float ay = camZ - dirZ * FLOOR_VIEW_MARGIN;
+		float bx = camX + dirX * far - dirZ * side;
+		float by = camZ + dirZ * far + dirX * side;
+		float cx = camX + dirX * far + dirZ * side;
+		float cy = camZ + dirZ * far - dirX * side;
+		
+		float minX = Math.min(ax, Math.min(bx, cx));
+		float maxX = Math.max(ax, Math.max(bx, cx));
+		float minY = Math.min(ay, Math.min(by, cy));
+		float maxY = Math.max(ay, Math.max(by, cy));
+		
 		for (int row = -FLOOR_OVERDRAW; row < TEXTURE_ROWS + FLOOR_OVERDRAW; row++) {
+			float y0 = row * TEXTURE_H;
+			float y1 = y0 + TEXTURE_H;
+			if (y1 < minY || y0 > maxY) {
+				continue;
+			}
 			for (int col = -FLOOR_OVERDRAW; col < TEXTURE_COLS + FLOOR_OVERDRAW; col++) {
-				if (col < 0 || row < 0 || col >= TEXTURE_COLS || row >= TEXTURE_ROWS) {
-					app[i] = app[((row + TEXTURE_ROWS) % TEXTURE_ROWS + FLOOR_OVERDRAW) * (TEXTURE_COLS + FLOOR_OVERDRAW * 2) + ((col + TEXTURE_COLS) % TEXTURE_COLS + FLOOR_OVERDRAW)];
+				float x0 = col * TEXTURE_W;
+				float x1 = x0 + TEXTURE_W;
+				if (x1 < minX || x0 > maxX) {
+					continue;
+				}
+				if (isInsideEdge(ax, ay, bx, by, cx, cy, x0, y0, x1, y1)
+				 && isInsideEdge(bx, by, cx, cy, ax, ay, x0, y0, x1, y1)
+				 && isInsideEdge(cx, cy, ax, ay, bx, by, x0, y0, x1, y1)) {
+					mark[((row + TEXTURE_ROWS) % TEXTURE_ROWS) * TEXTURE_COLS + (col + TEXTURE_COLS) % TEXTURE_COLS] = true;
 				}
-				i++;
 			}
 		}
+	}
+	
+	/**
+	 *	Builds any floor cells coming into view, then spends at most one
+	 *	build per frame on the cells just ahead along the kart's heading.
+	 */
+	private void streamFloor(int cameraX, int cameraY, int cameraA) {
+		floorTick++;
 		
-		floorMesh = new Mesh(vertBuf, idxBuf, app);
+		float camX = cameraX / (float) Fixed.ONE;
+		float camZ = cameraY / (float) Fixed.ONE;
+		double rads = cameraA * Math.PI / (Fixed.QUARTER_CIRCLE * 2);
+		float dirX = (float) Math.cos(rads);
+		float dirZ = (float) Math.sin(rads);
+		
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			floorCellSeen[n] = false;
+			floorCellNext[n] = false;
+		}
+		markFloorCells(camX, camZ, dirX, dirZ, floorCellSeen);
+		
+		/*
+		 *	Slots over the budget (only used when the view needed more) are
+		 *	freed as soon as their cells leave the view.
+		 */
+		for (int n = floorSlotLimit; n < FLOOR_CELLS; n++) {
+			int cell = floorSlotCell[n];
+			if (cell >= 0 && !floorCellSeen[cell]) {
+				freeFloorSlot(n);
+			}
+		}
+		
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			if (floorCellSeen[n]) {
+				int slot = floorCellSlot[n];
+				if (slot < 0) {
+					slot = findFloorSlot(true);
+					if (slot < 0) {
+						continue;
+					}
+					buildFloorCell(n, slot);
+				}
+				floorSlotTick[slot] = floorTick;
+			}
+		}
+		
+		markFloorCells(camX + dirX * FLOOR_PREFETCH, camZ + dirZ * FLOOR_PREFETCH, dirX, dirZ, floorCellNext);
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			if (floorCellNext[n] && floorCellSlot[n] < 0) {
+				int slot = findFloorSlot(false);
+				if (slot >= 0) {
+					buildFloorCell(n, slot);
+				}
+				break;
+			}
+		}
 	}
 	
 	protected void loaded(DataInput in) throws IOException {
@@ -591,8 +1008,8 @@ public final class TrackRendererM3G extends TrackRenderer {
 		}
 		for (int n = 0; n < numTiles; n++) {
 			int texOffset = 0;
-			for (int y = 0; y < TILE_H; y += texScale) {
-				for (int x = 0; x < TILE_W; x += texScale) {
+			for (int y = 0; y < TILE_H; y += floorScale) {
+				for (int x = 0; x < TILE_W; x += floorScale) {
 					byte[] rgb = texTilePalette[tileset[n][y * TILE_W + x] & 0xFF];
 					for (int i = 0; i < 3; i++) {
 						texTileFrames[n][texOffset++] = rgb[i];
@@ -601,21 +1018,18 @@ public final class TrackRendererM3G extends TrackRenderer {
 			}
 		}
 		
-		int scaledTileW = TILE_W / texScale;
-		int scaledTileH = TILE_H / texScale;
-		
-		if (USE_FLOOR_TEXTURE) {
-			for (int row = 0; row < TEXTURE_ROWS; row++) {
-				int rowOffset = row * TEXTURE_H / TILE_H;
-				for (int col = 0; col < TEXTURE_COLS; col++) {
-					int colOffset = col * TEXTURE_W / TILE_H;
-					for (int y = 0; y < TEXTURE_H / TILE_H; y++) {
-						for (int x = 0; x < TEXTURE_W / TILE_W; x++) {
-							floorTexImg[row][col].set(x * scaledTileW, y * scaledTileH, scaledTileW, scaledTileH, texTileFrames[tilemap[((rowOffset + y) * MAP_COLS) + colOffset + x] & 0xFF]);
-						}
-					}
-			
-				}
+		/*
+		 *	Anything built for the previous track is stale.
+		 */
+		for (int n = 0; n < FLOOR_CELLS; n++) {
+			if (floorSlotCell[n] >= 0) {
+				evictFloorSlot(n);
+			}
+		}
+		floorReady = USE_FLOOR_TEXTURE;
+		if (USE_FLOOR_TEXTURE && floorSlotLimit == 0) {
+			for (int n = 0; n < FLOOR_CELLS; n++) {
+				buildFloorCell(n, n);
 			}
 		}
 	}
@@ -635,6 +1049,32 @@ public final class TrackRendererM3G extends TrackRenderer {
 		camTransform.postRotate(camDegrees, 0f, -1f, 0f);
 		camTransform.postRotate(viewTilt - bump / 4f, -1f, 0, 0f);
 		
+		/*
+		 *	All billboards share the same orientation, so the world space
+		 *	axes of a sprite quad are worked out once per frame.
+		 */
+		spTransform.setIdentity();
+		spTransform.postRotate(camDegrees, 0.0f, -1.0f, 0.0f);
+		spTransform.postRotate(viewTilt, -1f, 0, 0f);
+		billboardR[0] = 1f;
+		billboardR[1] = 0f;
+		billboardR[2] = 0f;
+		billboardR[3] = 0f;
+		billboardU[0] = 0f;
+		billboardU[1] = 1f;
+		billboardU[2] = 0f;
+		billboardU[3] = 0f;
+		spTransform.transform(billboardR);
+		spTransform.transform(billboardU);
+		spTransform.setIdentity();
+		
+		batchBias[0] = cameraX / (float) Fixed.ONE;
+		batchBias[2] = cameraY / (float) Fixed.ONE;
+		
+		if (floorReady && floorSlotLimit > 0) {
+			streamFloor(cameraX, cameraY, cameraA);
+		}
+		
 		final int cameraCol = cameraX >> (Fixed.FIXED_POINT + GRID_W_BITS);
 		final int cameraRow = cameraY >> (Fixed.FIXED_POINT + GRID_H_BITS);
 		
@@ -768,9 +1208,31 @@ public final class TrackRendererM3G extends TrackRenderer {
 	}
 	
 	/**
-	 *	Draws a single sprite billboard.
+	 *	Returns the largest square atlas the 3D implementation supports,
+	 *	capped at <code>ATLAS_MAX_W</code>.
+	 */
+	private static int getMaxTextureSize() {
+		int size = ATLAS_MAX_W;
+		try {
+			Object max = Graphics3D.getProperties().get("maxTextureDimension");
+			if (max instanceof Integer) {
+				while (size > SPRITE_W && size > ((Integer) max).intValue()) {
+					size >>= 1;
+				}
+			}
+		} catch (Exception e) {
+			if (DEBUG) {
+				System.out.println("Unable to query max texture size: " + e);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 *	Appends a billboard quad for the sprite to the batch, in the same
+	 *	vertex order as a single strip of four.
 	 */
-	private void drawSprite(Sprite sprite) {
+	private void batchSprite(Sprite sprite, int quad) {
 		int spTrans = spriteTrans[sprite.n];
 		
 		int udgs = (spTrans >> SPRITETRANS_ROTL_UDGS) & SPRITETRANS_MASK_UDGS;
@@ -782,21 +1244,117 @@ public final class TrackRendererM3G extends TrackRenderer {
 			buzzY = -buzzY;
 		}
 		
-		billboardApp.setTexture(0, spriteFrameTex[udgs]);
-		spTransform.setIdentity();
-		spTransform.postTranslate(sprite.x / (float) Fixed.ONE, bumpY * 0.25f - 0.5f * buzzY, sprite.y / (float) Fixed.ONE);
-		spTransform.postRotate(camDegrees, 0.0f, -1.0f, 0.0f);
-		spTransform.postRotate(viewTilt, -1f, 0, 0f);
+		int spriteN = (sprite.data >> Sprite.DATA_ROTL_SPRITE) & Sprite.DATA_MASK_SPRITE;
 		
-		g3d.render(((tran == 0) ? spriteVertBufL2R : spriteVertBufR2L)[(sprite.data >> Sprite.DATA_ROTL_SPRITE) & Sprite.DATA_MASK_SPRITE], spriteIndexBuf, billboardApp, spTransform, -1);
+		/*
+		 *	Position of the quad's top-left corner relative to the camera,
+		 *	then the two edges along the billboard's axes.
+		 */
+		float ognX = spriteOgnX[spriteN];
+		float ognY = spriteOgnY[spriteN];
+		float posX = sprite.x / (float) Fixed.ONE - batchBias[0] + ognX * billboardR[0] + ognY * billboardU[0];
+		float posY = bumpY * 0.25f - 0.5f * buzzY    + ognX * billboardR[1] + ognY * billboardU[1];
+		float posZ = sprite.y / (float) Fixed.ONE - batchBias[2] + ognX * billboardR[2] + ognY * billboardU[2];
+		
+		float rX = billboardR[0] * (SPRITE_W >> SPRITE_SCALE);
+		float rY = billboardR[1] * (SPRITE_W >> SPRITE_SCALE);
+		float rZ = billboardR[2] * (SPRITE_W >> SPRITE_SCALE);
+		float dX = billboardU[0] * -(SPRITE_H >> SPRITE_SCALE);
+		float dY = billboardU[1] * -(SPRITE_H >> SPRITE_SCALE);
+		float dZ = billboardU[2] * -(SPRITE_H >> SPRITE_SCALE);
+		
+		short[] pos = batchPos;
+		int p = quad * 12;
+		pos[p++] = (short) (posX * BATCH_POS_SCALE);
+		pos[p++] = (short) (posY * BATCH_POS_SCALE);
+		pos[p++] = (short) (posZ * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posX + dX) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posY + dY) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posZ + dZ) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posX + rX) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posY + rY) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posZ + rZ) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posX + rX + dX) * BATCH_POS_SCALE);
+		pos[p++] = (short) ((posY + rY + dY) * BATCH_POS_SCALE);
+		pos[p  ] = (short) ((posZ + rZ + dZ) * BATCH_POS_SCALE);
+		
+		int u0 = spriteFrameU[udgs];
+		int u1 = u0 + SPRITE_W;
+		if (tran != 0) {
+			u0 = u1;
+			u1 = spriteFrameU[udgs];
+		}
+		int v0 = spriteFrameV[udgs];
+		int v1 = v0 + spriteFrameH[udgs];
+		
+		short[] tex = batchTex;
+		int t = quad * 8;
+		tex[t++] = (short) u0;
+		tex[t++] = (short) v0;
+		tex[t++] = (short) u0;
+		tex[t++] = (short) v1;
+		tex[t++] = (short) u1;
+		tex[t++] = (short) v0;
+		tex[t++] = (short) u1;
+		tex[t  ] = (short) v1;
+	}
+	
+	/**
+	 *	Draws the first <code>numQuads</code> quads in the batch using the
+	 *	given atlas, in a single render call.
+	 */
+	private void drawBatch(int numQuads, int atlas) {
+		if (numQuads > 0) {
+			IndexBuffer idxBuf = batchIndexBuf[numQuads];
+			if (idxBuf == null) {
+				int[] strips = new int[numQuads];
+				for (int n = numQuads - 1; n >= 0; n--) {
+					strips[n] = 4;
+				}
+				batchIndexBuf[numQuads] = idxBuf = new TriangleStripArray(0, strips);
+			}
+			batchPosArray.set(0, numQuads * 4, batchPos);
+			batchTexArray.set(0, numQuads * 4, batchTex);
+			g3d.render(batchVertBuf, idxBuf, spriteAtlasApp[atlas], spTransform, -1);
+		}
+	}
+	
+	/**
+	 *	Draws all of the queued billboards, already sorted back to front. A
+	 *	new batch is only started when consecutive sprites live in different
+	 *	atlases, so the draw order is kept.
+	 */
+	private void drawSprites() {
+		batchVertBuf.setPositions(batchPosArray, 1.0f / BATCH_POS_SCALE, batchBias);
+		int numQuads = 0;
+		int atlas = -1;
+		for (int n = 0; n < numSpritesToPaint; n++) {
+			Sprite sprite = spritesToPaint[n];
+			int spriteAtlas = spriteFrameAtlas[(spriteTrans[sprite.n] >> SPRITETRANS_ROTL_UDGS) & SPRITETRANS_MASK_UDGS];
+			if (spriteAtlas != atlas) {
+				drawBatch(numQuads, atlas);
+				numQuads = 0;
+				atlas = spriteAtlas;
+			}
+			batchSprite(sprite, numQuads++);
+		}
+		drawBatch(numQuads, atlas);
 	}
 	
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	/**
+	 *	Draws the backgrounds then the 3D view. The 3D part needs a target
+	 *	backed by a <code>Graphics</code> context, otherwise it's skipped.
+	 */
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		for (int n = 0; n < numBkgndLayers; n++) {
 			bkgnd[n].paint(g, offsetX + drawBkgndAtX[n], offsetY + drawBkgndAtY[n]);
 		}
+		Graphics gfx = g.getGraphics();
+		if (gfx == null) {
+			return;
+		}
 		try {
-			g3d.bindTarget(g, USE_DEPTH_BUFFER, 0);
+			g3d.bindTarget(gfx, USE_DEPTH_BUFFER, 0);
 			
 			g3d.setViewport(offsetX, offsetY, viewW, viewH);
 			
@@ -810,9 +1368,7 @@ public final class TrackRendererM3G extends TrackRenderer {
 			g3d.setCamera(camera, camTransform);
 			g3d.render(floorMesh, null);
 			
-			for (int n = 0; n < numSpritesToPaint; n++) {
-				drawSprite(spritesToPaint[n]);
-			}
+			drawSprites();
 		} finally {
 			g3d.releaseTarget();
 		}
@@ -821,6 +1377,16 @@ public final class TrackRendererM3G extends TrackRenderer {
 	public static final int SPRITE_W = 32;
 	public static final int SPRITE_H = 32;
 	
+	/**
+	 *	Largest sprite atlas width (and height) used.
+	 */
+	private static final int ATLAS_MAX_W = 256;
+	
+	/**
+	 *	Sub-pixel precision of the batched billboard positions.
+	 */
+	private static final float BATCH_POS_SCALE = 4.0f;
+	
 	private static final int TEXTURE_W = 256;
 	private static final int TEXTURE_H = 256;
 	private static final int TEXTURE_COLS = (MAP_COLS * TILE_W) / TEXTURE_W;
@@ -832,5 +1398,35 @@ public final class TrackRendererM3G extends TrackRenderer {
 	
 	private static final int FLOOR_OVERDRAW = 1;
 	private static final int FLOOR_QUADS = (TEXTURE_ROWS + FLOOR_OVERDRAW * 2) * (TEXTURE_COLS + FLOOR_OVERDRAW * 2);
+	private static final int FLOOR_CELLS = TEXTURE_ROWS * TEXTURE_COLS;
+	
+	/**
+	 *	Default memory (in bytes) for streamed floor textures, holding eight
+	 *	textures at 1:2 (the 1:1 renderer's streamed floor is built at 1:2 to
+	 *	fit, since the fewest slots at 1:1 would take twice this).
+	 */
+	public static final int FLOOR_TEXTURE_BUDGET = 384 * 1024;
+	
+	/**
+	 *	Fewest floor slots used when streaming, enough to cover a typical
+	 *	view without thrashing.
+	 */
+	private static final int FLOOR_MIN_SLOTS = 4;
+	
+	/**
+	 *	Coarsest scale the floor textures are built at to fit the budget.
+	 */
+	private static final int FLOOR_MAX_SCALE = 8;
+	
+	/**
+	 *	Slack (in pixels) around the view's footprint when deciding which
+	 *	cells are visible, covering the camera height and tilt.
+	 */
+	private static final float FLOOR_VIEW_MARGIN = 64.0f;
+	
+	/**
+	 *	How far ahead of the camera (in pixels) cells are built early.
+	 */
+	private static final float FLOOR_PREFETCH = TEXTURE_W / 2;
 	
 }
\ No newline at end of file
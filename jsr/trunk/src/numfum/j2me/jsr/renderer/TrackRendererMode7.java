@@ -3,13 +3,14 @@ package numfum.j2me.jsr.renderer;
 import java.io.DataInput;
 import java.io.InputStream;
 import java.io.IOException;
-import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
 import numfum.j2me.jsr.Constants;
 import numfum.j2me.jsr.Sprite;
 import numfum.j2me.jsr.TrackRenderer;
 import numfum.j2me.jsr.generic.AnimTile;
+import numfum.j2me.jsr.generic.FrameBuffer;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.jsr.generic.bkgnd.BufferedCompositeTiledLayer;
 import numfum.j2me.jsr.generic.bkgnd.BufferedTiledLayer;
 import numfum.j2me.jsr.generic.bkgnd.ContinuousTiledLayer;
@@ -43,14 +44,99 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	 */
 	private final int remain;
 	
-	private final int[] buffer;
+	/**
+	 *	Buffer the next frame is rendered into.
+	 */
+	private int[] buffer;
+	
+	/**
+	 *	Buffer holding the last presented frame, which is the one painted.
+	 *	With pipelined painting this is a second buffer, so the next frame
+	 *	can be rendered while this one is still being drawn to the screen.
+	 *
+	 *	@see #present
+	 */
+	private int[] paintBuffer;
+	
+	/**
+	 *	Whether a frame has been rendered since the last was presented.
+	 */
+	private boolean rendered = false;
 	
 	private final int[] bufferLookup;
 	
+	/**
+	 *	Copy of the buffer holding only the floor and cleared background, used
+	 *	to restore the buffer instead of redrawing the floor while the camera
+	 *	is still. Only created once the camera first stops moving.
+	 */
+	private int[] floorCopy = null;
+	
+	/**
+	 *	Whether <code>floorCopy</code> holds the floor for the current camera.
+	 */
+	private boolean floorSaved = false;
+	
+	/**
+	 *	Camera position and angle used for the last drawn floor.
+	 */
+	private int floorX, floorY, floorA;
+	
 	private final int bkgndOffset;
 	
 	private final boolean lowResRender;
 	
+	/**
+	 *	Which code draws the floor at full resolution.
+	 *
+	 *	@see #setFloorSampler
+	 */
+	private int floorSampler = FLOOR_SAMPLER_UNROLLED;
+	
+	/**
+	 *	Time in milliseconds each frame should take, or zero to always draw
+	 *	the floor at the quality it was created with.
+	 *
+	 *	@see #setFrameBudget
+	 */
+	private int frameBudget = 0;
+	
+	/**
+	 *	Current floor quality. One of the <code>QUALITY_</code> constants,
+	 *	with each level beyond <code>QUALITY_HALF_BOTH</code> also dropping
+	 *	another <code>HORIZON_STEP</code> rows at the horizon.
+	 */
+	private int quality;
+	
+	/**
+	 *	Best and worst quality the floor is allowed to change between.
+	 */
+	private final int minQuality;
+	private final int maxQuality;
+	
+	/**
+	 *	Number of frames, total frame time and total time spent drawing the
+	 *	floor since the quality was last reviewed.
+	 */
+	private int sampleFrames = 0;
+	private int sampleTime   = 0;
+	private int sampleFloor  = 0;
+	
+	/**
+	 *	Reviews to wait after lowering the quality before trying to raise it
+	 *	again.
+	 */
+	private int qualityHold = 0;
+	
+	/**
+	 *	Scratch arrays for the floor coordinates, tile and texel of each
+	 *	pixel in a chunk when drawing with <code>FLOOR_SAMPLER_LANES</code>.
+	 */
+	private final int[] laneX = new int[DRAW_CHUNK];
+	private final int[] laneY = new int[DRAW_CHUNK];
+	private final int[] laneTile  = new int[DRAW_CHUNK];
+	private final int[] laneTexel = new int[DRAW_CHUNK];
+	
 	private final short[] spriteTrans;
 	
 	/**
@@ -58,6 +144,12 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	 */
 	private final int[] spritePalette = new int[256];
 	
+	/**
+	 *	Sprite frame data, shared with any other Mode7 renderer (the fields
+	 *	below are copied out for the drawing code).
+	 */
+	private final SpriteFrames frames;
+	
 	private final int numSpriteFrames;
 	private final byte[]   spriteOffsetY;
 	private final byte[]   spriteLengthY;
@@ -73,6 +165,46 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	 */
 	private final short[][] spriteScreenOffsetX;
 	
+	/**
+	 *	Cache of sprite frames already scaled for a given screen row, stored
+	 *	as runs of opaque pixels so drawing is a straight copy per run.
+	 *
+	 *	@see #scaleSpans
+	 */
+	private final int[][] spanCache = new int[SPAN_CACHE_SLOTS][];
+	
+	/**
+	 *	Frame, screen row and mirroring of each cached entry.
+	 */
+	private final int[] spanKey = new int[SPAN_CACHE_SLOTS];
+	
+	/**
+	 *	When each cached entry was last drawn (for evicting the least
+	 *	recently used).
+	 */
+	private final int[] spanUsed = new int[SPAN_CACHE_SLOTS];
+	
+	/**
+	 *	First cache slot (plus one) for each hashed key, with slots sharing a
+	 *	hash chained through <code>spanChain</code>.
+	 */
+	private final int[] spanHash = new int[SPAN_HASH_SIZE];
+	private final int[] spanChain = new int[SPAN_CACHE_SLOTS];
+	
+	private int spanTick = 0;
+	private int spanCacheSize = 0;
+	private int spanCacheUsed = 0;
+	private int spanCacheLimit = SPAN_CACHE_LIMIT;
+	
+	private int spanCacheHits = 0;
+	private int spanCacheMisses = 0;
+	
+	/**
+	 *	Scratch arrays used when scaling sprites into the cache.
+	 */
+	private int[] spanRow = new int[SPRITE_W * 2];
+	private int[] spanScratch = new int[SPRITE_W * SPRITE_H];
+	
 	private final int[] pixelSize;
 	private final short[] revRowTbl;
 	private final int revRowTblShift;
@@ -82,11 +214,35 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	private final byte[][] fieldOfViewRows = new byte[32][];
 	
 	/**
-	 *	Scratch array used for sorting the displayed sprites. The maximum
-	 *	number of sprites in any 32x32 is the total karts, a track object
-	 *	per kart, and one static track object.
+	 *	Sprites queued for drawing, in the order the visible grid cells were
+	 *	visited. The maximum is one static track object per visible cell plus
+	 *	all the blended sprites.
+	 */
+	private final Sprite[] drawQueue = new Sprite[MAX_VISIBLE_SPRITES + MAX_BLEND_SPRITES];
+	
+	/**
+	 *	The queued sprites sorted into draw order (furthest first).
+	 */
+	private final Sprite[] drawOrder = new Sprite[MAX_VISIBLE_SPRITES + MAX_BLEND_SPRITES];
+	
+	/**
+	 *	Per screen row counts (then start offsets) used when bucket sorting
+	 *	the draw queue.
 	 */
-	private final Sprite[] sorter = new Sprite[MAX_BLEND_SPRITES + 1];
+	private final int[] rowBucket;
+	
+	/**
+	 *	Per frame index of the blended sprites by grid cell. Each entry is
+	 *	the first blended sprite in that cell plus one (zero being an empty
+	 *	cell), with further sprites in the same cell chained through
+	 *	<code>blendNext</code>.
+	 */
+	private final byte[] cellBlend = new byte[GRID_ROWS * GRID_COLS];
+	
+	/**
+	 *	Next blended sprite in the same grid cell, plus one.
+	 */
+	private final byte[] blendNext = new byte[MAX_BLEND_SPRITES];
 	
 	private final int viewPitch;
 	private final int viewAngle;
@@ -115,8 +271,41 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	
 	private int[] drawBkgndAtY = new int[BACKGROUND_LAYERS];
 	
+	/**
+	 *	Background scrolling (in camera angle units) and animation cycles
+	 *	waiting to be applied when the frame is presented.
+	 */
+	private int bkgndMove = 0;
+	private int bkgndCycles = 0;
+	
 	private int[] bkgndOffsetY = new int[BACKGROUND_LAYERS];
 	
+	/**
+	 *	Background layers drawn out once per track as strips of pixels, each
+	 *	covering the whole width of the map plus a screen's width more (so
+	 *	the wrap never needs a second draw). Layers with a strip are painted
+	 *	with a single <code>drawRGB()</code> rather than tile by tile.
+	 */
+	private final FrameBuffer[] strip = new FrameBuffer[BACKGROUND_LAYERS];
+	
+	/**
+	 *	Whether each layer's strip is in use for the current track (animated
+	 *	layers, or those not fitting in the memory allowed, aren't).
+	 */
+	private final boolean[] useStrip = new boolean[BACKGROUND_LAYERS];
+	
+	/**
+	 *	Whether each strip has any transparent pixels.
+	 */
+	private final boolean[] stripAlpha = new boolean[BACKGROUND_LAYERS];
+	
+	/**
+	 *	Scroll position of each strip (applied in <code>present()</code>).
+	 */
+	private final int[] stripX = new int[BACKGROUND_LAYERS];
+	
+	private int stripLimit = STRIP_AUTO;
+	
 	/**
 	 *	Previous camera angle (in fixed point format). Used to calculate the
 	 *	number of pixels to shift the background layers.
@@ -124,7 +313,16 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	private int lastA = 0;
 	
 	public TrackRendererMode7(int viewW, int viewH, int floorH, boolean lowResRender, int bkgndType, DataInput in, boolean close) throws IOException {
-		super(viewW, viewH, in);
+		this(viewW, viewH, floorH, lowResRender, bkgndType, in, close, false);
+	}
+	
+	/**
+	 *	@param exclusive whether the backgrounds need buffers of their own
+	 *	(instead of sharing them with the menus), for renderers created or
+	 *	drawn on another thread
+	 */
+	public TrackRendererMode7(int viewW, int viewH, int floorH, boolean lowResRender, int bkgndType, DataInput in, boolean close, boolean exclusive) throws IOException {
+		super(viewW, viewH, in, exclusive);
 		
 		this.floorW = viewW;//floorW;
 		this.floorH = floorH;
@@ -132,6 +330,10 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		
 		this.lowResRender = lowResRender;
 		
+		minQuality = lowResRender ? QUALITY_HALF_BOTH : QUALITY_FULL;
+		maxQuality = QUALITY_HALF_BOTH + floorH / 4 / HORIZON_STEP;
+		quality = minQuality;
+		
 		in.skipBytes(in.readInt() + 4); // skip any 2D data
 		
 		spriteTrans = defaultSpriteLoader(in, animsprite);
@@ -142,40 +344,14 @@ public final class TrackRendererMode7 extends TrackRenderer {
 			System.gc();
 		}
 		
-		numSpriteFrames = in.readUnsignedShort();
-		
-		spriteOffsetY = new byte[numSpriteFrames];
-		spriteLengthY = new byte[numSpriteFrames];
-		spriteOffsetX = new byte[numSpriteFrames][];
-		spriteLengthX = new byte[numSpriteFrames][];
-		
-		spriteDataOffset = new int[numSpriteFrames][];
-		int spriteDataCount = 0;
-		
-		if (DEBUG) {
-			System.out.println("Created sprite offset buckets");
-			System.gc();
-		}
-		
-		for (int n = 0; n < numSpriteFrames; n++) {
-			spriteOffsetY[n] = in.readByte();
-			int lengthY = in.readUnsignedByte();
-			spriteLengthY[n] = (byte) lengthY;
-			
-			spriteOffsetX[n] = new byte[lengthY];
-			spriteLengthX[n] = new byte[lengthY];
-			spriteDataOffset[n] = new int[lengthY];
-			for (int i = 0; i < lengthY; i++) {
-				spriteOffsetX[n][i] = in.readByte();
-				int lengthX = in.readUnsignedByte();
-				spriteLengthX[n][i] = (byte) lengthX;
-				spriteDataOffset[n][i] = spriteDataCount;
-				spriteDataCount += lengthX;
-			}
-		}
-		
-		spriteData = new byte[spriteDataCount];
-		in.readFully(spriteData);
+		frames = SpriteFrames.read(in);
+		numSpriteFrames  = frames.count;
+		spriteOffsetY    = frames.offsetY;
+		spriteLengthY    = frames.lengthY;
+		spriteOffsetX    = frames.offsetX;
+		spriteLengthX    = frames.lengthX;
+		spriteDataOffset = frames.dataOffset;
+		spriteData       = frames.data;
 		
 		/*
 		 *	Background tiles.
@@ -304,6 +480,11 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		 *	problems with the Siemens implementation of drawRGB().
 		 */
 		buffer = new int[totalW * totalH + totalW];
+		if (USE_PIPELINED_PAINT) {
+			paintBuffer = new int[buffer.length];
+		} else {
+			paintBuffer = buffer;
+		}
 		bufferLookup = new int[totalH];
 		for (int n = 0; n < totalH; n++) {
 			bufferLookup[n] = n * totalW;
@@ -337,11 +518,12 @@ public final class TrackRendererMode7 extends TrackRenderer {
 			System.gc();
 		}
 		
-		for (int n = sorter.length - 1; n >= 0; n--) {
-			sorter[n] = new Sprite();
+		for (int n = drawQueue.length - 1; n >= 0; n--) {
+			drawQueue[n] = new Sprite();
 		}
+		rowBucket = new int[floorH + ODRAW + 1];
 		
-		bkgnd = createBackgrounds(bkgndType, viewW, viewH - floorH + ContinuousTiledLayer.TILE_H, image, anims);
+		bkgnd = createBackgrounds(bkgndType, viewW, viewH - floorH + ContinuousTiledLayer.TILE_H, image, anims, exclusive);
 		numBkgndLayers = bkgnd.length;
 		bkgndY = (BKGND_ROWS - 1) * ContinuousTiledLayer.TILE_H - viewH + floorH;
 		compBkgnd = bkgndType == BACKGROUND_COMPOSITE;
@@ -358,16 +540,95 @@ public final class TrackRendererMode7 extends TrackRenderer {
 			}
 		}
 		bkgnd[0].moveTo(0, bkgndY);
+		buildStrips();
+	}
+	
+	/**
+	 *	Sets the maximum memory the pre-drawn background strips may use, in
+	 *	bytes, taking effect from the next track loaded. Zero draws all the
+	 *	layers tile by tile, <code>STRIP_AUTO</code> sizes the strips from
+	 *	the free heap as each track loads.
+	 */
+	public void setStripLimit(int limit) {
+		stripLimit = limit;
+	}
+	
+	/**
+	 *	Draws each unanimated background layer into its strip, from the back
+	 *	layer forward for as long as the strips fit in the memory allowed.
+	 *	Strips no longer used are let go of.
+	 */
+	private void buildStrips() {
+		int stripW = BKGND_COLS * ContinuousTiledLayer.TILE_W + viewW;
+		int limit = stripLimit;
+		if (limit == STRIP_AUTO) {
+			/*
+			 *	Strips already held count towards what's free, since they're
+			 *	reused (or dropped) here.
+			 */
+			int held = 0;
+			for (int n = 0; n < BACKGROUND_LAYERS; n++) {
+				if (strip[n] != null) {
+					held += strip[n].getPixels().length * 4;
+				}
+			}
+			Runtime rt = Runtime.getRuntime();
+			rt.gc();
+			limit = (int) Math.min(STRIP_LIMIT, held + rt.freeMemory() / STRIP_FREE_SHARE);
+			if (DEBUG) {
+				System.out.println("Background strips limit: " + limit);
+			}
+		}
+		for (int n = numBkgndLayers; n < BACKGROUND_LAYERS; n++) {
+			strip[n] = null;
+		}
+		int used = 0;
+		for (int n = 0; n < numBkgndLayers; n++) {
+			ContinuousTiledLayer layer = bkgnd[n];
+			int size = stripW * layer.getH() * 4;
+			useStrip[n] = !layer.isAnimating() && used + size <= limit;
+			stripX[n] = 0;
+			if (!useStrip[n]) {
+				strip[n] = null;
+				continue;
+			}
+			used += size;
+			if (strip[n] == null || strip[n].getHeight() != layer.getH()) {
+				strip[n] = null;
+				strip[n] = new FrameBuffer(stripW, layer.getH());
+			}
+			FrameBuffer frame = strip[n];
+			frame.clear(0);
+			int layerY = (n == 0) ? bkgndY : 0;
+			for (int x = 0; x < stripW; x += viewW) {
+				layer.moveTo(x, layerY);
+				layer.paint(frame, x, 0);
+			}
+			layer.moveTo(0, layerY);
+			
+			int[] pixels = frame.getPixels();
+			stripAlpha[n] = false;
+			for (int i = pixels.length - 1; i >= 0; i--) {
+				if ((pixels[i] >>> 24) != 0xFF) {
+					stripAlpha[n] = true;
+					break;
+				}
+			}
+		}
 	}
 	
 	public void refresh() {
+		floorChanged = true;
+		bkgndMove   = 0;
+		bkgndCycles = 0;
 		for (int n = 0; n < numBkgndLayers; n++) {
 			bkgnd[n].reset();
+			stripX[n] = 0;
 		}
 		bkgnd[0].moveTo(0, bkgndY);
 	}
 	
-	private final void renderFloorInOnes(int cameraX, int cameraY, int cameraA) {
+	private final void renderFloorInOnes(int cameraX, int cameraY, int cameraA, int firstRow) {
   		final int[] buffer = this.buffer;
 		final byte[] tilemap = this.tilemap;
 		final byte[][] tileset = this.tileset;
@@ -390,7 +651,7 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		
 		pixel = bufferLookup[totalH - 1] + (floorW - 1);
 		
-		for (int row = floorH - 1; row >= 0; row--) {
+		for (int row = floorH - 1; row >= firstRow; row--) {
 			int oneOverZ = (Fixed.ONE << viewScale) / (row + viewPitch);
 			
 			int xl = extremeLX * oneOverZ + cameraX;
@@ -486,7 +747,76 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		}
 	}
 	
-	private final void renderFloorInTwos(int cameraX, int cameraY, int cameraA) {
+	/**
+	 *	Alternative to <code>renderFloorInOnes()</code> that splits each
+	 *	chunk into separate passes: the floor coordinates for every pixel
+	 *	('lane') in the chunk are calculated first, then the tilemap is
+	 *	gathered, then the tile texels. Each pass has no dependency between
+	 *	lanes, which on a JIT compiling VM lets the coordinate work be done
+	 *	many lanes at a time. Each lane is calculated directly from the start
+	 *	of the chunk (instead of accumulating the deltas) but the wraparound
+	 *	maths is the same so the output is identical to the unrolled code.
+	 */
+	private final void renderFloorInLanes(int cameraX, int cameraY, int cameraA, int firstRow) {
+		final int[] buffer = this.buffer;
+		final byte[] tilemap = this.tilemap;
+		final byte[][] tileset = this.tileset;
+		final int[] tilePalette = this.tilePalette;
+		final int[] laneX = this.laneX;
+		final int[] laneY = this.laneY;
+		final int[] laneTile  = this.laneTile;
+		final int[] laneTexel = this.laneTexel;
+		
+		int extremeLX = Fixed.mul(Fixed.cos(cameraA - viewAngle), viewVdist);
+		int extremeLY = Fixed.mul(Fixed.sin(cameraA - viewAngle), viewVdist);
+		int extremeRX = Fixed.mul(Fixed.cos(cameraA + viewAngle), viewVdist);
+		int extremeRY = Fixed.mul(Fixed.sin(cameraA + viewAngle), viewVdist);
+		
+		for (int pixel = bkgndH * totalW - 1; pixel >= 0; pixel--) {
+			buffer[pixel] = 0;
+		}
+		
+		int pixel = bufferLookup[totalH - 1] + (floorW - 1);
+		
+		for (int row = floorH - 1; row >= firstRow; row--) {
+			int oneOverZ = (Fixed.ONE << viewScale) / (row + viewPitch);
+			
+			int xl = extremeLX * oneOverZ + cameraX;
+			int yl = extremeLY * oneOverZ + cameraY;
+			int xr = extremeRX * oneOverZ + cameraX;
+			int yr = extremeRY * oneOverZ + cameraY;
+			
+			int deltaX = (xr - xl) / floorW;
+			int deltaY = (yr - yl) / floorW;
+			
+			for (int col = floorW; col > 0; col -= DRAW_CHUNK) {
+				for (int lane = 0; lane < DRAW_CHUNK; lane++) {
+					laneX[lane] = xr - deltaX * (lane + 1);
+					laneY[lane] = yr - deltaY * (lane + 1);
+				}
+				for (int lane = 0; lane < DRAW_CHUNK; lane++) {
+					laneTile[lane] = tilemap[
+						((laneY[lane] >> (Fixed.FIXED_POINT + TILE_H_BITS)) & (MAP_ROWS - 1)) << MAP_COLS_BITS |
+						((laneX[lane] >> (Fixed.FIXED_POINT + TILE_W_BITS)) & (MAP_COLS - 1))] & 0xFF;
+					laneTexel[lane] =
+						((laneY[lane] >> Fixed.FIXED_POINT) & (TILE_H - 1)) << TILE_W_BITS |
+						((laneX[lane] >> Fixed.FIXED_POINT) & (TILE_W - 1));
+				}
+				for (int lane = 0; lane < DRAW_CHUNK; lane++) {
+					buffer[pixel - lane] = tilePalette[tileset[laneTile[lane]][laneTexel[lane]] & 0xFF];
+				}
+				pixel -= DRAW_CHUNK;
+				xr -= deltaX * DRAW_CHUNK;
+				yr -= deltaY * DRAW_CHUNK;
+			}
+		}
+	}
+	
+	/**
+	 *	Draws the floor sampling every other pixel across, and optionally
+	 *	every other row (copying each sampled row to the one above).
+	 */
+	private final void renderFloorInTwos(int cameraX, int cameraY, int cameraA, boolean halfRows, int firstRow) {
   		final int[] buffer = this.buffer;
 		final int[] tilePalette = this.tilePalette;
 		final byte[][] tileset = this.tileset;
@@ -509,7 +839,8 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		
 		pixel = bufferLookup[totalH - 1] + (floorW - 1);
 		
-		for (int row = floorH - 1; row >= 0; row -= 2) {
+		int rowStep = halfRows ? 2 : 1;
+		for (int row = floorH - 1; row >= firstRow; row -= rowStep) {
 			int oneOverZ = (Fixed.ONE << viewScale) / (row + viewPitch);
 			
 			int xl = extremeLX * oneOverZ + cameraX;
@@ -569,18 +900,181 @@ public final class TrackRendererMode7 extends TrackRenderer {
 					((yr >> Fixed.FIXED_POINT) & (TILE_H - 1)) << TILE_W_BITS |
 					((xr >> Fixed.FIXED_POINT) & (TILE_W - 1))] & 0xFF];
 			}
-			if (row != 0) {
+			if (halfRows && row != 0) {
 				System.arraycopy(buffer, pixel + remain + 1, buffer, (pixel -= totalW) + remain + 1, floorW);
 			}
 			
 		}
 	}
 	
+	/**
+	 *	Chooses the code used to draw the floor at full resolution. Has no
+	 *	effect when rendering at low resolution.
+	 *
+	 *	@param sampler one of the <code>FLOOR_SAMPLER_</code> constants
+	 */
+	public void setFloorSampler(int sampler) {
+		floorSampler = sampler;
+	}
+	
+	private final void renderFloor(int cameraX, int cameraY, int cameraA) {
+		long start = 0;
+		if (frameBudget > 0) {
+			start = System.currentTimeMillis();
+		}
+		int firstRow = getHorizonRows();
+		switch (quality) {
+		case QUALITY_FULL:
+			if (floorSampler == FLOOR_SAMPLER_LANES) {
+				renderFloorInLanes(cameraX, cameraY, cameraA, firstRow);
+			} else {
+				renderFloorInOnes(cameraX, cameraY, cameraA, firstRow);
+			}
+			break;
+		case QUALITY_HALF_H:
+			renderFloorInTwos(cameraX, cameraY, cameraA, false, firstRow);
+			break;
+		default:
+			renderFloorInTwos(cameraX, cameraY, cameraA, true, firstRow);
+		}
+		/*
+		 *	Rows skipped at the horizon repeat the furthest row drawn. They're
+		 *	only a few pixels of distant floor so the stretch goes unnoticed.
+		 */
+		if (firstRow > 0) {
+			int src = bufferLookup[bkgndH + firstRow];
+			for (int row = bkgndH + firstRow - 1; row >= bkgndH; row--) {
+				System.arraycopy(buffer, src, buffer, bufferLookup[row], floorW);
+			}
+		}
+		if (frameBudget > 0) {
+			sampleFloor += (int) (System.currentTimeMillis() - start);
+		}
+	}
+	
+	/**
+	 *	Returns the number of floor rows currently not drawn at the horizon.
+	 */
+	private final int getHorizonRows() {
+		if (quality > QUALITY_HALF_BOTH) {
+			return (quality - QUALITY_HALF_BOTH) * HORIZON_STEP;
+		}
+		return 0;
+	}
+	
+	/**
+	 *	Sets the time each frame should take, letting the floor quality drop
+	 *	when frames run over and recover when there's time to spare. The
+	 *	quality is never raised above that the renderer was created with.
+	 *
+	 *	@param millis frame time in milliseconds, or zero to fix the quality
+	 */
+	public void setFrameBudget(int millis) {
+		frameBudget = millis;
+		sampleFrames = 0;
+		sampleTime   = 0;
+		sampleFloor  = 0;
+		qualityHold  = 0;
+		if (millis <= 0) {
+			setQuality(minQuality);
+		}
+	}
+	
+	/**
+	 *	Returns the current floor quality.
+	 *
+	 *	@see #QUALITY_FULL
+	 */
+	public int getQuality() {
+		return quality;
+	}
+	
+	public void setFrameTime(int millis) {
+		if (frameBudget <= 0) {
+			return;
+		}
+		if (millis > frameBudget * 4) {
+			/*
+			 *	Very long frames are from something other than drawing (such
+			 *	as the canvas being hidden) so the samples so far are dropped.
+			 */
+			sampleFrames = 0;
+			sampleTime   = 0;
+			sampleFloor  = 0;
+			return;
+		}
+		sampleTime += millis;
+		if (++sampleFrames < QUALITY_FRAMES) {
+			return;
+		}
+		int budget = frameBudget * QUALITY_FRAMES;
+		if (sampleTime > budget) {
+			if (quality < maxQuality) {
+				setQuality(quality + 1);
+				qualityHold = QUALITY_HOLD;
+			}
+		} else {
+			if (qualityHold > 0) {
+				qualityHold--;
+			} else {
+				if (quality > minQuality) {
+					/*
+					 *	Each of the sampling steps roughly doubles the floor
+					 *	time, whereas restoring horizon rows adds in proportion.
+					 *	The frames have to fit with some to spare, otherwise
+					 *	the quality would flip back and forth.
+					 */
+					int extra = sampleFloor;
+					if (quality > QUALITY_HALF_BOTH) {
+						extra = sampleFloor * HORIZON_STEP / (floorH - getHorizonRows());
+					}
+					if (sampleTime + extra <= budget - budget / 8) {
+						setQuality(quality - 1);
+					}
+				}
+			}
+		}
+		sampleFrames = 0;
+		sampleTime   = 0;
+		sampleFloor  = 0;
+	}
+	
+	private final void setQuality(int quality) {
+		if (this.quality != quality) {
+			if (DEBUG) {
+				System.out.println("Floor quality: " + quality);
+			}
+			this.quality = quality;
+			floorChanged = true;
+		}
+	}
+	
 	public void render(int cameraX, int cameraY, int cameraA, Sprite[] blend, int blendSize, int bump) {
-		if (lowResRender) {
-			renderFloorInTwos(cameraX, cameraY, cameraA);
+		if (REUSE_STATIC_FLOOR) {
+			/*
+			 *	The floor is only kept once the camera has stayed in the same
+			 *	place for two frames, so a moving camera doesn't pay for the
+			 *	extra copy.
+			 */
+			boolean stillCamera = !floorChanged && cameraX == floorX && cameraY == floorY && cameraA == floorA;
+			if (stillCamera && floorSaved) {
+				System.arraycopy(floorCopy, 0, buffer, 0, floorCopy.length);
+			} else {
+				renderFloor(cameraX, cameraY, cameraA);
+				if (stillCamera) {
+					if (floorCopy == null) {
+						floorCopy = new int[buffer.length];
+					}
+					System.arraycopy(buffer, 0, floorCopy, 0, floorCopy.length);
+				}
+				floorSaved = stillCamera;
+				floorX = cameraX;
+				floorY = cameraY;
+				floorA = cameraA;
+				floorChanged = false;
+			}
 		} else {
-			renderFloorInOnes(cameraX, cameraY, cameraA);
+			renderFloor(cameraX, cameraY, cameraA);
 		}
   		
 		final int cosAngle = Fixed.cos(cameraA + Fixed.QUARTER_CIRCLE);
@@ -590,13 +1084,20 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		final int cameraRow = cameraY >> (Fixed.FIXED_POINT + GRID_H_BITS);
 		
 		/*
-		 *	Set where the overlay sprites are in the coarse sprite grid.
+		 *	Set where the overlay sprites are in the coarse sprite grid, then
+		 *	index them by cell so each visible cell finds its sprites without
+		 *	searching.
 		 */
 		for (int n = blendSize - 1; n >= 0; n--) {
 			Sprite blendN = blend[n];
-			blendN.col = blend[n].x >> (GRID_W_BITS + Fixed.FIXED_POINT);
-			blendN.row = blend[n].y >> (GRID_H_BITS + Fixed.FIXED_POINT);
+			blendN.col = blendN.x >> (GRID_W_BITS + Fixed.FIXED_POINT);
+			blendN.row = blendN.y >> (GRID_H_BITS + Fixed.FIXED_POINT);
 			blendN.view = false;
+			if (blendN.col >= 0 && blendN.col < GRID_COLS && blendN.row >= 0 && blendN.row < GRID_ROWS) {
+				int cell = blendN.row << GRID_ROWS_BITS | blendN.col;
+				blendNext[n] = cellBlend[cell];
+				cellBlend[cell] = (byte) (n + 1);
+			}
 		}
 		
 		int angleIndex = (cameraA >> 1) & 31;
@@ -612,6 +1113,11 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		final byte[] visibleCol = fieldOfViewCols[angleIndex];
 		final byte[] visibleRow = fieldOfViewRows[angleIndex];
 		
+		/*
+		 *	Flat sprites are drawn straight away, everything else is queued
+		 *	to be sorted.
+		 */
+		int numQueued = 0;
 		for (int n = visibleCol.length - 1; n >= 0; n--) {
 			int col = cameraCol;
 			int row = cameraRow;
@@ -634,43 +1140,82 @@ public final class TrackRendererMode7 extends TrackRenderer {
 				}
 			}
 			
-			int numToSort = 0;
 			if (col >= 0 && col < GRID_COLS && row >= 0 && row < GRID_ROWS) {
-				int spriteN = spritemap[row << GRID_ROWS_BITS | col];
+				int cell = row << GRID_ROWS_BITS | col;
+				int spriteN = spritemap[cell];
 				if (spriteN != 0) {
-					int fineX = spritePosX[row << GRID_ROWS_BITS | col] - cameraX;
-					int fineY = spritePosY[row << GRID_ROWS_BITS | col] - cameraY;
+					int fineX = spritePosX[cell] - cameraX;
+					int fineY = spritePosY[cell] - cameraY;
 					if (((animsprite[spriteN].data >> SPRITE_DATA_ROTL_BOTM) & SPRITE_DATA_MASK_BOTM) != 0) {
-						drawSprite(spriteN, fineX, fineY, sinAngle, cosAngle, 0);
+						drawSprite(spriteN, fineX, fineY, getScreenRow(fineX, fineY, sinAngle, cosAngle), sinAngle, cosAngle, 0);
 					} else {
-						sorter[numToSort++].set(spriteN, fineX, fineY, 0);
+						drawQueue[numQueued++].set(spriteN, fineX, fineY, 0);
 					}
 				}
-				for (int i = blendSize - 1; i >= 0; i--) {
+				for (int i = cellBlend[cell] - 1; i >= 0; i = blendNext[i] - 1) {
 					Sprite blendI = blend[i];
-					if (col == blendI.col && row == blendI.row) {
-						sorter[numToSort  ].set(blendI.n, blendI.x - cameraX, blendI.y - cameraY, blendI.data);
-						sorter[numToSort++].d += blendI.d;
-						blendI.view = true;
-					}
-				
-				}
-				
-				if (numToSort > 0) {
-					if (numToSort == 1) {
-						Sprite sorterI = sorter[0];
-						drawSprite(sorterI.n, sorterI.x, sorterI.y, sinAngle, cosAngle, sorterI.data);
-					} else {
-						QuickSort.sort(sorter, 0, numToSort - 1);
-						for (int i = numToSort - 1; i >= 0; i--) {
-							Sprite sorterI = sorter[i];
-							drawSprite(sorterI.n, sorterI.x, sorterI.y, sinAngle, cosAngle, sorterI.data);
-						}
-					}
+					drawQueue[numQueued  ].set(blendI.n, blendI.x - cameraX, blendI.y - cameraY, blendI.data);
+					drawQueue[numQueued++].d += blendI.d;
+					blendI.view = true;
 				}
 			}
 		}
 		
+		/*
+		 *	Empty the cell index ready for the next frame.
+		 */
+		for (int n = blendSize - 1; n >= 0; n--) {
+			Sprite blendN = blend[n];
+			if (blendN.col >= 0 && blendN.col < GRID_COLS && blendN.row >= 0 && blendN.row < GRID_ROWS) {
+				cellBlend[blendN.row << GRID_ROWS_BITS | blendN.col] = 0;
+			}
+		}
+		
+		/*
+		 *	Bucket sort the queue by screen row, top (furthest) first. Sprites
+		 *	on the same row are then ordered furthest first by their distance.
+		 *	Rows beyond those drawn are culled.
+		 */
+		final int[] rowBucket = this.rowBucket;
+		final int numRows = floorH + ODRAW;
+		for (int n = numRows; n >= 0; n--) {
+			rowBucket[n] = 0;
+		}
+		for (int n = numQueued - 1; n >= 0; n--) {
+			Sprite queuedN = drawQueue[n];
+			queuedN.row = getScreenRow(queuedN.x, queuedN.y, sinAngle, cosAngle);
+			rowBucket[queuedN.row]++;
+		}
+		int numToDraw = 0;
+		for (int n = 0; n < numRows; n++) {
+			int count = rowBucket[n];
+			rowBucket[n] = numToDraw;
+			numToDraw += count;
+		}
+		for (int n = 0; n < numQueued; n++) {
+			Sprite queuedN = drawQueue[n];
+			if (queuedN.row < numRows) {
+				drawOrder[rowBucket[queuedN.row]++] = queuedN;
+			}
+		}
+		/*
+		 *	With the rows in order only sprites sharing a row can be out of
+		 *	place, and only a few ever do, so an insertion sort is enough.
+		 */
+		for (int n = 1; n < numToDraw; n++) {
+			Sprite drawN = drawOrder[n];
+			int i = n;
+			while (i > 0 && drawOrder[i - 1].row == drawN.row && drawOrder[i - 1].d < drawN.d) {
+				drawOrder[i] = drawOrder[i - 1];
+				i--;
+			}
+			drawOrder[i] = drawN;
+		}
+		for (int n = 0; n < numToDraw; n++) {
+			Sprite drawN = drawOrder[n];
+			drawSprite(drawN.n, drawN.x, drawN.y, drawN.row, sinAngle, cosAngle, drawN.data);
+		}
+		
 		drawFloorAtY = viewH - totalH + bump;
 		if (compBkgnd) {
 			drawBkgndAtY[0] = bkgndOffsetY[0] * ContinuousTiledLayer.TILE_H + bump;
@@ -686,25 +1231,29 @@ public final class TrackRendererMode7 extends TrackRenderer {
 			}
 		}
 		
-		byte camMove = (byte) (cameraA - lastA);
-		if (camMove != 0) {
-			for (int n = 0; n < numBkgndLayers; n++) {
-				bkgnd[n].moveBy(camMove * (n + 1), 0);
-			}
-		}
+		bkgndMove += (byte) (cameraA - lastA);
 		lastA = cameraA;
+		
+		rendered = true;
 	}
 	
-	private final void drawSprite(int objN, int objX, int objY, int sinAngle, int cosAngle, int extra) {
+	/**
+	 *	Returns the screen row on which an object's base lies, or a row
+	 *	beyond those drawn if the object isn't in view.
+	 */
+	private final int getScreenRow(int objX, int objY, int sinAngle, int cosAngle) {
+		int lookupY = (Fixed.mul(objX, sinAngle) - Fixed.mul(objY, cosAngle)) >> revRowTblShift;
+		if (lookupY >= 0 && lookupY < revRowTblLength) {
+			return revRowTbl[lookupY];
+		}
+		return floorH + ODRAW;
+	}
+	
+	private final void drawSprite(int objN, int objX, int objY, int screenY, int sinAngle, int cosAngle, int extra) {
 		final int[] buffer = this.buffer;
 		final int[] spritePalette = this.spritePalette;
 		final byte[] spriteData = this.spriteData;
 		
-		int screenY = floorH + ODRAW;
-		int lookupY = (Fixed.mul(objX, sinAngle) - Fixed.mul(objY, cosAngle)) >> revRowTblShift;
-		if (lookupY >= 0 && lookupY < revRowTblLength) {
-			screenY = revRowTbl[lookupY];
-		}
 		if (screenY >= 0 && screenY < floorH + ODRAW) {
 			int pixsize = pixelSize[screenY];
 			int rawdata = animsprite[objN].data;
@@ -726,6 +1275,14 @@ public final class TrackRendererMode7 extends TrackRenderer {
 			int y = screenY - ((((rawdata >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY) + bumpY) << Fixed.FIXED_POINT - SPRITE_SCALE) / pixsize + bkgndH + (spriteOffsetY[n] << Fixed.FIXED_POINT) / s - buzzY;
 			
 			
+			if (spanCacheLimit > 0) {
+				int[] spans = getSpans(n, screenY, ((sptrans >> SPRITETRANS_ROTL_TRAN) & SPRITETRANS_MASK_TRAN) != 0);
+				if (spans != null) {
+					drawSpans(spans, x, y);
+					return;
+				}
+			}
+			
 			short[] screenOffsetX = spriteScreenOffsetX[screenY];
 			byte[] spriteLengthX = this.spriteLengthX[n];
 			byte[] spriteOffsetX = this.spriteOffsetX[n];
@@ -801,11 +1358,283 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		}
 	}
 	
+	/******************************* Span Cache *****************************/
+	
+	/**
+	 *	Sets the maximum memory the cache of pre-scaled sprites may use, in
+	 *	bytes. Zero disables the cache, drawing every sprite pixel by pixel.
+	 */
+	public void setSpanCacheLimit(int limit) {
+		spanCacheLimit = limit;
+		while (spanCacheUsed > spanCacheLimit) {
+			evictSpans();
+		}
+	}
+	
+	/**
+	 *	Returns the number of sprites drawn from the span cache.
+	 */
+	public int getSpanCacheHits() {
+		return spanCacheHits;
+	}
+	
+	/**
+	 *	Returns the number of sprites that had to be scaled into the span
+	 *	cache first.
+	 */
+	public int getSpanCacheMisses() {
+		return spanCacheMisses;
+	}
+	
+	/**
+	 *	Returns the spans for a sprite frame drawn at the scale of a given
+	 *	screen row, scaling them into the cache if they aren't already there.
+	 *	Returns <code>null</code> if the scaled sprite is too large to cache,
+	 *	judged from its size on screen before any scaling is done (so near
+	 *	sprites are only ever scaled by the drawing code).
+	 *
+	 *	@param n sprite frame
+	 *	@param screenY screen row (since each row has a single scale)
+	 *	@param tran whether the sprite is mirrored
+	 */
+	private final int[] getSpans(int n, int screenY, boolean tran) {
+		int key = (n << SPAN_KEY_ROW_BITS | screenY) << 1 | (tran ? 1 : 0);
+		int hash = (key ^ (key >>> SPAN_HASH_BITS)) & (SPAN_HASH_SIZE - 1);
+		for (int slot = spanHash[hash] - 1; slot >= 0; slot = spanChain[slot] - 1) {
+			if (spanKey[slot] == key) {
+				spanCacheHits++;
+				spanUsed[slot] = ++spanTick;
+				return spanCache[slot];
+			}
+		}
+		
+		spanCacheMisses++;
+		int s = pixelSize[screenY] << SPRITE_SCALE;
+		int widest = 0;
+		byte[] spriteLengthX = this.spriteLengthX[n];
+		for (int row = spriteLengthY[n] - 1; row >= 0; row--) {
+			if (widest < spriteLengthX[row]) {
+				widest = spriteLengthX[row];
+			}
+		}
+		if (((spriteLengthY[n] << Fixed.FIXED_POINT) + s - 1) / s * (((widest << Fixed.FIXED_POINT) + s - 1) / s) * 4 > spanCacheLimit) {
+			return null;
+		}
+		int[] spans = scaleSpans(n, screenY, tran);
+		int size = spans.length * 4;
+		if (size > spanCacheLimit) {
+			return spans; // drawn once without being kept
+		}
+		while (spanCacheUsed + size > spanCacheLimit || spanCacheSize == SPAN_CACHE_SLOTS) {
+			evictSpans();
+		}
+		
+		int slot = 0;
+		while (spanCache[slot] != null) {
+			slot++;
+		}
+		spanCache[slot] = spans;
+		spanKey  [slot] = key;
+		spanUsed [slot] = ++spanTick;
+		spanChain[slot] = spanHash[hash];
+		spanHash [hash] = slot + 1;
+		spanCacheSize++;
+		spanCacheUsed += size;
+		
+		return spans;
+	}
+	
+	/**
+	 *	Removes the least recently used entry from the span cache.
+	 */
+	private final void evictSpans() {
+		int oldest = -1;
+		for (int slot = SPAN_CACHE_SLOTS - 1; slot >= 0; slot--) {
+			if (spanCache[slot] != null && (oldest < 0 || spanUsed[slot] - spanUsed[oldest] < 0)) {
+				oldest = slot;
+			}
+		}
+		if (oldest < 0) {
+			spanCacheUsed = 0;
+			return;
+		}
+		
+		int key  = spanKey[oldest];
+		int hash = (key ^ (key >>> SPAN_HASH_BITS)) & (SPAN_HASH_SIZE - 1);
+		if (spanHash[hash] == oldest + 1) {
+			spanHash[hash] = spanChain[oldest];
+		} else {
+			int slot = spanHash[hash] - 1;
+			while (spanChain[slot] != oldest + 1) {
+				slot = spanChain[slot] - 1;
+			}
+			spanChain[slot] = spanChain[oldest];
+		}
+		
+		spanCacheUsed -= spanCache[oldest].length * 4;
+		spanCache[oldest] = null;
+		spanCacheSize--;
+	}
+	
+	/**
+	 *	Scales a sprite frame the same way as the per pixel drawing code,
+	 *	storing the result as runs of opaque pixels. The format is the number
+	 *	of rows, then for each row the number of runs followed by each run's
+	 *	offset from the sprite's x-coord, its length and its ARGB pixels
+	 *	(always stored left to right).
+	 */
+	private final int[] scaleSpans(int n, int screenY, boolean tran) {
+		final int[] spritePalette = this.spritePalette;
+		final byte[] spriteData = this.spriteData;
+		
+		int s = pixelSize[screenY] << SPRITE_SCALE;
+		
+		short[] screenOffsetX = spriteScreenOffsetX[screenY];
+		byte[] spriteLengthX = this.spriteLengthX[n];
+		byte[] spriteOffsetX = this.spriteOffsetX[n];
+		int[]  spriteDataOffset = this.spriteDataOffset[n];
+		
+		int pos = 1;
+		int rows = 0;
+		int scaledY = 0;
+		for (int countY = spriteLengthY[n] << Fixed.FIXED_POINT; countY > 0; countY -= s) {
+			int spriteY = scaledY >> Fixed.FIXED_POINT;
+			int spriteL = spriteDataOffset[spriteY];
+			int spriteN = 0;
+			
+			/*
+			 *	Sample the row into the scratch buffer in screen order.
+			 */
+			int length = 0;
+			for (int countX = spriteLengthX[spriteY] << Fixed.FIXED_POINT; countX > 0; countX -= s) {
+				if (length == spanRow.length) {
+					int[] grown = new int[length * 2];
+					System.arraycopy(spanRow, 0, grown, 0, length);
+					spanRow = grown;
+				}
+				int idx = spriteData[spriteL + (spriteN >> Fixed.FIXED_POINT)];
+				spanRow[length++] = (idx != 0) ? spritePalette[idx & 0xFF] : 0;
+				spriteN += s;
+			}
+			int left;
+			if (tran) {
+				left = screenOffsetX[SPRITE_W - spriteOffsetX[spriteY] - 1] - (length - 1);
+				for (int i = 0, j = length - 1; i < j; i++, j--) {
+					int swap = spanRow[i];
+					spanRow[i] = spanRow[j];
+					spanRow[j] = swap;
+				}
+			} else {
+				left = screenOffsetX[spriteOffsetX[spriteY]];
+			}
+			
+			/*
+			 *	Then store the runs of opaque pixels. Each row needs at most
+			 *	two ints per pixel plus the run count.
+			 */
+			if (pos + length * 2 + 2 > spanScratch.length) {
+				int[] grown = new int[(pos + length * 2 + 2) * 2];
+				System.arraycopy(spanScratch, 0, grown, 0, pos);
+				spanScratch = grown;
+			}
+			int countPos = pos++;
+			int runs = 0;
+			for (int i = 0; i < length;) {
+				if (spanRow[i] == 0) {
+					i++;
+				} else {
+					int start = i;
+					while (i < length && spanRow[i] != 0) {
+						i++;
+					}
+					spanScratch[pos++] = left + start;
+					spanScratch[pos++] = i - start;
+					System.arraycopy(spanRow, start, spanScratch, pos, i - start);
+					pos += i - start;
+					runs++;
+				}
+			}
+			spanScratch[countPos] = runs;
+			
+			rows++;
+			scaledY += s;
+		}
+		spanScratch[0] = rows;
+		
+		int[] spans = new int[pos];
+		System.arraycopy(spanScratch, 0, spans, 0, pos);
+		return spans;
+	}
+	
+	/**
+	 *	Copies the pre-scaled spans into the buffer, clipping to the floor.
+	 */
+	private final void drawSpans(int[] spans, int x, int y) {
+		final int[] buffer = this.buffer;
+		int pos = 1;
+		for (int rows = spans[0]; rows > 0; rows--) {
+			if (y >= totalH) {
+				return; // as with drawSprite() nothing more is visible
+			}
+			int runs = spans[pos++];
+			if (y < 0) {
+				for (; runs > 0; runs--) {
+					pos += spans[pos + 1] + 2;
+				}
+			} else {
+				int line = bufferLookup[y];
+				for (; runs > 0; runs--) {
+					int screenX = x + spans[pos++];
+					int length  = spans[pos++];
+					int src = pos;
+					pos += length;
+					if (screenX < 0) {
+						src    -= screenX;
+						length += screenX;
+						screenX = 0;
+					}
+					if (screenX + length > floorW) {
+						length = floorW - screenX;
+					}
+					if (length > 0) {
+						System.arraycopy(spans, src, buffer, line + screenX, length);
+					}
+				}
+			}
+			y++;
+		}
+	}
+	
+	/************************************************************************/
+	
 	public void cycle() {
 		super.cycle();
-		for (int n = 0; n < numBkgndLayers; n++) {
-			bkgnd[n].cycle();
+		bkgndCycles++;
+	}
+	
+	public boolean present() {
+		if (rendered) {
+			int[] swap = paintBuffer;
+			paintBuffer = buffer;
+			buffer = swap;
+			rendered = false;
+		}
+		if (bkgndMove != 0) {
+			for (int n = 0; n < numBkgndLayers; n++) {
+				if (useStrip[n]) {
+					stripX[n] = Fixed.wrap(stripX[n] + bkgndMove * (n + 1), BKGND_COLS * ContinuousTiledLayer.TILE_W);
+				} else {
+					bkgnd[n].moveBy(bkgndMove * (n + 1), 0);
+				}
+			}
+			bkgndMove = 0;
 		}
+		for (; bkgndCycles > 0; bkgndCycles--) {
+			for (int n = 0; n < numBkgndLayers; n++) {
+				bkgnd[n].cycle();
+			}
+		}
+		return USE_PIPELINED_PAINT;
 	}
 	
 	public boolean isPerspectiveView() {
@@ -816,13 +1645,17 @@ public final class TrackRendererMode7 extends TrackRenderer {
 		return viewCdist;
 	}
 	
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		for (int n = 0; n < numBkgndLayers; n++) {
-			bkgnd[n].paint(g, offsetX, offsetY + drawBkgndAtY[n]);
-			
+			if (useStrip[n]) {
+				FrameBuffer layer = strip[n];
+				g.drawRGB(layer.getPixels(), stripX[n], layer.getWidth(), offsetX, offsetY + drawBkgndAtY[n], viewW, layer.getHeight(), stripAlpha[n]); // MIDP2!
+			} else {
+				bkgnd[n].paint(g, offsetX, offsetY + drawBkgndAtY[n]);
+			}
 		}
-		g.drawRGB(buffer, 0,           totalW, offsetX, offsetY + drawFloorAtY,          floorW, bkgndH, true); // MIDP2!
-		g.drawRGB(buffer, bkgndOffset, totalW, offsetX, offsetY + drawFloorAtY + bkgndH, floorW, floorH, false);
+		g.drawRGB(paintBuffer, 0,           totalW, offsetX, offsetY + drawFloorAtY,          floorW, bkgndH, true); // MIDP2!
+		g.drawRGB(paintBuffer, bkgndOffset, totalW, offsetX, offsetY + drawFloorAtY + bkgndH, floorW, floorH, false);
 	}
 	
 	/**
@@ -967,15 +1800,16 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	 *	renderers the only one guaranteed to be present is TiledOverlay, the
 	 *	others might have been removed during obfuscation.
 	 *
+	 *	@param exclusive whether any buffers should be exclusive or shared
 	 *	@see Constants
 	 */
-	protected static ContinuousTiledLayer[] createBackgrounds(int bkgndType, int w, int h, Image image, AnimTile[] anims) {
+	protected static ContinuousTiledLayer[] createBackgrounds(int bkgndType, int w, int h, Image image, AnimTile[] anims, boolean exclusive) {
 		boolean compBkgnd = bkgndType == BACKGROUND_COMPOSITE;
 		
 		ContinuousTiledLayer[] out = new ContinuousTiledLayer[compBkgnd ? 1 : BACKGROUND_LAYERS];
 		if (compBkgnd) {
 			if (ENABLE_BKGND_COMPOSITE) {
-				out[0] = new BufferedCompositeTiledLayer(BKGND_COLS, BKGND_ROWS, w, h, BACKGROUND_LAYERS - 1, image, anims, false, null, false);
+				out[0] = new BufferedCompositeTiledLayer(BKGND_COLS, BKGND_ROWS, w, h, BACKGROUND_LAYERS - 1, image, anims, false, null, exclusive);
 			} else {
 				out[0] = null;
 			}
@@ -999,7 +1833,7 @@ public final class TrackRendererMode7 extends TrackRenderer {
 					 *	homage). This was probably not noticable on JSR. Look
 					 *	into this.
 					 */
-					out[0] = new BufferedTiledLayer(BKGND_COLS, BKGND_ROWS, w, h, image, anims, true, null, false);
+					out[0] = new BufferedTiledLayer(BKGND_COLS, BKGND_ROWS, w, h, image, anims, true, null, exclusive);
 				} else {
 					out[0] = null;
 				}
@@ -1036,6 +1870,93 @@ public final class TrackRendererMode7 extends TrackRenderer {
 	 */
 	public static final int SPRITE_SCALE = 1;
 	
+	/**
+	 *	Whether to keep a copy of the drawn floor while the camera is still
+	 *	(on the finish camera, for example) instead of redrawing it. Costs an
+	 *	extra buffer's worth of memory.
+	 */
+	private static final boolean REUSE_STATIC_FLOOR = true;
+	
+	/**
+	 *	Default maximum memory used by the pre-scaled sprites, in bytes.
+	 */
+	public static final int SPAN_CACHE_LIMIT = 64 * 1024;
+	
+	/**
+	 *	Most memory used by the pre-drawn background strips, in bytes, when
+	 *	sized automatically (enough for all the layers on a 176x208 screen).
+	 */
+	public static final int STRIP_LIMIT = 320 * 1024;
+	
+	/**
+	 *	Strip limit (and default) for sizing the strips from the free heap.
+	 */
+	public static final int STRIP_AUTO = -1;
+	
+	/**
+	 *	Share of the free heap the strips may take when sized automatically
+	 *	(one part in this many).
+	 */
+	private static final int STRIP_FREE_SHARE = 4;
+	
+	/**
+	 *	Maximum number of pre-scaled sprites kept.
+	 */
+	private static final int SPAN_CACHE_SLOTS = 128;
+	
+	private static final int SPAN_HASH_BITS = 6;
+	private static final int SPAN_HASH_SIZE = 1 << SPAN_HASH_BITS;
+	
+	/**
+	 *	Bits used by the screen row in a span cache key.
+	 */
+	private static final int SPAN_KEY_ROW_BITS = 10;
+	
+	/**
+	 *	Floor sampler using the hand unrolled loop (the default, and the
+	 *	fastest on interpreted and simple JIT VMs).
+	 */
+	public static final int FLOOR_SAMPLER_UNROLLED = 0;
+	
+	/**
+	 *	Floor sampler working in separate passes over each chunk, better
+	 *	suited to VMs that compile loops to wide (SIMD) instructions.
+	 */
+	public static final int FLOOR_SAMPLER_LANES = 1;
+	
+	/**
+	 *	Floor quality sampling every pixel.
+	 */
+	public static final int QUALITY_FULL = 0;
+	
+	/**
+	 *	Floor quality sampling every other pixel across.
+	 */
+	public static final int QUALITY_HALF_H = 1;
+	
+	/**
+	 *	Floor quality sampling every other pixel both across and down (as
+	 *	used by the chunky renderer).
+	 */
+	public static final int QUALITY_HALF_BOTH = 2;
+	
+	/**
+	 *	Number of rows dropped at the horizon for each level of quality below
+	 *	<code>QUALITY_HALF_BOTH</code>.
+	 */
+	private static final int HORIZON_STEP = 4;
+	
+	/**
+	 *	Number of frames timed before reviewing the floor quality.
+	 */
+	private static final int QUALITY_FRAMES = 16;
+	
+	/**
+	 *	Number of reviews after lowering the quality before raising it is
+	 *	considered.
+	 */
+	private static final int QUALITY_HOLD = 4;
+	
 	/**
 	 *	Number of pixels drawn together each loop of the floor code. An
 	 *	optimisation specifically for Aplix VMs.
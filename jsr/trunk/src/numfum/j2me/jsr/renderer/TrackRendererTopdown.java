@@ -8,6 +8,8 @@ import javax.microedition.lcdui.Image;
 
 import numfum.j2me.jsr.Sprite;
 import numfum.j2me.jsr.TrackRenderer;
+import numfum.j2me.jsr.generic.GraphicsTarget;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.jsr.generic.bkgnd.BufferedCompositeTiledLayer;
 import numfum.j2me.jsr.generic.bkgnd.BufferedTiledLayer;
 import numfum.j2me.jsr.generic.bkgnd.ContinuousTiledLayer;
@@ -19,6 +21,14 @@ import numfum.j2me.util.Fixed;
  *	Track renderer implementation that draws the floor and sprites in 2D.
  */
 public final class TrackRendererTopdown extends TrackRenderer {
+	/**
+	 *	Composes each frame on a persistent back buffer, redrawing only the
+	 *	areas that changed since the last paint (sprites that moved or
+	 *	changed frame, and animated tiles) while the camera is still. Costs
+	 *	a view sized image.
+	 */
+	private static final boolean USE_DIRTY_RECTS = true;
+	
 	/**
 	 *	Furthest visible x-coord in fixed point format.
 	 */
@@ -66,6 +76,23 @@ public final class TrackRendererTopdown extends TrackRenderer {
 	
 	private int lastX, lastY;
 	
+	/**
+	 *	Grid indices of the track objects around the current camera position.
+	 *	Only rebuilt when the camera or the sprite grid changes, otherwise the
+	 *	objects' current frames are simply looked up again.
+	 */
+	private final short[] gridSprites;
+	
+	/**
+	 *	Number of entries in <code>gridSprites</code>.
+	 */
+	private int numGridSprites = 0;
+	
+	/**
+	 *	Whether <code>gridSprites</code> needs rebuilding.
+	 */
+	private boolean gridSpritesValid = false;
+	
 	/**
 	 *	Queue of sorted sprites ready to render.
 	 */
@@ -76,8 +103,68 @@ public final class TrackRendererTopdown extends TrackRenderer {
 	 */
 	private int numSpritesToPaint = 0;
 	
+	/**
+	 *	Back buffer holding the last composed frame (when using dirty
+	 *	rectangles).
+	 */
+	private final Image frameImg;
+	
+	/**
+	 *	Target drawing into the back buffer.
+	 */
+	private final GraphicsTarget frameTarget;
+	
+	/**
+	 *	Whether the whole back buffer needs composing on the next paint.
+	 */
+	private boolean frameInvalid = true;
+	
+	/**
+	 *	Sprites as last drawn to the back buffer: their frame (including its
+	 *	transform) and position.
+	 */
+	private final short[] paintedN;
+	private final short[] paintedX;
+	private final short[] paintedY;
+	
+	/**
+	 *	Number of sprites last drawn to the back buffer.
+	 */
+	private int numPainted = 0;
+	
+	/**
+	 *	Dirty rectangles, merged as they're added.
+	 */
+	private final int[] dirtyX1 = new int[MAX_DIRTY_RECTS];
+	private final int[] dirtyY1 = new int[MAX_DIRTY_RECTS];
+	private final int[] dirtyX2 = new int[MAX_DIRTY_RECTS];
+	private final int[] dirtyY2 = new int[MAX_DIRTY_RECTS];
+	
+	/**
+	 *	Number of dirty rectangles.
+	 */
+	private int numDirty = 0;
+	
+	/**
+	 *	Whether each animation has changed since the last paint.
+	 */
+	private final boolean[] animChanged = new boolean[MAX_ANIMS];
+	
+	/**
+	 *	Whether any animation has changed since the last paint.
+	 */
+	private boolean anyAnimChanged = false;
+	
 	public TrackRendererTopdown(int viewW, int viewH, int bkgndType, DataInput in, boolean close) throws IOException {
-		super(viewW, viewH, in);
+		this(viewW, viewH, bkgndType, in, close, false);
+	}
+	
+	/**
+	 *	@param exclusive whether the track layer needs a buffer of its own
+	 *	@see TrackRendererMode7#TrackRendererMode7(int, int, int, boolean, int, DataInput, boolean, boolean)
+	 */
+	public TrackRendererTopdown(int viewW, int viewH, int bkgndType, DataInput in, boolean close, boolean exclusive) throws IOException {
+		super(viewW, viewH, in, exclusive);
 		if (DEBUG) {
 			System.out.println("Inited Track super class");
 		}
@@ -105,7 +192,7 @@ public final class TrackRendererTopdown extends TrackRenderer {
 		clipH = new byte[numSpriteFrames];
 		in.readFully(clipH);
 		
-		sprites = loadImage(in);
+		sprites = loadSharedImage(in, "/ksb.dat#sprites");
 		
 		if (close && in instanceof InputStream) {
 			((InputStream) in).close();
@@ -127,7 +214,7 @@ public final class TrackRendererTopdown extends TrackRenderer {
 			break;
 		default:
 			if (ENABLE_BKGND_BUFFERED) {
-				layer = new BufferedTiledLayer(MAP_COLS, MAP_ROWS, viewW, viewH, tileImg, animtile, false, this, false);
+				layer = new BufferedTiledLayer(MAP_COLS, MAP_ROWS, viewW, viewH, tileImg, animtile, false, this, exclusive);
 			} else {
 				layer = null;
 			}
@@ -154,10 +241,25 @@ public final class TrackRendererTopdown extends TrackRenderer {
 		}
 		spriteRows = calcRows + 3;
 		
+		gridSprites = new short[spriteCols * spriteRows];
 		spritesToPaint = new Sprite[spriteCols * spriteRows + MAX_BLEND_SPRITES];
 		for (int n = spritesToPaint.length - 1; n >= 0; n--) {
 			spritesToPaint[n] = new Sprite();
 		}
+		
+		if (USE_DIRTY_RECTS) {
+			frameImg = Image.createImage(viewW, viewH);
+			frameTarget = new GraphicsTarget(frameImg.getGraphics());
+			paintedN = new short[spritesToPaint.length];
+			paintedX = new short[spritesToPaint.length];
+			paintedY = new short[spritesToPaint.length];
+		} else {
+			frameImg = null;
+			frameTarget = null;
+			paintedN = null;
+			paintedX = null;
+			paintedY = null;
+		}
 	}
 	
 	protected void loaded(DataInput in) throws IOException {
@@ -195,12 +297,16 @@ public final class TrackRendererTopdown extends TrackRenderer {
 		
 		lastX = 0;
 		lastY = 0;
+		gridSpritesValid = false;
+		frameInvalid = true;
 	}
 	
 	public void refresh() {
 		layer.reset();
 		lastX = 0;
 		lastY = 0;
+		gridSpritesValid = false;
+		frameInvalid = true;
 	}
 	
 	public void render(int cameraX, int cameraY, int cameraA, Sprite[] blend, int blendSize, int bump) {
@@ -225,10 +331,50 @@ public final class TrackRendererTopdown extends TrackRenderer {
 		
 		if (lastX != x || lastY != y) {
 			layer.moveTo(x, y);
+			gridSpritesValid = false;
+			frameInvalid = true;
 		}
 		lastX = x;
 		lastY = y;
 		
+		if (!gridSpritesValid || spritemapChanged) {
+			findGridSprites(x, y);
+		}
+		
+		numSpritesToPaint = 0;
+		
+		for (int n = 0; n < numGridSprites; n++) {
+			int gridIdx = gridSprites[n];
+			int spriteN = animsprite[spritemap[gridIdx]].getTileIndex();
+			if (spriteN != 0) {
+				int data = animsprite[spritemap[gridIdx]].data;
+				spritesToPaint[numSpritesToPaint++].set(spriteN,
+					(((spritePosX[gridIdx] >> Fixed.FIXED_POINT) - x) - ((data >> SPRITE_DATA_ROTL_OGNX) & SPRITE_DATA_MASK_OGNX)) + spriteOriginX[spriteN],
+					(((spritePosY[gridIdx] >> Fixed.FIXED_POINT) - y) - ((data >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY)) + spriteOriginY[spriteN],
+					0, 0);
+			}
+		}
+		
+		for (int n = 0; n < blendSize; n++) {
+			blend[n].view = false;
+			int drawX = (blend[n].x - camViewX) >> Fixed.FIXED_POINT;
+			int drawY = (blend[n].y - camViewY) >> Fixed.FIXED_POINT;
+			if (drawX > -SPRITE_W && drawX < viewW + SPRITE_W && drawY > -SPRITE_H && drawY < viewH + SPRITE_H) {
+				int spriteN = animsprite[blend[n].n].getTileIndex();
+				int data = animsprite[blend[n].n].data;
+				spritesToPaint[numSpritesToPaint++].set(spriteN,
+					(drawX - ((data >> SPRITE_DATA_ROTL_OGNX) & SPRITE_DATA_MASK_OGNX)) + spriteOriginX[spriteN],
+					(drawY - ((data >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY)) + spriteOriginY[spriteN],
+					0, 0);
+				blend[n].view = true;
+			}
+		}
+	}
+	
+	/**
+	 *	Finds the occupied cells of the sprite grid around the camera.
+	 */
+	private void findGridSprites(int x, int y) {
 		int startCol = x / GRID_W - 1;
 		int startRow = y / GRID_H - 1;
 		int colCount = spriteCols;
@@ -248,41 +394,30 @@ public final class TrackRendererTopdown extends TrackRenderer {
 			rowCount = GRID_ROWS - startRow;
 		}
 		
-		numSpritesToPaint = 0;
+		numGridSprites = 0;
 		
 		for (int row = startRow, rc = rowCount; rc > 0; row++, rc--) {
 			for (int col = startCol, cc = colCount; cc > 0; col++, cc--) {
 				int gridIdx = row << GRID_ROWS_BITS | col;
-				int spriteN = animsprite[spritemap[gridIdx]].getTileIndex();
-				if (spriteN != 0) {
-					int data = animsprite[spritemap[gridIdx]].data;
-					spritesToPaint[numSpritesToPaint++].set(spriteN,
-						(((spritePosX[gridIdx] >> Fixed.FIXED_POINT) - x) - ((data >> SPRITE_DATA_ROTL_OGNX) & SPRITE_DATA_MASK_OGNX)) + spriteOriginX[spriteN],
-						(((spritePosY[gridIdx] >> Fixed.FIXED_POINT) - y) - ((data >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY)) + spriteOriginY[spriteN],
-						0, 0);
+				if (spritemap[gridIdx] != 0) {
+					gridSprites[numGridSprites++] = (short) gridIdx;
 				}
 			}
 		}
 		
-		for (int n = 0; n < blendSize; n++) {
-			blend[n].view = false;
-			int drawX = (blend[n].x - camViewX) >> Fixed.FIXED_POINT;
-			int drawY = (blend[n].y - camViewY) >> Fixed.FIXED_POINT;
-			if (drawX > -SPRITE_W && drawX < viewW + SPRITE_W && drawY > -SPRITE_H && drawY < viewH + SPRITE_H) {
-				int spriteN = animsprite[blend[n].n].getTileIndex();
-				int data = animsprite[blend[n].n].data;
-				spritesToPaint[numSpritesToPaint++].set(spriteN,
-					(drawX - ((data >> SPRITE_DATA_ROTL_OGNX) & SPRITE_DATA_MASK_OGNX)) + spriteOriginX[spriteN],
-					(drawY - ((data >> SPRITE_DATA_ROTL_OGNY) & SPRITE_DATA_MASK_OGNY)) + spriteOriginY[spriteN],
-					0, 0);
-				blend[n].view = true;
-			}
-		}
+		gridSpritesValid = true;
+		spritemapChanged = false;
 	}
 	
 	public void cycle() {
 		super.cycle();
 		layer.cycle();
+		if (USE_DIRTY_RECTS) {
+			for (int n = getNumChangedAnims() - 1; n >= 0; n--) {
+				animChanged[getChangedAnim(n)] = true;
+				anyAnimChanged = true;
+			}
+		}
 	}
 	
 	public boolean isPerspectiveView() {
@@ -293,15 +428,217 @@ public final class TrackRendererTopdown extends TrackRenderer {
 		return -32;
 	}
 	
-	public void paint(Graphics g, int offsetX, int offsetY) {
-		layer.paint(g, offsetX, offsetY);
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
+		if (USE_DIRTY_RECTS) {
+			compose();
+			g.drawImage(frameImg, offsetX, offsetY, Graphics.TOP | Graphics.LEFT);
+		} else {
+			layer.paint(g, offsetX, offsetY);
+			
+			for (int n = 0; n < numSpritesToPaint; n++) {
+				drawSprite(g, spritesToPaint[n], offsetX, offsetY);
+			}
+		}
+	}
+	
+	/**
+	 *	Brings the back buffer up to date, either composing the entire frame
+	 *	(if the camera moved) or just the areas marked dirty.
+	 */
+	private void compose() {
+		numDirty = 0;
+		if (!frameInvalid) {
+			/*
+			 *	Sprites are compared with what was drawn in the same slot
+			 *	last time. Any difference dirties both the old and new areas,
+			 *	which covers sprites appearing, disappearing or moving.
+			 */
+			int n = 0;
+			for (; n < numSpritesToPaint && !frameInvalid; n++) {
+				Sprite sprite = spritesToPaint[n];
+				if (n >= numPainted || paintedN[n] != sprite.n || paintedX[n] != sprite.x || paintedY[n] != sprite.y) {
+					if (n < numPainted) {
+						addDirtySprite(paintedN[n], paintedX[n], paintedY[n]);
+					}
+					addDirtySprite(sprite.n, sprite.x, sprite.y);
+				}
+			}
+			for (; n < numPainted && !frameInvalid; n++) {
+				addDirtySprite(paintedN[n], paintedX[n], paintedY[n]);
+			}
+			if (anyAnimChanged && !frameInvalid) {
+				addDirtyTiles();
+			}
+		}
+		if (anyAnimChanged) {
+			for (int n = MAX_ANIMS - 1; n >= 0; n--) {
+				animChanged[n] = false;
+			}
+			anyAnimChanged = false;
+		}
+		
+		if (frameInvalid) {
+			frameTarget.setClip(0, 0, viewW, viewH);
+			layer.paint(frameTarget, 0, 0);
+			for (int n = 0; n < numSpritesToPaint; n++) {
+				drawSprite(frameTarget, spritesToPaint[n], 0, 0);
+			}
+			frameInvalid = false;
+		} else {
+			for (int i = 0; i < numDirty; i++) {
+				int x1 = dirtyX1[i];
+				int y1 = dirtyY1[i];
+				int x2 = dirtyX2[i];
+				int y2 = dirtyY2[i];
+				frameTarget.setClip(x1, y1, x2 - x1, y2 - y1);
+				layer.paint(frameTarget, 0, 0);
+				for (int n = 0; n < numSpritesToPaint; n++) {
+					Sprite sprite = spritesToPaint[n];
+					if (sprite.x < x2 && sprite.y < y2 && sprite.x + getSpriteW(sprite.n) > x1 && sprite.y + getSpriteH(sprite.n) > y1) {
+						drawSprite(frameTarget, sprite, 0, 0);
+					}
+				}
+			}
+		}
 		
 		for (int n = 0; n < numSpritesToPaint; n++) {
-			drawSprite(g, spritesToPaint[n], offsetX, offsetY);
+			Sprite sprite = spritesToPaint[n];
+			paintedN[n] = (short) sprite.n;
+			paintedX[n] = (short) sprite.x;
+			paintedY[n] = (short) sprite.y;
 		}
+		numPainted = numSpritesToPaint;
+	}
+	
+	/**
+	 *	Marks the area covered by a sprite frame as dirty.
+	 */
+	private void addDirtySprite(int n, int x, int y) {
+		addDirty(x, y, x + getSpriteW(n), y + getSpriteH(n));
+	}
+	
+	/**
+	 *	Returns the drawn width of a sprite frame (the transforms from
+	 *	<code>TRANS_MIRROR_ROT270</code> onwards swapping the axes).
+	 */
+	private int getSpriteW(int n) {
+		int spTrans = spriteTrans[n];
+		int udgs = (spTrans >> SPRITETRANS_ROTL_UDGS) & SPRITETRANS_MASK_UDGS;
+		int tran = (spTrans >> SPRITETRANS_ROTL_TRAN) & SPRITETRANS_MASK_TRAN;
+		return (tran < TRANS_SWAP_AXES) ? clipW[udgs] : clipH[udgs];
+	}
+	
+	/**
+	 *	Returns the drawn height of a sprite frame.
+	 */
+	private int getSpriteH(int n) {
+		int spTrans = spriteTrans[n];
+		int udgs = (spTrans >> SPRITETRANS_ROTL_UDGS) & SPRITETRANS_MASK_UDGS;
+		int tran = (spTrans >> SPRITETRANS_ROTL_TRAN) & SPRITETRANS_MASK_TRAN;
+		return (tran < TRANS_SWAP_AXES) ? clipH[udgs] : clipW[udgs];
 	}
 	
-	private void drawSprite(Graphics g, Sprite sprite, int offsetX, int offsetY) {
+	/**
+	 *	Marks the visible tiles whose animation changed as dirty.
+	 */
+	private void addDirtyTiles() {
+		int startCol = lastX >> TILE_W_BITS;
+		int startRow = lastY >> TILE_H_BITS;
+		int endCol = (lastX + viewW - 1) >> TILE_W_BITS;
+		int endRow = (lastY + viewH - 1) >> TILE_H_BITS;
+		for (int row = startRow; row <= endRow && !frameInvalid; row++) {
+			int drawY = (row << TILE_H_BITS) - lastY;
+			for (int col = startCol; col <= endCol; col++) {
+				if (animChanged[tilemap[(row & (MAP_ROWS - 1)) << MAP_ROWS_BITS | (col & (MAP_COLS - 1))] & 0xFF]) {
+					int drawX = (col << TILE_W_BITS) - lastX;
+					addDirty(drawX, drawY, drawX + TILE_W, drawY + TILE_H);
+				}
+			}
+		}
+	}
+	
+	/**
+	 *	Adds a rectangle to the dirty list, merging it with any it touches.
+	 *	If the list is full it's merged with whichever grows the least, and
+	 *	once the dirty area covers most of the view the whole frame is
+	 *	simply redrawn instead.
+	 */
+	private void addDirty(int x1, int y1, int x2, int y2) {
+		if (x1 < 0) {
+			x1 = 0;
+		}
+		if (y1 < 0) {
+			y1 = 0;
+		}
+		if (x2 > viewW) {
+			x2 = viewW;
+		}
+		if (y2 > viewH) {
+			y2 = viewH;
+		}
+		if (x1 >= x2 || y1 >= y2) {
+			return;
+		}
+		
+		int merge = -1;
+		for (int n = numDirty - 1; n >= 0; n--) {
+			if (x1 <= dirtyX2[n] && x2 >= dirtyX1[n] && y1 <= dirtyY2[n] && y2 >= dirtyY1[n]) {
+				merge = n;
+				break;
+			}
+		}
+		if (merge < 0) {
+			if (numDirty < MAX_DIRTY_RECTS) {
+				dirtyX1[numDirty] = x1;
+				dirtyY1[numDirty] = y1;
+				dirtyX2[numDirty] = x2;
+				dirtyY2[numDirty] = y2;
+				numDirty++;
+				checkDirtyArea();
+				return;
+			}
+			int leastGrowth = Integer.MAX_VALUE;
+			for (int n = numDirty - 1; n >= 0; n--) {
+				int growth = (Math.max(x2, dirtyX2[n]) - Math.min(x1, dirtyX1[n])) * (Math.max(y2, dirtyY2[n]) - Math.min(y1, dirtyY1[n]))
+					- (dirtyX2[n] - dirtyX1[n]) * (dirtyY2[n] - dirtyY1[n]);
+				if (growth < leastGrowth) {
+					leastGrowth = growth;
+					merge = n;
+				}
+			}
+		}
+		
+		/*
+		 *	The merged rectangle is removed and re-added, since growing it
+		 *	may make it touch others.
+		 */
+		x1 = Math.min(x1, dirtyX1[merge]);
+		y1 = Math.min(y1, dirtyY1[merge]);
+		x2 = Math.max(x2, dirtyX2[merge]);
+		y2 = Math.max(y2, dirtyY2[merge]);
+		numDirty--;
+		dirtyX1[merge] = dirtyX1[numDirty];
+		dirtyY1[merge] = dirtyY1[numDirty];
+		dirtyX2[merge] = dirtyX2[numDirty];
+		dirtyY2[merge] = dirtyY2[numDirty];
+		addDirty(x1, y1, x2, y2);
+	}
+	
+	/**
+	 *	Falls back to a full redraw once the dirty area is large enough that
+	 *	the separate redraws would cost more.
+	 */
+	private void checkDirtyArea() {
+		int area = 0;
+		for (int n = numDirty - 1; n >= 0; n--) {
+			area += (dirtyX2[n] - dirtyX1[n]) * (dirtyY2[n] - dirtyY1[n]);
+		}
+		if (area * DIRTY_AREA_LIMIT > viewW * viewH) {
+			frameInvalid = true;
+		}
+	}
+	
+	private void drawSprite(RenderTarget g, Sprite sprite, int offsetX, int offsetY) {
 		int spTrans = spriteTrans[sprite.n];
 		int udgs = (spTrans >> SPRITETRANS_ROTL_UDGS) & SPRITETRANS_MASK_UDGS;
 		int tran = (spTrans >> SPRITETRANS_ROTL_TRAN) & SPRITETRANS_MASK_TRAN;
@@ -331,4 +668,21 @@ public final class TrackRendererTopdown extends TrackRenderer {
 	
 	public static final int SPRITE_W = 32;
 	public static final int SPRITE_H = 32;
+	
+	/**
+	 *	Maximum number of separate dirty rectangles per frame.
+	 */
+	private static final int MAX_DIRTY_RECTS = 8;
+	
+	/**
+	 *	First of the MIDP sprite transforms that swap width and height
+	 *	(<code>Sprite.TRANS_MIRROR_ROT270</code>).
+	 */
+	private static final int TRANS_SWAP_AXES = 4;
+	
+	/**
+	 *	Fraction (as its reciprocal) of the view the dirty area can cover
+	 *	before the whole frame is redrawn instead.
+	 */
+	private static final int DIRTY_AREA_LIMIT = 2;
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package numfum.j2me.text;
 
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
+import numfum.j2me.jsr.generic.RenderTarget;
+import numfum.j2me.util.AssetCache;
+import numfum.j2me.util.ByteDataInput;
+
 /**
  *	Bitmap unicode font.
  */
@@ -87,13 +90,6 @@ public final class BitmapFont {
 	 */
 	private static byte[] imgData;
 	
-	/**
-	 *	Used to hold a reference to a temporary stream used when instantiating
-	 *	using a resource file. It ensures the stream is quickly closed
-	 *	afterwards and not left for the garbage collector to do so.
-	 */
-	private static DataInputStream stream;
-	
 	/**
 	 *	Default sized buffer used when creting an image from a stream.
 	 */
@@ -106,9 +102,19 @@ public final class BitmapFont {
 	 *	Creates a new bitmap font from the named resource.
 	 */
 	public BitmapFont(String resource) throws IOException {
-		this(stream = new DataInputStream(CLASS.getResourceAsStream(resource)));
-		stream.close();
-		stream = null;
+		this(ByteDataInput.open(resource));
+	}
+	
+	/**
+	 *	Returns the font from the named resource, shared with anything else
+	 *	using the same font (fonts don't change once loaded).
+	 */
+	public static synchronized BitmapFont load(String resource) throws IOException {
+		BitmapFont font = (BitmapFont) AssetCache.get(resource);
+		if (font == null) {
+			font = (BitmapFont) AssetCache.put(resource, new BitmapFont(resource));
+		}
+		return font;
 	}
 	
 	/**
@@ -245,7 +251,7 @@ public final class BitmapFont {
 	/**
 	 *	Draws a glyph using its baseline and left margin as the origin.
 	 */
-	public void paint(Graphics g, int n, int x, int y) {
+	public void paint(RenderTarget g, int n, int x, int y) {
 		int clipN = this.clip[n];
 		g.drawRegion(sheet,
 			(clipN >> SHEET_ROTL_CLIP_X) & SHEET_MASK_CLIP_X,
@@ -258,7 +264,7 @@ public final class BitmapFont {
 	/**
 	 *	Draws a glyph from the given anchor.
 	 */
-	public void paint(Graphics g, int n, int x, int y, int anchor) {
+	public void paint(RenderTarget g, int n, int x, int y, int anchor) {
 		if ((anchor & Graphics.LEFT) == 0) {
 			if ((anchor & Graphics.HCENTER) != 0) {
 				x -= advance[n] >> 1;
@@ -281,10 +287,14 @@ public final class BitmapFont {
 	 *	bytes read are the number of bytes to load, which limits the loader to
 	 *	64kB.
 	 *
-	 *	Note: a buffer to hold the data is grown as required.
+	 *	Note: a buffer to hold the data is grown as required (shared by every
+	 *	font, hence the lock).
 	 */
-	public final static Image loadImageFromStream(DataInput in) throws IOException {
+	public final static synchronized Image loadImageFromStream(DataInput in) throws IOException {
 		int dataSize = in.readUnsignedShort();
+		if (in instanceof ByteDataInput) {
+			return ((ByteDataInput) in).readImage(dataSize);
+		}
 		if (imgData == null || imgData.length < dataSize) {
 			imgData = new byte[dataSize > DEFAULT_IMAGE_BUFFER_SIZE ? dataSize : DEFAULT_IMAGE_BUFFER_SIZE];
 		}
@@ -292,22 +302,6 @@ public final class BitmapFont {
 		return Image.createImage(imgData, 0, dataSize);
 	}
 	
-	/**
-	 *	<code>Class</code> object for this class. Used when loading.
-	 *
-	 *	@see Class.getResourceAsStream
-	 */
-	private static final Class CLASS;
-	static {
-		Class temp = null;
-		try {
-			temp = Class.forName("BitmapFont");
-		} catch (ClassNotFoundException e) {
-			temp = new Object().getClass();
-		}
-		CLASS = temp;
-	}
-	
 	/**
 	 *	Maximum size of the char to glyph lookup table.
 	 */
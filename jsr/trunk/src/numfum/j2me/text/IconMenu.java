@@ -1,8 +1,7 @@
 package numfum.j2me.text;
 
-import javax.microedition.lcdui.Graphics;
-
 import numfum.j2me.jsr.generic.Positionable;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.effect.TextEffect;
 
 /**
@@ -438,7 +437,7 @@ public final class IconMenu extends ScrollingList {
 	/**
 	 *	Draws the menu and any associated items.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		int highX = 0;
 		int highY = 0;
 		int drawY = offsetY + transY;
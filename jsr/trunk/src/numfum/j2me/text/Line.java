@@ -3,6 +3,7 @@ package numfum.j2me.text;
 import javax.microedition.lcdui.Graphics;
 
 import numfum.j2me.jsr.generic.Positionable;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.effect.TextEffect;
 
 /**
@@ -380,7 +381,7 @@ public final class Line implements Positionable {
 	/**
 	 *	Draws the line at the given offset.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		offsetX += x;
 		offsetY += y;
 		if (effect != null) {
@@ -2,6 +2,7 @@ package numfum.j2me.text;
 
 import javax.microedition.lcdui.Graphics;
 
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.effect.TextEffect;
 
 
@@ -318,7 +319,7 @@ public class ListMenu extends ScrollingList {
 	/**
 	 *	Draws the menu and arrow icons.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		super.paint(g, offsetX, offsetY);
 		for (int n = (usedRows < visibleRows ? usedRows : visibleRows) - 1; n >= 0; n--) {
 			line[n].paint(g, offsetX, offsetY);
@@ -3,6 +3,7 @@ package numfum.j2me.text;
 import javax.microedition.lcdui.Graphics;
 
 import numfum.j2me.jsr.generic.Positionable;
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.effect.TextEffect;
 
 /**
@@ -411,7 +412,7 @@ public abstract class ScrollingList implements Positionable {
 	/**
 	 *	Draws the text at the specified offset.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		if (moreAbove && arrowAboveIdx >= 0) {
 			if (moreArrowFX != null) {
 				moreArrowFX.paint(font, g, arrowAboveIdx, offsetX + arrowX, offsetY + arrowAboveY, Graphics.BASELINE | Graphics.HCENTER);
@@ -2,6 +2,8 @@ package numfum.j2me.text;
 
 import java.io.*;
 
+import numfum.j2me.util.AssetCache;
+
 /**
  *	Handles string localisation. Each file contains one of more languages each
  *	with one or more strings.
@@ -25,9 +27,10 @@ public class StringManager {
 	private final String resource;
 	
 	/**
-	 *	Each of the string entries
+	 *	Each of the string entries, shared with any other manager using the
+	 *	same language from the same resource.
 	 */
-	private final char[][] line;
+	private char[][] line;
 	
 	/**
 	 *	Number of language options to choose from.
@@ -154,20 +157,29 @@ public class StringManager {
 		}
 		index %= opts;
 		if (optIdx != index) {
-			optIdx  = index;
-			try {
-				DataInputStream in = new DataInputStream(getClass().getResourceAsStream(resource));
-				in.skipBytes(in.readUnsignedShort());
-				for (int n = in.readUnsignedByte(); n > 0; n--) {
-					line[in.readUnsignedByte()] = in.readUTF().toCharArray();
-				}
-				in.skipBytes(optIdx * 2);
-				in.skipBytes(in.readUnsignedShort() + 2); // +2 is language size short
-				for (int n = in.readUnsignedByte(); n > 0; n--) {
-					line[in.readUnsignedByte()] = in.readUTF().toCharArray();
+			String key = resource + '#' + index;
+			char[][] table = (char[][]) AssetCache.get(key);
+			if (table == null) {
+				table = new char[line.length][];
+				try {
+					DataInputStream in = new DataInputStream(getClass().getResourceAsStream(resource));
+					in.skipBytes(in.readUnsignedShort());
+					for (int n = in.readUnsignedByte(); n > 0; n--) {
+						table[in.readUnsignedByte()] = in.readUTF().toCharArray();
+					}
+					in.skipBytes(index * 2);
+					in.skipBytes(in.readUnsignedShort() + 2); // +2 is language size short
+					for (int n = in.readUnsignedByte(); n > 0; n--) {
+						table[in.readUnsignedByte()] = in.readUTF().toCharArray();
+					}
+					in.close();
+					table = (char[][]) AssetCache.put(key, table);
+				} catch (IOException e) {
+					return optIdx; // keeps the strings already in use
 				}
-				in.close();
-			} catch (IOException e) {}
+			}
+			line   = table;
+			optIdx = index;
 		}
 		return optIdx;
 	}
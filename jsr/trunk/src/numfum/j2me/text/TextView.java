@@ -2,6 +2,7 @@ package numfum.j2me.text;
 
 import javax.microedition.lcdui.Graphics;
 
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.effect.TextEffect;
 
 
@@ -340,7 +341,7 @@ public class TextView extends ScrollingList {
 	/**
 	 *	Draws the text viewer and scroll arrows, if required.
 	 */
-	public void paint(Graphics g, int offsetX, int offsetY) {
+	public void paint(RenderTarget g, int offsetX, int offsetY) {
 		super.paint(g, offsetX, offsetY);
 		for (int n = (usedRows < visibleRows ? usedRows : visibleRows) - 1; n >= 0; n--) {
 			line[n].paint(g, offsetX, offsetY);
@@ -1,7 +1,6 @@
 package numfum.j2me.text.effect;
 
-import javax.microedition.lcdui.Graphics;
-
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.BitmapFont;
 
 /**
@@ -51,14 +50,14 @@ public final class AnimEffect implements TextEffect {
 	/**
 	 *	Draws a single glyph using this effect.
 	 */
-	public void paint(BitmapFont font, Graphics g, int n, int x, int y) {
+	public void paint(BitmapFont font, RenderTarget g, int n, int x, int y) {
 		font.paint(g, n + offset, x, y);
 	}
 	
 	/**
 	 *	Draws a single glyph using this effect from the specified anchor.
 	 */
-	public void paint(BitmapFont font, Graphics g, int n, int x, int y, int anchor) {
+	public void paint(BitmapFont font, RenderTarget g, int n, int x, int y, int anchor) {
 		font.paint(g, n + offset, x, y, anchor);
 	}
 	
@@ -1,7 +1,6 @@
 package numfum.j2me.text.effect;
 
-import javax.microedition.lcdui.Graphics;
-
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.BitmapFont;
 
 /**
@@ -33,7 +32,7 @@ public final class BlinkEffect implements TextEffect {
 	/**
 	 *	Draws a single glyph using this effect.
 	 */
-	public void paint(BitmapFont font, Graphics g, int n, int x, int y) {
+	public void paint(BitmapFont font, RenderTarget g, int n, int x, int y) {
 		if (showing) {
 			font.paint(g, n, x, y);
 		}
@@ -42,7 +41,7 @@ public final class BlinkEffect implements TextEffect {
 	/**
 	 *	Draws a single glyph using this effect from the specified anchor.
 	 */
-	public void paint(BitmapFont font, Graphics g, int n, int x, int y, int anchor) {
+	public void paint(BitmapFont font, RenderTarget g, int n, int x, int y, int anchor) {
 		if (showing) {
 			font.paint(g, n, x, y, anchor);
 		}
@@ -1,7 +1,6 @@
 package numfum.j2me.text.effect;
 
-import javax.microedition.lcdui.Graphics;
-
+import numfum.j2me.jsr.generic.RenderTarget;
 import numfum.j2me.text.BitmapFont;
 
 /**
@@ -73,7 +72,7 @@ public final class JumpEffect implements TextEffect {
 	/**
 	 *	Draws a single glyph using this effect.
 	 */
-	public void paint(BitmapFont font, Graphics g, int n, int x, int y) {
+	public void paint(BitmapFont font, RenderTarget g, int n, int x, int y) {
 		switch (dir) {
 		case MOVE_VERTICALLY:
 			font.paint(g, n, x, y + ((tick & 1) == 0 ? - size : size));
@@ -88,7 +87,7 @@ public final class JumpEffect implements TextEffect {
 	/**
 	 *	Draws a single glyph using this effect from the specified anchor.
 	 */
-	public void paint(BitmapFont font, Graphics g, int n, int x, int y, int anchor) {
+	public void paint(BitmapFont font, RenderTarget g, int n, int x, int y, int anchor) {
 		switch (dir) {
 		case MOVE_VERTICALLY:
 			font.paint(g, n, x, y + ((tick & 1) == 0 ? - size : size), anchor);
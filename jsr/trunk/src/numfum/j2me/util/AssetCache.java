@@ -0,0 +1,53 @@
+package numfum.j2me.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Hashtable;
+
+/**
+ *	Assets that never change once loaded (fonts, string tables, sprite
+ *	data), shared by everything in the VM needing the same asset. With
+ *	several games running at once (as in the multi-screen mode) each asset
+ *	is only loaded and held once, however many games use it.
+ *
+ *	Assets are held weakly, so one no longer used by anything (the sprites
+ *	of a renderer switched away from, say) is collected as it always was.
+ */
+public final class AssetCache {
+	/**
+	 *	Weak references to the assets, by key.
+	 */
+	private static final Hashtable assets = new Hashtable();
+	
+	private AssetCache() {}
+	
+	/**
+	 *	Returns the asset stored under a key, or <code>null</code> if there
+	 *	isn't one (or it's since been collected).
+	 */
+	public static synchronized Object get(String key) {
+		WeakReference ref = (WeakReference) assets.get(key);
+		if (ref != null) {
+			Object asset = ref.get();
+			if (asset != null) {
+				return asset;
+			}
+			assets.remove(key);
+		}
+		return null;
+	}
+	
+	/**
+	 *	Stores an asset under a key, unless another was stored whilst this one
+	 *	was loading, in which case that one should be used instead.
+	 *
+	 *	@return the asset to use
+	 */
+	public static synchronized Object put(String key, Object asset) {
+		Object held = get(key);
+		if (held != null) {
+			return held;
+		}
+		assets.put(key, new WeakReference(asset));
+		return asset;
+	}
+}
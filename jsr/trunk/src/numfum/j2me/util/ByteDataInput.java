@@ -0,0 +1,192 @@
+package numfum.j2me.util;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.microedition.lcdui.Image;
+
+/**
+ *	<code>DataInput</code> reading from a byte array. Resources are pulled
+ *	in whole with a single bulk read then parsed straight out of the array,
+ *	rather than going through the stream (and the handset's resource reader)
+ *	a byte or an int at a time.
+ *
+ *	Note: there's no memory mapping in CLDC, so everything is read into the
+ *	heap; the array is only held while parsing.
+ */
+public final class ByteDataInput implements DataInput {
+	/**
+	 *	Data being read.
+	 */
+	private final byte[] data;
+	
+	/**
+	 *	End of the valid data in the array.
+	 */
+	private final int limit;
+	
+	/**
+	 *	Position of the next byte to read.
+	 */
+	private int pos;
+	
+	/**
+	 *	Reads from part of an array (the array isn't copied).
+	 */
+	public ByteDataInput(byte[] data, int offset, int length) {
+		this.data = data;
+		pos   = offset;
+		limit = offset + length;
+	}
+	
+	public ByteDataInput(byte[] data) {
+		this(data, 0, data.length);
+	}
+	
+	/**
+	 *	Reads the whole of a resource.
+	 *
+	 *	@throws IOException if the resource doesn't exist
+	 */
+	public static ByteDataInput open(String resource) throws IOException {
+		InputStream in = ByteDataInput.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IOException(resource);
+		}
+		try {
+			/*
+			 *	Most handsets report the full size of a resource, in which
+			 *	case this is a single read. Otherwise the buffer is doubled
+			 *	until everything's in.
+			 */
+			byte[] data = new byte[Math.max(in.available() + 1, MIN_BUFFER_SIZE)];
+			int size = 0;
+			int read;
+			while ((read = in.read(data, size, data.length - size)) >= 0) {
+				size += read;
+				if (size == data.length) {
+					byte[] temp = new byte[data.length * 2];
+					System.arraycopy(data, 0, temp, 0, size);
+					data = temp;
+				}
+			}
+			return new ByteDataInput(data, 0, size);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 *	Returns the array being read (used to pass embedded data such as
+	 *	images on without copying).
+	 */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/**
+	 *	Returns the position of the next byte in the array.
+	 */
+	public int getPosition() {
+		return pos;
+	}
+	
+	/**
+	 *	Returns the number of bytes left to read.
+	 */
+	public int available() {
+		return limit - pos;
+	}
+	
+	/**
+	 *	Claims the next few bytes, returning where in the array they start.
+	 */
+	private int need(int bytes) throws EOFException {
+		int at = pos;
+		if (at + bytes > limit) {
+			throw new EOFException();
+		}
+		pos = at + bytes;
+		return at;
+	}
+	
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+	
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		System.arraycopy(data, need(len), b, off, len);
+	}
+	
+	public int skipBytes(int n) {
+		n = Math.max(Math.min(n, limit - pos), 0);
+		pos += n;
+		return n;
+	}
+	
+	public boolean readBoolean() throws IOException {
+		return data[need(1)] != 0;
+	}
+	
+	public byte readByte() throws IOException {
+		return data[need(1)];
+	}
+	
+	public int readUnsignedByte() throws IOException {
+		return data[need(1)] & 0xFF;
+	}
+	
+	public short readShort() throws IOException {
+		int n = need(2);
+		return (short) ((data[n] << 8) | (data[n + 1] & 0xFF));
+	}
+	
+	public int readUnsignedShort() throws IOException {
+		int n = need(2);
+		return ((data[n] & 0xFF) << 8) | (data[n + 1] & 0xFF);
+	}
+	
+	public char readChar() throws IOException {
+		return (char) readUnsignedShort();
+	}
+	
+	public int readInt() throws IOException {
+		int n = need(4);
+		return (data[n] << 24) | ((data[n + 1] & 0xFF) << 16) | ((data[n + 2] & 0xFF) << 8) | (data[n + 3] & 0xFF);
+	}
+	
+	public long readLong() throws IOException {
+		return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+	}
+	
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+	
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+	
+	/**
+	 *	Creates an image from the next <code>length</code> bytes, decoding
+	 *	straight from the array instead of copying the data out first.
+	 */
+	public Image readImage(int length) throws IOException {
+		return Image.createImage(data, need(length), length);
+	}
+	
+	public String readLine() throws IOException {
+		throw new IOException();
+	}
+	
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+	
+	/**
+	 *	Starting buffer size for resources not reporting their size.
+	 */
+	private static final int MIN_BUFFER_SIZE = 4096;
+}
@@ -13,20 +13,54 @@ public final class Joystick {
 	public int state;
 	
 	/**
-	 *	Size of the record buffer.
+	 *	Recorded joystick state, run-length encoded: each run is the state
+	 *	followed by the run's length less one, seven bits at a time (lowest
+	 *	first) with the top bit set on all but the last. The buffer grows as
+	 *	needed, so a recording can be as long as memory allows.
 	 */
-	private final int size;
+	private byte[] memory;
 	
 	/**
-	 *	Record buffer for the joystick state.
+	 *	Number of encoded bytes in the buffer.
 	 */
-	private final byte[] memory;
+	private int length = 0;
 	
 	/**
-	 *	Position in record buffer.
+	 *	Position in the encoded buffer during playback.
+	 */
+	private int pos = 0;
+	
+	/**
+	 *	Ticks recorded or played since the last rewind.
 	 */
 	private int tick = 0;
 	
+	/**
+	 *	Total ticks in the recording.
+	 */
+	private int ticks = 0;
+	
+	/**
+	 *	State of the current run.
+	 */
+	private int runState = 0;
+	
+	/**
+	 *	Ticks in the current run so far when recording, or still to play
+	 *	when playing back.
+	 */
+	private int runLength = 0;
+	
+	/**
+	 *	Whether the recording fitted in memory.
+	 */
+	private boolean valid = true;
+	
+	/**
+	 *	Set whilst recording, until the last run is written.
+	 */
+	private boolean recording = false;
+	
 	/**
 	 *	Creates a new joystick without recording capabilities.
 	 */
@@ -35,12 +69,11 @@ public final class Joystick {
 	}
 	
 	/**
-	 *	Creates a new joystick capabable of recording the specified number of
-	 *	game ticks..
+	 *	Creates a new joystick capable of recording, starting with a buffer
+	 *	of <code>size</code> bytes (grown if a recording needs more).
 	 */
 	public Joystick(int size) {
-		this.size = size;
-		memory = new byte[size];
+		memory = (size > 0) ? new byte[size] : null;
 	}
 	
 	/**
@@ -54,14 +87,24 @@ public final class Joystick {
 	 *	Sets recording or playback to the start.
 	 */
 	public void rewind() {
+		finish();
 		tick = 0;
+		pos  = 0;
+		runLength = 0;
 	}
 	
 	/**
-	 *	Returns whether the previous recording was within the buffer's bounds.	
+	 *	Returns whether the previous recording fitted in memory.
 	 */
 	public boolean isValid() {
-		return tick < size;
+		return valid;
+	}
+	
+	/**
+	 *	Returns the number of ticks in the recording.
+	 */
+	public int getTicks() {
+		return ticks;
 	}
 	
 	/**
@@ -70,22 +113,45 @@ public final class Joystick {
 	 *	using the 'state' member variable.
 	 */
 	public int grabFrame() {
-		if (tick < size) {
-			return memory[tick++] = (byte) (state & RECORD_MASK);
-		} else {
+		if (memory == null) {
 			return state;
 		}
+		if (tick == 0) {
+			length = 0;
+			ticks  = 0;
+			valid  = true;
+		}
+		recording = true;
+		if (!valid) {
+			return state;
+		}
+		int frame = state & RECORD_MASK;
+		if (runLength > 0 && frame != runState) {
+			endRun();
+			if (!valid) {
+				return state;
+			}
+		}
+		runState = frame;
+		runLength++;
+		ticks = ++tick;
+		return frame;
 	}
 	
 	/**
 	 *	Advances playback to the next frame.
 	 */
 	public int nextFrame() {
-		if (tick < size) {
-			return state = memory[tick++] & 0xFF;
-		} else {
-			return 0;
+		if (runLength == 0) {
+			if (pos >= length) {
+				return 0;
+			}
+			runState  = memory[pos++] & RECORD_MASK;
+			runLength = readLength() + 1;
 		}
+		runLength--;
+		tick++;
+		return state = runState;
 	}
 	
 	/**
@@ -96,34 +162,131 @@ public final class Joystick {
 	}
 	
 	/**
-	 *	Loads the memory contents from another Joystick.
+	 *	Loads the recording from another Joystick.
 	 */
 	public void load(Joystick that) {
-		System.arraycopy(that.memory, 0, memory, 0, memory.length);
+		that.finish();
+		if (!ensure(that.length)) {
+			return;
+		}
+		System.arraycopy(that.memory, 0, memory, 0, that.length);
+		length = that.length;
+		ticks  = that.ticks;
+		valid  = that.valid;
+		rewind();
 	}
 	
 	/**
-	 *	Saves the contents of the memory plus the current recording position.
+	 *	Ends the recording (the last run is only written once it's known to
+	 *	have ended), returning the number of bytes <code>save()</code> will
+	 *	use.
+	 */
+	public int finish() {
+		if (recording) {
+			recording = false;
+			if (runLength > 0 && valid) {
+				endRun();
+			}
+		}
+		return 8 + length;
+	}
+	
+	/**
+	 *	Saves the recording: the number of ticks and encoded bytes, then the
+	 *	encoded runs.
 	 *
-	 *	TODO: save only the number of bytes necessary
+	 *	@return the index after the saved data
 	 */
 	public int save(byte[] data, int n) {
-		ByteUtils.shortToBytes(data, n, tick);
-		n += 2;
-		System.arraycopy(memory, 0, data, n, memory.length);
-		return n + memory.length;
+		finish();
+		ByteUtils.intToBytes(data, n, ticks);
+		ByteUtils.intToBytes(data, n + 4, length);
+		n += 8;
+		if (length > 0) {
+			System.arraycopy(memory, 0, data, n, length);
+		}
+		return n + length;
 	}
 	
 	/**
-	 *	Loads the contents of the memory plus the current recording position.
+	 *	Loads a recording saved with <code>save()</code>, ready for playback.
 	 *
-	 *	TODO: load only the number of bytes necessary (see 'save')
+	 *	@return the index after the loaded data, or -1 if the data is invalid
+	 *	(or too large to fit in memory)
 	 */
 	public int load(byte[] data, int n) {
-		tick = ByteUtils.bytesToUnsignedShort(data, n);
-		n += 2;
-		System.arraycopy(data, n, memory, 0, memory.length);
-		return n + memory.length;
+		rewind();
+		length = 0;
+		ticks  = 0;
+		if (n + 8 > data.length) {
+			return -1;
+		}
+		int numTicks = ByteUtils.bytesToInt(data, n);
+		int size     = ByteUtils.bytesToInt(data, n + 4);
+		n += 8;
+		if (numTicks < 0 || size < 0 || size > data.length - n || !ensure(size)) {
+			return -1;
+		}
+		System.arraycopy(data, n, memory, 0, size);
+		length = size;
+		ticks  = numTicks;
+		valid  = true;
+		return n + size;
+	}
+	
+	/**
+	 *	Writes the current run to the buffer.
+	 */
+	private void endRun() {
+		int run = runLength - 1;
+		runLength = 0;
+		if (!ensure(length + 6)) {
+			valid = false;
+			return;
+		}
+		memory[length++] = (byte) runState;
+		while (run > 0x7F) {
+			memory[length++] = (byte) (run | 0x80);
+			run >>>= 7;
+		}
+		memory[length++] = (byte) run;
+	}
+	
+	/**
+	 *	Reads a run's length (less one) during playback.
+	 */
+	private int readLength() {
+		int run = 0;
+		for (int shift = 0; pos < length && shift < 32; shift += 7) {
+			int b = memory[pos++];
+			run |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		return run;
+	}
+	
+	/**
+	 *	Grows the buffer to hold at least <code>size</code> bytes, keeping
+	 *	what's already encoded.
+	 *
+	 *	@return whether there was enough memory
+	 */
+	private boolean ensure(int size) {
+		if (memory != null && size <= memory.length) {
+			return true;
+		}
+		try {
+			byte[] temp = new byte[Math.max(size, (memory != null) ? memory.length * 2 : 0)];
+			if (memory != null) {
+				System.arraycopy(memory, 0, temp, 0, length);
+			}
+			memory = temp;
+		} catch (OutOfMemoryError e) {
+			return false;
+		}
+		return true;
 	}
 	
 	/**
@@ -0,0 +1,343 @@
+package numfum.j2me.util;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ *	<code>DataInput</code> reading resources packed with LZSS, unpacking as
+ *	it goes. Only the packed data and a small window of the most recently
+ *	unpacked bytes are held, so the track's arrays are filled straight from
+ *	the packed data without it ever being unpacked in full.
+ *
+ *	A packed resource starts with <code>MAGIC</code> and the unpacked size,
+ *	followed by groups of eight items, each group led by a byte of flags
+ *	(lowest bit first). A set flag is a literal byte, a clear one a two byte
+ *	match: 12 bits of offset back into the window (less one) and 4 bits of
+ *	length (less <code>MIN_MATCH</code>).
+ *
+ *	@see ByteDataInput
+ */
+public final class PackedDataInput implements DataInput {
+	/**
+	 *	Packed data being read.
+	 */
+	private final byte[] data;
+	
+	/**
+	 *	End of the packed data in the array.
+	 */
+	private final int limit;
+	
+	/**
+	 *	Position of the next packed byte.
+	 */
+	private int pos;
+	
+	/**
+	 *	Unpacked bytes still to read.
+	 */
+	private int remaining;
+	
+	/**
+	 *	Most recently unpacked bytes, which matches copy from.
+	 */
+	private final byte[] window = new byte[WINDOW_SIZE];
+	
+	/**
+	 *	Where the next unpacked byte goes in the window.
+	 */
+	private int winPos = 0;
+	
+	/**
+	 *	Flags for the current group, shifted down as they're used.
+	 */
+	private int flags = 0;
+	
+	/**
+	 *	Flags left in the current group.
+	 */
+	private int flagsLeft = 0;
+	
+	/**
+	 *	Bytes left to copy of the current match, and where from.
+	 */
+	private int matchLen = 0;
+	private int matchPos = 0;
+	
+	/**
+	 *	Reads packed data from part of an array, starting after the header.
+	 */
+	private PackedDataInput(byte[] data, int offset, int length, int size) {
+		this.data = data;
+		pos   = offset;
+		limit = offset + length;
+		remaining = size;
+	}
+	
+	/**
+	 *	Reads the whole of a resource, unpacking it as it's read if it was
+	 *	packed (otherwise the data is read as is).
+	 *
+	 *	@throws IOException if the resource doesn't exist
+	 */
+	public static DataInput open(String resource) throws IOException {
+		ByteDataInput in = ByteDataInput.open(resource);
+		return wrap(in.getData(), 0, in.available());
+	}
+	
+	/**
+	 *	Reads the whole of a resource into an array, unpacking it if it was
+	 *	packed, for data that's parsed more than once.
+	 *
+	 *	@throws IOException if the resource doesn't exist
+	 */
+	public static ByteDataInput unpack(String resource) throws IOException {
+		ByteDataInput in = ByteDataInput.open(resource);
+		byte[] data = in.getData();
+		int length  = in.available();
+		if (length >= HEADER_SIZE && ByteUtils.bytesToInt(data, 0) == MAGIC) {
+			PackedDataInput packed = new PackedDataInput(data, HEADER_SIZE, length - HEADER_SIZE, ByteUtils.bytesToInt(data, 4));
+			byte[] unpacked = new byte[packed.available()];
+			packed.readFully(unpacked);
+			return new ByteDataInput(unpacked);
+		}
+		return in;
+	}
+	
+	/**
+	 *	Reads part of an array, unpacking it if it holds a packed resource
+	 *	(the array isn't copied either way).
+	 */
+	public static DataInput wrap(byte[] data, int offset, int length) {
+		if (length >= HEADER_SIZE && ByteUtils.bytesToInt(data, offset) == MAGIC) {
+			return new PackedDataInput(data, offset + HEADER_SIZE, length - HEADER_SIZE, ByteUtils.bytesToInt(data, offset + 4));
+		}
+		return new ByteDataInput(data, offset, length);
+	}
+	
+	/**
+	 *	Returns the number of unpacked bytes left to read.
+	 */
+	public int available() {
+		return remaining;
+	}
+	
+	/**
+	 *	Unpacks the next byte.
+	 */
+	private int next() throws EOFException {
+		if (remaining <= 0) {
+			throw new EOFException();
+		}
+		remaining--;
+		byte b;
+		if (matchLen > 0) {
+			b = window[matchPos];
+			matchPos = (matchPos + 1) & WINDOW_MASK;
+			matchLen--;
+		} else {
+			if (flagsLeft == 0) {
+				if (pos >= limit) {
+					throw new EOFException();
+				}
+				flags = data[pos++];
+				flagsLeft = 8;
+			}
+			flagsLeft--;
+			boolean literal = (flags & 1) != 0;
+			flags >>= 1;
+			if (literal) {
+				if (pos >= limit) {
+					throw new EOFException();
+				}
+				b = data[pos++];
+			} else {
+				if (pos + 2 > limit) {
+					throw new EOFException();
+				}
+				int hi = data[pos++] & 0xFF;
+				int lo = data[pos++] & 0xFF;
+				matchPos = (winPos - ((hi << 4 | lo >> 4) + 1)) & WINDOW_MASK;
+				matchLen = (lo & 0x0F) + MIN_MATCH - 1;
+				b = window[matchPos];
+				matchPos = (matchPos + 1) & WINDOW_MASK;
+			}
+		}
+		window[winPos] = b;
+		winPos = (winPos + 1) & WINDOW_MASK;
+		return b;
+	}
+	
+	/**
+	 *	Unpacks a run of bytes into an array, or only into the window if the
+	 *	array is <code>null</code> (for skipping). Does the same as calling
+	 *	<code>next()</code> for each byte but with the state kept in locals
+	 *	for the whole run, and each match copied in one go, since most of a
+	 *	track is read this way.
+	 */
+	private void unpack(byte[] b, int off, int len) throws EOFException {
+		if (len > remaining) {
+			throw new EOFException();
+		}
+		final byte[] data   = this.data;
+		final byte[] window = this.window;
+		int pos       = this.pos;
+		int winPos    = this.winPos;
+		int flags     = this.flags;
+		int flagsLeft = this.flagsLeft;
+		int matchLen  = this.matchLen;
+		int matchPos  = this.matchPos;
+		remaining -= len;
+		while (len > 0) {
+			if (matchLen > 0) {
+				int run = Math.min(matchLen, len);
+				matchLen -= run;
+				len      -= run;
+				if (b != null) {
+					for (; run > 0; run--) {
+						byte v = window[matchPos];
+						matchPos = (matchPos + 1) & WINDOW_MASK;
+						window[winPos] = v;
+						winPos = (winPos + 1) & WINDOW_MASK;
+						b[off++] = v;
+					}
+				} else {
+					for (; run > 0; run--) {
+						window[winPos] = window[matchPos];
+						matchPos = (matchPos + 1) & WINDOW_MASK;
+						winPos   = (winPos   + 1) & WINDOW_MASK;
+					}
+				}
+				continue;
+			}
+			if (flagsLeft == 0) {
+				if (pos >= limit) {
+					throw new EOFException();
+				}
+				flags = data[pos++];
+				flagsLeft = 8;
+			}
+			flagsLeft--;
+			boolean literal = (flags & 1) != 0;
+			flags >>= 1;
+			if (literal) {
+				if (pos >= limit) {
+					throw new EOFException();
+				}
+				byte v = data[pos++];
+				window[winPos] = v;
+				winPos = (winPos + 1) & WINDOW_MASK;
+				if (b != null) {
+					b[off++] = v;
+				}
+				len--;
+			} else {
+				if (pos + 2 > limit) {
+					throw new EOFException();
+				}
+				int hi = data[pos++] & 0xFF;
+				int lo = data[pos++] & 0xFF;
+				matchPos = (winPos - ((hi << 4 | lo >> 4) + 1)) & WINDOW_MASK;
+				matchLen = (lo & 0x0F) + MIN_MATCH;
+			}
+		}
+		this.pos       = pos;
+		this.winPos    = winPos;
+		this.flags     = flags;
+		this.flagsLeft = flagsLeft;
+		this.matchLen  = matchLen;
+		this.matchPos  = matchPos;
+	}
+	
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+	
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		unpack(b, off, len);
+	}
+	
+	public int skipBytes(int n) throws IOException {
+		n = Math.max(Math.min(n, remaining), 0);
+		unpack(null, 0, n);
+		return n;
+	}
+	
+	public boolean readBoolean() throws IOException {
+		return next() != 0;
+	}
+	
+	public byte readByte() throws IOException {
+		return (byte) next();
+	}
+	
+	public int readUnsignedByte() throws IOException {
+		return next() & 0xFF;
+	}
+	
+	public short readShort() throws IOException {
+		return (short) (next() << 8 | (next() & 0xFF));
+	}
+	
+	public int readUnsignedShort() throws IOException {
+		return (next() & 0xFF) << 8 | (next() & 0xFF);
+	}
+	
+	public char readChar() throws IOException {
+		return (char) readUnsignedShort();
+	}
+	
+	public int readInt() throws IOException {
+		return next() << 24 | (next() & 0xFF) << 16 | (next() & 0xFF) << 8 | (next() & 0xFF);
+	}
+	
+	public long readLong() throws IOException {
+		return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+	}
+	
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+	
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+	
+	public String readLine() throws IOException {
+		throw new IOException();
+	}
+	
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+	
+	/**
+	 *	Marks a packed resource ("LZS" then the format version).
+	 */
+	public static final int MAGIC = 0x4C5A5301;
+	
+	/**
+	 *	Bytes before the packed data (the magic then the unpacked size).
+	 */
+	public static final int HEADER_SIZE = 8;
+	
+	/**
+	 *	Size of the window matches copy from (the furthest back a match can
+	 *	reach).
+	 */
+	public static final int WINDOW_SIZE = 4096;
+	
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	
+	/**
+	 *	Shortest match stored (anything shorter is cheaper as literals).
+	 */
+	public static final int MIN_MATCH = 3;
+	
+	/**
+	 *	Longest match stored.
+	 */
+	public static final int MAX_MATCH = MIN_MATCH + 15;
+}
@@ -0,0 +1,102 @@
+package numfum.j2me.jsr.tools;
+
+import java.io.IOException;
+
+import numfum.j2me.jsr.RaceCore;
+import numfum.j2me.jsr.RaceRecording;
+import numfum.j2me.jsr.TrackRenderer;
+import numfum.j2me.jsr.generic.FrameBuffer;
+
+/**
+ *	Renders whole segments of a race, each starting from the race state
+ *	saved at the segment's first tick. Every worker has its own renderer and
+ *	race logic, so segments are played out independently of the others.
+ */
+final class ExportWorker extends Thread {
+	private final ReplayExport export;
+	
+	private final RaceRecording recording;
+	
+	private final TrackRenderer track;
+	
+	private final RaceCore core;
+	
+	private final FrameBuffer frame;
+	
+	/**
+	 *	Joystick state passed to the race logic.
+	 */
+	private final int[] joy = new int[RaceCore.MAX_KARTS];
+	
+	/**
+	 *	Number of times the renderer has been cycled, used to bring the
+	 *	animated tiles in line with each segment before it's played.
+	 */
+	private int cycles;
+	
+	/**
+	 *	Set if this worker stopped because of an error.
+	 */
+	Throwable error = null;
+	
+	ExportWorker(ReplayExport export, RaceRecording recording, int w, int h) throws IOException {
+		this.export = export;
+		this.recording = recording;
+		track = export.createRenderer(w, h);
+		core  = new RaceCore(track, export, export.kartProps);
+		core.load("/" + recording.trackNum + ".trk");
+		recording.init(core);
+		cycles = 1; // init() renders the first frame
+		frame = new FrameBuffer(w, h);
+	}
+	
+	public void run() {
+		try {
+			int segment;
+			while ((segment = export.nextSegment()) >= 0) {
+				if (!render(segment)) {
+					break;
+				}
+			}
+		} catch (Throwable e) {
+			error = e;
+			export.abort();
+		}
+	}
+	
+	/**
+	 *	Plays out a segment, passing each frame to the output.
+	 *
+	 *	@return <code>false</code> if the export was abandoned
+	 */
+	private boolean render(int segment) throws InterruptedException {
+		int start = segment * ReplayExport.SEGMENT_TICKS;
+		int end   = Math.min(start + ReplayExport.SEGMENT_TICKS, recording.getTicks());
+		core.load(export.getKeyframe(segment), 0);
+		/*
+		 *	Segments are taken in order so the renderer only ever needs
+		 *	cycling forward.
+		 */
+		for (; cycles < start + 1; cycles++) {
+			track.cycle();
+		}
+		for (int tick = start; tick < end; tick++) {
+			core.render(recording.run(core, tick, joy));
+			cycles++;
+			int first = export.getFrameAt(tick);
+			int last  = export.getFrameAt(tick + 1);
+			if (first < last) {
+				track.present();
+				frame.clear(0);
+				track.paint(frame, 0, 0);
+				byte[] data = export.encode(frame);
+				for (int n = first; n < last; n++) {
+					if (!export.output.put(n, data)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+}
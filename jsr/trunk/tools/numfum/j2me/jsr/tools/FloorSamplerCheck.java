@@ -0,0 +1,264 @@
+package numfum.j2me.jsr.tools;
+
+import java.io.*;
+
+import numfum.j2me.jsr.Kart;
+import numfum.j2me.jsr.Player;
+import numfum.j2me.jsr.RaceChrome;
+import numfum.j2me.jsr.RaceCore;
+import numfum.j2me.jsr.RaceRecording;
+import numfum.j2me.jsr.generic.FrameBuffer;
+import numfum.j2me.jsr.generic.bkgnd.ContinuousTiledLayer;
+import numfum.j2me.jsr.renderer.TrackRendererMode7;
+import numfum.j2me.util.PackedDataInput;
+import numfum.j2me.util.Vector2D;
+
+/**
+ *	Checks the mode-7 floor samplers draw exactly the same frames. Each race
+ *	is played out on two sets of race logic, one drawn with the original
+ *	unrolled floor loop (<code>FLOOR_SAMPLER_UNROLLED</code>) and one with
+ *	the lane-wise rewrite (<code>FLOOR_SAMPLER_LANES</code>), and every
+ *	pixel of every tick's frame compared. Any rewrite of the floor code
+ *	should be run through this before being committed:
+ *
+ *	<pre>
+ *	java FloorSamplerCheck [recording...] [-tracks 0,1,9] [-ticks n] [-size WxH] [-save dir]
+ *	</pre>
+ *
+ *	The races are <code>RaceRecording</code>s, as saved by the game with
+ *	<code>Replay-Record</code> turned on, so the camera follows real race
+ *	lines. Without any, a race is recorded for each of the tracks with
+ *	every kart driven by the AI, the camera switching between following the
+ *	player, the static trackside cameras (which look along the track edges
+ *	and out at the horizon) and stopping dead. These can be kept with
+ *	<code>-save</code> to check against again later.
+ *
+ *	Exits with a non-zero status, reporting the first differing pixel, if
+ *	any frame differs. Like <code>ReplayExport</code> this needs a MIDP
+ *	implementation and the game's resources on the class path.
+ */
+public final class FloorSamplerCheck implements RaceChrome {
+	/**
+	 *	Ticks spent on each camera when recording a race.
+	 */
+	private static final int TICKS_PER_CAMERA = 200;
+	
+	/**
+	 *	Cameras cycled through when recording a race.
+	 */
+	private static final int[] CAMERAS = {
+		RaceCore.USE_FOLLOW_CAM,
+		RaceCore.USE_STATIC_CAM,
+		RaceCore.USE_FOLLOW_CAM,
+		RaceCore.USE_FINISH_CAM,
+	};
+	
+	/**
+	 *	Size of the view drawn.
+	 */
+	private final int viewW, viewH;
+	
+	private final byte[][] kartProps = new byte[RaceCore.TOTAL_KARTS][Kart.TOTAL_PROPS];
+	
+	/**
+	 *	Frames drawn into, one per renderer.
+	 */
+	private final FrameBuffer frameA, frameB;
+	
+	FloorSamplerCheck(int viewW, int viewH) {
+		this.viewW = viewW;
+		this.viewH = viewH;
+		frameA = new FrameBuffer(viewW, viewH);
+		frameB = new FrameBuffer(viewW, viewH);
+	}
+	
+	/**
+	 *	Creates a smooth mode-7 renderer (as the game would for a screen of
+	 *	the same size) using the given floor sampler, then race logic with
+	 *	the track loaded. Both renderers are drawn in turn, so each has its
+	 *	own background buffers.
+	 */
+	private RaceCore createRaceCore(int sampler, int trackNum) throws IOException {
+		DataInput in = PackedDataInput.open("/ksb.dat");
+		if (in.readByte() != RaceCore.TOTAL_KARTS || in.readByte() != Kart.TOTAL_PROPS) {
+			throw new IOException("Dodgy kart data");
+		}
+		for (int n = 0; n < RaceCore.TOTAL_KARTS; n++) {
+			in.readFully(kartProps[n]);
+		}
+		int floorH;
+		if (viewH < 256) {
+			floorH = (viewH - 128) / 5 + 64;
+		} else {
+			floorH = (viewH *   2) / 5;
+		}
+		if ((TrackRendererMode7.BKGND_ROWS - 1) * ContinuousTiledLayer.TILE_H + floorH < viewH) {
+			floorH = viewH - (TrackRendererMode7.BKGND_ROWS - 1) * ContinuousTiledLayer.TILE_H;
+		}
+		TrackRendererMode7 mode7 = new TrackRendererMode7(viewW, viewH, floorH, false, 0, in, true, true);
+		mode7.setFloorSampler(sampler);
+		mode7.setFrameBudget(0); // the quality mustn't drift between the two
+		RaceCore core = new RaceCore(mode7, this, kartProps);
+		core.load(PackedDataInput.open("/" + trackNum + ".trk"));
+		return core;
+	}
+	
+	/**
+	 *	Records a race of the given length on a track, with every kart driven
+	 *	by the AI and the camera switched every <code>TICKS_PER_CAMERA</code>.
+	 */
+	RaceRecording record(int trackNum, int ticks) throws IOException {
+		RaceCore core = createRaceCore(TrackRendererMode7.FLOOR_SAMPLER_UNROLLED, trackNum);
+		Player[] player = new Player[RaceCore.MAX_KARTS];
+		for (int n = 0; n < RaceCore.MAX_KARTS; n++) {
+			player[n] = new Player(n);
+			player[n].reset(n, false, n);
+		}
+		long seed = trackNum + 1;
+		RaceRecording recording = new RaceRecording();
+		recording.start(trackNum, seed, false, RaceCore.MAX_KARTS, player, 0, RaceCore.MAX_LAPS, true, true);
+		recording.init(core);
+		
+		int[] joy = new int[RaceCore.MAX_KARTS];
+		for (int n = 0; n < RaceCore.MAX_KARTS; n++) {
+			joy[n] = -1;
+		}
+		for (int tick = 0; tick < ticks; tick++) {
+			int camType = CAMERAS[(tick / TICKS_PER_CAMERA) % CAMERAS.length];
+			recording.record(core, camType, true, true, joy);
+			core.loop(joy, true);
+			core.skip(camType);
+		}
+		return recording;
+	}
+	
+	/**
+	 *	Plays a recorded race on both samplers, comparing each tick's frame.
+	 *
+	 *	@return whether every frame matched
+	 */
+	boolean check(RaceRecording recording, String name) throws IOException {
+		RaceCore a = createRaceCore(TrackRendererMode7.FLOOR_SAMPLER_UNROLLED, recording.trackNum);
+		RaceCore b = createRaceCore(TrackRendererMode7.FLOOR_SAMPLER_LANES,    recording.trackNum);
+		recording.init(a);
+		recording.init(b);
+		int[] joy = new int[RaceCore.MAX_KARTS];
+		for (int tick = 0; tick < recording.getTicks(); tick++) {
+			a.render(recording.run(a, tick, joy));
+			b.render(recording.run(b, tick, joy));
+			if (!compare(a, b)) {
+				System.err.println(name + ": tick " + tick + " differs");
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 *	Paints both renderers' current frames and compares them, reporting
+	 *	the first pixel that differs.
+	 */
+	private boolean compare(RaceCore a, RaceCore b) {
+		a.getTrack().present();
+		b.getTrack().present();
+		frameA.clear(0);
+		frameB.clear(0);
+		a.getTrack().paint(frameA, 0, 0);
+		b.getTrack().paint(frameB, 0, 0);
+		int[] pixelsA = frameA.getPixels();
+		int[] pixelsB = frameB.getPixels();
+		for (int i = 0; i < pixelsA.length; i++) {
+			if (pixelsA[i] != pixelsB[i]) {
+				System.err.println("Pixel " + (i % viewW) + "," + (i / viewW) + " is " + Integer.toHexString(pixelsB[i]) + " not " + Integer.toHexString(pixelsA[i]));
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public void init(int maxLaps, int mapIdx, int playerIdx) {}
+	
+	public void setMapBlips(Vector2D[] kartPos, int numKarts) {}
+	
+	public void setStats(int time, int posn, int laps, int pick, int powrState, int powrPayout, int powrCharIdx) {}
+	
+	public void setBest(int best) {}
+	
+	/**
+	 *	Usage: <code>FloorSamplerCheck [recording...] [-tracks n,n...]
+	 *	[-ticks n] [-size WxH] [-save dir]</code>
+	 */
+	public static void main(String[] args) throws Exception {
+		String tracks = "0,1,9";
+		int ticks = TICKS_PER_CAMERA * CAMERAS.length * 2;
+		int w = 176;
+		int h = 208;
+		File saveDir = null;
+		String[] files = new String[args.length];
+		int numFiles = 0;
+		for (int n = 0; n < args.length; n++) {
+			String opt = args[n];
+			if (!opt.startsWith("-")) {
+				files[numFiles++] = opt;
+				continue;
+			}
+			if (++n >= args.length) {
+				break;
+			}
+			String val = args[n];
+			if (opt.equals("-tracks")) {
+				tracks = val;
+			} else if (opt.equals("-ticks")) {
+				ticks = Integer.parseInt(val);
+			} else if (opt.equals("-size")) {
+				int x = val.indexOf('x');
+				w = Integer.parseInt(val.substring(0, x));
+				h = Integer.parseInt(val.substring(x + 1));
+			} else if (opt.equals("-save")) {
+				saveDir = new File(val);
+				saveDir.mkdirs();
+			}
+		}
+		
+		FloorSamplerCheck check = new FloorSamplerCheck(w, h);
+		boolean passed = true;
+		if (numFiles > 0) {
+			for (int n = 0; n < numFiles; n++) {
+				RaceRecording recording = new RaceRecording();
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(files[n])));
+				recording.load(in);
+				in.close();
+				passed &= check.run(recording, files[n]);
+			}
+		} else {
+			int start = 0;
+			while (start <= tracks.length()) {
+				int end = tracks.indexOf(',', start);
+				if (end < 0) {
+					end = tracks.length();
+				}
+				int trackNum = Integer.parseInt(tracks.substring(start, end).trim());
+				RaceRecording recording = check.record(trackNum, ticks);
+				if (saveDir != null) {
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(saveDir, trackNum + ".rec"))));
+					recording.save(out);
+					out.close();
+				}
+				passed &= check.run(recording, "Track " + trackNum);
+				start = end + 1;
+			}
+		}
+		System.exit(passed ? 0 : 1);
+	}
+	
+	/**
+	 *	Checks a recording, reporting the result.
+	 */
+	private boolean run(RaceRecording recording, String name) throws IOException {
+		if (check(recording, name)) {
+			System.err.println(name + ": " + recording.getTicks() + " frames identical");
+			return true;
+		}
+		return false;
+	}
+}
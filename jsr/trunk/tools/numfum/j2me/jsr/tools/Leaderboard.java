@@ -0,0 +1,458 @@
+package numfum.j2me.jsr.tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import numfum.j2me.jsr.Constants;
+import numfum.j2me.jsr.RaceCore;
+
+/**
+ *	Time trial leaderboards for the server, one for each kart on each track,
+ *	kept in a memory-mapped file so the heap stays the same size however
+ *	many results there are:
+ *
+ *	<pre>
+ *	java Leaderboard file create [tracks karts top players]
+ *	java Leaderboard file submit track kart player time
+ *	java Leaderboard file top track kart [from count]
+ *	java Leaderboard file rank track kart time
+ *	</pre>
+ *
+ *	Only each player's best time counts. Every board has a count of the
+ *	best times set, indexed by time (race times are unsigned shorts, as kept
+ *	by the game) in a Fenwick tree, so submitting and ranking any time take
+ *	a handful of steps however many players there are. The fastest
+ *	<code>top</code> times are also kept in order, with the player and date,
+ *	for reading a page at a time. Each player's best on each board is found
+ *	through an open-addressed hash table.
+ *
+ *	The file is laid out as a header, then each board (the tree followed by
+ *	the count and entries of the top times), then the hash table. Its size
+ *	is fixed when created, with <code>submit()</code> failing once the hash
+ *	table is three quarters full.
+ */
+public final class Leaderboard {
+	/**
+	 *	Number of different race times.
+	 */
+	public static final int TIME_RANGE = 1 << 16;
+	
+	private final RandomAccessFile file;
+	
+	private final MappedByteBuffer map;
+	
+	private final int tracks;
+	
+	private final int karts;
+	
+	/**
+	 *	Number of times listed in order on each board.
+	 */
+	private final int top;
+	
+	/**
+	 *	Slots in the hash table (a power of two).
+	 */
+	private final int slots;
+	
+	/**
+	 *	Bytes taken by each board.
+	 */
+	private final int boardSize;
+	
+	/**
+	 *	Offset of the hash table.
+	 */
+	private final int hashStart;
+	
+	private Leaderboard(RandomAccessFile file, MappedByteBuffer map) throws IOException {
+		this.file = file;
+		this.map  = map;
+		if (map.getInt(HEAD_MAGIC) != MAGIC || map.getInt(HEAD_VERSION) != VERSION) {
+			throw new IOException("Not a leaderboard");
+		}
+		tracks = map.getInt(HEAD_TRACKS);
+		karts  = map.getInt(HEAD_KARTS);
+		top    = map.getInt(HEAD_TOP);
+		slots  = map.getInt(HEAD_SLOTS);
+		boardSize = boardSize(top);
+		hashStart = HEADER_SIZE + tracks * karts * boardSize;
+		if (map.capacity() != fileSize(tracks, karts, top, slots)) {
+			throw new IOException("Leaderboard truncated");
+		}
+	}
+	
+	/**
+	 *	Creates an empty leaderboard file, replacing any already there.
+	 *
+	 *	@param top number of times listed on each board
+	 *	@param players number of different players expected on each board
+	 *	(with all boards sharing the space)
+	 */
+	public static Leaderboard create(File path, int tracks, int karts, int top, int players) throws IOException {
+		int slots = Integer.highestOneBit(Math.max(players * 4 / 3, 16) - 1) << 1;
+		long size = fileSize(tracks, karts, top, slots);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Leaderboard too large: " + size + " bytes");
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(0);
+			file.setLength(size);
+			MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			map.putInt(HEAD_MAGIC,   MAGIC);
+			map.putInt(HEAD_VERSION, VERSION);
+			map.putInt(HEAD_TRACKS,  tracks);
+			map.putInt(HEAD_KARTS,   karts);
+			map.putInt(HEAD_TOP,     top);
+			map.putInt(HEAD_SLOTS,   slots);
+			return new Leaderboard(file, map);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 *	Opens an existing leaderboard file.
+	 */
+	public static Leaderboard open(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+			return new Leaderboard(file, map);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 *	Records a player's time, if it beats their best on the board.
+	 *
+	 *	@param date when the time was set (in whatever units the server uses)
+	 *	@return the player's position on the board (zero being fastest)
+	 */
+	public synchronized int submit(int track, int kart, long player, int time, int date) throws IOException {
+		int board = board(track, kart);
+		checkTime(time);
+		int slot = findSlot(board, player);
+		int pos  = hashStart + slot * SLOT_SIZE;
+		int best = -1;
+		if (map.getInt(pos + SLOT_BOARD) == 0) {
+			if (map.getInt(HEAD_USED) >= slots / 4 * 3) {
+				throw new IOException("Leaderboard full");
+			}
+			map.putInt(HEAD_USED, map.getInt(HEAD_USED) + 1);
+			map.putLong(pos + SLOT_PLAYER, player);
+			map.putInt(pos + SLOT_BOARD, board + 1);
+		} else {
+			best = map.getInt(pos + SLOT_TIME);
+			if (best <= time) {
+				return rank(track, kart, best);
+			}
+		}
+		map.putInt(pos + SLOT_TIME, time);
+		
+		int start = board * boardSize;
+		if (best >= 0) {
+			treeAdd(start, best, -1);
+			removeTop(start, player, best);
+		}
+		treeAdd(start, time, 1);
+		insertTop(start, player, time, date);
+		return rank(track, kart, time);
+	}
+	
+	/**
+	 *	Returns the number of players with a best time faster than the time
+	 *	given, which is where the time would be placed on the board.
+	 */
+	public synchronized int rank(int track, int kart, int time) {
+		int start = board(track, kart) * boardSize;
+		checkTime(time);
+		int sum = 0;
+		for (int n = time; n > 0; n -= n & -n) {
+			sum += map.getInt(start + HEADER_SIZE + n * 4);
+		}
+		return sum;
+	}
+	
+	/**
+	 *	Returns the number of players with a time on the board.
+	 */
+	public synchronized int count(int track, int kart) {
+		int start = board(track, kart) * boardSize;
+		int sum = 0;
+		for (int n = TIME_RANGE; n > 0; n -= n & -n) {
+			sum += map.getInt(start + HEADER_SIZE + n * 4);
+		}
+		return sum;
+	}
+	
+	/**
+	 *	Returns a player's best time on the board, or -1 if they haven't set
+	 *	one.
+	 */
+	public synchronized int getBest(int track, int kart, long player) {
+		int pos = hashStart + findSlot(board(track, kart), player) * SLOT_SIZE;
+		if (map.getInt(pos + SLOT_BOARD) == 0) {
+			return -1;
+		}
+		return map.getInt(pos + SLOT_TIME);
+	}
+	
+	/**
+	 *	Reads a page of the fastest times on a board, from the position given.
+	 *	Any of the arrays may be <code>null</code> if not wanted.
+	 *
+	 *	@return the number of entries read (fewer than asked for once the end
+	 *	of the listed times is reached)
+	 */
+	public synchronized int read(int track, int kart, int from, long[] player, int[] time, int[] date, int count) {
+		int start = board(track, kart) * boardSize + listStart();
+		int total = map.getInt(start);
+		count = Math.max(Math.min(count, total - from), 0);
+		for (int n = 0; n < count; n++) {
+			int pos = entry(start, from + n);
+			if (player != null) {
+				player[n] = map.getLong(pos + ENTRY_PLAYER);
+			}
+			if (time != null) {
+				time[n] = map.getInt(pos + ENTRY_TIME);
+			}
+			if (date != null) {
+				date[n] = map.getInt(pos + ENTRY_DATE);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 *	Writes any changes out to the file.
+	 */
+	public synchronized void flush() {
+		map.force();
+	}
+	
+	public synchronized void close() throws IOException {
+		map.force();
+		file.close();
+	}
+	
+	private int board(int track, int kart) {
+		if (track < 0 || track >= tracks || kart < 0 || kart >= karts) {
+			throw new IllegalArgumentException("No board for track " + track + ", kart " + kart);
+		}
+		return track * karts + kart;
+	}
+	
+	private static void checkTime(int time) {
+		if (time < 0 || time >= TIME_RANGE) {
+			throw new IllegalArgumentException("Time out of range: " + time);
+		}
+	}
+	
+	/**
+	 *	Adds to the count of players with a time (the tree being indexed from
+	 *	one, with a time's count held at <code>time + 1</code>).
+	 */
+	private void treeAdd(int start, int time, int delta) {
+		for (int n = time + 1; n <= TIME_RANGE; n += n & -n) {
+			int pos = start + HEADER_SIZE + n * 4;
+			map.putInt(pos, map.getInt(pos) + delta);
+		}
+	}
+	
+	/**
+	 *	Returns the hash table slot holding a player's best on a board, or the
+	 *	empty slot it would go in.
+	 */
+	private int findSlot(int board, long player) {
+		long hash = player * 0x9E3779B97F4A7C15L + board;
+		hash ^= hash >>> 32;
+		int slot = (int) hash & (slots - 1);
+		while (true) {
+			int pos = hashStart + slot * SLOT_SIZE;
+			int used = map.getInt(pos + SLOT_BOARD);
+			if (used == 0 || (used == board + 1 && map.getLong(pos + SLOT_PLAYER) == player)) {
+				return slot;
+			}
+			slot = (slot + 1) & (slots - 1);
+		}
+	}
+	
+	/**
+	 *	Returns the position in the list of the first time slower than the
+	 *	one given (so equal times stay in the order they were set).
+	 */
+	private int search(int list, int count, int time) {
+		int lo = 0;
+		int hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (map.getInt(entry(list, mid) + ENTRY_TIME) <= time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 *	Adds a time to the list of fastest, if it's fast enough.
+	 */
+	private void insertTop(int start, long player, int time, int date) {
+		int list  = start + listStart();
+		int count = map.getInt(list);
+		int n = search(list, count, time);
+		if (n >= top) {
+			return;
+		}
+		if (count == top) {
+			count--;
+		}
+		move(list, n, n + 1, count - n);
+		int pos = entry(list, n);
+		map.putLong(pos + ENTRY_PLAYER, player);
+		map.putInt (pos + ENTRY_TIME,   time);
+		map.putInt (pos + ENTRY_DATE,   date);
+		map.putInt(list, count + 1);
+	}
+	
+	/**
+	 *	Removes a player's previous best from the list of fastest, if it's
+	 *	there.
+	 */
+	private void removeTop(int start, long player, int time) {
+		int list  = start + listStart();
+		int count = map.getInt(list);
+		for (int n = search(list, count, time) - 1; n >= 0; n--) {
+			int pos = entry(list, n);
+			if (map.getInt(pos + ENTRY_TIME) != time) {
+				break;
+			}
+			if (map.getLong(pos + ENTRY_PLAYER) == player) {
+				move(list, n + 1, n, count - n - 1);
+				map.putInt(list, count - 1);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 *	Moves entries within a list.
+	 */
+	private void move(int list, int from, int to, int count) {
+		if (count > 0) {
+			ByteBuffer src = map.duplicate();
+			src.limit(entry(list, from + count));
+			src.position(entry(list, from));
+			byte[] temp = new byte[count * ENTRY_SIZE];
+			src.get(temp);
+			ByteBuffer dst = map.duplicate();
+			dst.position(entry(list, to));
+			dst.put(temp);
+		}
+	}
+	
+	private int listStart() {
+		return HEADER_SIZE + (TIME_RANGE + 1) * 4;
+	}
+	
+	private static int entry(int list, int n) {
+		return list + 4 + n * ENTRY_SIZE;
+	}
+	
+	private static int boardSize(int top) {
+		return (TIME_RANGE + 1) * 4 + 4 + top * ENTRY_SIZE;
+	}
+	
+	private static long fileSize(int tracks, int karts, int top, int slots) {
+		return HEADER_SIZE + (long) tracks * karts * boardSize(top) + (long) slots * SLOT_SIZE;
+	}
+	
+	/**
+	 *	Usage: <code>Leaderboard file command [args]</code>
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: Leaderboard file create [tracks karts top players]");
+			System.err.println("       Leaderboard file submit track kart player time");
+			System.err.println("       Leaderboard file top track kart [from count]");
+			System.err.println("       Leaderboard file rank track kart time");
+			System.exit(1);
+		}
+		File path = new File(args[0]);
+		String cmd = args[1];
+		if (cmd.equals("create")) {
+			int tracks  = (args.length > 2) ? Integer.parseInt(args[2]) : Constants.TOTAL_TRACKS;
+			int karts   = (args.length > 3) ? Integer.parseInt(args[3]) : RaceCore.TOTAL_KARTS;
+			int top     = (args.length > 4) ? Integer.parseInt(args[4]) : 100;
+			int players = (args.length > 5) ? Integer.parseInt(args[5]) : 1000000;
+			create(path, tracks, karts, top, players).close();
+			return;
+		}
+		Leaderboard board = open(path);
+		try {
+			int track = Integer.parseInt(args[2]);
+			int kart  = Integer.parseInt(args[3]);
+			if (cmd.equals("submit")) {
+				int date = (int) (System.currentTimeMillis() / 1000);
+				System.out.println(board.submit(track, kart, Long.parseLong(args[4]), Integer.parseInt(args[5]), date));
+			} else if (cmd.equals("top")) {
+				int from  = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+				int count = (args.length > 5) ? Integer.parseInt(args[5]) : 10;
+				long[] player = new long[count];
+				int[]  time   = new int [count];
+				int[]  date   = new int [count];
+				count = board.read(track, kart, from, player, time, date, count);
+				for (int n = 0; n < count; n++) {
+					System.out.println((from + n + 1) + "\t" + player[n] + "\t" + time[n] + "\t" + date[n]);
+				}
+			} else if (cmd.equals("rank")) {
+				System.out.println(board.rank(track, kart, Integer.parseInt(args[4])));
+			} else {
+				System.err.println("Unknown command: " + cmd);
+			}
+		} finally {
+			board.close();
+		}
+	}
+	
+	private static final int MAGIC   = 0x4A53524C; // JSRL
+	private static final int VERSION = 1;
+	
+	/**
+	 *	Header fields: magic, version, tracks, karts, top times listed, hash
+	 *	slots and hash slots used.
+	 */
+	private static final int HEAD_MAGIC   =  0;
+	private static final int HEAD_VERSION =  4;
+	private static final int HEAD_TRACKS  =  8;
+	private static final int HEAD_KARTS   = 12;
+	private static final int HEAD_TOP     = 16;
+	private static final int HEAD_SLOTS   = 20;
+	private static final int HEAD_USED    = 24;
+	private static final int HEADER_SIZE  = 32;
+	
+	/**
+	 *	Listed time entries: player, time and date.
+	 */
+	private static final int ENTRY_PLAYER = 0;
+	private static final int ENTRY_TIME   = 8;
+	private static final int ENTRY_DATE   = 12;
+	private static final int ENTRY_SIZE   = 16;
+	
+	/**
+	 *	Hash table slots: player, board (plus one, zero marking an empty slot)
+	 *	and best time.
+	 */
+	private static final int SLOT_PLAYER = 0;
+	private static final int SLOT_BOARD  = 8;
+	private static final int SLOT_TIME   = 12;
+	private static final int SLOT_SIZE   = 16;
+}
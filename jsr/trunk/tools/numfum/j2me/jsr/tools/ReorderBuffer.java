@@ -0,0 +1,91 @@
+package numfum.j2me.jsr.tools;
+
+/**
+ *	Hands frames finished out of order over to a single writer in order.
+ *	Only a fixed window of frames past the one the writer is waiting on can
+ *	be held, so workers running too far ahead wait rather than filling the
+ *	heap with frames that can't be written yet.
+ */
+public final class ReorderBuffer {
+	/**
+	 *	Frames waiting to be written, indexed by frame number modulo the
+	 *	window size.
+	 */
+	private final byte[][] slot;
+	
+	/**
+	 *	Frame number held in each slot, or -1 if empty.
+	 */
+	private final int[] held;
+	
+	/**
+	 *	Number of the next frame to be written.
+	 */
+	private int next = 0;
+	
+	/**
+	 *	Set if the export is being abandoned, releasing anything waiting.
+	 */
+	private boolean closed = false;
+	
+	/**
+	 *	Creates a buffer holding up to <code>size</code> frames.
+	 */
+	public ReorderBuffer(int size) {
+		slot = new byte[size][];
+		held = new int[size];
+		for (int n = 0; n < size; n++) {
+			held[n] = -1;
+		}
+	}
+	
+	/**
+	 *	Adds a finished frame, waiting until it's within the window.
+	 *
+	 *	@return <code>false</code> if the buffer was closed
+	 */
+	public synchronized boolean put(int frame, byte[] data) throws InterruptedException {
+		while (!closed && frame >= next + slot.length) {
+			wait();
+		}
+		if (closed) {
+			return false;
+		}
+		int n = frame % slot.length;
+		slot[n] = data;
+		held[n] = frame;
+		if (frame == next) {
+			notifyAll();
+		}
+		return true;
+	}
+	
+	/**
+	 *	Waits for the next frame in order, removing it from the buffer.
+	 *
+	 *	@return the frame or <code>null</code> if the buffer was closed
+	 */
+	public synchronized byte[] take() throws InterruptedException {
+		int n = next % slot.length;
+		while (!closed && held[n] != next) {
+			wait();
+		}
+		if (closed) {
+			return null;
+		}
+		byte[] data = slot[n];
+		slot[n] = null;
+		held[n] = -1;
+		next++;
+		notifyAll();
+		return data;
+	}
+	
+	/**
+	 *	Abandons the export, waking everything waiting on the buffer.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+}
@@ -0,0 +1,322 @@
+package numfum.j2me.jsr.tools;
+
+import java.io.*;
+
+import numfum.j2me.jsr.Constants;
+import numfum.j2me.jsr.Kart;
+import numfum.j2me.jsr.RaceChrome;
+import numfum.j2me.jsr.RaceCore;
+import numfum.j2me.jsr.RaceRecording;
+import numfum.j2me.jsr.TrackRenderer;
+import numfum.j2me.jsr.generic.FrameBuffer;
+import numfum.j2me.jsr.generic.bkgnd.ContinuousTiledLayer;
+import numfum.j2me.jsr.renderer.TrackRendererMode7;
+import numfum.j2me.jsr.renderer.TrackRendererTopdown;
+import numfum.j2me.util.PackedDataInput;
+import numfum.j2me.util.Vector2D;
+
+/**
+ *	Plays a recorded race back as fast as it can be drawn, writing every
+ *	frame out at any size and frame rate (for trailers, or for stepping
+ *	through what the AI got up to). Frames are written as raw 24-bit RGB,
+ *	either to a file or to standard output for piping into an encoder:
+ *
+ *	<pre>
+ *	java ReplayExport race.rec -size 640x480 -fps 30 | ffmpeg -f rawvideo -pix_fmt rgb24 -s 640x480 -r 30 -i - race.mp4
+ *	</pre>
+ *
+ *	or as numbered PPM images with <code>-ppm dir</code>.
+ *
+ *	The race is split into segments of <code>SEGMENT_TICKS</code>, each
+ *	starting from one of the recording's keyframes (recordings made without
+ *	them are first run through without drawing to fill them in). The
+ *	segments are then drawn in parallel, one per worker thread, each worker
+ *	picking up from the saved state and running the logic again as it
+ *	draws. Finished frames pass through a <code>ReorderBuffer</code> so
+ *	they're written in order however the workers finish.
+ *
+ *	This runs on the desktop so needs a MIDP implementation on the class
+ *	path for the images (and the game's resources for the track data). Only
+ *	the software renderers are supported, M3G needing a real display, and
+ *	the race chrome isn't drawn.
+ */
+public final class ReplayExport implements Constants, RaceChrome {
+	/**
+	 *	Ticks between each saved race state (the recording's keyframes).
+	 */
+	static final int SEGMENT_TICKS = RaceRecording.KEYFRAME_TICKS;
+	
+	/**
+	 *	Frames held waiting for an earlier one beyond a whole segment per
+	 *	worker, so a worker finishing a segment can start the next before
+	 *	the writer catches up.
+	 */
+	private static final int SLACK_FRAMES = 16;
+	
+	/**
+	 *	Renderers supported (the same as the game's).
+	 */
+	private static final int RENDERER_TOPDOWN = 0;
+	private static final int RENDERER_MODE7_SMOOTH = 1;
+	private static final int RENDERER_MODE7_CHUNKY = 2;
+	
+	private final RaceRecording recording;
+	
+	/**
+	 *	Output size and rate.
+	 */
+	private final int w, h, fps;
+	
+	/**
+	 *	Which renderer to use and its background.
+	 */
+	private final int renderer, bkgnd;
+	
+	final byte[][] kartProps = new byte[RaceCore.TOTAL_KARTS][Kart.TOTAL_PROPS];
+	
+	/**
+	 *	Next segment to hand to a worker.
+	 */
+	private int nextSegment = 0;
+	
+	/**
+	 *	Finished frames waiting to be written.
+	 */
+	ReorderBuffer output;
+	
+	private ReplayExport(RaceRecording recording, int w, int h, int fps, int renderer, int bkgnd) {
+		this.recording = recording;
+		this.w = w;
+		this.h = h;
+		this.fps = fps;
+		this.renderer = renderer;
+		this.bkgnd = bkgnd;
+	}
+	
+	/**
+	 *	Opens the kart data, reading the properties and leaving the stream
+	 *	at the renderer data.
+	 */
+	private DataInput openKartData() throws IOException {
+		DataInput in = PackedDataInput.open("/ksb.dat");
+		if (in.readByte() != RaceCore.TOTAL_KARTS || in.readByte() != Kart.TOTAL_PROPS) {
+			throw new IOException("Dodgy kart data");
+		}
+		for (int n = 0; n < RaceCore.TOTAL_KARTS; n++) {
+			in.readFully(kartProps[n]);
+		}
+		return in;
+	}
+	
+	/**
+	 *	Creates a renderer of the chosen type (as the game would for a
+	 *	screen of the same size). The workers draw at the same time, so each
+	 *	renderer's backgrounds have buffers of their own.
+	 */
+	TrackRenderer createRenderer(int viewW, int viewH) throws IOException {
+		DataInput in = openKartData();
+		if (renderer == RENDERER_TOPDOWN) {
+			return new TrackRendererTopdown(viewW, viewH, bkgnd, in, true, true);
+		}
+		int floorH;
+		if (viewH < 256) {
+			floorH = (viewH - 128) / 5 + 64;
+		} else {
+			floorH = (viewH *   2) / 5;
+		}
+		if ((TrackRendererMode7.BKGND_ROWS - 1) * ContinuousTiledLayer.TILE_H + floorH < viewH) {
+			floorH = viewH - (TrackRendererMode7.BKGND_ROWS - 1) * ContinuousTiledLayer.TILE_H;
+		}
+		return new TrackRendererMode7(viewW, viewH, floorH, renderer == RENDERER_MODE7_CHUNKY, bkgnd, in, true, true);
+	}
+	
+	/**
+	 *	Runs the race logic from start to finish if the recording is missing
+	 *	any of the keyframes the segments start from.
+	 */
+	private void simulate() throws IOException {
+		RaceCore core = new RaceCore(createRenderer(w, h), this, kartProps);
+		core.load("/" + recording.trackNum + ".trk");
+		recording.buildKeyframes(core);
+	}
+	
+	/**
+	 *	Returns the next segment for a worker to draw, or -1 once they're all
+	 *	taken.
+	 */
+	synchronized int nextSegment() {
+		if (nextSegment < recording.getKeyframes()) {
+			return nextSegment++;
+		}
+		return -1;
+	}
+	
+	byte[] getKeyframe(int segment) {
+		return recording.getKeyframe(segment);
+	}
+	
+	/**
+	 *	Returns the first output frame showing the given tick or later.
+	 */
+	int getFrameAt(int tick) {
+		return (int) (((long) tick * FRAME_DELAY * fps + 999) / 1000);
+	}
+	
+	/**
+	 *	Converts a frame to 24-bit RGB.
+	 */
+	byte[] encode(FrameBuffer frame) {
+		int[] pixels = frame.getPixels();
+		byte[] data = new byte[pixels.length * 3];
+		for (int n = 0, i = 0; n < pixels.length; n++) {
+			int argb = pixels[n];
+			data[i++] = (byte) (argb >> 16);
+			data[i++] = (byte) (argb >>  8);
+			data[i++] = (byte)  argb;
+		}
+		return data;
+	}
+	
+	/**
+	 *	Stops the workers and the writer.
+	 */
+	void abort() {
+		output.close();
+	}
+	
+	/**
+	 *	Draws the race using the given number of workers, writing the frames
+	 *	in order as they become available.
+	 *
+	 *	@param out    stream for raw frames, or <code>null</code> for images
+	 *	@param ppmDir directory for PPM images if not writing a stream
+	 */
+	private void export(int threads, OutputStream out, File ppmDir) throws IOException, InterruptedException {
+		simulate();
+		
+		/*
+		 *	Every worker draws a whole segment ahead of the one the writer
+		 *	is waiting on, so the window has to hold a segment per worker
+		 *	(otherwise all but the first couple would wait). That's a lot of
+		 *	frames at larger sizes, so there are only as many workers as the
+		 *	heap can hold segments for.
+		 */
+		int segmentFrames = getFrameAt(SEGMENT_TICKS) + 1;
+		long segmentBytes = (long) segmentFrames * w * h * 3;
+		int fit = (int) Math.max(Runtime.getRuntime().maxMemory() / 2 / segmentBytes, 1);
+		if (threads > fit) {
+			System.err.println("Only room for " + fit + " workers at this size");
+			threads = fit;
+		}
+		output = new ReorderBuffer(threads * segmentFrames + SLACK_FRAMES);
+		ExportWorker[] worker = new ExportWorker[threads];
+		for (int n = 0; n < threads; n++) {
+			worker[n] = new ExportWorker(this, recording, w, h);
+		}
+		for (int n = 0; n < threads; n++) {
+			worker[n].start();
+		}
+		
+		int frames = getFrameAt(recording.getTicks());
+		byte[] header = ("P6\n" + w + " " + h + "\n255\n").getBytes();
+		try {
+			for (int n = 0; n < frames; n++) {
+				byte[] data = output.take();
+				if (data == null) {
+					break;
+				}
+				if (out != null) {
+					out.write(data);
+				} else {
+					OutputStream ppm = new BufferedOutputStream(new FileOutputStream(new File(ppmDir, "frame" + (100000 + n + "").substring(1) + ".ppm")));
+					ppm.write(header);
+					ppm.write(data);
+					ppm.close();
+				}
+			}
+		} finally {
+			output.close();
+			for (int n = 0; n < threads; n++) {
+				worker[n].join();
+				if (worker[n].error != null) {
+					throw new IOException("Worker failed: " + worker[n].error);
+				}
+			}
+		}
+		if (out != null) {
+			out.flush();
+		}
+	}
+	
+	public void init(int maxLaps, int mapIdx, int playerIdx) {}
+	
+	public void setMapBlips(Vector2D[] kartPos, int numKarts) {}
+	
+	public void setStats(int time, int posn, int laps, int pick, int powrState, int powrPayout, int powrCharIdx) {}
+	
+	public void setBest(int best) {}
+	
+	/**
+	 *	Usage: <code>ReplayExport recording [-size WxH] [-fps n]
+	 *	[-renderer topdown|smooth|chunky] [-bkgnd n] [-threads n]
+	 *	[-out file|-ppm dir]</code>
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: ReplayExport recording [-size WxH] [-fps n] [-renderer topdown|smooth|chunky] [-bkgnd n] [-threads n] [-out file|-ppm dir]");
+			System.exit(1);
+		}
+		int w = 176;
+		int h = 208;
+		int fps = FRAMES_PER_SEC;
+		int renderer = RENDERER_MODE7_SMOOTH;
+		int bkgnd = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String outName = null;
+		File ppmDir = null;
+		for (int n = 1; n < args.length - 1; n += 2) {
+			String opt = args[n];
+			String val = args[n + 1];
+			if (opt.equals("-size")) {
+				int x = val.indexOf('x');
+				w = Integer.parseInt(val.substring(0, x));
+				h = Integer.parseInt(val.substring(x + 1));
+			} else if (opt.equals("-fps")) {
+				fps = Integer.parseInt(val);
+			} else if (opt.equals("-renderer")) {
+				if (val.equals("topdown")) {
+					renderer = RENDERER_TOPDOWN;
+				} else if (val.equals("chunky")) {
+					renderer = RENDERER_MODE7_CHUNKY;
+				} else {
+					renderer = RENDERER_MODE7_SMOOTH;
+				}
+			} else if (opt.equals("-bkgnd")) {
+				bkgnd = Integer.parseInt(val);
+			} else if (opt.equals("-threads")) {
+				threads = Math.max(Integer.parseInt(val), 1);
+			} else if (opt.equals("-out")) {
+				outName = val;
+			} else if (opt.equals("-ppm")) {
+				ppmDir = new File(val);
+				ppmDir.mkdirs();
+			}
+		}
+		
+		RaceRecording recording = new RaceRecording();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+		recording.load(in);
+		in.close();
+		
+		OutputStream out = null;
+		if (ppmDir == null) {
+			out = new BufferedOutputStream((outName == null) ? (OutputStream) System.out : new FileOutputStream(outName), 1 << 16);
+		}
+		long start = System.currentTimeMillis();
+		new ReplayExport(recording, w, h, fps, renderer, bkgnd).export(threads, out, ppmDir);
+		if (out != null && outName != null) {
+			out.close();
+		}
+		System.err.println("Exported " + recording.getTicks() + " ticks in " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,177 @@
+package numfum.j2me.jsr.tools;
+
+import java.io.*;
+
+import numfum.j2me.util.ByteDataInput;
+import numfum.j2me.util.PackedDataInput;
+
+/**
+ *	Packs resources with LZSS for the game to unpack as it reads them (see
+ *	<code>PackedDataInput</code>):
+ *
+ *	<pre>
+ *	java ResourcePacker [-d dir] ksb.dat 0.trk 1.trk...
+ *	</pre>
+ *
+ *	Resources not made any smaller by packing (mostly those already holding
+ *	compressed images) are written unchanged, the game reading either.
+ */
+public final class ResourcePacker {
+	/**
+	 *	Number of earlier matches tried at each position before settling for
+	 *	the longest found.
+	 */
+	private static final int MAX_CHAIN = 256;
+	
+	private ResourcePacker() {}
+	
+	/**
+	 *	Packs a resource, returning it with the header.
+	 */
+	static byte[] pack(byte[] src) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(src.length / 2);
+		writeInt(out, PackedDataInput.MAGIC);
+		writeInt(out, src.length);
+		
+		/*
+		 *	Chains of earlier positions starting with the same three bytes.
+		 */
+		int[] head = new int[1 << 16];
+		int[] prev = new int[src.length];
+		for (int n = 0; n < head.length; n++) {
+			head[n] = -1;
+		}
+		
+		byte[] group = new byte[1 + 8 * 2];
+		int groupLen = 1;
+		int items = 0;
+		int n = 0;
+		while (n < src.length) {
+			int bestLen = 0;
+			int bestOff = 0;
+			if (n + PackedDataInput.MIN_MATCH <= src.length) {
+				int chain = 0;
+				for (int m = head[hash(src, n)]; m >= 0 && n - m <= PackedDataInput.WINDOW_SIZE && chain < MAX_CHAIN; m = prev[m], chain++) {
+					int len = 0;
+					while (len < PackedDataInput.MAX_MATCH && n + len < src.length && src[m + len] == src[n + len]) {
+						len++;
+					}
+					if (len > bestLen) {
+						bestLen = len;
+						bestOff = n - m;
+						if (len == PackedDataInput.MAX_MATCH) {
+							break;
+						}
+					}
+				}
+			}
+			int step;
+			if (bestLen >= PackedDataInput.MIN_MATCH) {
+				int off = bestOff - 1;
+				group[groupLen++] = (byte) (off >> 4);
+				group[groupLen++] = (byte) ((off << 4) | (bestLen - PackedDataInput.MIN_MATCH));
+				step = bestLen;
+			} else {
+				group[0] |= 1 << items;
+				group[groupLen++] = src[n];
+				step = 1;
+			}
+			for (int end = n + step; n < end; n++) {
+				if (n + PackedDataInput.MIN_MATCH <= src.length) {
+					int h = hash(src, n);
+					prev[n] = head[h];
+					head[h] = n;
+				}
+			}
+			if (++items == 8) {
+				out.write(group, 0, groupLen);
+				group[0] = 0;
+				groupLen = 1;
+				items = 0;
+			}
+		}
+		if (items > 0) {
+			out.write(group, 0, groupLen);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 *	Returns a resource unpacked (or as is if it isn't packed).
+	 */
+	static byte[] unpack(byte[] data) throws IOException {
+		DataInput in = PackedDataInput.wrap(data, 0, data.length);
+		if (in instanceof ByteDataInput) {
+			return data;
+		}
+		byte[] raw = new byte[((PackedDataInput) in).available()];
+		in.readFully(raw);
+		return raw;
+	}
+	
+	private static int hash(byte[] src, int n) {
+		return ((src[n] & 0xFF) << 8 ^ (src[n + 1] & 0xFF) << 4 ^ (src[n + 2] & 0xFF)) & 0xFFFF;
+	}
+	
+	private static void writeInt(ByteArrayOutputStream out, int n) {
+		out.write(n >> 24);
+		out.write(n >> 16);
+		out.write(n >>  8);
+		out.write(n);
+	}
+	
+	static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+	
+	static void writeFile(File file, byte[] data) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 *	Usage: <code>ResourcePacker [-d dir] file...</code>
+	 */
+	public static void main(String[] args) throws Exception {
+		File outDir = new File("packed");
+		int first = 0;
+		if (args.length > 1 && args[0].equals("-d")) {
+			outDir = new File(args[1]);
+			first = 2;
+		}
+		if (first == args.length) {
+			System.err.println("Usage: ResourcePacker [-d dir] file...");
+			System.exit(1);
+		}
+		outDir.mkdirs();
+		for (int n = first; n < args.length; n++) {
+			File file = new File(args[n]);
+			byte[] raw = unpack(readFile(file));
+			byte[] packed = pack(raw);
+			if (packed.length < raw.length) {
+				byte[] check = unpack(packed);
+				for (int i = 0; i < raw.length; i++) {
+					if (check[i] != raw[i]) {
+						throw new IOException(file.getName() + ": unpacks differently at " + i);
+					}
+				}
+				writeFile(new File(outDir, file.getName()), packed);
+				System.err.println(file.getName() + ": " + raw.length + " -> " + packed.length + " bytes");
+			} else {
+				writeFile(new File(outDir, file.getName()), raw);
+				System.err.println(file.getName() + ": " + raw.length + " bytes, kept unpacked");
+			}
+		}
+	}
+}
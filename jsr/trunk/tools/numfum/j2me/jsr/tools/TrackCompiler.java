@@ -0,0 +1,317 @@
+package numfum.j2me.jsr.tools;
+
+import java.io.*;
+
+import numfum.j2me.jsr.Kart;
+import numfum.j2me.jsr.RaceChrome;
+import numfum.j2me.jsr.RaceCore;
+import numfum.j2me.jsr.TrackRenderer;
+import numfum.j2me.jsr.renderer.TrackRendererTopdown;
+import numfum.j2me.util.ByteDataInput;
+import numfum.j2me.util.PackedDataInput;
+import numfum.j2me.util.Vector2D;
+
+/**
+ *	Compiles tracks, replacing the quads and racing lines in each
+ *	<code>.trk</code> with the AI tables <code>RaceCore</code> would otherwise
+ *	build from them at load time (the quad map, the per-segment point
+ *	indices, the unit and scaled vectors, the distances around the track and
+ *	the track effects used). The rest of the file is copied as is, so a
+ *	compiled track loads in the game exactly as before, only without the
+ *	work.
+ *
+ *	<pre>
+ *	java TrackCompiler [-d dir] [-check] [-pack] [-bench] track.trk...
+ *	</pre>
+ *
+ *	Each track is checked as it's compiled: the quads and racing lines must
+ *	be within the limits the game allows, every racing line point must fall
+ *	inside a quad, and the whole file must be read with nothing left over.
+ *	The compiled track is then loaded back and its tables compared against
+ *	the originals. With <code>-check</code> the tracks are only checked.
+ *
+ *	With <code>-pack</code> the compiled tracks are also packed (see
+ *	<code>ResourcePacker</code>). <code>-bench</code> times loading each
+ *	track as it was, packed, compiled, and both compiled and packed.
+ *
+ *	This runs on the desktop, needing a MIDP implementation and the game's
+ *	resources (for the sprite data) on the class path.
+ */
+public final class TrackCompiler implements RaceChrome {
+	private final byte[][] kartProps = new byte[RaceCore.TOTAL_KARTS][Kart.TOTAL_PROPS];
+	
+	/**
+	 *	Renderer used for reading the track (the topdown renderer reads the
+	 *	same data as the others but with the least work).
+	 */
+	private final TrackRenderer track;
+	
+	private final RaceCore core;
+	
+	private TrackCompiler() throws IOException {
+		DataInput in = PackedDataInput.open("/ksb.dat");
+		if (in.readByte() != RaceCore.TOTAL_KARTS || in.readByte() != Kart.TOTAL_PROPS) {
+			throw new IOException("Dodgy kart data");
+		}
+		for (int n = 0; n < RaceCore.TOTAL_KARTS; n++) {
+			in.readFully(kartProps[n]);
+		}
+		track = new TrackRendererTopdown(176, 208, 0, in, true);
+		core  = new RaceCore(track, this, kartProps);
+	}
+	
+	/**
+	 *	Reads, checks and compiles a track.
+	 *
+	 *	@return the compiled track
+	 *	@throws IOException if the track data is invalid
+	 */
+	private byte[] compile(byte[] data) throws IOException {
+		data = ResourcePacker.unpack(data);
+		
+		/*
+		 *	The renderer's part of the track comes first, ending where the
+		 *	AI data starts.
+		 */
+		ByteDataInput in = new ByteDataInput(data);
+		track.load(in);
+		int start = in.getPosition();
+		
+		byte[] tables;
+		int end;
+		if (in.readUnsignedByte() == RaceCore.COMPILED) {
+			core.load(new ByteDataInput(data));
+			tables = getTables(core);
+			end = start + tables.length;
+		} else {
+			in = new ByteDataInput(data, start, data.length - start);
+			checkRacingLines(in);
+			end = in.getPosition();
+			
+			ByteDataInput all = new ByteDataInput(data);
+			core.load(all);
+			if (all.available() != 0) {
+				throw new IOException(all.available() + " bytes left over");
+			}
+			tables = getTables(core);
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+		out.write(data, 0, start);
+		out.write(tables);
+		out.write(data, end, data.length - end);
+		byte[] compiled = out.toByteArray();
+		
+		/*
+		 *	Loading the compiled track has to give the same tables.
+		 */
+		ByteDataInput check = new ByteDataInput(compiled);
+		core.load(check);
+		if (check.available() != 0) {
+			throw new IOException(check.available() + " bytes left over in compiled track");
+		}
+		byte[] loaded = getTables(core);
+		if (loaded.length != tables.length) {
+			throw new IOException("Compiled tables differ");
+		}
+		for (int n = 0; n < tables.length; n++) {
+			if (loaded[n] != tables[n]) {
+				throw new IOException("Compiled tables differ at " + n);
+			}
+		}
+		return compiled;
+	}
+	
+	/**
+	 *	Returns the compiled AI tables for the track loaded.
+	 */
+	private static byte[] getTables(RaceCore core) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(out);
+		core.saveCompiled(dos);
+		dos.flush();
+		return out.toByteArray();
+	}
+	
+	/**
+	 *	Reads through the quads and racing lines, checking they're within
+	 *	the game's limits and that every point is inside a quad.
+	 */
+	private static void checkRacingLines(DataInput in) throws IOException {
+		int numQuads = in.readUnsignedByte();
+		if (numQuads >= RaceCore.MAX_AI_SEGMENTS) {
+			throw new IOException("Too many quads: " + numQuads);
+		}
+		byte[] quadMap = new byte[TrackRenderer.MAP_ROWS * TrackRenderer.MAP_COLS];
+		for (int n = 0; n < quadMap.length; n++) {
+			quadMap[n] = -1;
+		}
+		Vector2D[] quad = new Vector2D[4];
+		for (int n = 0; n < numQuads; n++) {
+			for (int i = 0; i < 4; i++) {
+				quad[i] = readPoint(in, "Quad " + n);
+			}
+			Vector2D.fillQuad(quad, quadMap, TrackRenderer.MAP_COLS, TrackRenderer.MAP_ROWS, (byte) n, true);
+		}
+		
+		int numLines = RaceCore.NUM_RACING_LINES + 1;
+		int numMarkerSections = in.readUnsignedByte();
+		if (numMarkerSections > numLines) {
+			throw new IOException("Too many marker sections: " + numMarkerSections);
+		}
+		int[] markers = new int[numMarkerSections];
+		for (int n = 0; n < numMarkerSections; n++) {
+			markers[n] = in.readByte();
+			if (markers[n] < 0 || markers[n] > RaceCore.MAX_AI_MARKERS) {
+				throw new IOException("Too many markers in section " + n + ": " + markers[n]);
+			}
+			in.skipBytes(markers[n]);
+		}
+		
+		if (in.readUnsignedByte() != numLines) {
+			throw new IOException("Expected " + numLines + " racing lines");
+		}
+		for (int i = 0; i < numLines; i++) {
+			int points = in.readUnsignedByte();
+			if (points < 2 || points >= RaceCore.MAX_AI_POINTS) {
+				throw new IOException("Line " + i + " has " + points + " points");
+			}
+			for (int n = 0; n < points; n++) {
+				Vector2D p = readPoint(in, "Line " + i + " point " + n);
+				if (quadMap[p.y * TrackRenderer.MAP_COLS + p.x] < 0) {
+					throw new IOException("Line " + i + " point " + n + " (" + p.x + ", " + p.y + ") isn't in a quad");
+				}
+			}
+		}
+	}
+	
+	/**
+	 *	Reads a point, checking it's on the map.
+	 */
+	private static Vector2D readPoint(DataInput in, String what) throws IOException {
+		int x = in.readUnsignedByte();
+		int y = in.readUnsignedByte();
+		if (x >= TrackRenderer.MAP_COLS || y >= TrackRenderer.MAP_ROWS) {
+			throw new IOException(what + " (" + x + ", " + y + ") is off the map");
+		}
+		Vector2D p = new Vector2D();
+		p.set(x, y);
+		return p;
+	}
+	
+	/**
+	 *	Prints the time to load a track in each form, averaged over the
+	 *	quickest of several rounds (the forms taking turns, so anything else
+	 *	running slows them all alike).
+	 */
+	private void bench(String name, byte[] original, byte[] compiled) throws IOException {
+		original = ResourcePacker.unpack(original);
+		byte[][] form = {
+			original,
+			ResourcePacker.pack(original),
+			compiled,
+			ResourcePacker.pack(compiled)
+		};
+		String[] label = {"raw", "packed", "compiled", "compiled+packed"};
+		
+		/*
+		 *	The track loading debug output would be timed as well.
+		 */
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		long[] best = new long[form.length];
+		try {
+			for (int i = 0; i < form.length; i++) {
+				for (int n = 0; n < BENCH_WARMUP; n++) {
+					core.load(PackedDataInput.wrap(form[i], 0, form[i].length));
+				}
+				best[i] = Long.MAX_VALUE;
+			}
+			for (int round = 0; round < BENCH_ROUNDS; round++) {
+				for (int i = 0; i < form.length; i++) {
+					long start = System.nanoTime();
+					for (int n = 0; n < BENCH_LOADS; n++) {
+						core.load(PackedDataInput.wrap(form[i], 0, form[i].length));
+					}
+					best[i] = Math.min(best[i], (System.nanoTime() - start) / BENCH_LOADS);
+				}
+			}
+		} finally {
+			System.setOut(stdout);
+		}
+		for (int i = 0; i < form.length; i++) {
+			System.err.println(name + " " + label[i] + ": " + form[i].length + " bytes, " + (best[i] / 1000) + "us per load");
+		}
+	}
+	
+	public void init(int maxLaps, int mapIdx, int playerIdx) {}
+	
+	public void setMapBlips(Vector2D[] kartPos, int numKarts) {}
+	
+	public void setStats(int time, int posn, int laps, int pick, int powrState, int powrPayout, int powrCharIdx) {}
+	
+	public void setBest(int best) {}
+	
+	/**
+	 *	Loads timed per round (after the warm up) for the benchmark, and the
+	 *	number of rounds.
+	 */
+	private static final int BENCH_WARMUP = 50;
+	private static final int BENCH_LOADS  = 100;
+	private static final int BENCH_ROUNDS = 20;
+	
+	/**
+	 *	Usage: <code>TrackCompiler [-d dir] [-check] [-pack] [-bench]
+	 *	track.trk...</code>
+	 */
+	public static void main(String[] args) throws Exception {
+		File outDir = new File("compiled");
+		boolean checkOnly = false;
+		boolean pack = false;
+		boolean bench = false;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-d") && first + 1 < args.length) {
+				outDir = new File(args[++first]);
+			} else if (args[first].equals("-check")) {
+				checkOnly = true;
+			} else if (args[first].equals("-pack")) {
+				pack = true;
+			} else if (args[first].equals("-bench")) {
+				bench = true;
+			}
+			first++;
+		}
+		if (first == args.length) {
+			System.err.println("Usage: TrackCompiler [-d dir] [-check] [-pack] [-bench] track.trk...");
+			System.exit(1);
+		}
+		if (!checkOnly) {
+			outDir.mkdirs();
+		}
+		
+		TrackCompiler compiler = new TrackCompiler();
+		int failed = 0;
+		for (int n = first; n < args.length; n++) {
+			File file = new File(args[n]);
+			try {
+				byte[] data = ResourcePacker.readFile(file);
+				byte[] compiled = compiler.compile(data);
+				if (!checkOnly) {
+					byte[] out = pack ? ResourcePacker.pack(compiled) : compiled;
+					ResourcePacker.writeFile(new File(outDir, file.getName()), out);
+					System.err.println(file.getName() + ": " + data.length + " -> " + out.length + " bytes");
+				}
+				if (bench) {
+					compiler.bench(file.getName(), data, compiled);
+				}
+			} catch (IOException e) {
+				System.err.println(file.getName() + ": " + e.getMessage());
+				failed++;
+			}
+		}
+		if (failed > 0) {
+			System.exit(2);
+		}
+	}
+}